@@ -1,5 +1,6 @@
 package com.RoboWars;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Observable;
 
@@ -8,8 +9,10 @@ import android.util.Log;
 import robowars.shared.model.GameEntity;
 import robowars.shared.model.GameModel;
 import robowars.shared.model.GameRobot;
+import robowars.shared.model.GameSnapshot;
 import robowars.shared.model.Obstacle;
 import robowars.shared.model.Projectile;
+import robowars.shared.model.SnapshotReceiver;
 
 public class ClientGameModel extends Observable
 {
@@ -22,6 +25,9 @@ public class ClientGameModel extends Observable
 	private ArrayList<Obstacle> wallLocations;		// Contains locations of the walls.
 	private ArrayList<Projectile> projectiles;		
 	
+	/* Rebuilds game entities from the snapshots sent by the server. */
+	private SnapshotReceiver snapshots;
+	
 	/**
 	 * Default constructor.
 	 */
@@ -30,6 +36,7 @@ public class ClientGameModel extends Observable
 		playerList = new ArrayList<GameRobot>();
 		wallLocations = new ArrayList<Obstacle>();
 		projectiles = new ArrayList<Projectile>();
+		snapshots = new SnapshotReceiver();
 		
 		gameInProgress = false;
 	}
@@ -59,6 +66,7 @@ public class ClientGameModel extends Observable
 	 */
 	public void endGame(GameModel serverGameModel) {
 		gameInProgress = false;
+		snapshots.reset();
 		setChanged();
 		notifyObservers(serverGameModel);
 	}
@@ -69,6 +77,39 @@ public class ClientGameModel extends Observable
 		notifyObservers(serverGameModel);
 	}
 	
+	/**
+	 * Updates the robots, walls and projectiles from a game state snapshot.
+	 * 
+	 * @param data	The encoded snapshot received from the server.
+	 * @return	The sequence number of the snapshot, or -1 if it could not be decoded.
+	 */
+	public int applySnapshot(byte data[]) {
+		GameSnapshot snapshot;
+		try {
+			snapshot = snapshots.receive(data);
+		} catch (IOException e) {
+			Log.e("RoboWars", "Could not decode game snapshot: " + e.getMessage());
+			return -1;
+		}
+		
+		synchronized(this) {
+			playerList.clear();
+			wallLocations.clear();
+			projectiles.clear();
+			for (GameEntity e : snapshots.getEntities())
+			{
+				if (e instanceof GameRobot) playerList.add((GameRobot)e);
+				else if (e instanceof Projectile) projectiles.add((Projectile)e);
+				else if (e instanceof Obstacle) wallLocations.add((Obstacle)e);
+			}
+		}
+		gameInProgress = true;
+		
+		setChanged();
+		notifyObservers(snapshot);
+		return snapshot.getSequence();
+	}
+	
 	public ArrayList<GameRobot> getRobots() { return playerList; }
 	public ArrayList<Obstacle> getObstacles() { return wallLocations; }
 	public ArrayList<Projectile> getProjectiles() { return projectiles; }
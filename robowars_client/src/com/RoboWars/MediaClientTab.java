@@ -1,7 +1,5 @@
 package com.RoboWars;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -11,14 +9,16 @@ import android.graphics.BitmapFactory;
 import android.util.Log;
 import android.widget.TextView;
 
+import robowars.server.controller.ClientCommand;
+import robowars.server.controller.MediaFrameAssembler;
+
 /**
  * Establishes a connection to the media server and streams video frames 
- * to the Android client for the TAB VIEW.
+ * to the Android client for the TAB VIEW. The number of frames lost is
+ * periodically reported to the server, which lowers the quality of the
+ * stream when frames are being lost.
  */
 public class MediaClientTab {
-	/** Size of the buffer for incoming image frames (in bytes) **/
-	public static int IMG_BUFFER_SIZE = 32768;
-	
 	/** Size of the buffer used for individual incoming packets (in bytes) */
 	public static int PACKET_BUFFER_SIZE = 8192;
 	
@@ -34,6 +34,9 @@ public class MediaClientTab {
 	/** Thread used to reassemble incoming image data */
 	private DecoderThread decodeThread;
 	
+	/** Connection used to send reception reports to the server */
+	private TcpClient tcp;
+	
 	/**
 	 * Generates a new MediaClient and sets the input fields to their default values.
 	 * @param mediaView	The view that images read from the network should be rendered to
@@ -46,6 +49,7 @@ public class MediaClientTab {
 		this.statusView = statusView;
 		mediaSocket = null;
 		decodeThread = null;
+		tcp = null;
 		statusView.setText("Streaming player initialized.");
 	}
 	
@@ -57,8 +61,11 @@ public class MediaClientTab {
 	 * to crash the app
 	 * 
 	 * @param port	The port to listen for packets on.
+	 * @param tcp	The connection to send reception reports to the server on
 	 */
-	public void launchMediaStream(int port) {
+	public void launchMediaStream(int port, TcpClient tcp) {
+		this.tcp = tcp;
+		
 		if(mediaSocket != null) {
 			mediaSocket.close();
 			mediaSocket = null;
@@ -86,9 +93,6 @@ public class MediaClientTab {
 		/** The socket to read incoming packets from */
 		private DatagramSocket readSocket;
 		
-		/** Buffer to hold incoming image data */
-		private byte[] imageBuffer;
-		
 		/** Buffer to hold data from individual packets */
 		private byte[] packetBuffer;
 		
@@ -98,6 +102,9 @@ public class MediaClientTab {
 		/** ImageStreamView that images decoded by the thread should be rendered to */
 		private ImageStreamView mediaView;
 		
+		/** Counts received and lost frames for reception reports */
+		private MediaReceptionStats stats;
+		
 		/**
 		 * Generates a new DecoderThread
 		 * @param readSocket	The socket to read packets from
@@ -107,8 +114,8 @@ public class MediaClientTab {
 			this.readSocket = readSocket;
 			this.mediaView = mediaView;
 			terminationFlag = false;
-			imageBuffer = new byte[IMG_BUFFER_SIZE];
 			packetBuffer = new byte[PACKET_BUFFER_SIZE];
+			stats = new MediaReceptionStats();
 		}
 		
 		/**
@@ -125,16 +132,11 @@ public class MediaClientTab {
 		 */
 		public void run() {
 			Bitmap image = null;
-			int expectedFrame = 0;
-			int expectedSegment = 0;
-			int offset = 0;
-			int readLength = 0;
-			int totalRead = 0;
 			
-			// Flag that should be set when further data from the same frame
-			// should be ignored (i.e. when a packet was dropped or received
-			// out of order)
-			boolean error = false;
+			// Reassembles frames from packets received in any order, rebuilding
+			// single lost packets from parity packets
+			MediaFrameAssembler assembler = new MediaFrameAssembler();
+			long framesLost = 0;
 			
 			while(!terminationFlag) {
 				
@@ -153,71 +155,41 @@ public class MediaClientTab {
 					continue;
 				}
 				
-				try {
-					ByteArrayInputStream byteInput = new ByteArrayInputStream(packetBuffer);
-					DataInputStream readData = new DataInputStream(byteInput);
-					
-					// Read the frame number (should be either 1 or 0)
-					int frameNum = readData.readInt();
-					int segmentNum = readData.readInt();
-					boolean lastSegment = readData.readBoolean();
-					// Log.d("RoboWars", "Read packet, frame#: " + frameNum + "  seg#: " + segmentNum
-					//		+ "   lastSegment: " + lastSegment + "   length: " + recvPacket.getLength());
-					
-					if(segmentNum == 0) {
-						// This is the first packet of a new frame
-						expectedFrame = frameNum;
-						expectedSegment = segmentNum + 1;
-						offset = 0;
-						totalRead = 0;
-						error = false;
-					} else if (frameNum != expectedFrame) {
-						// A packet has been received for an unexpected frame number.
-						// This could just be old packet arriving out of order, ignore it
-						continue;
-					} else if (frameNum == expectedFrame && segmentNum == expectedSegment) {
-						// Valid packet arriving in order
-						expectedSegment = segmentNum + 1;
-					} else if (frameNum == expectedFrame && segmentNum != expectedSegment) {
-						// Packet arrived out of order for a frame that has already been
-						// partially transmitted. Mark an error, and ignore further
-						// packets until the next frame is sent
-						error = true;
-					}
-					
-					if(!error) {
-						// Read the image data from the packet to the image buffer
-						
-						// (-5) -> Already read 2 ints (4 bytes each) and a boolean (1 byte)
-						// Log.d("RoboWars", "Copying data, offset: " + offset + "   length: " + (recvPacket.getLength() - 9));
-						readLength = byteInput.read(imageBuffer, offset, recvPacket.getLength() - 9);
-						offset += readLength;
-						totalRead += readLength;
-						
-						// If the last segment flag was set, try to decode the received data
-						if(lastSegment) {
-							long preDecode = System.currentTimeMillis();
-							image = BitmapFactory.decodeByteArray(imageBuffer, 0, totalRead);
-							
-							if(image == null) {
-								// Happens when only partial data is available, ignore for now
-							} else {
-								// Log.d("RoboWars", "Decoding took: " + (System.currentTimeMillis() - preDecode)
-								//		+ " ms.");
-								mediaView.setImage(image);
-							}
-						}
+				boolean complete = assembler.addPacket(packetBuffer, recvPacket.getLength());
+				
+				// Frames skipped by the assembler could not be reassembled (these
+				// are counted even if no frame completes, e.g. under heavy loss)
+				for(; framesLost < assembler.getFramesLost(); framesLost++) {
+					stats.frameLost();
+				}
+				
+				if(complete) {
+					image = BitmapFactory.decodeByteArray(assembler.getFrameData(), 0,
+							assembler.getFrameLength());
+					if(image == null) {
+						stats.frameLost();
+					} else {
+						stats.frameReceived();
+						mediaView.setImage(image);
 					}
-					
-					Thread.yield();
-				} catch (IOException e) {
-					Log.e("RoboWars", "Error reading incoming media packet, skipping.");
-					error = true;
-					e.printStackTrace();
 				}
+				sendReport();
+				
+				Thread.yield();
 			}
 			
 			mediaSocket.close();
 		}
+		
+		/**
+		 * Sends a reception report to the server if one is due.
+		 */
+		private void sendReport() {
+			if(tcp == null) return;
+			ClientCommand report = stats.getReport();
+			if(report != null) {
+				tcp.sendClientCommand(report);
+			}
+		}
 	}
 }
@@ -0,0 +1,62 @@
+package com.RoboWars;
+
+import robowars.server.controller.ClientCommand;
+
+/**
+ * Counts the video frames received and lost by the media client, and
+ * periodically generates a report for the server so that it can adjust the
+ * quality of the video stream.
+ */
+public class MediaReceptionStats {
+	/** The minimum interval between reports (in ms) */
+	public static final long REPORT_INTERVAL = 2000;
+	
+	/** The number of frames successfully decoded since the last report */
+	private int framesReceived;
+	
+	/** The number of frames lost since the last report */
+	private int framesLost;
+	
+	/** The time at which the last report was generated */
+	private long lastReport;
+	
+	public MediaReceptionStats() {
+		framesReceived = 0;
+		framesLost = 0;
+		lastReport = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Records a frame that was completely received and decoded.
+	 */
+	public void frameReceived() {
+		framesReceived++;
+	}
+	
+	/**
+	 * Records a frame that could not be displayed (segments that were lost
+	 * and could not be rebuilt, or decoding failure).
+	 */
+	public void frameLost() {
+		framesLost++;
+	}
+	
+	/**
+	 * Generates a report of the frames lost since the last report, and resets
+	 * the counts.
+	 * @return	A MEDIA_REPORT command, or null if a report is not yet due (or
+	 * 			no frames have been seen since the last report)
+	 */
+	public ClientCommand getReport() {
+		long now = System.currentTimeMillis();
+		int total = framesReceived + framesLost;
+		if(now < lastReport + REPORT_INTERVAL || total == 0) return null;
+		
+		ClientCommand report = new ClientCommand(ClientCommand.MEDIA_REPORT);
+		report.setIntData((framesLost * 100) / total);
+		framesReceived = 0;
+		framesLost = 0;
+		lastReport = now;
+		return report;
+	}
+}
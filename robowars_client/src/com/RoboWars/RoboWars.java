@@ -12,6 +12,7 @@ import com.RoboWars.opengl.mesh.SimplePlane;
 import robowars.server.controller.ClientCommand;
 import robowars.shared.model.GameEntity;
 import robowars.shared.model.GameModel;
+import robowars.shared.model.GameSnapshot;
 import robowars.shared.model.Obstacle;
 import robowars.shared.model.Posture;
 import robowars.shared.model.Vector;
@@ -242,7 +243,7 @@ public class RoboWars extends Activity implements SensorEventListener, Observer
 	        	tcp = new TcpClient(lobbyModel, gameModel);
 	        	tcp.connect(address, portNumber);
 	        	
-				mediaClient.launchMediaStream(portNumber + 1);
+				mediaClient.launchMediaStream(portNumber + 1, tcp);
 	        	break;
 	        
 	        /* Send button. */
@@ -347,7 +348,7 @@ public class RoboWars extends Activity implements SensorEventListener, Observer
 	public void update(Observable observable, Object data)
 	{
 		// OpenGL change.
-		if (data instanceof GameModel)
+		if (data instanceof GameModel || data instanceof GameSnapshot)
 		{
 			// Check if the game finished. If so, stop the game.
 			if (!gameModel.gameInProgress()) {
@@ -1,8 +1,9 @@
 package com.RoboWars;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
@@ -11,10 +12,12 @@ import robowars.server.controller.LobbyChatEvent;
 import robowars.server.controller.LobbyGameEvent;
 import robowars.server.controller.LobbyRobotEvent;
 import robowars.server.controller.LobbyUserEvent;
+import robowars.server.controller.MessageFrame;
 import robowars.server.controller.ServerLobbyEvent;
 import robowars.shared.model.CameraPosition;
 import robowars.shared.model.GameEvent;
 import robowars.shared.model.GameModel;
+import robowars.shared.model.GameSnapshotEvent;
 import android.util.Log;
 
 /**
@@ -33,8 +36,8 @@ public class TcpClient extends Thread
 	
 	/* Server information. */
 	private Socket socket;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
+    private DataInputStream in;
+    private DataOutputStream out;
     private boolean connected;
 	private String IPAddress;
 	private int port;
@@ -61,7 +64,7 @@ public class TcpClient extends Thread
         /* Run forever, handling incoming messages. */
         try {
         	while (true) {
-        		response = in.readObject();
+        		response = MessageFrame.read(in);
         		if(response == null) break;
         		
         		// Log.i("RoboWars", "Read object.");
@@ -71,6 +74,8 @@ public class TcpClient extends Thread
         		} else if (response instanceof ServerLobbyEvent) {
         			Log.i("RoboWars", "Read lobby event.");
         			handle((ServerLobbyEvent)response);
+        		} else if (response instanceof GameSnapshotEvent) {
+        			handle((GameSnapshotEvent)response);
         		} else if (response instanceof GameEvent) {
         			Log.i("RoboWars", "Read game event.");
         			//handle((GameEvent)response);
@@ -108,8 +113,8 @@ public class TcpClient extends Thread
 		printMessage(LobbyModel.EVENT, "Connecting...");
 		try {
             socket = new Socket(IPAddress, port);
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
+            out = new DataOutputStream(socket.getOutputStream());
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
             
             connected = true;
             
@@ -126,7 +131,7 @@ public class TcpClient extends Thread
 	}
 	
 	/**
-	 * Sends a string to the server in UTF format. This should only be used
+	 * Sends a string to the server as a single message frame. This should only be used
 	 * for the connection handshake (protocol string and username), as all
 	 * further communication should used RoboWars protocol 
 	 * (Serialized ServerLobbyEvents and ClientCommands).
@@ -138,8 +143,7 @@ public class TcpClient extends Thread
 		if (connected) {
 				synchronized(out) {
 				try {
-					out.writeUTF(message);
-					out.reset();
+					MessageFrame.write(out, message);
 				} catch (IOException e) {
 					// TODO: Properly log / notify user of error
 					e.printStackTrace();
@@ -158,8 +162,7 @@ public class TcpClient extends Thread
 		if (connected) {
 			synchronized(out) {
 				try {
-					out.writeObject(cmd);
-					out.reset();
+					MessageFrame.write(out, cmd);
 				} catch (IOException e) {
 					// TODO: Properly log / notify user of error
 					e.printStackTrace();
@@ -210,6 +213,22 @@ public class TcpClient extends Thread
 		
 	}
 	
+	/**
+	 * Applies a game state snapshot to the game model, and acknowledges it
+	 * so the server can send later snapshots as changes relative to it.
+	 * 
+	 * @param event		The snapshot event being passed in.
+	 */
+	private void handle(GameSnapshotEvent event)
+	{
+		int sequence = gameModel.applySnapshot(event.getData());
+		if (sequence < 0) return;
+		
+		ClientCommand ack = new ClientCommand(ClientCommand.SNAPSHOT_ACK);
+		ack.setIntData(sequence);
+		sendClientCommand(ack);
+	}
+	
 	/**
 	 * Handles TCP packets as they arrive regarding lobby events.
 	 * 
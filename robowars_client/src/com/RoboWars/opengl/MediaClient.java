@@ -1,11 +1,11 @@
 package com.RoboWars.opengl;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 
+import robowars.server.controller.MediaFrameAssembler;
+
 import com.RoboWars.RoboWars;
 
 import android.graphics.Bitmap;
@@ -17,9 +17,6 @@ import android.util.Log;
  * Android client for the OPENGL game.
  */
 public class MediaClient {
-	/** Size of the buffer for incoming image frames (in bytes) **/
-	public static int IMG_BUFFER_SIZE = 32768;
-
 	/** Size of the buffer used for individual incoming packets (in bytes) */
 	public static int PACKET_BUFFER_SIZE = 8192;
 
@@ -90,9 +87,6 @@ public class MediaClient {
 		/** The socket to read incoming packets from */
 		private final DatagramSocket readSocket;
 
-		/** Buffer to hold incoming image data */
-		private final byte[] imageBuffer;
-
 		/** Buffer to hold data from individual packets */
 		private final byte[] packetBuffer;
 
@@ -117,7 +111,6 @@ public class MediaClient {
 			this.readSocket = readSocket;
 			this.view = view2;
 			terminationFlag = false;
-			imageBuffer = new byte[IMG_BUFFER_SIZE];
 			packetBuffer = new byte[PACKET_BUFFER_SIZE];
 		}
 
@@ -134,16 +127,10 @@ public class MediaClient {
 		 */
 		public void run() {
 			Bitmap image = null;
-			int expectedFrame = 0;
-			int expectedSegment = 0;
-			int offset = 0;
-			int readLength = 0;
-			int totalRead = 0;
 
-			// Flag that should be set when further data from the same frame
-			// should be ignored (i.e. when a packet was dropped or received
-			// out of order)
-			boolean error = false;
+			// Reassembles frames from packets received in any order,
+			// rebuilding single lost packets from parity packets
+			MediaFrameAssembler assembler = new MediaFrameAssembler();
 
 			while (!terminationFlag) {
 
@@ -158,86 +145,20 @@ public class MediaClient {
 					continue;
 				}
 
-				try {
-					ByteArrayInputStream byteInput = new ByteArrayInputStream(
-							packetBuffer);
-					DataInputStream readData = new DataInputStream(byteInput);
-
-					// Read the frame number (should be either 1 or 0)
-					int frameNum = readData.readInt();
-					int segmentNum = readData.readInt();
-					boolean lastSegment = readData.readBoolean();
-					// Log.d("RoboWars", "Read packet, frame#: " + frameNum +
-					// "  seg#: " + segmentNum
-					// + "   lastSegment: " + lastSegment + "   length: " +
-					// recvPacket.getLength());
-
-					if (segmentNum == 0) {
-						// This is the first packet of a new frame
-						expectedFrame = frameNum;
-						expectedSegment = segmentNum + 1;
-						offset = 0;
-						totalRead = 0;
-						error = false;
-					} else if (frameNum != expectedFrame) {
-						// A packet has been received for an unexpected frame
-						// number.
-						// This could just be old packet arriving out of order,
-						// ignore it
-						continue;
-					} else if (frameNum == expectedFrame
-							&& segmentNum == expectedSegment) {
-						// Valid packet arriving in order
-						expectedSegment = segmentNum + 1;
-					} else if (frameNum == expectedFrame
-							&& segmentNum != expectedSegment) {
-						// Packet arrived out of order for a frame that has
-						// already been
-						// partially transmitted. Mark an error, and ignore
-						// further
-						// packets until the next frame is sent
-						error = true;
-					}
+				if (assembler.addPacket(packetBuffer, recvPacket.getLength())) {
+					image = BitmapFactory.decodeByteArray(
+							assembler.getFrameData(), 0,
+							assembler.getFrameLength());
 
-					if (!error) {
-						// Read the image data from the packet to the image
-						// buffer
-
-						// (-5) -> Already read 2 ints (4 bytes each) and a
-						// boolean (1 byte)
-						// Log.d("RoboWars", "Copying data, offset: " + offset +
-						// "   length: " + (recvPacket.getLength() - 9));
-						readLength = byteInput.read(imageBuffer, offset,
-								recvPacket.getLength() - 9);
-						offset += readLength;
-						totalRead += readLength;
-
-						// If the last segment flag was set, try to decode the
-						// received data
-						if (lastSegment) {
-							long preDecode = System.currentTimeMillis();
-							image = BitmapFactory.decodeByteArray(imageBuffer,
-									0, totalRead);
-
-							if (image == null) {
-								// Happens when only partial data is available,
-								// ignore for now
-							} else {
-								// Log.d("RoboWars", "Decoding took: " +
-								// (System.currentTimeMillis() - preDecode)
-								// + " ms.");
-								view.setVideoImage(Bitmap.createScaledBitmap(
-										image, 512, 512, false));
-							}
-						}
-
-						Thread.yield();
+					if (image == null) {
+						// Corrupt image data, ignore for now
+					} else {
+						view.setVideoImage(Bitmap.createScaledBitmap(image,
+								512, 512, false));
 					}
-				} catch (IOException e) {
-					Log.e("RoboWars",
-							"Error reading incoming media packet, skipping.");
-					error = true;
 				}
+
+				Thread.yield();
 			}
 
 			mediaSocket.close();
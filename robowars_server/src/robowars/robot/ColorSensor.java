@@ -5,6 +5,8 @@ import java.io.IOException;
 import lejos.nxt.ColorLightSensor;
 import lejos.nxt.SensorPort;
 import lejos.robotics.Pose;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Vector;
 
@@ -19,10 +21,12 @@ import lejos.robotics.Colors.Color;
 
 public class ColorSensor implements Runnable{
 	private ColorLightSensor sensor;
-	private RobotMap map;
+	private volatile RobotMap map;
 	private LejosOutputStream output;
 	private RobotMovement move;
 	private static final float ROBOT_RADIUS=10;
+	/** File in flash memory that the last map received from the server is cached in */
+	public static final String MAP_FILE="robowars.map";
 	private boolean test;
 	public ColorSensor(LejosOutputStream output, RobotMovement move) {
 		this(output, move, false);
@@ -31,7 +35,7 @@ public class ColorSensor implements Runnable{
 		sensor=new ColorLightSensor(SensorPort.S1, ColorLightSensor.TYPE_COLORFULL);
 		sensor.setFloodlight(true);
 		sensor.setType(ColorLightSensor.TYPE_COLORFULL);
-		this.map=generate(21,21,(float) 6.35);
+		this.map=loadMap();
 		this.output=output;
 		this.move=move;
 		this.test=test;
@@ -71,7 +75,7 @@ public class ColorSensor implements Runnable{
             		dy=-(float) (ROBOT_RADIUS*Math.cos(heading));
             	}
             	MapPoint point=map.getPoint(p.getX()+dx, p.getY()+dy, p.getHeading(), color);
-            	move.setPos(new Pose(point.getX()-dx, point.getY()-dy,p.getHeading()));
+            	if(point!=null)move.setPos(new Pose(point.getX()-dx, point.getY()-dy,p.getHeading()));
             }		
 		}
 		/*TEST MODE*/
@@ -92,6 +96,40 @@ public class ColorSensor implements Runnable{
 			}
 		}
 	}
+	//Loads the cached map, or generates the default map if none is cached
+	private static RobotMap loadMap(){
+		File file=new File(MAP_FILE);
+		if(file.exists()){
+			RobotMap cached=new RobotMap(file);
+			if(cached.size()>0){
+				System.out.println("Map Loaded");
+				return cached;
+			}
+		}
+		return generate(21,21,(float) 6.35);
+	}
+	/** @return the map used to correct the robot's position */
+	public RobotMap getMap(){
+		return map;
+	}
+	/**
+	 * Replaces the map used to correct the robot's position, and caches it
+	 * in flash memory so it does not need to be sent again.
+	 * @param newMap
+	 */
+	public void setMap(RobotMap newMap){
+		map=newMap;
+		try {
+			File file=new File(MAP_FILE);
+			if(file.exists())file.delete();
+			file.createNewFile();
+			LejosOutputStream out=new LejosOutputStream(new FileOutputStream(file));
+			out.writeObject(newMap);
+			out.close();
+		} catch (IOException e) {
+			System.out.println("Map save fail");
+		}
+	}
 	//Generates a local copy of the RobotMap
 	public static RobotMap generate(int rows, int cols, float space){
 		int ROWS=rows;
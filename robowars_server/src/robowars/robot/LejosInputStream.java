@@ -34,19 +34,210 @@ import lejos.robotics.Pose;
 
 public class LejosInputStream {
 	private InputStream in;
+	
+	/** Buffer the payload of binary frames is read into (grown for large maps) */
+	private byte[] payload;
+	
+	/** The map being assembled from chunks (null if none) */
+	private RobotMap pendingMap;
+	/** The version of the map being assembled */
+	private int pendingVersion;
+	/** The index of the next chunk expected for the map being assembled */
+	private int nextChunk;
 
 	public LejosInputStream(InputStream in){
 		this.in=in;
+		payload=new byte[64];
 	}
 	/**
-	 * Function to return the object from the stream.
-	 * @return received object
+	 * Function to return the object from the stream. Binary frames (see
+	 * LejosProtocol) and older text messages are both accepted. Maps are only
+	 * returned once all their chunks have been read, and map versions sent
+	 * by the robot are returned as Integers.
+	 * @return received object, or null at the end of the stream
 	 * @throws IOException
 	 */
 	public synchronized Object readObject() throws IOException{
-		int input=in.read();
-		//System.out.println("READ STARTING FROM NXT: " + (char)input);
+		while(true){
+			int input=in.read();
+			//System.out.println("READ STARTING FROM NXT: " + (char)input);
+			if(input==-1) return null;
+			if(input!=LejosProtocol.SYNC) return readLegacyObject(input);
+			
+			Object o=readFrame();
+			if(o!=null) return o;
+		}
+	}
+	/**
+	 * Reads the rest of a binary frame, after its SYNC byte.
+	 * @return received object (a plain Object if the frame was corrupted
+	 * or of an unknown type, null if it was part of an incomplete map)
+	 * @throws IOException
+	 */
+	private Object readFrame() throws IOException{
+		int type=readByte();
+		int high=readByte();
+		int low=readByte();
+		int length=(high<<8)|low;
+		if(payload.length<length){
+			payload=new byte[length];
+		}
+		readFully(payload, length);
+		
+		int sum=type^high^low^LejosProtocol.checksum(payload, 0, length);
+		if(readByte()!=sum){
+			System.out.println("READ CHECKSUM MISMATCH");
+			return new Object();
+		}
+		
+		if(type==LejosProtocol.TYPE_COMMAND){
+			return readCommand(length);
+		}
+		else if(type==LejosProtocol.TYPE_POSE){
+			return readPose(0);
+		}
+		else if(type==LejosProtocol.TYPE_MAP){
+			RobotMap map=new RobotMap();
+			int count=LejosProtocol.getShort(payload, 0)&0xFFFF;
+			int i=2;
+			for(int p=0; p<count; p++){
+				map.addPoint(new MapPoint(LejosProtocol.getFloat(payload, i),
+						LejosProtocol.getFloat(payload, i+4), payload[i+8]&0xFF));
+				i+=LejosProtocol.MAP_POINT_LENGTH;
+			}
+			return map;
+		}
+		else if(type==LejosProtocol.TYPE_MAP_CHUNK){
+			return readMapChunk(length);
+		}
+		else if(type==LejosProtocol.TYPE_MAP_VERSION){
+			return Integer.valueOf(LejosProtocol.getInt(payload, 0));
+		}
+		else if(type==LejosProtocol.TYPE_COLOR){
+			Vector<Integer> v=new Vector<Integer>();
+			v.addElement(LejosProtocol.getShort(payload, 0));
+			v.addElement(LejosProtocol.getShort(payload, 2));
+			v.addElement(LejosProtocol.getShort(payload, 4));
+			return v;
+		}
+		System.out.println("READ TYPE UNRECOGNIZED");
+		return new Object();
+	}
+	/**
+	 * Adds the points of a map chunk to the map being assembled.
+	 * @param length	The length of the payload
+	 * @return the map if this was its last chunk, a plain Object if the map
+	 * could not be assembled, or null if more chunks are expected
+	 */
+	private Object readMapChunk(int length){
+		int version=LejosProtocol.getInt(payload, 0);
+		int chunk=LejosProtocol.getShort(payload, 4)&0xFFFF;
+		int chunks=LejosProtocol.getShort(payload, 6)&0xFFFF;
+		if(chunk==0){
+			pendingMap=new RobotMap();
+			pendingVersion=version;
+			nextChunk=0;
+		}
+		//remaining chunks of a map that was dropped
+		if(pendingMap==null) return null;
+		if(chunk!=nextChunk||version!=pendingVersion){
+			System.out.println("MAP CHUNK OUT OF ORDER");
+			pendingMap=null;
+			return new Object();
+		}
+		
+		for(int i=LejosProtocol.MAP_CHUNK_HEADER_LENGTH; i+LejosProtocol.MAP_POINT_LENGTH<=length; 
+				i+=LejosProtocol.MAP_POINT_LENGTH){
+			pendingMap.addPoint(new MapPoint(LejosProtocol.getFloat(payload, i),
+					LejosProtocol.getFloat(payload, i+4), payload[i+8]&0xFF));
+		}
+		nextChunk++;
+		if(nextChunk<chunks) return null;
 		
+		RobotMap map=pendingMap;
+		pendingMap=null;
+		if(map.getVersion()!=version){
+			System.out.println("MAP VERSION MISMATCH");
+			return new Object();
+		}
+		return map;
+	}
+	/**
+	 * Builds a command from the payload of a binary frame.
+	 * @param length	The length of the payload
+	 * @return received command
+	 */
+	private Object readCommand(int length){
+		int type=payload[0];
+		float speed=LejosProtocol.getFloat(payload, 1);
+		float turn=LejosProtocol.getFloat(payload, 5);
+		boolean hasPose=(payload[9]&LejosProtocol.FLAG_POSE)!=0;
+		
+		if(type==CommandType.MOVE_CONTINUOUS.ordinal()){
+			return RobotCommand.moveContinuous(speed);
+		}
+		else if(type==CommandType.TURN_ANGLE_RIGHT.ordinal()){
+			return RobotCommand.turnAngleRight((int)turn);
+		}
+		else if(type==CommandType.TURN_ANGLE_LEFT.ordinal()){
+			return RobotCommand.turnAngleLeft((int)turn);
+		}
+		else if(type==CommandType.ROLLING_TURN.ordinal()){
+			return RobotCommand.rollingTurn(speed, (int)turn);
+		}
+		else if(type==CommandType.SET_POSITION.ordinal()&&hasPose&&length>=22){
+			return RobotCommand.setPosition(readPose(10));
+		}
+		else if(type==CommandType.STOP.ordinal()){
+			return RobotCommand.stop();
+		}
+		else if(type==CommandType.EXIT.ordinal()){
+			return RobotCommand.exit();
+		}
+		else if(type==CommandType.RETURN_TO_START_POSITION.ordinal()){
+			return RobotCommand.returnToStart();
+		}
+		System.out.println("READ COMMAND UNRECOGNIZED");
+		return new Object();
+	}
+	/**
+	 * Builds a pose from three floats in the payload.
+	 * @param offset	The offset of the pose in the payload
+	 * @return the pose
+	 */
+	private Pose readPose(int offset){
+		return new Pose(LejosProtocol.getFloat(payload, offset),
+				LejosProtocol.getFloat(payload, offset+4),
+				LejosProtocol.getFloat(payload, offset+8));
+	}
+	/**
+	 * Reads a single byte, which must be available.
+	 * @throws EOFException if the stream ended
+	 */
+	private int readByte() throws IOException{
+		int b=in.read();
+		if(b==-1) throw new EOFException("Stream ended within a frame");
+		return b;
+	}
+	/**
+	 * Reads bytes into the start of a buffer until it holds the given length.
+	 * @throws EOFException if the stream ended
+	 */
+	private void readFully(byte[] buffer, int length) throws IOException{
+		int read=0;
+		while(read<length){
+			int n=in.read(buffer, read, length-read);
+			if(n==-1) throw new EOFException("Stream ended within a frame");
+			read+=n;
+		}
+	}
+	/**
+	 * Function to parse an older text message from the stream.
+	 * @param input	The first byte of the message
+	 * @return received object
+	 * @throws IOException
+	 */
+	private Object readLegacyObject(int input) throws IOException{
 		//if robotCommand
 		if((char)input=='1'){
 			String s="";
@@ -4,12 +4,16 @@ package robowars.robot;
  * This Class is used to send objects from either the client or the mindstorm
  * it overcomes the problems with the Lejos library where objects cannot be properly
  * output
+ * 
+ * Objects are sent as binary frames (see LejosProtocol), which are built in
+ * a reused buffer and written with a single call.
  * @author mwright
  */
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Vector;
 
+import robowars.shared.model.MapPoint;
 import robowars.shared.model.RobotCommand;
 import robowars.shared.model.RobotMap;
 import lejos.robotics.Pose;
@@ -18,72 +22,149 @@ import lejos.robotics.Pose;
 public class LejosOutputStream {
 	private OutputStream out;
 	
+	/** Buffer the frame being sent is built in (large enough for a map chunk) */
+	private byte[] buffer;
+	
 	public LejosOutputStream(OutputStream out){
 		this.out=out;
-		
+		buffer=new byte[LejosProtocol.HEADER_LENGTH+LejosProtocol.MAP_CHUNK_HEADER_LENGTH
+				+LejosProtocol.MAP_CHUNK_POINTS*LejosProtocol.MAP_POINT_LENGTH+1];
 	}
 	/**
-	 * This is the function to actually send the object it takes 4 steps
-	 * 1. A string is created with the correct object tag
-	 * 2. The .toSting function of the object is called and added to the string
-	 * 3. the string is turned into a byte array
-	 * 4. the bytes are output followed by a null terminator
+	 * This is the function to actually send the object it takes 3 steps
+	 * 1. The fields of the object are written to the buffer after the frame header
+	 * 2. The header and checksum are added around them
+	 * 3. The frame is output in a single write
+	 * Maps are sent as several frames (see writeMap()). Objects of unsupported
+	 * types are ignored.
 	 * @param o
 	 * @throws IOException
 	 */
 	public synchronized void writeObject(Object o) throws IOException{
-		String s=null;
+		int type;
+		int end;
 		if(o instanceof RobotCommand){
-			s="1";
-			s+=((RobotCommand)o).toOutputString();
+			type=LejosProtocol.TYPE_COMMAND;
+			end=putCommand((RobotCommand)o);
 		}
 		else if(o instanceof Pose){
-			Pose p=(Pose)o;
-			s="2[";
-			s+=p.getX();
-			s+="|"+p.getY();
-			s+="|"+p.getHeading()+"]";
+			type=LejosProtocol.TYPE_POSE;
+			end=putPose((Pose)o, LejosProtocol.HEADER_LENGTH);
 		}
 		else if(o instanceof RobotMap){
-			s="3";
-			s+=((RobotMap)o).toString();
+			writeMap((RobotMap)o);
+			return;
 		}
 		else if(o instanceof Vector){
-			s="4[";
-			Vector v= (Vector) o;
-			for(int i=0; i<v.size(); i++){
-				s+=v.elementAt(i)+"|";
-			}
-			s=s.substring(0, s.length()-1);
-			s+="]";
+			type=LejosProtocol.TYPE_COLOR;
+			end=putColor((Vector<?>)o);
 		}
 		else return;
-		byte[] bytes=getBytes(s);
 		
-		if(bytes!=null){
-			
-			for(int i=0; i<bytes.length-1; i++){
-					out.write((int)bytes[i]);
+		send(type, end);
+		flush();
+	}
+	/**
+	 * Sends a map as a series of chunks, each holding up to
+	 * LejosProtocol.MAP_CHUNK_POINTS points, tagged with the map's version.
+	 * @param map
+	 * @throws IOException
+	 */
+	public synchronized void writeMap(RobotMap map) throws IOException{
+		Vector<?> colors=map.getPoints();
+		int count=map.size();
+		int chunks=Math.max(1, (count+LejosProtocol.MAP_CHUNK_POINTS-1)/LejosProtocol.MAP_CHUNK_POINTS);
+		int version=map.getVersion();
+		
+		int chunk=0;
+		int i=startChunk(version, chunk, chunks);
+		int inChunk=0;
+		for(int c=0; c<colors.size(); c++){
+			Vector<?> points=(Vector<?>)colors.elementAt(c);
+			for(int x=0; x<points.size(); x++){
+				if(inChunk==LejosProtocol.MAP_CHUNK_POINTS){
+					send(LejosProtocol.TYPE_MAP_CHUNK, i);
+					i=startChunk(version, ++chunk, chunks);
+					inChunk=0;
+				}
+				MapPoint p=(MapPoint)points.elementAt(x);
+				i=LejosProtocol.putFloat(buffer, i, p.getX());
+				i=LejosProtocol.putFloat(buffer, i, p.getY());
+				buffer[i++]=(byte)p.getColor();
+				inChunk++;
 			}
-			flush();
-	
 		}
-		
+		send(LejosProtocol.TYPE_MAP_CHUNK, i);
+		flush();
+	}
+	/**
+	 * Sends the version of the map held by the robot.
+	 * @param version	The map version (see RobotMap.getVersion())
+	 * @throws IOException
+	 */
+	public synchronized void writeMapVersion(int version) throws IOException{
+		send(LejosProtocol.TYPE_MAP_VERSION, 
+				LejosProtocol.putInt(buffer, LejosProtocol.HEADER_LENGTH, version));
+		flush();
 	}
 	/**
-	 * Converts the input string into a byte array so we can transfer them
-	 * @param inputText
-	 * @return Array of Bytes
+	 * Adds the header and checksum around the payload in the buffer, and
+	 * writes the frame.
+	 * @param type	The message type
+	 * @param end	The offset after the payload
 	 */
-	private byte[] getBytes(String inputText){
-	    	//Debug Point
-	        byte[] nameBytes = new byte[inputText.length()+1];
-	        
-	        for(int i=0;i<inputText.length();i++){
-	            nameBytes[i] = (byte) inputText.charAt(i);
-	        }
-	        nameBytes[nameBytes.length-1]=0;
-	        return nameBytes;
+	private void send(int type, int end) throws IOException{
+		buffer[0]=(byte)LejosProtocol.SYNC;
+		buffer[1]=(byte)type;
+		LejosProtocol.putShort(buffer, 2, end-LejosProtocol.HEADER_LENGTH);
+		buffer[end]=(byte)LejosProtocol.checksum(buffer, 1, end-1);
+		out.write(buffer, 0, end+1);
+	}
+	/**
+	 * Writes the payload of a command.
+	 * @return the offset after the payload
+	 */
+	private int putCommand(RobotCommand c){
+		int i=LejosProtocol.HEADER_LENGTH;
+		buffer[i++]=(byte)c.getType().ordinal();
+		i=LejosProtocol.putFloat(buffer, i, c.getThrottle());
+		i=LejosProtocol.putFloat(buffer, i, c.getTurnBearing());
+		Pose p=c.getPos();
+		buffer[i++]=(byte)(p!=null ? LejosProtocol.FLAG_POSE : 0);
+		if(p!=null){
+			i=putPose(p, i);
+		}
+		return i;
+	}
+	/**
+	 * Writes a pose into the buffer.
+	 * @return the offset after the pose
+	 */
+	private int putPose(Pose p, int i){
+		i=LejosProtocol.putFloat(buffer, i, p.getX());
+		i=LejosProtocol.putFloat(buffer, i, p.getY());
+		return LejosProtocol.putFloat(buffer, i, p.getHeading());
+	}
+	/**
+	 * Writes the header of a map chunk.
+	 * @return the offset after the header
+	 */
+	private int startChunk(int version, int chunk, int chunks){
+		int i=LejosProtocol.putInt(buffer, LejosProtocol.HEADER_LENGTH, version);
+		i=LejosProtocol.putShort(buffer, i, chunk);
+		return LejosProtocol.putShort(buffer, i, chunks);
+	}
+	/**
+	 * Writes the payload of a color vector (the first three values).
+	 * @return the offset after the payload
+	 */
+	private int putColor(Vector<?> v){
+		int i=LejosProtocol.HEADER_LENGTH;
+		for(int c=0; c<3; c++){
+			int value=c<v.size() ? ((Integer)v.elementAt(c)).intValue() : 0;
+			i=LejosProtocol.putShort(buffer, i, value);
+		}
+		return i;
 	}
 	public void flush() throws IOException{out.flush();}
 	public void close() throws IOException{out.close();}
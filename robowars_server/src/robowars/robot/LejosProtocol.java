@@ -0,0 +1,133 @@
+package robowars.robot;
+/**
+ * LejosProtocol.java
+ * Constants and helpers for the binary message format used by
+ * LejosOutputStream and LejosInputStream to pass objects between the server
+ * and the robots. Every message is sent as a single frame:
+ * 
+ * byte		SYNC (marks the start of a binary frame)
+ * byte		Message type (TYPE_* constants)
+ * short	Payload length (in bytes)
+ * byte[]	Payload (fixed layout for each type, see below)
+ * byte		Checksum (XOR of the type, length and payload bytes)
+ * 
+ * Payloads (all values big endian, floats in IEEE 754 format):
+ * TYPE_COMMAND	byte command type (CommandType ordinal), float speed,
+ * 				float turn, byte FLAG_POSE, [float x, float y, float heading]
+ * TYPE_POSE	float x, float y, float heading
+ * TYPE_MAP		short number of points, [float x, float y, byte color] each
+ * TYPE_COLOR	short red, short green, short blue
+ * TYPE_MAP_CHUNK	int map version, short chunk index, short number of chunks,
+ * 				[float x, float y, byte color] for up to MAP_CHUNK_POINTS points
+ * TYPE_MAP_VERSION	int map version
+ * 
+ * Maps are sent as a series of TYPE_MAP_CHUNK frames (small enough for the
+ * NXT's Bluetooth buffer), which are added to the map as they arrive. The
+ * version (see RobotMap.getVersion()) lets the robot check the assembled map,
+ * and lets the server skip sending a map the robot has already cached.
+ * Single frame TYPE_MAP messages can still be read.
+ * 
+ * Older text messages start with the type as an ASCII digit ('1' to '4')
+ * rather than SYNC, and can still be read (i.e. from saved map files).
+ * 
+ * This class is used on the NXT, and so only depends on classes available
+ * in leJOS.
+ * @author mwright
+ */
+public class LejosProtocol {
+	/** The first byte of every binary frame */
+	public static final int SYNC = 0xA5;
+	
+	/** Message types */
+	public static final int TYPE_COMMAND = 1;
+	public static final int TYPE_POSE = 2;
+	public static final int TYPE_MAP = 3;
+	public static final int TYPE_COLOR = 4;
+	public static final int TYPE_MAP_CHUNK = 5;
+	public static final int TYPE_MAP_VERSION = 6;
+	
+	/** The number of bytes before the payload of a frame */
+	public static final int HEADER_LENGTH = 4;
+	
+	/** Set in a command payload when the command includes a pose */
+	public static final int FLAG_POSE = 1;
+	
+	/** The number of bytes used by each point of a map */
+	public static final int MAP_POINT_LENGTH = 9;
+	
+	/** The number of bytes before the points of a map chunk */
+	public static final int MAP_CHUNK_HEADER_LENGTH = 8;
+	
+	/** The most points sent in each map chunk (keeps frames under 256 bytes) */
+	public static final int MAP_CHUNK_POINTS = 24;
+	
+	private LejosProtocol() {}
+	
+	/**
+	 * Calculates the checksum of a frame.
+	 * @param frame	The buffer holding the frame
+	 * @param offset	The offset of the type byte in the buffer
+	 * @param length	The number of bytes from the type byte to the end of
+	 * 					the payload
+	 * @return	The checksum of the bytes
+	 */
+	public static int checksum(byte[] frame, int offset, int length) {
+		int sum = 0;
+		for(int i = offset; i < offset + length; i++) {
+			sum ^= frame[i];
+		}
+		return sum & 0xFF;
+	}
+	
+	/**
+	 * Writes a big endian float into a buffer.
+	 * @return	The offset after the written value
+	 */
+	public static int putFloat(byte[] buffer, int offset, float value) {
+		return putInt(buffer, offset, Float.floatToIntBits(value));
+	}
+	
+	/**
+	 * Writes a big endian int into a buffer.
+	 * @return	The offset after the written value
+	 */
+	public static int putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte)(value >> 24);
+		buffer[offset + 1] = (byte)(value >> 16);
+		buffer[offset + 2] = (byte)(value >> 8);
+		buffer[offset + 3] = (byte)value;
+		return offset + 4;
+	}
+	
+	/**
+	 * Writes a big endian short into a buffer.
+	 * @return	The offset after the written value
+	 */
+	public static int putShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte)(value >> 8);
+		buffer[offset + 1] = (byte)value;
+		return offset + 2;
+	}
+	
+	/**
+	 * Reads a big endian float from a buffer.
+	 */
+	public static float getFloat(byte[] buffer, int offset) {
+		return Float.intBitsToFloat(getInt(buffer, offset));
+	}
+	
+	/**
+	 * Reads a big endian int from a buffer.
+	 */
+	public static int getInt(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16)
+				| ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+	}
+	
+	/**
+	 * Reads a big endian signed short from a buffer.
+	 */
+	public static int getShort(byte[] buffer, int offset) {
+		return (short)(((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF));
+	}
+}
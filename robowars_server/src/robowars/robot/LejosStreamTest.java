@@ -0,0 +1,179 @@
+package robowars.robot;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Vector;
+
+import lejos.robotics.Colors;
+import lejos.robotics.Pose;
+
+import org.junit.Test;
+
+import robowars.shared.model.CommandType;
+import robowars.shared.model.MapPoint;
+import robowars.shared.model.RobotCommand;
+import robowars.shared.model.RobotMap;
+
+/**
+ * Unit tests for LejosOutputStream, LejosInputStream and LejosProtocol.
+ */
+public class LejosStreamTest {
+
+	/** @return	The bytes written for the passed objects */
+	private byte[] write(Object... objects) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		LejosOutputStream out = new LejosOutputStream(bytes);
+		for(Object o : objects) {
+			out.writeObject(o);
+		}
+		return bytes.toByteArray();
+	}
+
+	private LejosInputStream reader(byte[] bytes) {
+		return new LejosInputStream(new ByteArrayInputStream(bytes));
+	}
+
+	@Test
+	public void testCommands() throws Exception {
+		LejosInputStream in = reader(write(RobotCommand.moveContinuous(42.5f),
+				RobotCommand.turnAngleLeft(90), RobotCommand.turnAngleRight(45),
+				RobotCommand.rollingTurn(-20.25f, 150),
+				RobotCommand.setPosition(new Pose(1.5f, -2.5f, 270f)),
+				RobotCommand.stop(), RobotCommand.exit(), RobotCommand.returnToStart()));
+
+		RobotCommand c = (RobotCommand)in.readObject();
+		assertEquals(CommandType.MOVE_CONTINUOUS, c.getType());
+		assertEquals(42.5f, c.getThrottle(), 0);
+
+		c = (RobotCommand)in.readObject();
+		assertEquals(CommandType.TURN_ANGLE_LEFT, c.getType());
+		assertEquals(90f, c.getTurnBearing(), 0);
+
+		c = (RobotCommand)in.readObject();
+		assertEquals(CommandType.TURN_ANGLE_RIGHT, c.getType());
+		assertEquals(45f, c.getTurnBearing(), 0);
+
+		c = (RobotCommand)in.readObject();
+		assertEquals(CommandType.ROLLING_TURN, c.getType());
+		assertEquals(-20.25f, c.getThrottle(), 0);
+		assertEquals(150f, c.getTurnBearing(), 0);
+
+		c = (RobotCommand)in.readObject();
+		assertEquals(CommandType.SET_POSITION, c.getType());
+		assertEquals(1.5f, c.getPos().getX(), 0);
+		assertEquals(-2.5f, c.getPos().getY(), 0);
+		assertEquals(270f, c.getPos().getHeading(), 0);
+
+		assertEquals(CommandType.STOP, ((RobotCommand)in.readObject()).getType());
+		assertEquals(CommandType.EXIT, ((RobotCommand)in.readObject()).getType());
+		assertEquals(CommandType.RETURN_TO_START_POSITION,
+				((RobotCommand)in.readObject()).getType());
+
+		// The end of the stream is reported rather than blocking or looping
+		assertNull(in.readObject());
+	}
+
+	@Test
+	public void testPoseMapAndColor() throws Exception {
+		RobotMap map = new RobotMap();
+		for(int i = 0; i < 50; i++) {
+			map.addPoint(new MapPoint(i * 1.5f, -i, i % 2 == 0 ? Colors.RED : Colors.GREEN));
+		}
+		Vector<Integer> color = new Vector<Integer>();
+		color.addElement(Integer.valueOf(255));
+		color.addElement(Integer.valueOf(0));
+		color.addElement(Integer.valueOf(-1));
+
+		LejosInputStream in = reader(write(new Pose(10.125f, 20f, -45f), map, color));
+
+		Pose p = (Pose)in.readObject();
+		assertEquals(10.125f, p.getX(), 0);
+		assertEquals(20f, p.getY(), 0);
+		assertEquals(-45f, p.getHeading(), 0);
+
+		RobotMap received = (RobotMap)in.readObject();
+		assertEquals(map.toString(), received.toString());
+
+		Vector<?> v = (Vector<?>)in.readObject();
+		assertEquals(color, v);
+	}
+
+	@Test
+	public void testMapChunks() throws Exception {
+		RobotMap map = ColorSensor.generate(21, 21, 6.35f);
+		assertEquals(400, map.size());
+		byte[] bytes = write(map, new Pose(1, 2, 3));
+
+		// The map is split into chunks small enough for the NXT's buffer
+		int chunks = (400 + LejosProtocol.MAP_CHUNK_POINTS - 1) / LejosProtocol.MAP_CHUNK_POINTS;
+		int chunkOverhead = LejosProtocol.HEADER_LENGTH + LejosProtocol.MAP_CHUNK_HEADER_LENGTH + 1;
+		int poseLength = LejosProtocol.HEADER_LENGTH + 12 + 1;
+		assertEquals(chunks * chunkOverhead + 400 * LejosProtocol.MAP_POINT_LENGTH + poseLength,
+				bytes.length);
+		assertTrue(chunkOverhead + LejosProtocol.MAP_CHUNK_POINTS * LejosProtocol.MAP_POINT_LENGTH < 256);
+
+		LejosInputStream in = reader(bytes);
+		RobotMap received = (RobotMap)in.readObject();
+		assertEquals(map.toString(), received.toString());
+		assertEquals(map.getVersion(), received.getVersion());
+		assertTrue(in.readObject() instanceof Pose);
+
+		// A map with a corrupted chunk is dropped, and following messages are read
+		bytes[chunkOverhead + 50] ^= 0x01;
+		in = reader(bytes);
+		Object o;
+		while(!((o = in.readObject()) instanceof Pose)) {
+			assertFalse(o instanceof RobotMap);
+		}
+	}
+
+	@Test
+	public void testMapVersion() throws Exception {
+		RobotMap map = ColorSensor.generate(5, 5, 6.35f);
+		int version = map.getVersion();
+		assertEquals(version, ColorSensor.generate(5, 5, 6.35f).getVersion());
+		assertFalse(version == ColorSensor.generate(5, 5, 6.4f).getVersion());
+		map.addPoint(new MapPoint(0, 0, Colors.BLUE));
+		assertFalse(version == map.getVersion());
+
+		// Versions are sent by the robot to report its cached map
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new LejosOutputStream(bytes).writeMapVersion(version);
+		assertEquals(Integer.valueOf(version), reader(bytes.toByteArray()).readObject());
+	}
+
+	@Test
+	public void testLegacyText() throws Exception {
+		LejosInputStream in = reader("2[1.0|2.0|3.0]".getBytes("US-ASCII"));
+		Pose p = (Pose)in.readObject();
+		assertEquals(1f, p.getX(), 0);
+		assertEquals(2f, p.getY(), 0);
+		assertEquals(3f, p.getHeading(), 0);
+	}
+
+	@Test
+	public void testChecksum() throws Exception {
+		byte[] bytes = write(new Pose(1, 2, 3), new Pose(4, 5, 6));
+		int frameLength = bytes.length / 2;
+		bytes[LejosProtocol.HEADER_LENGTH] ^= 0x10;
+
+		// The corrupted frame is rejected, and the next frame is still read
+		LejosInputStream in = reader(bytes);
+		assertFalse(in.readObject() instanceof Pose);
+		assertEquals(4f, ((Pose)in.readObject()).getX(), 0);
+		assertEquals(LejosProtocol.HEADER_LENGTH + 12 + 1, frameLength);
+	}
+
+	@Test
+	public void testSize() throws Exception {
+		// Binary frames are smaller than the text messages they replace
+		Pose p = new Pose(123.456f, 78.9f, 359.5f);
+		String text = "2[" + p.getX() + "|" + p.getY() + "|" + p.getHeading() + "]";
+		assertTrue(write(p).length < text.length());
+
+		RobotCommand c = RobotCommand.rollingTurn(55.5f, -120);
+		assertTrue(write(c).length < 1 + c.toOutputString().length());
+	}
+}
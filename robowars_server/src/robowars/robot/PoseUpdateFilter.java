@@ -0,0 +1,88 @@
+package robowars.robot;
+
+import lejos.robotics.Pose;
+
+/**
+ * PoseUpdateFilter.java
+ * Decides when the robot's position should be sent back to the server, so
+ * that the Bluetooth link is not saturated by repeated poses.
+ *
+ * Poses are checked at a fixed rate, and a pose is only sent once the robot
+ * has moved or turned further than the dead-band since the last pose sent.
+ * The pose is also sent whenever the keepalive interval has passed without
+ * an update, so the server still hears from a stationary robot.
+ * @author mwright
+ */
+public class PoseUpdateFilter {
+	/** Default time between checks of the position (ms) */
+	public static final long DEFAULT_UPDATE_INTERVAL=100;
+	/** Default distance the robot must move before a pose is sent (cm) */
+	public static final float DEFAULT_MIN_DISTANCE=(float)0.5;
+	/** Default angle the robot must turn before a pose is sent (degrees) */
+	public static final float DEFAULT_MIN_HEADING=2;
+	/** Default longest time between poses sent (ms) */
+	public static final long DEFAULT_KEEPALIVE_INTERVAL=1000;
+
+	private long updateInterval;
+	private float minDistance;
+	private float minHeading;
+	private long keepaliveInterval;
+
+	/** The values of the last pose sent */
+	private float lastX, lastY, lastHeading;
+	/** The time the last pose was sent (ms), or -1 if none has been sent */
+	private long lastSent;
+
+	public PoseUpdateFilter(){
+		this(DEFAULT_UPDATE_INTERVAL, DEFAULT_MIN_DISTANCE, DEFAULT_MIN_HEADING,
+				DEFAULT_KEEPALIVE_INTERVAL);
+	}
+	/**
+	 * @param updateInterval	Time between checks of the position (ms)
+	 * @param minDistance	Distance the robot must move before a pose is sent
+	 * @param minHeading	Angle the robot must turn before a pose is sent (degrees)
+	 * @param keepaliveInterval	Longest time between poses sent (ms)
+	 */
+	public PoseUpdateFilter(long updateInterval, float minDistance, float minHeading,
+			long keepaliveInterval){
+		this.updateInterval=updateInterval;
+		this.minDistance=minDistance;
+		this.minHeading=minHeading;
+		this.keepaliveInterval=keepaliveInterval;
+		lastSent=-1;
+	}
+	/**
+	 * Checks whether a pose should be sent, and records it as the last pose
+	 * sent if so.
+	 * @param pose	The current position of the robot
+	 * @param now	The current time (ms)
+	 * @return true if the pose should be sent
+	 */
+	public boolean shouldSend(Pose pose, long now){
+		if(lastSent<0||now-lastSent>=keepaliveInterval||hasMoved(pose)){
+			lastX=pose.getX();
+			lastY=pose.getY();
+			lastHeading=pose.getHeading();
+			lastSent=now;
+			return true;
+		}
+		return false;
+	}
+	/**
+	 * @return true if the pose is outside the dead-band around the last pose sent
+	 */
+	private boolean hasMoved(Pose pose){
+		float dx=pose.getX()-lastX;
+		float dy=pose.getY()-lastY;
+		if(dx*dx+dy*dy>=minDistance*minDistance)return true;
+
+		float dh=pose.getHeading()-lastHeading;
+		while(dh>180)dh-=360;
+		while(dh<-180)dh+=360;
+		return Math.abs(dh)>=minHeading;
+	}
+	/** @return Time between checks of the position (ms) */
+	public long getUpdateInterval(){
+		return updateInterval;
+	}
+}
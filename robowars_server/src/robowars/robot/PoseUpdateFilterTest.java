@@ -0,0 +1,42 @@
+package robowars.robot;
+
+import static org.junit.Assert.*;
+
+import lejos.robotics.Pose;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for PoseUpdateFilter.
+ */
+public class PoseUpdateFilterTest {
+
+	@Test
+	public void testDeadBand() {
+		PoseUpdateFilter filter = new PoseUpdateFilter(100, 1, 5, 1000);
+
+		// The first pose is always sent
+		assertTrue(filter.shouldSend(new Pose(0, 0, 0), 0));
+
+		// Small movements and turns are not sent
+		assertFalse(filter.shouldSend(new Pose(0.5f, 0.5f, 0), 100));
+		assertFalse(filter.shouldSend(new Pose(0, 0, 4), 200));
+
+		// Movement or turns past the dead-band are sent
+		assertTrue(filter.shouldSend(new Pose(1, 0.5f, 0), 300));
+		assertTrue(filter.shouldSend(new Pose(1, 0.5f, -6), 400));
+
+		// Heading differences wrap around
+		assertFalse(filter.shouldSend(new Pose(1, 0.5f, 358), 500));
+	}
+
+	@Test
+	public void testKeepalive() {
+		PoseUpdateFilter filter = new PoseUpdateFilter(100, 1, 5, 1000);
+		Pose pose = new Pose(10, 10, 90);
+		assertTrue(filter.shouldSend(pose, 0));
+		assertFalse(filter.shouldSend(pose, 999));
+		assertTrue(filter.shouldSend(pose, 1000));
+		assertFalse(filter.shouldSend(pose, 1100));
+	}
+}
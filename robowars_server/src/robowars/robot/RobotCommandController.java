@@ -4,6 +4,7 @@ import java.io.*;
 
 import robowars.shared.model.CommandType;
 import robowars.shared.model.RobotCommand;
+import robowars.shared.model.RobotMap;
 import lejos.nxt.LCD;
 import lejos.nxt.comm.*;
 import lejos.robotics.Pose;
@@ -29,6 +30,11 @@ public class RobotCommandController extends Thread{
 		 this.move=movement;
 		 LCD.drawString("Move created", 0, 3);
 		 colorSensor=new ColorSensor(dataOut, move, false);
+		 //tell the server which map is cached, so it is only sent if changed
+		 try {
+			dataOut.writeMapVersion(colorSensor.getMap().getVersion());
+		 } catch (IOException e1) {
+		 }
 		 new Thread(colorSensor).start();
 		 try {
 			Thread.sleep(1000);
@@ -72,6 +78,11 @@ public class RobotCommandController extends Thread{
 						System.exit(0);
 					}
 				}
+				else if(input instanceof RobotMap){
+					colorSensor.setMap((RobotMap)input);
+					//confirm the map was stored, so the server does not resend it
+					dataOut.writeMapVersion(((RobotMap)input).getVersion());
+				}
 				else{
 					System.out.println("UNREADABLE OBJECT");
 				}
@@ -92,43 +103,33 @@ public class RobotCommandController extends Thread{
 	}
 	/** position relay will periodically send the position of the robot back to the server */
 	private Runnable positionTracker=new Runnable(){
-		private Pose previousPose, currentPose;
-		private final int IGNORE_THRESHOLD=5;
-		private int ignore=0;
+		private PoseUpdateFilter filter=new PoseUpdateFilter();
 		public void run() {
 		LCD.drawString("PTStarted",0,5);
 		while(true){
 			if(move!=null){
 				try {
-					if(previousPose==null){
-						currentPose=move.getPosition();
-						previousPose=currentPose;
-					}
-					else{
-						currentPose=move.getPosition();
-					}
-					if(currentPose!=previousPose||ignore>IGNORE_THRESHOLD){
+					Pose currentPose=move.getPosition();
+					if(filter.shouldSend(currentPose, System.currentTimeMillis())){
 						LCD.drawString("Position Updated"+currentPose,0,2);
-					dataOut.writeObject(currentPose);
-					previousPose=currentPose;
-					ignore=0;
-				}
-				else{
-					ignore++;
-				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				System.out.println("EXCEPTION:"+ e);
-				try {
-					Thread.sleep(5000);
-				} catch (InterruptedException e1) {
+						dataOut.writeObject(currentPose);
+					}
+				} catch (IOException e) {
 					// TODO Auto-generated catch block
-							}
-							System.exit(0);
-						}
+					System.out.println("EXCEPTION:"+ e);
+					try {
+						Thread.sleep(5000);
+					} catch (InterruptedException e1) {
+						// TODO Auto-generated catch block
 					}
+					System.exit(0);
 				}
-			} 
+			}
+			try {
+				Thread.sleep(filter.getUpdateInterval());
+			} catch (InterruptedException e) {
+			}
+		}
+		} 
 	 };
 }
-
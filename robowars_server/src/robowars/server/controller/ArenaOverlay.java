@@ -0,0 +1,270 @@
+package robowars.server.controller;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.util.HashMap;
+
+import robowars.shared.model.CameraPosition;
+import robowars.shared.model.GameEntity;
+import robowars.shared.model.GameRobot;
+import robowars.shared.model.GameSnapshot;
+import robowars.shared.model.Projectile;
+import robowars.shared.model.Vector;
+
+/**
+ * Draws the entities of a running game over the video of the arena's camera,
+ * for clients that are unable to render the virtual world themselves.
+ * 
+ * Entities are read from the latest state snapshot of the game (so the game
+ * thread is never blocked or raced with), and their outlines on the arena
+ * floor are projected into the frame using the position, orientation and
+ * field of view of the camera. The camera's horizontal orientation follows
+ * the same convention as robot headings (degrees from the positive x axis
+ * towards the positive y axis), the vertical orientation is the number of
+ * degrees the camera is tilted down from horizontal, the z axis is up, and
+ * the field of view is measured across the width of the frame.
+ * 
+ * The projection matrix is cached, and only recalculated when the camera is
+ * moved or the frame size changes. Overlays are drawn by the encoder thread
+ * only.
+ * 
+ * @author Alexander Craig
+ */
+public class ArenaOverlay {
+	/** The minimum distance in front of the camera that is drawn */
+	public static final float NEAR_PLANE = 1;
+	
+	/** The colours used to fill each kind of entity (translucent) */
+	private static final Color ROBOT_FILL = new Color(0, 128, 255, 96);
+	private static final Color PROJECTILE_FILL = new Color(255, 64, 0, 192);
+	private static final Color OBSTACLE_FILL = new Color(255, 255, 0, 64);
+	
+	/** The colours used to outline each kind of entity */
+	private static final Color ROBOT_OUTLINE = new Color(0, 160, 255);
+	private static final Color PROJECTILE_OUTLINE = new Color(255, 128, 0);
+	private static final Color OBSTACLE_OUTLINE = new Color(255, 255, 0);
+	
+	/** The stroke used to outline entities */
+	private static final BasicStroke OUTLINE_STROKE = new BasicStroke(2);
+	
+	/** The camera the overlay is drawn for */
+	private final CameraController camera;
+	
+	/** The game whose entities are drawn (null to draw nothing) */
+	private volatile GameController game;
+	
+	/** The entities of the last snapshot drawn, keyed by snapshot identifier */
+	private final HashMap<Integer, GameEntity> entities;
+	
+	/** The sequence number of the last snapshot applied to the entities */
+	private int snapshotSequence;
+	
+	/** 
+	 * The projection matrix (3 rows of 4, row major), mapping world points to
+	 * homogeneous pixel coordinates
+	 */
+	private final float matrix[];
+	
+	/** The camera parameters and frame size the matrix was calculated for */
+	private float cachedX, cachedY, cachedZ, cachedHor, cachedVer, cachedFov;
+	private int cachedWidth, cachedHeight;
+	
+	/** Reused buffers holding projected polygon vertices */
+	private int xPoints[];
+	private int yPoints[];
+	
+	/** Reused buffer holding a single projected point */
+	private final float projected[];
+	
+	/**
+	 * Generates a new ArenaOverlay.
+	 * @param camera	The camera the overlay is drawn for
+	 */
+	public ArenaOverlay(CameraController camera) {
+		this.camera = camera;
+		game = null;
+		entities = new HashMap<Integer, GameEntity>();
+		snapshotSequence = -1;
+		matrix = new float[12];
+		cachedWidth = -1;
+		cachedHeight = -1;
+		xPoints = new int[8];
+		yPoints = new int[8];
+		projected = new float[2];
+	}
+	
+	/**
+	 * Sets the game whose entities are drawn.
+	 * @param game	A running game, or null to stop drawing entities
+	 */
+	public void setGame(GameController game) {
+		this.game = game;
+	}
+	
+	/**
+	 * @return	The game whose entities are drawn (or null if none)
+	 */
+	public GameController getGame() {
+		return game;
+	}
+	
+	/**
+	 * Draws the game's entities over a frame.
+	 * @param g	The graphics context of the frame
+	 * @param width	The width of the frame
+	 * @param height	The height of the frame
+	 */
+	public void draw(Graphics2D g, int width, int height) {
+		GameController current = game;
+		GameSnapshot snapshot = current == null ? null : current.getLatestSnapshot();
+		if(snapshot != null) {
+			draw(g, width, height, snapshot);
+		}
+	}
+	
+	/**
+	 * Draws the entities of a snapshot over a frame.
+	 * @param g	The graphics context of the frame
+	 * @param width	The width of the frame
+	 * @param height	The height of the frame
+	 * @param snapshot	The game state to draw
+	 */
+	void draw(Graphics2D g, int width, int height, GameSnapshot snapshot) {
+		if(snapshot.getSequence() != snapshotSequence) {
+			snapshot.applyTo(entities);
+			snapshotSequence = snapshot.getSequence();
+		}
+		
+		updateProjection(camera.getPosition(), width, height);
+		
+		Composite composite = g.getComposite();
+		g.setComposite(AlphaComposite.SrcOver);
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setStroke(OUTLINE_STROKE);
+		for(GameEntity e : entities.values()) {
+			int count = projectEntity(e);
+			if(count < 2) continue;
+			
+			if(e instanceof GameRobot) {
+				drawPolygon(g, count, ROBOT_FILL, ROBOT_OUTLINE);
+			} else if (e instanceof Projectile) {
+				drawPolygon(g, count, PROJECTILE_FILL, PROJECTILE_OUTLINE);
+			} else {
+				drawPolygon(g, count, OBSTACLE_FILL, OBSTACLE_OUTLINE);
+			}
+		}
+		g.setComposite(composite);
+	}
+	
+	/**
+	 * Fills and outlines the projected polygon.
+	 */
+	private void drawPolygon(Graphics2D g, int count, Color fill, Color outline) {
+		g.setColor(fill);
+		g.fillPolygon(xPoints, yPoints, count);
+		g.setColor(outline);
+		g.drawPolygon(xPoints, yPoints, count);
+	}
+	
+	/**
+	 * Projects the vertices of an entity (on the arena floor) into the frame.
+	 * @param e	The entity to project
+	 * @return	The number of vertices projected, or 0 if the entity is
+	 * 			not entirely in front of the camera
+	 */
+	private int projectEntity(GameEntity e) {
+		Vector vertices[] = e.getVertices();
+		if(vertices == null) return 0;
+		if(xPoints.length < vertices.length) {
+			xPoints = new int[vertices.length];
+			yPoints = new int[vertices.length];
+		}
+		for(int i = 0; i < vertices.length; i++) {
+			if(!project(vertices[i].getX(), vertices[i].getY(), 0, projected)) {
+				return 0;
+			}
+			xPoints[i] = Math.round(projected[0]);
+			yPoints[i] = Math.round(projected[1]);
+		}
+		return vertices.length;
+	}
+	
+	/**
+	 * Projects a world point into the frame, using the current projection.
+	 * @param x	The x coordinate of the point
+	 * @param y	The y coordinate of the point
+	 * @param z	The height of the point
+	 * @param out	Receives the pixel coordinates of the point
+	 * @return	False if the point is closer than NEAR_PLANE to the camera
+	 * 			(or behind it)
+	 */
+	boolean project(float x, float y, float z, float out[]) {
+		float w = matrix[8] * x + matrix[9] * y + matrix[10] * z + matrix[11];
+		if(w < NEAR_PLANE) return false;
+		out[0] = (matrix[0] * x + matrix[1] * y + matrix[2] * z + matrix[3]) / w;
+		out[1] = (matrix[4] * x + matrix[5] * y + matrix[6] * z + matrix[7]) / w;
+		return true;
+	}
+	
+	/**
+	 * Recalculates the projection matrix if the camera or frame size has
+	 * changed since it was last calculated.
+	 * @param position	The position of the camera
+	 * @param width	The width of the frame
+	 * @param height	The height of the frame
+	 */
+	void updateProjection(CameraPosition position, int width, int height) {
+		if(position.getxPos() == cachedX && position.getyPos() == cachedY
+				&& position.getzPos() == cachedZ && position.getHorOrientation() == cachedHor
+				&& position.getVerOrientation() == cachedVer && position.getFov() == cachedFov
+				&& width == cachedWidth && height == cachedHeight) {
+			return;
+		}
+		cachedX = position.getxPos();
+		cachedY = position.getyPos();
+		cachedZ = position.getzPos();
+		cachedHor = position.getHorOrientation();
+		cachedVer = position.getVerOrientation();
+		cachedFov = position.getFov();
+		cachedWidth = width;
+		cachedHeight = height;
+		
+		double hor = Math.toRadians(cachedHor);
+		double ver = Math.toRadians(cachedVer);
+		
+		// Camera axes: forward (tilted down by ver), right, and up
+		double fx = Math.cos(ver) * Math.cos(hor);
+		double fy = Math.cos(ver) * Math.sin(hor);
+		double fz = -Math.sin(ver);
+		double rx = Math.sin(hor);
+		double ry = -Math.cos(hor);
+		double rz = 0;
+		double ux = Math.sin(ver) * Math.cos(hor);
+		double uy = Math.sin(ver) * Math.sin(hor);
+		double uz = Math.cos(ver);
+		
+		double focal = (width / 2.0) / Math.tan(Math.toRadians(cachedFov) / 2);
+		double cx = width / 2.0;
+		double cy = height / 2.0;
+		
+		// Pixel x = focal * right / depth + cx, pixel y = -focal * up / depth + cy
+		setRow(0, focal * rx + cx * fx, focal * ry + cx * fy, focal * rz + cx * fz);
+		setRow(1, -focal * ux + cy * fx, -focal * uy + cy * fy, -focal * uz + cy * fz);
+		setRow(2, fx, fy, fz);
+	}
+	
+	/**
+	 * Sets a row of the projection matrix, including the translation by the
+	 * camera position.
+	 */
+	private void setRow(int row, double x, double y, double z) {
+		matrix[row * 4] = (float)x;
+		matrix[row * 4 + 1] = (float)y;
+		matrix[row * 4 + 2] = (float)z;
+		matrix[row * 4 + 3] = (float)-(x * cachedX + y * cachedY + z * cachedZ);
+	}
+}
@@ -0,0 +1,111 @@
+package robowars.server.controller;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import robowars.shared.model.FreeTest;
+import robowars.shared.model.GameModel;
+import robowars.shared.model.GameRobot;
+import robowars.shared.model.Posture;
+
+import com.lti.civil.CaptureDeviceInfo;
+
+/**
+ * Unit tests for the ArenaOverlay class.
+ *
+ * @author Alexander Craig
+ */
+public class ArenaOverlayTest {
+	CameraController camera;
+	ArenaOverlay overlay;
+	float point[];
+
+	@Before
+	public void setUp() {
+		camera = new CameraController(new CaptureDeviceInfo() {
+			public String getDeviceID() { return "test-camera"; }
+			public String getDescription() { return "Test Camera"; }
+		});
+		overlay = new ArenaOverlay(camera);
+		point = new float[2];
+	}
+
+	@Test
+	public void testProjection() {
+		// Camera looking along the x axis from a height of 10
+		camera.setPosition(0, 0, 10);
+		overlay.updateProjection(camera.getPosition(), 320, 240);
+		assertTrue(overlay.project(50, 0, 10, point));
+		assertEquals(160, point[0], 0.01);
+		assertEquals(120, point[1], 0.01);
+
+		// Points on the floor appear below the centre, and points towards
+		// the negative y axis appear to the right (90 degree FOV)
+		assertTrue(overlay.project(50, -50, 0, point));
+		assertEquals(320, point[0], 0.01);
+		assertEquals(120 + 160 * 10 / 50f, point[1], 0.01);
+
+		// Points behind the camera are not projected
+		assertFalse(overlay.project(-50, 0, 0, point));
+	}
+
+	@Test
+	public void testCachedProjection() {
+		// Camera looking straight down on the point (70, 70)
+		camera.setPosition(70, 70, 100);
+		camera.setOrientation(0, 90);
+		overlay.updateProjection(camera.getPosition(), 320, 240);
+		assertTrue(overlay.project(70, 70, 0, point));
+		assertEquals(160, point[0], 0.01);
+		assertEquals(120, point[1], 0.01);
+		assertTrue(overlay.project(80, 70, 0, point));
+		assertEquals(120 - 16, point[1], 0.01);
+
+		// The projection follows the camera when it is moved
+		camera.setPosition(80, 70, 100);
+		overlay.updateProjection(camera.getPosition(), 320, 240);
+		assertTrue(overlay.project(80, 70, 0, point));
+		assertEquals(120, point[1], 0.01);
+
+		// and when the frame size changes
+		overlay.updateProjection(camera.getPosition(), 160, 120);
+		assertTrue(overlay.project(80, 70, 0, point));
+		assertEquals(80, point[0], 0.01);
+		assertEquals(60, point[1], 0.01);
+	}
+
+	@Test
+	public void testDraw() {
+		GameModel model = new FreeTest();
+		GameRobot robot = new GameRobot("robot", new Posture(70, 70, 0), 1);
+		model.addEntity(robot);
+		camera.setPosition(70, 70, 200);
+		camera.setOrientation(0, 90);
+
+		BufferedImage frame = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = frame.createGraphics();
+		overlay.draw(g, 320, 240, model.createSnapshot(1));
+
+		// The robot is drawn in the centre of the frame, and the boundary
+		// along the x axis to its right
+		Color centre = new Color(frame.getRGB(160, 120));
+		assertTrue(centre.getBlue() > centre.getRed());
+		Color boundary = new Color(frame.getRGB(214, 120));
+		assertTrue(boundary.getRed() > 0 && boundary.getGreen() > 0);
+		assertEquals(0, frame.getRGB(5, 5) & 0xFFFFFF);
+
+		// Drawing a newer snapshot moves the entities
+		robot.setPosture(new Posture(120, 70, 0));
+		frame = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+		g = frame.createGraphics();
+		overlay.draw(g, 320, 240, model.createSnapshot(2));
+		assertEquals(0, frame.getRGB(160, 120) & 0xFFFFFF);
+	}
+}
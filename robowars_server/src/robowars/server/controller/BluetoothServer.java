@@ -35,7 +35,7 @@ public class BluetoothServer {
 	 * with the ServerLobby).
 	 */
 	public void initRobotDetection() {
-		new Thread(new Runnable() {
+		ConnectionThreads.start(new Runnable() {
 			@Override
 			public void run() {
 				try {
@@ -56,6 +56,6 @@ public class BluetoothServer {
 					return;
 				}
 			}
-		}).start();
+		}, "BluetoothDiscovery");
 	}
 }
@@ -7,11 +7,10 @@ import robowars.shared.model.CameraPosition;
 import com.lti.civil.CaptureDeviceInfo;
 import com.lti.civil.CaptureException;
 import com.lti.civil.CaptureStream;
-import com.lti.civil.CaptureSystem;
-import com.lti.civil.impl.jni.NativeCaptureSystemFactory;
 
 /**
- * Handles data transfer with a single connected USB camera. This class also
+ * Handles data transfer with a single connected USB camera (or another
+ * VideoSource, such as a generated test pattern). This class also
  * handles access to information on the location and field of view of the 
  * connected camera (which is required for rendering calculations).
  * 
@@ -23,9 +22,9 @@ public class CameraController {
 	
 	/**
 	 * Stores details on the camera controlled by this controller, such descriptive
-	 * name and identifier.
+	 * name and identifier, and opens capture streams for the camera.
 	 */
-	private transient CaptureDeviceInfo deviceInfo;
+	private transient VideoSource deviceInfo;
 	
 	/** 
 	 * A text description of the device (usually the name of the camera, ex.
@@ -45,14 +44,22 @@ public class CameraController {
 	 * 				this controller should manage.
 	 */
 	public CameraController(CaptureDeviceInfo info) {
-		deviceInfo = info;
+		this(info instanceof VideoSource ? (VideoSource)info : new CaptureDeviceSource(info));
+	}
+	
+	/**
+	 * Generates a new CameraController reading frames from a video source.
+	 * @param source	The source of the camera's frames
+	 */
+	public CameraController(VideoSource source) {
+		deviceInfo = source;
 		deviceDescription =  deviceInfo.getDescription();
 		position = new CameraPosition();
 	}
 	
 	/**
 	 * @return	The device identifier of the camera (a unique string used by
-	 * 			LTI-Civil to identify the camera).
+	 * 			LTI-Civil, or the VideoSource, to identify the camera).
 	 */
 	public String getDeviceId() {
 		if(deviceInfo == null) return null;
@@ -76,12 +83,8 @@ public class CameraController {
 	public CaptureStream getCaptureStream() {
 		if(deviceInfo == null) return null;
 		
-		NativeCaptureSystemFactory captureFactory = new NativeCaptureSystemFactory();
-		CaptureSystem captureSystem;
 		try {
-			captureSystem = captureFactory.createCaptureSystem();
-			captureSystem.init();
-			return  captureSystem.openCaptureDeviceStream(deviceInfo.getDeviceID());
+			return deviceInfo.openStream();
 		} catch (CaptureException e) {
 			log.error("Error opening capture stream for device: " + deviceInfo.getDescription());
 			return null;
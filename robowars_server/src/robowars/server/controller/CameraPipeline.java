@@ -0,0 +1,211 @@
+package robowars.server.controller;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.Collection;
+import java.util.EnumMap;
+
+import org.apache.log4j.Logger;
+
+import com.lti.civil.CaptureException;
+import com.lti.civil.CaptureObserver;
+import com.lti.civil.CaptureStream;
+import com.lti.civil.Image;
+
+/**
+ * Captures, encodes and sends the video of a single camera. Each pipeline
+ * has its own capture stream, FrameEncoder thread, MediaSender threads and
+ * UDP socket, so that several cameras can be streamed concurrently without
+ * a slow camera or encoder delaying the others.
+ *
+ * Packets of every pipeline are sent to the same client port, and are told
+ * apart by their stream identifier (see MediaFrame): the streams of a
+ * pipeline are numbered from its stream base, one per VideoQuality.
+ *
+ * @author Alexander Craig
+ */
+public class CameraPipeline {
+	/** The logger used by this class */
+	private static Logger log = Logger.getLogger(CameraPipeline.class);
+
+	/** The camera streamed by this pipeline */
+	private final CameraController camera;
+
+	/** Channel used to send this camera's packets */
+	private final DatagramChannel channel;
+
+	/** The local port the channel is bound to */
+	private final int port;
+
+	/** Sends packetized frames to the clients served at each quality */
+	private final EnumMap<VideoQuality, MediaSender> senders;
+
+	/** Encodes captured frames */
+	private final FrameEncoder encoder;
+
+	/** The capture stream of the camera (null until started) */
+	private CaptureStream stream;
+
+	/**
+	 * Generates a new CameraPipeline, opening its socket and starting its
+	 * encoder and sender threads. start() must be called to begin capturing.
+	 * @param camera	The camera to stream
+	 * @param streamBase	The stream identifier of the pipeline's first quality
+	 * @param destinationPort	The port that clients receive packets on
+	 * @throws IOException	If the socket could not be opened
+	 */
+	public CameraPipeline(CameraController camera, int streamBase, int destinationPort)
+			throws IOException {
+		this.camera = camera;
+		channel = DatagramChannel.open();
+		channel.socket().bind(new InetSocketAddress(0));
+		port = channel.socket().getLocalPort();
+
+		senders = new EnumMap<VideoQuality, MediaSender>(VideoQuality.class);
+		for(VideoQuality quality : VideoQuality.values()) {
+			MediaSender sender = new MediaSender(channel, destinationPort);
+			senders.put(quality, sender);
+			Thread senderThread = new Thread(sender, "MediaSender-" + port + "-" + quality);
+			senderThread.setDaemon(true);
+			senderThread.start();
+		}
+
+		encoder = new FrameEncoder(senders, streamBase);
+		Thread encoderThread = new Thread(encoder, "MediaEncoder-" + port);
+		encoderThread.setDaemon(true);
+		encoderThread.start();
+		stream = null;
+	}
+
+	/**
+	 * Starts capturing from the camera.
+	 * @param stream	The capture stream opened for the camera
+	 * @param observer	The observer to receive captured frames (which should
+	 * 					pass them to offer())
+	 * @return	True if the capture was started
+	 */
+	public synchronized boolean start(CaptureStream stream, CaptureObserver observer) {
+		try {
+			MediaStreamer.selectVideoFormat(stream);
+			stream.setObserver(observer);
+			stream.start();
+			this.stream = stream;
+			log.info("Streaming camera \"" + camera + "\" from port: " + getPort());
+			return true;
+		} catch (CaptureException e) {
+			log.error("Attempt to start capture from camera \"" + camera + "\" failed.");
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Hands a captured frame to the pipeline's encoder.
+	 * @param image	The captured image (only used during this call)
+	 */
+	public void offer(Image image) {
+		encoder.offer(image);
+	}
+
+	/**
+	 * Sets the overlay drawn over this camera's frames before encoding.
+	 * @param overlay	The overlay to draw, or null to disable
+	 */
+	public void setOverlay(ArenaOverlay overlay) {
+		encoder.setOverlay(overlay);
+	}
+	
+	/**
+	 * @return	The overlay drawn over this camera's frames (or null if none)
+	 */
+	public ArenaOverlay getOverlay() {
+		return encoder.getOverlay();
+	}
+	
+	/**
+	 * Sets the clients that receive this camera at a given quality.
+	 * @param quality	A video quality tier
+	 * @param addresses	The addresses of the clients served at that quality
+	 */
+	public void setDestinations(VideoQuality quality, Collection<InetAddress> addresses) {
+		senders.get(quality).setDestinations(addresses);
+	}
+
+	/**
+	 * @return	The number of distinct client addresses receiving this camera
+	 */
+	public int getNumDestinations() {
+		int total = 0;
+		for(MediaSender sender : senders.values()) {
+			total += sender.getNumDestinations();
+		}
+		return total;
+	}
+
+	/**
+	 * Stops capturing, and stops the pipeline's threads and socket.
+	 */
+	public synchronized void close() {
+		if(stream != null) {
+			try {
+				stream.stop();
+			} catch (CaptureException e) {
+				log.error("Attempt to stop capture from camera \"" + camera + "\" failed.");
+			} finally {
+				stream.setObserver(null);
+				try {
+					stream.dispose();
+				} catch (CaptureException e) {
+					log.error("Attempt to dispose capture stream failed.");
+				}
+				stream = null;
+			}
+		}
+
+		encoder.close();
+		for(MediaSender sender : senders.values()) {
+			sender.close();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) { }
+	}
+
+	/**
+	 * @return	The camera streamed by this pipeline
+	 */
+	public CameraController getCamera() {
+		return camera;
+	}
+
+	/**
+	 * @return	The capture stream of the camera (null if not started)
+	 */
+	public synchronized CaptureStream getCaptureStream() {
+		return stream;
+	}
+
+	/**
+	 * @return	The local port this pipeline sends packets from
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return	The encoder of this camera's frames
+	 */
+	public FrameEncoder getFrameEncoder() {
+		return encoder;
+	}
+
+	/**
+	 * @param quality	A video quality tier
+	 * @return	The sender distributing this camera's frames at the passed quality
+	 */
+	public MediaSender getMediaSender(VideoQuality quality) {
+		return senders.get(quality);
+	}
+}
@@ -0,0 +1,110 @@
+package robowars.server.controller;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lti.civil.CaptureDeviceInfo;
+import com.lti.civil.CaptureException;
+import com.lti.civil.CaptureObserver;
+import com.lti.civil.CaptureStream;
+import com.lti.civil.VideoFormat;
+
+/**
+ * Unit tests for the CameraPipeline class.
+ *
+ * @author Alexander Craig
+ */
+public class CameraPipelineTest {
+	DatagramSocket receiveSocket;
+	CameraController camera;
+	CameraPipeline pipeline;
+	TestCaptureStream stream;
+
+	@Before
+	public void setUp() throws Exception {
+		receiveSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		receiveSocket.setSoTimeout(5000);
+		camera = new CameraController(new CaptureDeviceInfo() {
+			public String getDeviceID() { return "test-camera"; }
+			public String getDescription() { return "Test Camera"; }
+		});
+		pipeline = new CameraPipeline(camera, 6, receiveSocket.getLocalPort());
+		stream = new TestCaptureStream();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		pipeline.close();
+		receiveSocket.close();
+	}
+
+	@Test
+	public void testCapture() throws Exception {
+		CaptureObserver observer = new MediaStreamer(receiveSocket.getLocalPort());
+		assertTrue(pipeline.start(stream, observer));
+		assertTrue(stream.started);
+		assertSame(observer, stream.observer);
+		assertSame(stream, pipeline.getCaptureStream());
+		assertEquals(MediaStreamer.VIDEO_WIDTH, stream.format.getWidth());
+
+		pipeline.close();
+		assertFalse(stream.started);
+		assertTrue(stream.disposed);
+		assertNull(pipeline.getCaptureStream());
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		ArrayList<InetAddress> clients = new ArrayList<InetAddress>();
+		clients.add(InetAddress.getByName("127.0.0.1"));
+		pipeline.setDestinations(VideoQuality.MEDIUM, clients);
+		assertEquals(1, pipeline.getNumDestinations());
+
+		pipeline.offer(new FrameEncoderTest.TestImage(MediaStreamer.VIDEO_WIDTH,
+				MediaStreamer.VIDEO_HEIGHT, VideoFormat.RGB24));
+
+		// Packets identify the pipeline's stream at the client's quality, and
+		// are sent from the pipeline's own port
+		byte buffer[] = new byte[2048];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		receiveSocket.receive(packet);
+		assertEquals(6 + VideoQuality.MEDIUM.ordinal(), buffer[MediaFrame.STREAM_OFFSET]);
+		assertEquals(pipeline.getPort(), packet.getPort());
+	}
+
+	/**
+	 * A capture stream which records the calls made to it.
+	 */
+	private static class TestCaptureStream implements CaptureStream {
+		boolean started = false;
+		boolean disposed = false;
+		CaptureObserver observer = null;
+		VideoFormat format = null;
+
+		public List<VideoFormat> enumVideoFormats() {
+			List<VideoFormat> formats = new ArrayList<VideoFormat>();
+			formats.add(new FrameEncoderTest.TestImage(640, 480, VideoFormat.RGB24));
+			formats.add(new FrameEncoderTest.TestImage(MediaStreamer.VIDEO_WIDTH,
+					MediaStreamer.VIDEO_HEIGHT, VideoFormat.RGB24));
+			return formats;
+		}
+		public void setVideoFormat(VideoFormat format) { this.format = format; }
+		public VideoFormat getVideoFormat() { return format; }
+		public void start() throws CaptureException { started = true; }
+		public void stop() throws CaptureException { started = false; }
+		public void dispose() throws CaptureException { disposed = true; }
+		public void setObserver(CaptureObserver observer) { this.observer = observer; }
+	}
+}
@@ -0,0 +1,44 @@
+package robowars.server.controller;
+
+import com.lti.civil.CaptureDeviceInfo;
+import com.lti.civil.CaptureException;
+import com.lti.civil.CaptureStream;
+import com.lti.civil.CaptureSystem;
+import com.lti.civil.impl.jni.NativeCaptureSystemFactory;
+
+/**
+ * A video source reading frames from a capture device detected by the
+ * LTI-Civil native capture system (i.e. a USB webcam).
+ * 
+ * @author Alexander Craig
+ */
+public class CaptureDeviceSource implements VideoSource {
+	/** The details of the capture device */
+	private CaptureDeviceInfo deviceInfo;
+	
+	/**
+	 * Generates a new CaptureDeviceSource.
+	 * @param info	The details of a device returned by the native capture system
+	 */
+	public CaptureDeviceSource(CaptureDeviceInfo info) {
+		deviceInfo = info;
+	}
+
+	public String getDeviceID() {
+		return deviceInfo.getDeviceID();
+	}
+
+	public String getDescription() {
+		return deviceInfo.getDescription();
+	}
+
+	/**
+	 * Opens a capture stream for the device through the native capture system.
+	 */
+	public CaptureStream openStream() throws CaptureException {
+		NativeCaptureSystemFactory captureFactory = new NativeCaptureSystemFactory();
+		CaptureSystem captureSystem = captureFactory.createCaptureSystem();
+		captureSystem.init();
+		return captureSystem.openCaptureDeviceStream(deviceInfo.getDeviceID());
+	}
+}
@@ -15,6 +15,8 @@ import java.io.Serializable;
  * LAUNCH_GAME - No Data
  * GAMEPLAY_COMMAND - Orientation Floats, String<Optional - Buttons Pressed>
  * DISCONNECT - No Data
+ * SNAPSHOT_ACK - Integer<Sequence number of the received game state snapshot>
+ * MEDIA_REPORT - Integer<Percentage of video frames lost since the last report>
  * 
  * @author Alexander Craig
  */
@@ -29,6 +31,8 @@ public class ClientCommand implements Serializable {
 	public static final int LAUNCH_GAME = 4;
 	public static final int GAMEPLAY_COMMAND = 5;
 	public static final int DISCONNECT = 6;
+	public static final int SNAPSHOT_ACK = 7;
+	public static final int MEDIA_REPORT = 8;
 	
 	/** 
 	 * Boolean flag used to indicate status for status changing messages
@@ -43,6 +47,9 @@ public class ClientCommand implements Serializable {
 	 */
 	private String stringData;
 	
+	/** Integer field used for acknowledging game state snapshots */
+	private Integer intData;
+	
 	/** The type of the command (constants defined in ClientCommand) */
 	private Integer commandType;
 	
@@ -61,6 +68,7 @@ public class ClientCommand implements Serializable {
 		this.commandType = commandType;
 		boolData = null;
 		stringData = null;
+		intData = null;
 		azimuth = null;
 		pitch = null;
 		roll = null;
@@ -103,6 +111,21 @@ public class ClientCommand implements Serializable {
 		return stringData;
 	}
 	
+	/**
+	 * Sets the integer data carried by the command.
+	 * @param data	The integer value to be carried by the command
+	 */
+	public void setIntData(Integer data) {
+		intData = data;
+	}
+	
+	/**
+	 * @return	The integer data carried by the command
+	 */
+	public Integer getIntData() {
+		return intData;
+	}
+	
 	/**
 	 * Sets the orientation data carried by the command. All orientation values
 	 * should be scaled to a range of 1 to -1.
@@ -0,0 +1,139 @@
+package robowars.server.controller;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the threads that run the blocking connection loops of the server
+ * (UserProxy readers started by TcpServer, RobotProxy position readers and
+ * Bluetooth robot discovery). The kind of thread is selected with the
+ * "robowars.server.threads" system property:
+ *
+ * "platform" (the default) starts a regular thread for every loop.
+ *
+ * "virtual" starts virtual threads when the JVM supports them (Java 21+),
+ * so that thousands of mostly idle connections can be serviced without
+ * exhausting native threads. On older JVMs this falls back to daemon
+ * platform threads with a reduced stack size.
+ *
+ * @author Alexander Craig
+ */
+public class ConnectionThreads {
+	/** The logger used by this class */
+	private static Logger log = Logger.getLogger(ConnectionThreads.class);
+
+	/** System property selecting the thread mode */
+	public static final String THREADS_PROPERTY = "robowars.server.threads";
+
+	/** Thread mode starting a regular platform thread for each loop */
+	public static final String MODE_PLATFORM = "platform";
+
+	/** Thread mode starting a virtual thread for each loop (if supported) */
+	public static final String MODE_VIRTUAL = "virtual";
+
+	/**
+	 * The stack size (in bytes) requested for platform threads when virtual
+	 * threads were requested but are not supported by the JVM
+	 */
+	public static final long COMPACT_STACK_SIZE = 256 * 1024;
+
+	/** The factory used to generate new threads (null until first use) */
+	private static ThreadFactory factory = null;
+
+	/** True if the factory generates virtual threads */
+	private static boolean virtual = false;
+
+	/**
+	 * Selects the kind of thread used for connection loops started after this
+	 * call. Overrides the "robowars.server.threads" system property.
+	 * @param mode	MODE_PLATFORM or MODE_VIRTUAL
+	 */
+	public static synchronized void setMode(String mode) {
+		virtual = false;
+		factory = null;
+
+		if(MODE_VIRTUAL.equals(mode)) {
+			factory = createVirtualThreadFactory();
+			if(factory != null) {
+				virtual = true;
+				log.info("Connection loops will run on virtual threads.");
+			} else {
+				log.warn("Virtual threads are not supported by this JVM, using "
+						+ "compact platform threads for connection loops.");
+				factory = new CompactThreadFactory();
+			}
+		} else {
+			if(mode != null && !MODE_PLATFORM.equals(mode)) {
+				log.warn("Unrecognized thread mode: " + mode + ", using platform threads.");
+			}
+			factory = new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					return new Thread(r);
+				}
+			};
+		}
+	}
+
+	/**
+	 * @return	The factory used to generate threads for connection loops
+	 */
+	private static synchronized ThreadFactory getFactory() {
+		if(factory == null) {
+			setMode(System.getProperty(THREADS_PROPERTY, MODE_PLATFORM));
+		}
+		return factory;
+	}
+
+	/**
+	 * @return	True if connection loops run on virtual threads
+	 */
+	public static synchronized boolean isVirtual() {
+		getFactory();
+		return virtual;
+	}
+
+	/**
+	 * Starts a new thread running a blocking connection loop.
+	 * @param task	The loop to run
+	 * @param name	The name of the new thread
+	 * @return	The started thread
+	 */
+	public static Thread start(Runnable task, String name) {
+		Thread thread = getFactory().newThread(task);
+		thread.setName(name);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Uses reflection to obtain the factory returned by
+	 * Thread.ofVirtual().factory(), as the server is built against a Java
+	 * version which predates virtual threads.
+	 * @return	A factory generating virtual threads, or null if the JVM does
+	 * 			not support them
+	 */
+	private static ThreadFactory createVirtualThreadFactory() {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Method factoryMethod = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory)factoryMethod.invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Generates daemon platform threads with a reduced stack size, allowing
+	 * many more blocking connection loops before native memory is exhausted.
+	 */
+	private static class CompactThreadFactory implements ThreadFactory {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(null, r, "ConnectionThread", COMPACT_STACK_SIZE);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
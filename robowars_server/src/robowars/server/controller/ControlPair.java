@@ -1,5 +1,10 @@
 package robowars.server.controller;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import robowars.shared.model.Posture;
+
 /** 
  * Represents a pairing between a UserProxy and a RobotProxy
  * for the purposes of exchanging control commands.
@@ -12,6 +17,15 @@ public class ControlPair {
 	
 	/** The robot being controlled */
 	private RobotProxy robot;
+	
+	/** 
+	 * The latest posture reported by the robot that has not yet been applied
+	 * to the game model (null if there is none)
+	 */
+	private AtomicReference<Posture> reportedPosture;
+	
+	/** True if the user has fired since the game model was last updated */
+	private AtomicBoolean fireRequested;
 
 	/**
 	 * Generates a new control pair from a user and robot proxy
@@ -21,6 +35,8 @@ public class ControlPair {
 	public ControlPair(UserProxy user, RobotProxy robot) {
 		this.user = user;
 		this.robot = robot;
+		reportedPosture = new AtomicReference<Posture>();
+		fireRequested = new AtomicBoolean(false);
 	}
 	
 	/**
@@ -36,4 +52,39 @@ public class ControlPair {
 	public RobotProxy getRobotProxy() {
 		return robot;
 	}
+	
+	/**
+	 * Records a posture reported by the robot, replacing any earlier report
+	 * that has not yet been applied.
+	 * @param posture	The reported posture
+	 */
+	public void reportPosture(Posture posture) {
+		reportedPosture.set(posture);
+	}
+	
+	/**
+	 * Removes the latest reported posture, so that it can be applied to the
+	 * game model.
+	 * @return	The latest reported posture (null if none was reported since
+	 * 			the last call)
+	 */
+	public Posture takeReportedPosture() {
+		return reportedPosture.getAndSet(null);
+	}
+	
+	/**
+	 * Records that the user has fired. Requests made before the game model
+	 * is next updated are combined into one.
+	 */
+	public void requestFire() {
+		fireRequested.set(true);
+	}
+	
+	/**
+	 * Removes the fire request, so that it can be applied to the game model.
+	 * @return	True if the user has fired since the last call
+	 */
+	public boolean takeFireRequest() {
+		return fireRequested.getAndSet(false);
+	}
 }
@@ -0,0 +1,211 @@
+package robowars.server.controller;
+
+/**
+ * Converts measured wall clock time into a whole number of fixed length
+ * simulation steps. Elapsed time is collected in an accumulator, and each
+ * call to advance() consumes as many full steps as are available, so that
+ * the game model is always integrated with the same time delta regardless
+ * of scheduling jitter. If the loop falls too far behind, the number of
+ * steps run at once is capped and the remaining backlog is discarded.
+ *
+ * This class also records timing statistics for the steps that were run
+ * (tick duration, and the number of ticks that exceeded their time budget).
+ *
+ * @author Alexander Craig
+ */
+public class FixedTimestep {
+	/** The number of nanoseconds in a millisecond */
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	/** The length of a single simulation step (in ms) */
+	private final long stepMillis;
+
+	/** The length of a single simulation step (in ns) */
+	private final long stepNanos;
+
+	/**
+	 * The maximum number of steps that will be returned by a single call
+	 * to advance(). Any additional accumulated time is discarded.
+	 */
+	private final int maxCatchUpSteps;
+
+	/** Time (in ns) that has elapsed but has not yet been simulated */
+	private long accumulator;
+
+	/** The timestamp passed to the last call to advance() (or start()) */
+	private long lastTime;
+
+	/** True once start() has been called */
+	private boolean started;
+
+	/** The total number of steps that have been recorded */
+	private long tickCount;
+
+	/** The number of steps whose processing took longer than the step length */
+	private long overrunCount;
+
+	/** The number of steps discarded due to the catch up cap */
+	private long droppedSteps;
+
+	/** Duration (in ns) of the most recently recorded step */
+	private long lastTickNanos;
+
+	/** The longest duration (in ns) of any recorded step */
+	private long maxTickNanos;
+
+	/** Sum of the duration (in ns) of all recorded steps */
+	private long totalTickNanos;
+
+	/**
+	 * Generates a new FixedTimestep
+	 * @param tickRate	The desired number of simulation steps per second. The
+	 * 					step length is rounded to a whole number of milliseconds,
+	 * 					as game models are integrated in milliseconds.
+	 * @param maxCatchUpSteps	The maximum number of steps to run in a single
+	 * 							call to advance()
+	 */
+	public FixedTimestep(int tickRate, int maxCatchUpSteps) {
+		if(tickRate <= 0) {
+			throw new IllegalArgumentException("Tick rate must be positive.");
+		}
+
+		this.stepMillis = Math.max(1, Math.round(1000f / tickRate));
+		this.stepNanos = stepMillis * NANOS_PER_MILLI;
+		this.maxCatchUpSteps = Math.max(1, maxCatchUpSteps);
+		started = false;
+		accumulator = 0;
+		tickCount = 0;
+		overrunCount = 0;
+		droppedSteps = 0;
+		lastTickNanos = 0;
+		maxTickNanos = 0;
+		totalTickNanos = 0;
+	}
+
+	/**
+	 * Resets the accumulator and sets the reference time for the next call
+	 * to advance().
+	 * @param now	The current time (in ns, as returned by System.nanoTime())
+	 */
+	public synchronized void start(long now) {
+		lastTime = now;
+		accumulator = 0;
+		started = true;
+	}
+
+	/**
+	 * Adds the time elapsed since the last call to the accumulator, and
+	 * returns the number of whole steps that should now be simulated.
+	 * @param now	The current time (in ns, as returned by System.nanoTime())
+	 * @return	The number of steps to simulate (between 0 and the catch up cap)
+	 */
+	public synchronized int advance(long now) {
+		if(!started) {
+			start(now);
+			return 0;
+		}
+
+		accumulator += Math.max(0, now - lastTime);
+		lastTime = now;
+
+		long steps = accumulator / stepNanos;
+		accumulator -= steps * stepNanos;
+
+		if(steps > maxCatchUpSteps) {
+			droppedSteps += steps - maxCatchUpSteps;
+			steps = maxCatchUpSteps;
+		}
+
+		return (int)steps;
+	}
+
+	/**
+	 * Records the processing time of a single simulation step.
+	 * @param durationNanos	The time (in ns) taken to process the step
+	 */
+	public synchronized void recordTick(long durationNanos) {
+		tickCount++;
+		lastTickNanos = durationNanos;
+		totalTickNanos += durationNanos;
+		if(durationNanos > maxTickNanos) {
+			maxTickNanos = durationNanos;
+		}
+		if(durationNanos > stepNanos) {
+			overrunCount++;
+		}
+	}
+
+	/**
+	 * @return	The length of a simulation step (in ms)
+	 */
+	public long getStepMillis() {
+		return stepMillis;
+	}
+
+	/**
+	 * @return	The length of a simulation step (in ns)
+	 */
+	public long getStepNanos() {
+		return stepNanos;
+	}
+
+	/**
+	 * @return	The maximum number of steps run by a single call to advance()
+	 */
+	public int getMaxCatchUpSteps() {
+		return maxCatchUpSteps;
+	}
+
+	/**
+	 * @return	The total number of steps recorded
+	 */
+	public synchronized long getTickCount() {
+		return tickCount;
+	}
+
+	/**
+	 * @return	The number of steps whose processing exceeded the step length
+	 */
+	public synchronized long getOverrunCount() {
+		return overrunCount;
+	}
+
+	/**
+	 * @return	The number of steps discarded because the loop fell further
+	 * 			behind than the catch up cap allows
+	 */
+	public synchronized long getDroppedSteps() {
+		return droppedSteps;
+	}
+
+	/**
+	 * @return	The processing time (in ns) of the most recent step
+	 */
+	public synchronized long getLastTickNanos() {
+		return lastTickNanos;
+	}
+
+	/**
+	 * @return	The longest processing time (in ns) of any step
+	 */
+	public synchronized long getMaxTickNanos() {
+		return maxTickNanos;
+	}
+
+	/**
+	 * @return	The average processing time (in ns) of all recorded steps
+	 */
+	public synchronized long getAverageTickNanos() {
+		if(tickCount == 0) return 0;
+		return totalTickNanos / tickCount;
+	}
+
+	/**
+	 * @return	A string summary of the recorded tick statistics
+	 */
+	public synchronized String toString() {
+		return "[step:" + stepMillis + "ms|ticks:" + tickCount
+			+ "|avg:" + (getAverageTickNanos() / 1000) + "us|max:" + (maxTickNanos / 1000)
+			+ "us|overruns:" + overrunCount + "|dropped:" + droppedSteps + "]";
+	}
+}
@@ -0,0 +1,83 @@
+package robowars.server.controller;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for FixedTimestep
+ *
+ * @author Alexander Craig
+ */
+public class FixedTimestepTest {
+
+	private static final long MS = 1000000L;
+
+	private FixedTimestep testTimestep;
+
+	@Before
+	public void setUp() throws Exception {
+		testTimestep = new FixedTimestep(100, 3);
+	}
+
+	@Test
+	public void testStepLength() {
+		assertEquals(10, testTimestep.getStepMillis());
+		assertEquals(10 * MS, testTimestep.getStepNanos());
+
+		// Step lengths are rounded to whole milliseconds
+		assertEquals(17, new FixedTimestep(60, 5).getStepMillis());
+		assertEquals(8, new FixedTimestep(120, 5).getStepMillis());
+		assertEquals(1, new FixedTimestep(5000, 5).getStepMillis());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidTickRate() {
+		new FixedTimestep(0, 5);
+	}
+
+	@Test
+	public void testAdvance() {
+		// The first call only establishes the reference time
+		assertEquals(0, testTimestep.advance(0));
+
+		// Partial steps are accumulated until a full step is available
+		assertEquals(0, testTimestep.advance(4 * MS));
+		assertEquals(0, testTimestep.advance(9 * MS));
+		assertEquals(1, testTimestep.advance(12 * MS));
+		assertEquals(1, testTimestep.advance(22 * MS));
+		assertEquals(2, testTimestep.advance(40 * MS));
+
+		// Time moving backwards is ignored
+		assertEquals(0, testTimestep.advance(35 * MS));
+		assertEquals(0, testTimestep.getDroppedSteps());
+	}
+
+	@Test
+	public void testCatchUpCap() {
+		testTimestep.start(0);
+
+		// 10 steps elapsed, but only 3 may be run at once
+		assertEquals(3, testTimestep.advance(105 * MS));
+		assertEquals(7, testTimestep.getDroppedSteps());
+
+		// The remaining partial step is kept
+		assertEquals(1, testTimestep.advance(110 * MS));
+	}
+
+	@Test
+	public void testStatistics() {
+		assertEquals(0, testTimestep.getAverageTickNanos());
+
+		testTimestep.recordTick(2 * MS);
+		testTimestep.recordTick(4 * MS);
+		testTimestep.recordTick(15 * MS);
+
+		assertEquals(3, testTimestep.getTickCount());
+		assertEquals(15 * MS, testTimestep.getLastTickNanos());
+		assertEquals(15 * MS, testTimestep.getMaxTickNanos());
+		assertEquals(7 * MS, testTimestep.getAverageTickNanos());
+		assertEquals(1, testTimestep.getOverrunCount());
+	}
+}
@@ -0,0 +1,464 @@
+package robowars.server.controller;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.apache.log4j.Logger;
+
+import com.lti.civil.Image;
+import com.lti.civil.VideoFormat;
+
+/**
+ * JPEG encodes captured video frames on a dedicated thread, and submits the
+ * encoded frames to the MediaSender of each VideoQuality.
+ *
+ * The capture thread only copies each frame into a reused BufferedImage
+ * (stored in the BGR layout the JPEG writer encodes without conversion) and
+ * hands it over through a single pending slot: if the encoder is still busy
+ * when a newer frame is offered, the older pending frame is discarded. The
+ * JPEG writer and its parameters are created once for each quality, and
+ * scaled images are drawn into reused buffers, so encoding does not look up
+ * writers or allocate images per frame.
+ *
+ * An ArenaOverlay can be set to draw the entities of a game over each frame
+ * before it is encoded (and scaled), so every quality includes the overlay.
+ *
+ * @author Alexander Craig
+ */
+public class FrameEncoder implements Runnable {
+	/** The logger used by this class */
+	private static Logger log = Logger.getLogger(FrameEncoder.class);
+
+	/** The number of pooled captured frames */
+	private static final int POOL_SIZE = 3;
+
+	/** The number of frames between logged encode latency summaries */
+	public static final int LOG_INTERVAL = 300;
+
+	/** The senders distributing frames at each quality */
+	private final EnumMap<VideoQuality, MediaSender> senders;
+
+	/** The JPEG writer used for each quality (indexed by ordinal) */
+	private final ImageWriter writers[];
+
+	/** The write parameters (JPEG quality) used for each quality (indexed by ordinal) */
+	private final ImageWriteParam params[];
+
+	/** Reused buffers holding frames scaled for each quality (indexed by ordinal) */
+	private final BufferedImage scaledImages[];
+
+	/** The capture time of the last frame encoded at each quality (indexed by ordinal) */
+	private final long lastImageWrite[];
+
+	/** Captured frames that are not pending or being encoded (guarded by this) */
+	private final ArrayList<CapturedFrame> freeFrames;
+
+	/** The next frame to encode, or null if none is waiting (guarded by this) */
+	private CapturedFrame pendingFrame;
+
+	/** The stream identifier of the first quality (see MediaFrame) */
+	private final int streamBase;
+
+	/** The next frame ID of each quality's stream (indexed by ordinal) */
+	private final int nextFrameId[];
+
+	/** Draws game entities over each frame (null if disabled) */
+	private volatile ArenaOverlay overlay;
+
+	/** False once the encoder has been closed */
+	private volatile boolean running;
+
+	/** The number of captured frames encoded */
+	private volatile long framesEncoded;
+
+	/** The number of captured frames discarded before being encoded */
+	private volatile long framesDropped;
+
+	/** The total time spent encoding frames (in ns) */
+	private volatile long totalEncodeTime;
+
+	/** The longest time spent encoding a single frame (in ns) */
+	private volatile long maxEncodeTime;
+
+	/** The total time from capture until frames were handed to the senders (in ns) */
+	private volatile long totalLatency;
+
+	/**
+	 * Generates a new FrameEncoder. run() must be called from a new thread
+	 * to start encoding.
+	 * @param senders	The sender to submit frames to for each quality
+	 */
+	public FrameEncoder(Map<VideoQuality, MediaSender> senders) {
+		this(senders, 0);
+	}
+
+	/**
+	 * Generates a new FrameEncoder. run() must be called from a new thread
+	 * to start encoding.
+	 * @param senders	The sender to submit frames to for each quality
+	 * @param streamBase	The stream identifier of the first quality (the
+	 * 						stream of each quality is streamBase + its ordinal)
+	 */
+	public FrameEncoder(Map<VideoQuality, MediaSender> senders, int streamBase) {
+		this.streamBase = streamBase;
+		this.senders = new EnumMap<VideoQuality, MediaSender>(senders);
+		int numQualities = VideoQuality.values().length;
+		writers = new ImageWriter[numQualities];
+		params = new ImageWriteParam[numQualities];
+		scaledImages = new BufferedImage[numQualities];
+		lastImageWrite = new long[numQualities];
+
+		for(VideoQuality quality : VideoQuality.values()) {
+			ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality.getJpegQuality());
+			writers[quality.ordinal()] = writer;
+			params[quality.ordinal()] = param;
+		}
+
+		freeFrames = new ArrayList<CapturedFrame>(POOL_SIZE);
+		for(int i = 0; i < POOL_SIZE; i++) {
+			freeFrames.add(new CapturedFrame());
+		}
+		pendingFrame = null;
+		overlay = null;
+		nextFrameId = new int[numQualities];
+		running = true;
+		framesEncoded = 0;
+		framesDropped = 0;
+		totalEncodeTime = 0;
+		maxEncodeTime = 0;
+		totalLatency = 0;
+	}
+
+	/**
+	 * Returns true if a frame captured at the passed time should be sent at
+	 * any quality (i.e. a quality with clients is due a new frame).
+	 * @param captureTime	The time the frame was captured (in ms)
+	 * @param quality	The quality to check, or null to check every quality
+	 * @return	True if the frame should be encoded
+	 */
+	private boolean isFrameDue(long captureTime, VideoQuality quality) {
+		for(Map.Entry<VideoQuality, MediaSender> entry : senders.entrySet()) {
+			VideoQuality q = entry.getKey();
+			if(quality != null && q != quality) continue;
+			if(entry.getValue().getNumDestinations() > 0
+					&& captureTime > lastImageWrite[q.ordinal()] + q.getFrameInterval()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copies a captured image into a pooled frame, and queues it to be encoded
+	 * (replacing any frame still waiting to be encoded). Frames are ignored if
+	 * no quality is due a new frame. Must only be called by one thread at a
+	 * time (the capture thread).
+	 * @param image	The captured image (only used during this call)
+	 */
+	public void offer(Image image) {
+		long captureTime = System.currentTimeMillis();
+		if(!isFrameDue(captureTime, null)) return;
+
+		CapturedFrame frame;
+		synchronized(this) {
+			if(!freeFrames.isEmpty()) {
+				frame = freeFrames.remove(freeFrames.size() - 1);
+			} else {
+				frame = pendingFrame;
+				pendingFrame = null;
+				framesDropped++;
+			}
+		}
+
+		frame.image = copyImage(image, frame.image);
+		frame.captureTime = captureTime;
+		frame.captureNanos = System.nanoTime();
+
+		synchronized(this) {
+			if(pendingFrame != null) {
+				freeFrames.add(pendingFrame);
+				framesDropped++;
+			}
+			pendingFrame = frame;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Copies the pixels of a captured image into a BGR BufferedImage.
+	 * @param image	The captured image (RGB24 or RGB32 format)
+	 * @param dest	The image to copy into, or null to allocate a new image
+	 * @return	The destination image (a new image is allocated if dest is
+	 * 			null or does not match the resolution of the captured image)
+	 */
+	static BufferedImage copyImage(Image image, BufferedImage dest) {
+		VideoFormat format = image.getFormat();
+		int width = format.getWidth();
+		int height = format.getHeight();
+		if(dest == null || dest.getWidth() != width || dest.getHeight() != height) {
+			dest = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		}
+
+		byte src[] = image.getBytes();
+		byte pixels[] = ((DataBufferByte)dest.getRaster().getDataBuffer()).getData();
+		if(format.getFormatType() == VideoFormat.RGB24) {
+			System.arraycopy(src, 0, pixels, 0, pixels.length);
+		} else if (format.getFormatType() == VideoFormat.RGB32) {
+			// Drop the alpha byte of each pixel
+			for(int s = 0, d = 0; d < pixels.length; s += 4, d += 3) {
+				pixels[d] = src[s];
+				pixels[d + 1] = src[s + 1];
+				pixels[d + 2] = src[s + 2];
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported capture format: "
+					+ format.getFormatType());
+		}
+		return dest;
+	}
+
+	/**
+	 * Encodes each queued frame until closed.
+	 */
+	public void run() {
+		while(running) {
+			CapturedFrame frame;
+			synchronized(this) {
+				while(pendingFrame == null && running) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				frame = pendingFrame;
+				pendingFrame = null;
+			}
+			if(frame == null) break;
+
+			drawOverlay(frame);
+			encode(frame);
+
+			synchronized(this) {
+				freeFrames.add(frame);
+			}
+		}
+
+		for(ImageWriter writer : writers) {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Draws the overlay (if any) over a captured frame. The graphics context
+	 * of each pooled image is created once, and reused for later frames.
+	 * @param frame	The frame to draw over
+	 */
+	private void drawOverlay(CapturedFrame frame) {
+		ArenaOverlay current = overlay;
+		if(current == null) return;
+		if(frame.graphics == null || frame.graphicsImage != frame.image) {
+			if(frame.graphics != null) {
+				frame.graphics.dispose();
+			}
+			frame.graphics = frame.image.createGraphics();
+			frame.graphicsImage = frame.image;
+		}
+		current.draw(frame.graphics, frame.image.getWidth(), frame.image.getHeight());
+	}
+
+	/**
+	 * Sets the overlay drawn over each frame before it is encoded.
+	 * @param overlay	The overlay to draw, or null to disable
+	 */
+	public void setOverlay(ArenaOverlay overlay) {
+		this.overlay = overlay;
+	}
+
+	/**
+	 * @return	The overlay drawn over each frame (or null if disabled)
+	 */
+	public ArenaOverlay getOverlay() {
+		return overlay;
+	}
+
+	/**
+	 * Encodes a captured frame for every quality that is due a new frame, and
+	 * records the encode latency.
+	 * @param frame	The frame to encode
+	 */
+	private void encode(CapturedFrame frame) {
+		long start = System.nanoTime();
+		for(Map.Entry<VideoQuality, MediaSender> entry : senders.entrySet()) {
+			VideoQuality quality = entry.getKey();
+			if(!isFrameDue(frame.captureTime, quality)) continue;
+			lastImageWrite[quality.ordinal()] = frame.captureTime;
+
+			try {
+				encodeFrame(entry.getValue(), scaleImage(frame.image, quality), quality,
+						frame.captureTime);
+			} catch (IOException e) {
+				log.error("Error encoding image frame.");
+				e.printStackTrace();
+			}
+		}
+		long end = System.nanoTime();
+
+		long encodeTime = end - start;
+		totalEncodeTime += encodeTime;
+		totalLatency += end - frame.captureNanos;
+		if(encodeTime > maxEncodeTime) {
+			maxEncodeTime = encodeTime;
+		}
+		framesEncoded++;
+
+		if(framesEncoded % LOG_INTERVAL == 0 && log.isDebugEnabled()) {
+			log.debug(String.format("Encoded %d frames (%d dropped), average encode time: "
+					+ "%.2f ms, max: %.2f ms, average latency: %.2f ms", framesEncoded,
+					framesDropped, getAverageEncodeTime(), maxEncodeTime / 1e6,
+					getAverageLatency()));
+		}
+	}
+
+	/**
+	 * Returns a captured image scaled to the resolution of a quality tier. The
+	 * scaled image is drawn into a buffer reused for every frame of the tier.
+	 * @param captured	The captured image
+	 * @param quality	The quality the image will be sent at
+	 * @return	The scaled image (or the captured image if no scaling is needed)
+	 */
+	private BufferedImage scaleImage(BufferedImage captured, VideoQuality quality) {
+		int width = quality.getWidth();
+		int height = quality.getHeight();
+		if(captured.getWidth() == width && captured.getHeight() == height) {
+			return captured;
+		}
+
+		BufferedImage scaled = scaledImages[quality.ordinal()];
+		if(scaled == null) {
+			scaled = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+			scaledImages[quality.ordinal()] = scaled;
+		}
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(captured, 0, 0, width, height, null);
+		g.dispose();
+		return scaled;
+	}
+
+	/**
+	 * JPEG encodes an image into a pooled frame and submits it to a sender.
+	 * Each quality is sent as a separate stream (identified by streamBase plus
+	 * its ordinal) with its own frame IDs.
+	 * @param sender	The sender to submit the frame to
+	 * @param image	The image to encode
+	 * @param quality	The quality the image is sent at
+	 * @param captureTime	The time the image was captured (in ms)
+	 */
+	private void encodeFrame(MediaSender sender, BufferedImage image, VideoQuality quality,
+			long captureTime) throws IOException {
+		ImageWriter writer = writers[quality.ordinal()];
+		MediaFrame frame = sender.acquireFrame();
+		try {
+			// An explicit memory cache stops ImageIO from buffering
+			// each frame through a temporary file
+			ImageOutputStream imageOut = new MemoryCacheImageOutputStream(
+					frame.begin(streamBase + quality.ordinal(), nextFrameId[quality.ordinal()]++, captureTime,
+							MediaStreamer.PACKET_SIZE));
+			writer.setOutput(imageOut);
+			writer.write(null, new IIOImage(image, null, null), params[quality.ordinal()]);
+			writer.setOutput(null);
+			imageOut.close();
+			frame.finish(MediaStreamer.PARITY_GROUP_SIZE);
+		} catch (IOException e) {
+			writer.reset();
+			sender.release(frame);
+			throw e;
+		}
+		sender.submit(frame);
+	}
+
+	/**
+	 * Stops the encoder thread. Pending frames are discarded.
+	 */
+	public synchronized void close() {
+		running = false;
+		notifyAll();
+	}
+
+	/**
+	 * @return	The number of captured frames encoded
+	 */
+	public long getFramesEncoded() {
+		return framesEncoded;
+	}
+
+	/**
+	 * @return	The number of captured frames discarded because the encoder was busy
+	 */
+	public long getFramesDropped() {
+		return framesDropped;
+	}
+
+	/**
+	 * @return	The average time spent encoding a captured frame at every
+	 * 			quality (in ms)
+	 */
+	public double getAverageEncodeTime() {
+		long frames = framesEncoded;
+		return frames == 0 ? 0 : totalEncodeTime / 1e6 / frames;
+	}
+
+	/**
+	 * @return	The longest time spent encoding a single captured frame (in ms)
+	 */
+	public double getMaxEncodeTime() {
+		return maxEncodeTime / 1e6;
+	}
+
+	/**
+	 * @return	The average time from capture until a frame was handed to the
+	 * 			senders, including time spent waiting to be encoded (in ms)
+	 */
+	public double getAverageLatency() {
+		long frames = framesEncoded;
+		return frames == 0 ? 0 : totalLatency / 1e6 / frames;
+	}
+
+	/**
+	 * A pooled copy of a captured image.
+	 */
+	private static class CapturedFrame {
+		/** The copied pixels (reused between frames) */
+		BufferedImage image = null;
+
+		/** The time the frame was captured (in ms) */
+		long captureTime;
+
+		/** The time the frame was captured (in ns, for latency measurement) */
+		long captureNanos;
+
+		/** The graphics context used to draw overlays (created on first use) */
+		Graphics2D graphics = null;
+
+		/** The image the graphics context draws into */
+		BufferedImage graphicsImage = null;
+	}
+}
@@ -0,0 +1,170 @@
+package robowars.server.controller;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.EnumMap;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lti.civil.Image;
+import com.lti.civil.VideoFormat;
+
+/**
+ * Unit tests for the FrameEncoder class.
+ *
+ * @author Alexander Craig
+ */
+public class FrameEncoderTest {
+	DatagramChannel sendChannel;
+	DatagramSocket receiveSocket;
+	EnumMap<VideoQuality, MediaSender> senders;
+	FrameEncoder encoder;
+
+	@Before
+	public void setUp() throws Exception {
+		sendChannel = DatagramChannel.open();
+		sendChannel.socket().bind(new InetSocketAddress(0));
+		receiveSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		receiveSocket.setSoTimeout(5000);
+
+		senders = new EnumMap<VideoQuality, MediaSender>(VideoQuality.class);
+		for(VideoQuality quality : VideoQuality.values()) {
+			senders.put(quality, new MediaSender(sendChannel, receiveSocket.getLocalPort()));
+		}
+		ArrayList<InetAddress> clients = new ArrayList<InetAddress>();
+		clients.add(InetAddress.getByName("127.0.0.1"));
+		senders.get(VideoQuality.LOW).setDestinations(clients);
+		encoder = new FrameEncoder(senders);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		encoder.close();
+		for(MediaSender sender : senders.values()) {
+			sender.close();
+		}
+		sendChannel.close();
+		receiveSocket.close();
+	}
+
+	@Test
+	public void testCopyImage() {
+		TestImage rgb24 = new TestImage(4, 2, VideoFormat.RGB24);
+		BufferedImage copy = FrameEncoder.copyImage(rgb24, null);
+		assertEquals(BufferedImage.TYPE_3BYTE_BGR, copy.getType());
+		assertEquals(rgb24.getPixel(1, 1), copy.getRGB(1, 1) & 0xFFFFFF);
+
+		// Images of the same resolution reuse the destination
+		TestImage rgb32 = new TestImage(4, 2, VideoFormat.RGB32);
+		assertSame(copy, FrameEncoder.copyImage(rgb32, copy));
+		assertEquals(rgb32.getPixel(3, 1), copy.getRGB(3, 1) & 0xFFFFFF);
+	}
+
+	@Test
+	public void testEncode() throws Exception {
+		new Thread(encoder).start();
+		new Thread(senders.get(VideoQuality.LOW)).start();
+		encoder.offer(new TestImage(MediaStreamer.VIDEO_WIDTH, MediaStreamer.VIDEO_HEIGHT,
+				VideoFormat.RGB24));
+
+		// Reassemble the frame, which should be scaled to the resolution of
+		// the only quality with clients
+		MediaFrameAssembler assembler = new MediaFrameAssembler();
+		byte buffer[] = new byte[2048];
+		boolean complete = false;
+		while(!complete) {
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			receiveSocket.receive(packet);
+			complete = assembler.addPacket(buffer, packet.getLength());
+		}
+		assertEquals(VideoQuality.LOW.ordinal(), buffer[MediaFrame.STREAM_OFFSET]);
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(
+				assembler.getFrameData(), 0, assembler.getFrameLength()));
+		assertNotNull(image);
+		assertEquals(VideoQuality.LOW.getWidth(), image.getWidth());
+		assertEquals(VideoQuality.LOW.getHeight(), image.getHeight());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while(encoder.getFramesEncoded() < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(1, encoder.getFramesEncoded());
+		assertTrue(encoder.getAverageEncodeTime() > 0);
+		assertTrue(encoder.getAverageLatency() >= encoder.getAverageEncodeTime());
+	}
+
+	@Test
+	public void testLatestFrameWins() {
+		// The encoder thread is not started, so offered frames stay pending
+		TestImage image = new TestImage(8, 8, VideoFormat.RGB24);
+		for(int i = 0; i < 5; i++) {
+			encoder.offer(image);
+		}
+		assertEquals(4, encoder.getFramesDropped());
+		assertEquals(0, encoder.getFramesEncoded());
+	}
+
+	@Test
+	public void testNoClients() {
+		// Frames are not copied when no quality has clients
+		senders.get(VideoQuality.LOW).setDestinations(new ArrayList<InetAddress>());
+		TestImage image = new TestImage(8, 8, VideoFormat.RGB24);
+		for(int i = 0; i < 5; i++) {
+			encoder.offer(image);
+		}
+		assertEquals(0, encoder.getFramesDropped());
+	}
+
+	/**
+	 * A captured image filled with a gradient, in the pixel layout produced
+	 * by LTI-Civil.
+	 */
+	static class TestImage implements Image, VideoFormat {
+		private int width, height, formatType;
+		private byte bytes[];
+
+		TestImage(int width, int height, int formatType) {
+			this.width = width;
+			this.height = height;
+			this.formatType = formatType;
+			int pixelStride = formatType == RGB24 ? 3 : 4;
+			bytes = new byte[width * height * pixelStride];
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) {
+					int rgb = getPixel(x, y);
+					int offset = (y * width + x) * pixelStride;
+					bytes[offset] = (byte)rgb;
+					bytes[offset + 1] = (byte)(rgb >> 8);
+					bytes[offset + 2] = (byte)(rgb >> 16);
+				}
+			}
+		}
+
+		/** @return	The RGB value of a pixel */
+		int getPixel(int x, int y) {
+			return ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | 0x40;
+		}
+
+		public byte[] getBytes() { return bytes; }
+		public VideoFormat getFormat() { return this; }
+		public long getTimestamp() { return 0; }
+		public int getFormatType() { return formatType; }
+		public int getWidth() { return width; }
+		public int getHeight() { return height; }
+		public float getFPS() { return FPS_UNKNOWN; }
+	}
+}
@@ -1,8 +1,16 @@
 package robowars.server.controller;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -12,11 +20,14 @@ import robowars.shared.model.FreeTest;
 import robowars.shared.model.GameEvent;
 import robowars.shared.model.GameListener;
 import robowars.shared.model.GameModel;
+import robowars.shared.model.GameSnapshot;
+import robowars.shared.model.GameSnapshotEvent;
 import robowars.shared.model.GameType;
 import robowars.shared.model.LightCycles;
 import robowars.shared.model.Posture;
 import robowars.shared.model.RobotCommand;
 import robowars.shared.model.RobotMap;
+import robowars.shared.model.SnapshotHistory;
 import robowars.shared.model.TankSimulation;
 
 /**
@@ -46,6 +57,25 @@ public class GameController implements Runnable, GameListener {
 	 */
 	public static final float STOP_THRESHOLD = 15;
 	
+	/** The default number of physics updates performed per second */
+	public static final int DEFAULT_TICK_RATE = 60;
+	
+	/** 
+	 * The maximum number of physics updates that will be performed back to
+	 * back when the game loop falls behind (any further backlog is dropped).
+	 */
+	public static final int MAX_CATCH_UP_STEPS = 5;
+	
+	/** The maximum number of game state snapshots sent to clients per second */
+	public static final int SNAPSHOT_RATE = 20;
+	
+	/** 
+	 * Source of snapshot sequence numbers. This is shared by all games, so
+	 * that an acknowledgement of a snapshot from a previous game can never
+	 * be mistaken for a snapshot of the current game.
+	 */
+	private static final AtomicInteger snapshotSequence = new AtomicInteger(0);
+	
 	/** A list of all control pairs registered with this game */
 	private List<ControlPair> controlPairs;
 	
@@ -58,6 +88,12 @@ public class GameController implements Runnable, GameListener {
 	/** The instance of a GameModel subclass that this controller should control */
 	private GameModel model;
 	
+	/** The type of game being played */
+	private GameType gameType;
+	
+	/** The number of the arena the game is played in (unique among running games) */
+	private int arenaId;
+	
 	/** 
 	 * Flag to determine when real time updating of game state should occur. As
 	 * soon as this flag becomes true the controller thread will terminate and 
@@ -65,15 +101,54 @@ public class GameController implements Runnable, GameListener {
 	 */
 	private volatile boolean terminateFlag;
 	
+	/** Converts elapsed time into fixed length physics steps */
+	private FixedTimestep timestep;
+	
+	/** Handle for the periodic tick task (null if the game is not running) */
+	private ScheduledFuture<?> tickHandle;
+	
+	/** Released once the game has terminated and all references are cleared */
+	private CountDownLatch terminated;
+	
+	/** Recently sent snapshots, used as baselines for delta encoding */
+	private SnapshotHistory snapshots;
+	
+	/** The most recently sent snapshot (null before the first is sent) */
+	private volatile GameSnapshot latestSnapshot;
+	
+	/** The most recent snapshot sequence number acknowledged by each user */
+	private Map<UserProxy, Integer> snapshotAcks;
+	
+	/** The time (in ns) at which the last snapshot was sent */
+	private long lastSnapshotTime;
+	
 	/**
 	 * Generates a new GameController
 	 * @param lobby	The server lobby to notify when the game is complete.
 	 */
 	public GameController(ServerLobby lobby, GameType gameType) {
+		this(lobby, gameType, DEFAULT_TICK_RATE, 0);
+	}
+	
+	/**
+	 * Generates a new GameController
+	 * @param lobby	The server lobby to notify when the game is complete.
+	 * @param gameType	The type of game model to generate
+	 * @param tickRate	The number of physics updates to perform per second
+	 * @param arenaId	The number of the arena the game is played in
+	 */
+	public GameController(ServerLobby lobby, GameType gameType, int tickRate, int arenaId) {
 		this.lobby = lobby;
+		this.arenaId = arenaId;
 		controlPairs = new ArrayList<ControlPair>();
 		spectators = new ArrayList<UserProxy>();
 		terminateFlag = false;
+		timestep = new FixedTimestep(tickRate, MAX_CATCH_UP_STEPS);
+		tickHandle = null;
+		terminated = new CountDownLatch(1);
+		snapshots = new SnapshotHistory(SnapshotHistory.DEFAULT_CAPACITY);
+		latestSnapshot = null;
+		snapshotAcks = new HashMap<UserProxy, Integer>();
 		generateGameModel(gameType);
 	}
 	
@@ -91,6 +166,7 @@ public class GameController implements Runnable, GameListener {
 		synchronized(controlPairs) {
 			controlPairs.add(new ControlPair(player, robot));
 			player.setGameController(this);
+			player.setCurrentGame(this);
 			robot.setGameController(this);
 		}
 		
@@ -108,6 +184,24 @@ public class GameController implements Runnable, GameListener {
 		
 		synchronized(spectators) {
 			spectators.add(player);
+		}
+		player.setCurrentGame(this);
+	}
+	
+	/**
+	 * Removes a spectator from the game (the spectator will no longer receive
+	 * game state updates).
+	 * @param player	The spectator to remove
+	 */
+	public void removeSpectator(UserProxy player) {
+		synchronized(spectators) {
+			spectators.remove(player);
+		}
+		if(player != null) {
+			player.clearCurrentGame(this);
+		}
+		synchronized(snapshotAcks) {
+			snapshotAcks.remove(player);
 		}
 	}
 	
@@ -164,10 +258,20 @@ public class GameController implements Runnable, GameListener {
 	 * 			control pair
 	 */
 	public synchronized RobotProxy getPairedRobot(UserProxy player) {
+		ControlPair pair = getControlPair(player);
+		return pair == null ? null : pair.getRobotProxy();
+	}
+	
+	/**
+	 * @param player	The UserProxy to find a control pair for
+	 * @return	The control pair of the player, or null if the player is not
+	 * 			part of a valid control pair
+	 */
+	private ControlPair getControlPair(UserProxy player) {
 		synchronized(controlPairs) {
 			for (ControlPair pair : controlPairs) {
 				if(pair.getUserProxy() == player) {
-					return pair.getRobotProxy();
+					return pair;
 				}
 			}
 		}
@@ -177,71 +281,244 @@ public class GameController implements Runnable, GameListener {
 
 	@Override
 	/**
-	 * Main loop of GameController (performs real-time physics updates on GameModel)
+	 * Runs the game on a private scheduler thread, and blocks until the game
+	 * has terminated. If interrupted, the game is terminated before returning.
 	 */
 	public void run() {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			start(scheduler);
+			terminated.await();
+		} catch (InterruptedException e) {
+			log.error("Interrupted while waiting for game termination.");
+			triggerTermination();
+			
+			// Shutting down the scheduler cancels the periodic tick, so the
+			// game is finished here (on the game thread, after any tick in
+			// progress) rather than on the next tick
+			scheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					finish();
+				}
+			});
+			Thread.currentThread().interrupt();
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+	
+	/**
+	 * Sends starting positions to all robots, starts the game model, and
+	 * schedules the game loop on the passed scheduler. The game loop is
+	 * invoked at the fixed step rate, and performs a fixed length physics
+	 * update on the game model for every whole step of time that has elapsed.
+	 * 
+	 * @param scheduler	The scheduler to run the game loop on
+	 */
+	public void start(ScheduledExecutorService scheduler) {
 		RobotMap map=ColorSensor.generate(COLS,COLS,DOT_SPACING);
+		List<RobotProxy> robots = new ArrayList<RobotProxy>();
 		synchronized(controlPairs) {
-			for(int i=0; i<controlPairs.size(); i++){
-				RobotProxy proxy=controlPairs.get(i).getRobotProxy();
-				
-				// KLUDGE: Don't send map based position updates to test robots,
-				// as this causes problems with testing
-				if(proxy instanceof robowars.test.TestRobotProxy) continue;
-				
-				proxy.sendCommand(RobotCommand.setPosition(map.getStartPoint(i)));
+			for(ControlPair pair : controlPairs) {
+				robots.add(pair.getRobotProxy());
 			}
 		}
+		for(int i=0; i<robots.size(); i++){
+			RobotProxy proxy=robots.get(i);
+			
+			// KLUDGE: Don't send map based position updates to test robots,
+			// as this causes problems with testing
+			if(proxy instanceof robowars.test.TestRobotProxy) continue;
+			
+			// Only sent if the robot has not cached this map (both are
+			// queued, and written by the robot's command queue)
+			proxy.sendMap(map);
+			proxy.sendCommand(RobotCommand.setPosition(map.getStartPoint(i)));
+		}
 		log.info("Robot Map and starting points sent");
-		log.info("Game execution starting.");
-		lobby.broadcastMessage("<Server> Game launched.");
-		long gameStartTime = System.currentTimeMillis();
-		long lastUpdateTime = gameStartTime;
-		long timeElapsed = 0;
+		log.info("Game execution starting (" + timestep.getStepMillis() + " ms physics step).");
+		sendMessage("<Server> Game launched in arena " + arenaId + ".");
 		model.startGame();
-		while(!terminateFlag) {
-			timeElapsed = System.currentTimeMillis() - lastUpdateTime;
-			lastUpdateTime = System.currentTimeMillis();
-			
-			// Update game physics
-			try {
-				model.updateGameState(timeElapsed);
-			} catch (NullPointerException e) {
-				log.error("Error in model physics, terminating game.");
-				terminateFlag = true;
-				break;
+		
+		timestep.start(System.nanoTime());
+		lastSnapshotTime = System.nanoTime() - snapshotInterval();
+		synchronized(this) {
+			tickHandle = scheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					tick();
+				}
+			}, timestep.getStepNanos(), timestep.getStepNanos(), TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	/**
+	 * Invoked periodically by the scheduler. Performs one physics step for
+	 * every whole step of time which has elapsed since the last invocation
+	 * (up to the catch up limit), and terminates the game once the
+	 * termination flag has been set.
+	 */
+	private void tick() {
+		try {
+			int steps = timestep.advance(System.nanoTime());
+			for(int i = 0; i < steps && !terminateFlag; i++) {
+				long stepStart = System.nanoTime();
+				step(timestep.getStepMillis());
+				timestep.recordTick(System.nanoTime() - stepStart);
 			}
 			
-			// Fetch and send any required commands to robots
+			long now = System.nanoTime();
+			if(!terminateFlag && now - lastSnapshotTime >= snapshotInterval()) {
+				lastSnapshotTime = now;
+				broadcastSnapshot();
+			}
+		} catch (RuntimeException e) {
+			log.error("Unexpected error in game loop, terminating game.", e);
+			terminateFlag = true;
+		}
+		
+		if(terminateFlag) {
+			finish();
+		}
+	}
+	
+	/**
+	 * Performs a single fixed length physics update on the game model, and
+	 * dispatches any resulting commands to the robots.
+	 * @param timeElapsed	The length of the update (in ms)
+	 */
+	private void step(long timeElapsed) {
+		// Update game physics (reported robot positions and shots fired are 
+		// applied first, then robots are moved to their predicted postures,
+		// as positions are only reported a few times a second)
+		try {
 			synchronized(controlPairs) {
 				for(ControlPair pair : controlPairs) {
-					RobotCommand command = 
-						model.getCurrentRobotCommand(pair.getRobotProxy().getIdentifier());
-					if(command != null) {
-						pair.getRobotProxy().sendCommand(command);
+					Posture reported = pair.takeReportedPosture();
+					if(reported != null) {
+						model.updateRobotPosition(pair.getRobotProxy().getIdentifier(), reported);
+					}
+					if(pair.takeFireRequest()) {
+						model.generateProjectile(pair.getRobotProxy().getRobot());
 					}
 				}
 			}
-			
-			// Check for game termination state if the termination
-			// trigger is not already set.
-			if(!terminateFlag) {
-				terminateFlag = model.checkGameOver();
+			model.predictRobotPositions(timeElapsed);
+			model.updateGameState(timeElapsed);
+		} catch (NullPointerException e) {
+			log.error("Error in model physics, terminating game.");
+			terminateFlag = true;
+			return;
+		}
+		
+		// Fetch and send any required commands to robots
+		synchronized(controlPairs) {
+			for(ControlPair pair : controlPairs) {
+				RobotCommand command = 
+					model.getCurrentRobotCommand(pair.getRobotProxy().getIdentifier());
+				if(command != null) {
+					pair.getRobotProxy().sendCommand(command);
+				}
 			}
-			
-			// TESTING - 60 Second Limit
-			/*
-			if(lastUpdateTime - gameStartTime >= 60000) {
-				terminateFlag = true;
-				lobby.broadcastMessage("<Server> 60 Second testing duration expired.");
+		}
+		
+		// Check for game termination state if the termination
+		// trigger is not already set.
+		if(!terminateFlag) {
+			terminateFlag = model.checkGameOver();
+		}
+	}
+	
+	/**
+	 * Captures the current game state and sends it to all players and
+	 * spectators. Each user is sent the changes since the last snapshot they
+	 * acknowledged (or the complete state if no acknowledged snapshot is
+	 * available), and users sharing a baseline share a single encoding.
+	 */
+	private void broadcastSnapshot() {
+		GameSnapshot snapshot = model.createSnapshot(snapshotSequence.incrementAndGet());
+		snapshots.add(snapshot);
+		latestSnapshot = snapshot;
+		
+		List<UserProxy> recipients = new ArrayList<UserProxy>();
+		synchronized(controlPairs) {
+			for(ControlPair p : controlPairs) {
+				recipients.add(p.getUserProxy());
 			}
-			*/
-			
-			Thread.yield();
+		}
+		synchronized(spectators) {
+			recipients.addAll(spectators);
+		}
+		
+		Map<Integer, GameSnapshotEvent> encoded = new HashMap<Integer, GameSnapshotEvent>();
+		for(UserProxy p : recipients) {
+			GameSnapshot baseline = snapshots.get(getAcknowledgedSnapshot(p));
+			int key = (baseline == null) ? GameSnapshot.NO_BASELINE : baseline.getSequence();
+			GameSnapshotEvent event = encoded.get(key);
+			if(event == null) {
+				event = new GameSnapshotEvent(model, snapshot.encode(baseline));
+				encoded.put(key, event);
+			}
+			p.sendEvent(event);
+		}
+	}
+	
+	/**
+	 * Records that a user has received a game state snapshot. Later snapshots
+	 * sent to the user will be encoded relative to the acknowledged snapshot.
+	 * @param user	The user acknowledging the snapshot
+	 * @param sequence	The sequence number of the received snapshot
+	 */
+	public void acknowledgeSnapshot(UserProxy user, int sequence) {
+		synchronized(snapshotAcks) {
+			Integer previous = snapshotAcks.get(user);
+			if(previous == null || sequence > previous) {
+				snapshotAcks.put(user, sequence);
+			}
+		}
+	}
+	
+	/**
+	 * @param user	The user to check
+	 * @return	The sequence number of the last snapshot acknowledged by the
+	 * 			user (or GameSnapshot.NO_BASELINE if none has been acknowledged)
+	 */
+	public int getAcknowledgedSnapshot(UserProxy user) {
+		synchronized(snapshotAcks) {
+			Integer sequence = snapshotAcks.get(user);
+			return (sequence == null) ? GameSnapshot.NO_BASELINE : sequence;
+		}
+	}
+	
+	/** @return	The minimum time (in ns) between snapshots */
+	private static long snapshotInterval() {
+		return 1000000000L / SNAPSHOT_RATE;
+	}
+	
+	/**
+	 * Cancels the periodic game loop, and terminates the game. Only the
+	 * first call has any effect.
+	 */
+	private void finish() {
+		synchronized(this) {
+			if(tickHandle == null) return;
+			tickHandle.cancel(false);
+			tickHandle = null;
 		}
 		
-		lobby.broadcastMessage("<Server> Game terminating.");
+		log.info("Game loop statistics: " + timestep);
+		sendMessage("<Server> Game in arena " + arenaId + " terminating.");
 		terminateGame();
+		terminated.countDown();
+	}
+	
+	/**
+	 * @return	The fixed timestep driving the game loop (exposes the step
+	 * 			length and tick timing statistics)
+	 */
+	public FixedTimestep getTimestep() {
+		return timestep;
 	}
 	
 	/**
@@ -257,7 +534,7 @@ public class GameController implements Runnable, GameListener {
 	/**
 	 * @return	True if the termination flag has been set.
 	 */
-	public synchronized boolean isTerminating() {
+	public boolean isTerminating() {
 		return terminateFlag;
 	}
 	
@@ -273,18 +550,30 @@ public class GameController implements Runnable, GameListener {
 			pair.getRobotProxy().sendCommand(RobotCommand.stop());
 			
 			pair.getUserProxy().clearGameController();
+			pair.getUserProxy().clearCurrentGame(this);
 			pair.getRobotProxy().clearGameController();
 			model.removeRobot(pair.getRobotProxy().getIdentifier());
 		}
 		
-		controlPairs.clear();
-		controlPairs = null;
-		spectators.clear();
-		spectators = null;
-		
-		lobby.endCurrentGame();
+		// Release the arena before clearing the pairings, so the lobby never
+		// sees a running game without players
+		lobby.removeGame(this);
 		lobby = null;
 		
+		synchronized(controlPairs) {
+			controlPairs.clear();
+		}
+		synchronized(spectators) {
+			for(UserProxy spectator : spectators) {
+				spectator.clearCurrentGame(this);
+			}
+			spectators.clear();
+		}
+		synchronized(snapshotAcks) {
+			snapshotAcks.clear();
+		}
+		snapshots.clear();
+		
 		model = null;
 	}
 	
@@ -297,6 +586,7 @@ public class GameController implements Runnable, GameListener {
 		if(gameType == null) {
 			gameType = GameType.getDefault();
 		}
+		this.gameType = gameType;
 		
 		switch(gameType) {
 		case LIGHTCYCLES:
@@ -346,9 +636,13 @@ public class GameController implements Runnable, GameListener {
 		
 		RobotProxy pairedRobot = getPairedRobot(player);
 		
-		// Generate a projectile if required
-		if(model != null && buttons.contains("f")) {
-			model.generateProjectile(pairedRobot.getRobot());
+		// Request a projectile if required (the projectile is generated by 
+		// the game loop, see step())
+		if(buttons.contains("f")) {
+			ControlPair pair = getControlPair(player);
+			if(pair != null) {
+				pair.requestFire();
+			}
 		}
 		
 		// If a game is in session and a robot is currently paired to the player
@@ -446,6 +740,9 @@ public class GameController implements Runnable, GameListener {
 	/**
 	 * Updates the position of a robot. This method should be called by a
 	 * RobotProxy whenever it receives new position data from the remote robot.
+	 * The position is applied to the game model at the start of the next
+	 * physics update (only the latest position is kept), so that the model
+	 * is only modified by the game loop.
 	 * @param robot	The proxy providing the position data
 	 * @param newPose	The new pose of the robot (position and heading)
 	 */
@@ -454,11 +751,38 @@ public class GameController implements Runnable, GameListener {
 				+ "\n\tX: " + newPosture.getX() + "\tY: " + newPosture.getY() + "\tHeading: "
 				+ newPosture.getHeading());
 		
-		if(model != null) {
-			model.updateRobotPosition(robot.getIdentifier(), newPosture);
+		synchronized(controlPairs) {
+			for(ControlPair pair : controlPairs) {
+				if(pair.getRobotProxy() == robot) {
+					pair.reportPosture(newPosture);
+					return;
+				}
+			}
 		}
 	}
 	
+	/**
+	 * @return	The type of game being played
+	 */
+	public GameType getGameType() {
+		return gameType;
+	}
+	
+	/**
+	 * @return	The number of the arena the game is played in
+	 */
+	public int getArenaId() {
+		return arenaId;
+	}
+	
+	/**
+	 * @return	The most recently sent state snapshot (or null if none has been
+	 * 			sent). Snapshots are never modified, and can be read by any thread.
+	 */
+	public GameSnapshot getLatestSnapshot() {
+		return latestSnapshot;
+	}
+	
 	/**
 	 * @return	The GameModel managed by this GameController
 	 */
@@ -466,10 +790,33 @@ public class GameController implements Runnable, GameListener {
 		return model;
 	}
 	
+	/**
+	 * Sends a chat message to the players and spectators of this game only
+	 * (users in other arenas are not sent the message).
+	 * @param message	The message to send
+	 */
+	private void sendMessage(String message) {
+		log.debug(message);
+		LobbyChatEvent event = new LobbyChatEvent(lobby, message);
+		synchronized(controlPairs) {
+			for(ControlPair p : controlPairs) {
+				p.getUserProxy().lobbyChatMessage(event);
+			}
+		}
+		synchronized(spectators) {
+			for(UserProxy p : spectators) {
+				p.lobbyChatMessage(event);
+			}
+		}
+	}
+	
 	/**
 	 * Sends updated game state to clients whenever the game state changes.
 	 */
 	public void gameStateChanged(GameEvent event){
+		// Robot movement reaches clients through the periodic state snapshots
+		if(event.getEventType() == GameEvent.ROBOT_MOVED) return;
+		
 		synchronized(controlPairs) {
 			for(ControlPair p : controlPairs) {
 				p.getUserProxy().sendEvent(event);
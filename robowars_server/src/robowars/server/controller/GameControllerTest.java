@@ -3,6 +3,9 @@ package robowars.server.controller;
 import static org.junit.Assert.*;
 
 import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import lejos.robotics.Pose;
 
@@ -15,6 +18,7 @@ import robowars.shared.model.ControlType;
 import robowars.shared.model.GameEvent;
 import robowars.shared.model.GameType;
 import robowars.shared.model.RobotCommand;
+import robowars.shared.model.TankSimulation;
 import robowars.test.*;
 
 /**
@@ -71,6 +75,7 @@ public class GameControllerTest {
 		assertEquals(true, testController.isPlayer(user1));
 		assertEquals(false, testController.isSpectator(user1));
 		assertEquals(robot1, testController.getPairedRobot(user1));
+		assertEquals(testController, user1.getCurrentGame());
 		assertEquals(true, testController.isActiveRobot(robot1));
 		assertEquals(robot1.getRobot(), testController.getGameModel().getGameRobot(robot1.getIdentifier()));
 		
@@ -94,10 +99,17 @@ public class GameControllerTest {
 		
 		testController.addSpectator(user1);
 		assertEquals(true, testController.isSpectator(user1));
+		assertEquals(testController, user1.getCurrentGame());
 		
 		// Ensure the player is not registered as a player
 		assertEquals(false, testController.isPlayer(user1));
 		
+		// Leaving another game does not clear the user's current game
+		new GameController(testLobby, GameType.FREETEST).removeSpectator(user1);
+		assertEquals(testController, user1.getCurrentGame());
+		testController.removeSpectator(user1);
+		assertEquals(null, user1.getCurrentGame());
+		
 		testController.addSpectator(null);
 		assertEquals(false, testController.isSpectator(null));
 	}
@@ -145,6 +157,76 @@ public class GameControllerTest {
 		assertEquals(null, testController.getGameModel());
 	}
 
+	@Test
+	public void testRunInterrupted() throws Exception {
+		testController.addPlayer(user1, robot1);
+		Thread game = new Thread(testController);
+		game.start();
+		Thread.sleep(200);
+		
+		// Interrupting the thread running the game still terminates the
+		// game, and releases the robot and user
+		game.interrupt();
+		game.join(1000);
+		assertFalse(game.isAlive());
+		Thread.sleep(500);
+		assertEquals(true, testController.isTerminating());
+		assertEquals(null, testController.getGameModel());
+		assertEquals(false, testController.isPlayer(user1));
+		assertEquals(null, user1.getCurrentGame());
+		assertEquals(null, robot1.getGameController());
+	}
+
+	@Test
+	public void testLaunchMessage() {
+		testController.addPlayer(user1, robot1);
+		testLobby.addUserProxy(user2);
+		
+		// Only the game's own users are told of the launch
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		testController.start(scheduler);
+		scheduler.shutdownNow();
+		assertEquals(true, user1.getLastEvent() instanceof LobbyChatEvent);
+		assertTrue(((LobbyChatEvent)user1.getLastEvent()).getMessage().contains("arena"));
+		assertEquals(false, user2.getLastEvent() instanceof LobbyChatEvent);
+	}
+
+	@Test
+	public void testUpdateRobotPosition() throws Exception {
+		testController.addPlayer(user1, robot1);
+		robot1.sendCommand(RobotCommand.setPosition(new Pose(2000, 2000, 0)));
+		
+		// Reported positions are not applied until the game loop runs
+		Thread.sleep(2 * TestRobotProxy.MOTOR_UPDATE_MILLIS);
+		assertTrue(robot1.getRobot().getPosture().getX() != 2000);
+		
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		testController.start(scheduler);
+		Thread.sleep(200);
+		scheduler.shutdownNow();
+		assertEquals(2000, robot1.getRobot().getPosture().getX(), 0.05);
+		assertEquals(2000, robot1.getRobot().getPosture().getY(), 0.05);
+	}
+
+	@Test
+	public void testFire() throws Exception {
+		testController = new GameController(testLobby, GameType.TANK_SIMULATION);
+		testController.addPlayer(user1, robot1);
+		testController.addPlayer(user2, robot2);
+		TankSimulation model = (TankSimulation)testController.getGameModel();
+		
+		// Shots are only fired when the game loop runs
+		testController.processInput(user1, null, "f");
+		assertEquals(0, model.getProjectiles().size());
+		
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		testController.start(scheduler);
+		Thread.sleep(100);
+		scheduler.shutdownNow();
+		scheduler.awaitTermination(1, TimeUnit.SECONDS);
+		assertEquals(1, model.getProjectiles().size());
+	}
+
 	@Test
 	public void testGenerateCommand() {
 		RobotCommand genCommand;
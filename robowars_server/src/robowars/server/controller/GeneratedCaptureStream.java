@@ -0,0 +1,183 @@
+package robowars.server.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lti.civil.CaptureException;
+import com.lti.civil.CaptureObserver;
+import com.lti.civil.CaptureStream;
+import com.lti.civil.Image;
+import com.lti.civil.VideoFormat;
+
+/**
+ * A capture stream delivering frames generated in software (rather than read
+ * from a capture device) to its observer. Frames are RGB24 (BGR byte order,
+ * as delivered by LTI-Civil), are generated on the stream's own thread at a
+ * fixed frame rate, and are rendered into a single reused buffer (observers
+ * must copy any frame they keep, as is also required for camera frames).
+ * 
+ * @author Alexander Craig
+ */
+abstract class GeneratedCaptureStream implements CaptureStream, Runnable {
+	/** The format of the generated frames */
+	private final FrameFormat format;
+	
+	/** The frame delivered to the observer (rendered into repeatedly) */
+	private final GeneratedImage image;
+	
+	/** The observer receiving frames (may be null) */
+	private volatile CaptureObserver observer;
+	
+	/** The thread generating frames (null while stopped) */
+	private Thread thread;
+	
+	/** True while frames should be generated */
+	private volatile boolean running;
+	
+	/**
+	 * Generates a new GeneratedCaptureStream.
+	 * @param width	The width of the generated frames (in pixels)
+	 * @param height	The height of the generated frames (in pixels)
+	 * @param fps	The number of frames generated per second, or 0 to generate
+	 * 				frames as fast as the observer accepts them
+	 */
+	GeneratedCaptureStream(int width, int height, float fps) {
+		format = new FrameFormat(width, height, fps);
+		image = new GeneratedImage(new byte[width * height * 3]);
+		observer = null;
+		thread = null;
+		running = false;
+	}
+	
+	/**
+	 * Renders a frame into the passed buffer.
+	 * @param pixels	The buffer to render into (BGR, width * height * 3 bytes)
+	 * @param width	The width of the frame
+	 * @param height	The height of the frame
+	 * @param frameNumber	The number of frames generated before this one
+	 */
+	protected abstract void renderFrame(byte pixels[], int width, int height, long frameNumber);
+	
+	/**
+	 * Generates frames until stopped.
+	 */
+	public void run() {
+		long period = format.getFPS() > 0 ? (long)(1000000000L / format.getFPS()) : 0;
+		long nextFrame = System.nanoTime();
+		long frameNumber = 0;
+		while(running) {
+			renderFrame(image.pixels, format.getWidth(), format.getHeight(), frameNumber++);
+			image.timestamp = System.currentTimeMillis();
+			CaptureObserver target = observer;
+			if(target != null) {
+				target.onNewImage(this, image);
+			}
+			
+			if(period > 0) {
+				nextFrame += period;
+				long delay = nextFrame - System.nanoTime();
+				if(delay > 0) {
+					try {
+						Thread.sleep(delay / 1000000, (int)(delay % 1000000));
+					} catch (InterruptedException e) {
+						break;
+					}
+				} else if(delay < -period) {
+					// Too far behind, skip frames rather than generating a burst
+					nextFrame = System.nanoTime();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return	The single format supported by the stream
+	 */
+	public List<VideoFormat> enumVideoFormats() {
+		List<VideoFormat> formats = new ArrayList<VideoFormat>();
+		formats.add(format);
+		return formats;
+	}
+
+	/**
+	 * Does nothing, generated streams only support a single format.
+	 */
+	public void setVideoFormat(VideoFormat format) { }
+
+	public VideoFormat getVideoFormat() {
+		return format;
+	}
+
+	/**
+	 * Starts generating frames on a new thread (does nothing if started).
+	 */
+	public synchronized void start() throws CaptureException {
+		if(thread != null) return;
+		running = true;
+		thread = new Thread(this, "GeneratedCaptureStream");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops generating frames. Unless called by the observer, no frames are
+	 * delivered once this returns.
+	 */
+	public synchronized void stop() throws CaptureException {
+		if(thread == null) return;
+		running = false;
+		if(thread != Thread.currentThread()) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		thread = null;
+	}
+
+	public void dispose() throws CaptureException {
+		stop();
+	}
+
+	public void setObserver(CaptureObserver observer) {
+		this.observer = observer;
+	}
+	
+	/**
+	 * The RGB24 format of generated frames.
+	 */
+	private static class FrameFormat implements VideoFormat {
+		private final int width;
+		private final int height;
+		private final float fps;
+		
+		FrameFormat(int width, int height, float fps) {
+			this.width = width;
+			this.height = height;
+			this.fps = fps;
+		}
+		
+		public int getFormatType() { return RGB24; }
+		public int getWidth() { return width; }
+		public int getHeight() { return height; }
+		public float getFPS() { return fps > 0 ? fps : FPS_UNKNOWN; }
+	}
+	
+	/**
+	 * A generated frame.
+	 */
+	private class GeneratedImage implements Image {
+		final byte pixels[];
+		long timestamp;
+		
+		GeneratedImage(byte pixels[]) {
+			this.pixels = pixels;
+		}
+		
+		public byte[] getBytes() { return pixels; }
+		public VideoFormat getFormat() { return format; }
+		public long getTimestamp() { return timestamp; }
+	}
+}
@@ -0,0 +1,117 @@
+package robowars.server.controller;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.apache.log4j.Logger;
+
+import com.lti.civil.CaptureException;
+import com.lti.civil.CaptureStream;
+
+/**
+ * A video source replaying a sequence of image files (such as frames saved
+ * from a recorded match) in a continuous loop. Every readable image in the
+ * source directory is used, in file name order, and scaled to the frame
+ * resolution. Images are decoded when the stream is opened, so that
+ * replaying frames only requires a copy.
+ * 
+ * @author Alexander Craig
+ */
+public class ImageSequenceSource implements VideoSource {
+	/** The logger used by this class */
+	private static Logger log = Logger.getLogger(ImageSequenceSource.class);
+	
+	/** The directory holding the image files */
+	private File directory;
+	
+	/** The width and height of the replayed frames */
+	private int width;
+	private int height;
+	
+	/** The number of frames replayed per second */
+	private float fps;
+	
+	/**
+	 * Generates a new ImageSequenceSource.
+	 * @param directory	The directory holding the image files
+	 * @param width	The width of the replayed frames (in pixels)
+	 * @param height	The height of the replayed frames (in pixels)
+	 * @param fps	The number of frames replayed per second, or 0 to replay
+	 * 				frames as fast as they are accepted
+	 */
+	public ImageSequenceSource(File directory, int width, int height, float fps) {
+		this.directory = directory;
+		this.width = width;
+		this.height = height;
+		this.fps = fps;
+	}
+
+	public String getDeviceID() {
+		return "images:" + directory.getAbsolutePath();
+	}
+
+	public String getDescription() {
+		return "Image Sequence (" + directory.getName() + ")";
+	}
+
+	/**
+	 * Decodes the image sequence, and opens a stream replaying it.
+	 * @throws CaptureException	If the directory holds no readable images
+	 */
+	public CaptureStream openStream() throws CaptureException {
+		final List<byte[]> frames = loadFrames();
+		if(frames.isEmpty()) {
+			throw new CaptureException("No readable images found in: " 
+					+ directory.getAbsolutePath(), 0);
+		}
+		
+		return new GeneratedCaptureStream(width, height, fps) {
+			protected void renderFrame(byte pixels[], int width, int height, long frameNumber) {
+				byte frame[] = frames.get((int)(frameNumber % frames.size()));
+				System.arraycopy(frame, 0, pixels, 0, pixels.length);
+			}
+		};
+	}
+	
+	/**
+	 * Reads and scales every image in the source directory.
+	 * @return	The BGR pixels of each image, in file name order
+	 */
+	List<byte[]> loadFrames() {
+		List<byte[]> frames = new ArrayList<byte[]>();
+		File files[] = directory.listFiles();
+		if(files == null) return frames;
+		Arrays.sort(files);
+		
+		for(File file : files) {
+			if(!file.isFile()) continue;
+			BufferedImage source;
+			try {
+				source = ImageIO.read(file);
+			} catch (IOException e) {
+				log.error("Error reading image: " + file);
+				continue;
+			}
+			if(source == null) continue;
+			
+			BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+			Graphics2D g = frame.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(source, 0, 0, width, height, null);
+			g.dispose();
+			frames.add(((DataBufferByte)frame.getRaster().getDataBuffer()).getData());
+		}
+		log.info("Loaded " + frames.size() + " images from: " + directory.getAbsolutePath());
+		return frames;
+	}
+}
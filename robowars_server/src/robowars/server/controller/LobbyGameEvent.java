@@ -21,6 +21,12 @@ public class LobbyGameEvent extends ServerLobbyEvent {
 	 */
 	private CameraPosition camera;
 	
+	/** 
+	 * The arena number of the game that was just launched or terminated
+	 * (0 for events which do not relate to a specific game)
+	 */
+	private int arenaId;
+	
 	/**
 	 * Generates a new LobbyGameEvent
 	 * @param src	The ServerLobby that generated the event
@@ -28,11 +34,31 @@ public class LobbyGameEvent extends ServerLobbyEvent {
 	 * @param gameType	The type of the game that was just launched or terminated
 	 */
 	public LobbyGameEvent(ServerLobby src, int type, GameType gameType) {
+		this(src, type, gameType, 0);
+	}
+	
+	/**
+	 * Generates a new LobbyGameEvent
+	 * @param src	The ServerLobby that generated the event
+	 * @param type	The type of the event (constants defined in ServerLobbyEvent)
+	 * @param gameType	The type of the game that was just launched or terminated
+	 * @param arenaId	The arena number of the game that was just launched or terminated
+	 */
+	public LobbyGameEvent(ServerLobby src, int type, GameType gameType, int arenaId) {
 		super(src, type);
 		this.gameType = gameType;
+		this.arenaId = arenaId;
 		this.camera = null;
 	}
 	
+	/**
+	 * @return	The arena number of the game that was just launched or
+	 * 			terminated (0 if the event does not relate to a specific game)
+	 */
+	public int getArenaId() {
+		return arenaId;
+	}
+	
 	/**
 	 * @return	The type of game that was just launched or terminated.
 	 */
@@ -64,9 +90,9 @@ public class LobbyGameEvent extends ServerLobbyEvent {
 			return "Selected game type changed to: " + gameType + " (Minimum players = " 
 				+ gameType.getMinimumPlayers() + ").";
 		case EVENT_GAME_LAUNCH:
-			return "New game launched (" + gameType + ").";
+			return "New game launched in arena " + arenaId + " (" + gameType + ").";
 		case EVENT_GAME_OVER:
-			return "Game terminated.";
+			return "Game in arena " + arenaId + " terminated.";
 		default:
 			return "UNKNOWN EVENT TYPE";
 		}
@@ -0,0 +1,291 @@
+package robowars.server.controller;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Holds a single encoded video frame split into datagram payloads, using
+ * version 2 of the media packet format. Each packet starts with a header of
+ * HEADER_LENGTH bytes:
+ *
+ * byte		Protocol version (VERSION)
+ * byte		Flags (FLAG_PARITY is set for parity segments)
+ * byte		Stream identifier (frame IDs are only comparable within a stream)
+ * byte		Parity group size (data segments covered by each parity
+ * 			segment, 0 if the frame has no parity segments)
+ * int		Frame ID (increases by one for each frame of the stream)
+ * short	Segment index (for parity segments, the index of the group)
+ * short	Number of data segments in the frame
+ * short	Segment size (image bytes in every data segment but the last)
+ * int		Frame length (total image bytes in the frame)
+ * long		Capture timestamp (in ms)
+ *
+ * Data segments are followed by the image bytes they hold. Parity segments
+ * hold the XOR of the (zero padded) data segments of their group, allowing
+ * a receiver to rebuild a single lost segment per group. Since every packet
+ * carries the frame layout, segments can be reassembled in any order (see
+ * MediaFrameAssembler).
+ *
+ * The encoder writes the image directly into the packets through the stream
+ * returned by begin(), so image data is copied exactly once. Packets are
+ * direct buffers which are kept between frames (more are only allocated when
+ * a frame needs more packets than any previous frame), so that steady state
+ * streaming produces no garbage.
+ *
+ * @author Alexander Craig
+ */
+public class MediaFrame {
+	/** The media packet format version */
+	public static final byte VERSION = 2;
+
+	/** Flag set on parity segments */
+	public static final byte FLAG_PARITY = 1;
+
+	/** The length of the header at the start of each packet (in bytes) */
+	public static final int HEADER_LENGTH = 26;
+
+	/** Offsets of the header fields */
+	public static final int VERSION_OFFSET = 0;
+	public static final int FLAGS_OFFSET = 1;
+	public static final int STREAM_OFFSET = 2;
+	public static final int PARITY_GROUP_OFFSET = 3;
+	public static final int FRAME_ID_OFFSET = 4;
+	public static final int SEGMENT_INDEX_OFFSET = 8;
+	public static final int SEGMENT_COUNT_OFFSET = 10;
+	public static final int SEGMENT_SIZE_OFFSET = 12;
+	public static final int FRAME_LENGTH_OFFSET = 14;
+	public static final int TIMESTAMP_OFFSET = 18;
+
+	/** The packet buffers (data segments, followed by any parity segments) */
+	private ArrayList<ByteBuffer> packets;
+
+	/** The number of data segments holding the current frame */
+	private int numSegments;
+
+	/** The number of parity segments of the current frame */
+	private int numParity;
+
+	/** The stream identifier written to each packet */
+	private byte streamId;
+
+	/** The frame ID written to each packet */
+	private int frameId;
+
+	/** The capture timestamp written to each packet */
+	private long timestamp;
+
+	/** The maximum number of image bytes per packet */
+	private int packetSize;
+
+	/** The packet currently being written (null before the first write) */
+	private ByteBuffer current;
+
+	/** Stream writing image data into the packets */
+	private final PacketWriter writer;
+
+	public MediaFrame() {
+		packets = new ArrayList<ByteBuffer>();
+		numSegments = 0;
+		numParity = 0;
+		packetSize = 0;
+		current = null;
+		writer = new PacketWriter();
+	}
+
+	/**
+	 * Clears the frame, and returns a stream that the encoded image should be
+	 * written to. finish() must be called once the image is complete.
+	 * @param streamId	The identifier of the stream the frame belongs to
+	 * @param frameId	The frame ID to write to each packet
+	 * @param timestamp	The time the frame was captured (in ms)
+	 * @param packetSize	The maximum number of image bytes per packet
+	 * @return	A stream writing into the packets of this frame
+	 */
+	public OutputStream begin(int streamId, int frameId, long timestamp, int packetSize) {
+		if(packetSize != this.packetSize) {
+			// Buffers of a different size cannot be reused
+			packets.clear();
+			this.packetSize = packetSize;
+		}
+		this.streamId = (byte)streamId;
+		this.frameId = frameId;
+		this.timestamp = timestamp;
+		numSegments = 0;
+		numParity = 0;
+		current = null;
+		return writer;
+	}
+
+	/**
+	 * Writes the packet headers once the complete image has been written,
+	 * generates parity segments, and prepares the packets for sending.
+	 * @param parityGroup	The number of data segments covered by each parity
+	 * 						segment (0 to send no parity segments)
+	 */
+	public void finish(int parityGroup) {
+		if(numSegments == 0) {
+			nextPacket();
+		}
+		int frameLength = (numSegments - 1) * packetSize
+				+ packets.get(numSegments - 1).position() - HEADER_LENGTH;
+
+		for(int segIndex = 0; segIndex < numSegments; segIndex++) {
+			ByteBuffer packet = packets.get(segIndex);
+			writeHeader(packet, (byte)0, parityGroup, segIndex, frameLength);
+			packet.flip();
+		}
+
+		if(parityGroup > 0) {
+			numParity = (numSegments + parityGroup - 1) / parityGroup;
+			for(int group = 0; group < numParity; group++) {
+				ByteBuffer parity = getBuffer(numSegments + group);
+				computeParity(parity, group * parityGroup,
+						Math.min(numSegments, (group + 1) * parityGroup));
+				writeHeader(parity, FLAG_PARITY, parityGroup, group, frameLength);
+			}
+		}
+		current = null;
+	}
+
+	/**
+	 * Writes the header of a packet.
+	 */
+	private void writeHeader(ByteBuffer packet, byte flags, int parityGroup, int segIndex,
+			int frameLength) {
+		packet.put(VERSION_OFFSET, VERSION);
+		packet.put(FLAGS_OFFSET, flags);
+		packet.put(STREAM_OFFSET, streamId);
+		packet.put(PARITY_GROUP_OFFSET, (byte)parityGroup);
+		packet.putInt(FRAME_ID_OFFSET, frameId);
+		packet.putShort(SEGMENT_INDEX_OFFSET, (short)segIndex);
+		packet.putShort(SEGMENT_COUNT_OFFSET, (short)numSegments);
+		packet.putShort(SEGMENT_SIZE_OFFSET, (short)packetSize);
+		packet.putInt(FRAME_LENGTH_OFFSET, frameLength);
+		packet.putLong(TIMESTAMP_OFFSET, timestamp);
+	}
+
+	/**
+	 * Fills a parity packet with the XOR of a range of (flipped) data
+	 * segments, treating shorter segments as zero padded.
+	 * @param parity	The packet to fill
+	 * @param first	The index of the first data segment of the group
+	 * @param end	The index after the last data segment of the group
+	 */
+	private void computeParity(ByteBuffer parity, int first, int end) {
+		int length = 0;
+		for(int i = first; i < end; i++) {
+			length = Math.max(length, packets.get(i).limit() - HEADER_LENGTH);
+		}
+		parity.clear();
+		parity.limit(HEADER_LENGTH + length);
+		for(int offset = HEADER_LENGTH; offset < HEADER_LENGTH + length; offset++) {
+			byte value = 0;
+			for(int i = first; i < end; i++) {
+				ByteBuffer data = packets.get(i);
+				if(offset < data.limit()) {
+					value ^= data.get(offset);
+				}
+			}
+			parity.put(offset, value);
+		}
+	}
+
+	/**
+	 * Splits an encoded image into packets, replacing the previous contents
+	 * of the frame.
+	 * @param data	The buffer holding the encoded image
+	 * @param length	The length of the encoded image
+	 * @param frameId	The frame ID to write to each packet
+	 * @param packetSize	The maximum number of image bytes per packet
+	 * @param parityGroup	The number of data segments covered by each parity
+	 * 						segment (0 to send no parity segments)
+	 */
+	public void packetize(byte data[], int length, int frameId, int packetSize, int parityGroup) {
+		begin(0, frameId, 0, packetSize);
+		writer.write(data, 0, length);
+		finish(parityGroup);
+	}
+
+	/**
+	 * Returns a packet buffer, allocating one if needed.
+	 * @param index	The index of the packet
+	 * @return	The buffer for the packet
+	 */
+	private ByteBuffer getBuffer(int index) {
+		while(index >= packets.size()) {
+			packets.add(ByteBuffer.allocateDirect(HEADER_LENGTH + packetSize));
+		}
+		return packets.get(index);
+	}
+
+	/**
+	 * Moves on to the next (cleared) data segment.
+	 */
+	private void nextPacket() {
+		current = getBuffer(numSegments++);
+		current.clear();
+		current.position(HEADER_LENGTH);
+	}
+
+	/**
+	 * @return	The number of packets (data and parity segments) holding the
+	 * 			current frame
+	 */
+	public int getNumPackets() {
+		return numSegments + numParity;
+	}
+
+	/**
+	 * @return	The number of data segments holding the current frame
+	 */
+	public int getNumSegments() {
+		return numSegments;
+	}
+
+	/**
+	 * Returns a packet of the finished frame. Data segments come first,
+	 * followed by any parity segments. The buffer's position must be reset
+	 * to 0 before each time it is sent.
+	 * @param index	The index of a packet
+	 * @return	The buffer holding the packet (limit set to the packet length)
+	 */
+	public ByteBuffer getPacket(int index) {
+		return packets.get(index);
+	}
+
+	/**
+	 * @param index	The index of a packet
+	 * @return	The length of the packet (header and payload)
+	 */
+	public int getPacketLength(int index) {
+		return packets.get(index).limit();
+	}
+
+	/**
+	 * Writes image data into the packets of the frame, starting a new packet
+	 * whenever the current one is full.
+	 */
+	private class PacketWriter extends OutputStream {
+		@Override
+		public void write(int b) {
+			if(current == null || current.position() == current.capacity()) {
+				nextPacket();
+			}
+			current.put((byte)b);
+		}
+
+		@Override
+		public void write(byte data[], int offset, int length) {
+			while(length > 0) {
+				if(current == null || current.position() == current.capacity()) {
+					nextPacket();
+				}
+				int count = Math.min(length, current.remaining());
+				current.put(data, offset, count);
+				offset += count;
+				length -= count;
+			}
+		}
+	}
+}
@@ -0,0 +1,421 @@
+package robowars.server.controller;
+
+/**
+ * Reassembles video frames from media packets (see MediaFrame) on the
+ * client. Segments of several frames may be received in any order, and a
+ * single lost data segment in each parity group is rebuilt from the group's
+ * parity segment.
+ *
+ * Frames are delivered in frame ID order: once a frame is complete, any
+ * older incomplete frames are abandoned and counted as lost, and packets
+ * arriving late for an older frame are ignored. A frame is also abandoned
+ * and counted as lost when packets of too many newer frames arrive before
+ * it is complete, so losses are counted even while no frame completes.
+ *
+ * This class is used by the Android client, and so only depends on the core
+ * Java libraries.
+ *
+ * @author Alexander Craig
+ */
+public class MediaFrameAssembler {
+	/** The number of frames that can be reassembled at the same time */
+	public static final int MAX_PENDING_FRAMES = 4;
+
+	/**
+	 * The largest jump in frame IDs counted as lost frames (larger jumps are
+	 * assumed to be a restarted stream)
+	 */
+	public static final int MAX_FRAME_GAP = 100;
+
+	/** The largest frame accepted (in bytes), far above any encoded video frame */
+	public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+	/** Frames currently being reassembled */
+	private PendingFrame pending[];
+
+	/** The stream frames are being received from (-1 before the first packet) */
+	private int streamId;
+
+	/** The ID of the newest frame completed or abandoned */
+	private int lastFrameId;
+
+	/** True once a frame of the current stream has been completed or abandoned */
+	private boolean started;
+
+	/** The frame completed by the last packet added (null if none) */
+	private PendingFrame completed;
+
+	/** The ID of the last completed frame */
+	private int completedFrameId;
+
+	/** The number of frames completed */
+	private long framesCompleted;
+
+	/** The number of completed frames that required a segment to be rebuilt */
+	private long framesRecovered;
+
+	/** The number of frames that could not be completed */
+	private long framesLost;
+
+	public MediaFrameAssembler() {
+		pending = new PendingFrame[MAX_PENDING_FRAMES];
+		for(int i = 0; i < pending.length; i++) {
+			pending[i] = new PendingFrame();
+		}
+		streamId = -1;
+		lastFrameId = 0;
+		started = false;
+		completed = null;
+		completedFrameId = 0;
+		framesCompleted = 0;
+		framesRecovered = 0;
+		framesLost = 0;
+	}
+
+	/**
+	 * Adds a received packet.
+	 * @param data	The buffer holding the packet
+	 * @param length	The length of the packet
+	 * @return	True if the packet completed a frame (the image data is
+	 * 			available through getFrameData() until the next call)
+	 */
+	public boolean addPacket(byte data[], int length) {
+		if(completed != null) {
+			completed.clear();
+			completed = null;
+		}
+		if(length < MediaFrame.HEADER_LENGTH
+				|| data[MediaFrame.VERSION_OFFSET] != MediaFrame.VERSION
+				|| !isValidLayout(data)) {
+			return false;
+		}
+
+		int stream = data[MediaFrame.STREAM_OFFSET] & 0xFF;
+		int frameId = readInt(data, MediaFrame.FRAME_ID_OFFSET);
+		if(stream != streamId) {
+			// The server has started a new stream (e.g. a different quality),
+			// whose frame IDs are unrelated to the previous stream
+			for(PendingFrame frame : pending) {
+				frame.clear();
+			}
+			streamId = stream;
+			started = false;
+		} else if(started && frameId - lastFrameId <= 0) {
+			// Late packet for a frame that was completed or abandoned
+			return false;
+		}
+
+		PendingFrame frame = getPendingFrame(frameId, data);
+		if(frame == null || !frame.addSegment(data, length)) {
+			return false;
+		}
+
+		// Frame complete, abandon any older frames (these are counted as lost
+		// by frameDone(), except before the first frame)
+		int abandoned = 0;
+		for(PendingFrame f : pending) {
+			if(f != frame && f.active && f.frameId - frameId < 0) {
+				f.clear();
+				abandoned++;
+			}
+		}
+		if(!started) {
+			framesLost += abandoned;
+		}
+		frameDone(frameId, false);
+		completed = frame;
+		completedFrameId = frameId;
+		framesCompleted++;
+		if(frame.recovered) {
+			framesRecovered++;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the frame a packet belongs to, starting a new frame (replacing
+	 * the oldest frame if all are in use) if needed.
+	 * @param frameId	The frame ID of the packet
+	 * @param header	The buffer holding the packet
+	 * @return	The frame to add the packet to, or null if the packet belongs
+	 * 			to a frame older than all frames being reassembled
+	 */
+	private PendingFrame getPendingFrame(int frameId, byte header[]) {
+		PendingFrame oldest = null;
+		for(PendingFrame f : pending) {
+			if(!f.active) {
+				if(oldest == null || oldest.active) oldest = f;
+			} else if(f.frameId == frameId) {
+				return f;
+			} else if(oldest == null || (oldest.active && f.frameId - oldest.frameId < 0)) {
+				oldest = f;
+			}
+		}
+		if(oldest.active) {
+			if(frameId - oldest.frameId < 0) {
+				return null;
+			}
+			abandon(oldest);
+		}
+		oldest.start(frameId, header);
+		return oldest;
+	}
+
+	/**
+	 * Stops reassembling an incomplete frame, and counts it as lost.
+	 * @param frame	The frame to abandon (older than all other active frames)
+	 */
+	private void abandon(PendingFrame frame) {
+		frame.clear();
+		frameDone(frame.frameId, true);
+	}
+
+	/**
+	 * Records that a frame has been completed or abandoned. Every frame since
+	 * the last frame completed or abandoned was lost (before the first, only
+	 * the abandoned frame itself is known to be lost).
+	 * @param frameId	The ID of the frame
+	 * @param lost	True if the frame was abandoned
+	 */
+	private void frameDone(int frameId, boolean lost) {
+		if(!started) {
+			if(lost) framesLost++;
+		} else if(frameId - lastFrameId <= MAX_FRAME_GAP) {
+			framesLost += frameId - lastFrameId - (lost ? 0 : 1);
+		}
+		lastFrameId = frameId;
+		started = true;
+	}
+
+	/**
+	 * @return	The buffer holding the image data of the frame completed by
+	 * 			the last packet added
+	 */
+	public byte[] getFrameData() {
+		return completed.data;
+	}
+
+	/**
+	 * @return	The length of the image data of the frame completed by the
+	 * 			last packet added
+	 */
+	public int getFrameLength() {
+		return completed.frameLength;
+	}
+
+	/**
+	 * @return	The frame ID of the last completed frame
+	 */
+	public int getFrameId() {
+		return completedFrameId;
+	}
+
+	/**
+	 * @return	The capture timestamp (in server time) of the frame completed
+	 * 			by the last packet added
+	 */
+	public long getTimestamp() {
+		return completed.timestamp;
+	}
+
+	/**
+	 * @return	The number of frames completed
+	 */
+	public long getFramesCompleted() {
+		return framesCompleted;
+	}
+
+	/**
+	 * @return	The number of completed frames that required a lost segment to
+	 * 			be rebuilt from parity
+	 */
+	public long getFramesRecovered() {
+		return framesRecovered;
+	}
+
+	/**
+	 * @return	The number of frames skipped because they could not be completed
+	 * 			(updated by every packet added, not only by completed frames)
+	 */
+	public long getFramesLost() {
+		return framesLost;
+	}
+
+	/**
+	 * Checks the frame layout in a packet header, so that a malformed or
+	 * stray packet can never make a frame read or write outside its buffers.
+	 * @param header	The buffer holding the packet
+	 * @return	True if the frame has at least one segment, and its length
+	 * 			fits in its segments
+	 */
+	private static boolean isValidLayout(byte header[]) {
+		int numSegments = readShort(header, MediaFrame.SEGMENT_COUNT_OFFSET);
+		int segmentSize = readShort(header, MediaFrame.SEGMENT_SIZE_OFFSET);
+		int frameLength = readInt(header, MediaFrame.FRAME_LENGTH_OFFSET);
+		return numSegments > 0 && segmentSize > 0 && frameLength > 0
+				&& frameLength <= MAX_FRAME_LENGTH
+				&& (long)numSegments * segmentSize <= MAX_FRAME_LENGTH
+				&& frameLength <= numSegments * segmentSize;
+	}
+
+	/**
+	 * Reads a big endian int from a buffer.
+	 */
+	private static int readInt(byte data[], int offset) {
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+				| ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+	}
+
+	/**
+	 * Reads a big endian unsigned short from a buffer.
+	 */
+	private static int readShort(byte data[], int offset) {
+		return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+	}
+
+	/**
+	 * A frame being reassembled. The buffers are kept when the frame is
+	 * cleared, and reused by later frames.
+	 */
+	private static class PendingFrame {
+		/** True while the frame is being reassembled */
+		boolean active = false;
+
+		int frameId;
+		long timestamp;
+		int numSegments;
+		int segmentSize;
+		int frameLength;
+		int parityGroup;
+
+		/** The image data (data segments are copied to their final offset) */
+		byte data[] = new byte[0];
+
+		/** The received parity segments, one per group */
+		byte parity[] = new byte[0];
+
+		/** Flags set for each received data segment */
+		boolean received[] = new boolean[0];
+
+		/** Flags set for each received parity segment */
+		boolean parityReceived[] = new boolean[0];
+
+		/** The number of data segments received */
+		int numReceived;
+
+		/** True if a segment was rebuilt from parity */
+		boolean recovered;
+
+		/**
+		 * Starts reassembling a new frame, using the layout in a packet header.
+		 */
+		void start(int frameId, byte header[]) {
+			active = true;
+			this.frameId = frameId;
+			timestamp = ((long)readInt(header, MediaFrame.TIMESTAMP_OFFSET) << 32)
+					| (readInt(header, MediaFrame.TIMESTAMP_OFFSET + 4) & 0xFFFFFFFFL);
+			numSegments = readShort(header, MediaFrame.SEGMENT_COUNT_OFFSET);
+			segmentSize = readShort(header, MediaFrame.SEGMENT_SIZE_OFFSET);
+			frameLength = readInt(header, MediaFrame.FRAME_LENGTH_OFFSET);
+			parityGroup = header[MediaFrame.PARITY_GROUP_OFFSET] & 0xFF;
+			numReceived = 0;
+			recovered = false;
+
+			if(data.length < numSegments * segmentSize) {
+				data = new byte[numSegments * segmentSize];
+			}
+			if(received.length < numSegments) {
+				received = new boolean[numSegments];
+			}
+			int numGroups = parityGroup == 0 ? 0 : (numSegments + parityGroup - 1) / parityGroup;
+			if(parity.length < numGroups * segmentSize) {
+				parity = new byte[numGroups * segmentSize];
+			}
+			if(parityReceived.length < numGroups) {
+				parityReceived = new boolean[numGroups];
+			}
+			for(int i = 0; i < numSegments; i++) received[i] = false;
+			for(int i = 0; i < numGroups; i++) parityReceived[i] = false;
+		}
+
+		/** Stops reassembling the frame */
+		void clear() {
+			active = false;
+		}
+
+		/**
+		 * Stores a segment of the frame.
+		 * @return	True if the frame is now complete
+		 */
+		boolean addSegment(byte packet[], int length) {
+			// Packets with a different layout do not belong to this frame
+			if(readShort(packet, MediaFrame.SEGMENT_COUNT_OFFSET) != numSegments
+					|| readShort(packet, MediaFrame.SEGMENT_SIZE_OFFSET) != segmentSize
+					|| readInt(packet, MediaFrame.FRAME_LENGTH_OFFSET) != frameLength) {
+				return false;
+			}
+			int index = readShort(packet, MediaFrame.SEGMENT_INDEX_OFFSET);
+			int payload = Math.min(length - MediaFrame.HEADER_LENGTH, segmentSize);
+			boolean isParity = (packet[MediaFrame.FLAGS_OFFSET] & MediaFrame.FLAG_PARITY) != 0;
+
+			if(isParity) {
+				if(parityGroup == 0 || index * parityGroup >= numSegments
+						|| parityReceived[index]) return false;
+				System.arraycopy(packet, MediaFrame.HEADER_LENGTH, parity, index * segmentSize, payload);
+				for(int i = payload; i < segmentSize; i++) {
+					parity[index * segmentSize + i] = 0;
+				}
+				parityReceived[index] = true;
+				recover(index);
+			} else {
+				if(index >= numSegments || received[index]) return false;
+				System.arraycopy(packet, MediaFrame.HEADER_LENGTH, data, index * segmentSize, payload);
+				received[index] = true;
+				numReceived++;
+				if(parityGroup > 0) {
+					recover(index / parityGroup);
+				}
+			}
+			return numReceived == numSegments;
+		}
+
+		/**
+		 * Rebuilds the missing data segment of a parity group, if the group's
+		 * parity segment has been received and only one segment is missing.
+		 * @param group	The index of the parity group
+		 */
+		void recover(int group) {
+			if(!parityReceived[group]) return;
+			int first = group * parityGroup;
+			int end = Math.min(numSegments, first + parityGroup);
+			int missing = -1;
+			for(int i = first; i < end; i++) {
+				if(!received[i]) {
+					if(missing >= 0) return;
+					missing = i;
+				}
+			}
+			if(missing < 0) return;
+
+			int missingLength = getSegmentLength(missing);
+			int offset = missing * segmentSize;
+			for(int b = 0; b < missingLength; b++) {
+				byte value = parity[group * segmentSize + b];
+				for(int i = first; i < end; i++) {
+					if(i != missing && b < getSegmentLength(i)) {
+						value ^= data[i * segmentSize + b];
+					}
+				}
+				data[offset + b] = value;
+			}
+			received[missing] = true;
+			numReceived++;
+			recovered = true;
+		}
+
+		/** @return	The number of image bytes in a data segment */
+		int getSegmentLength(int index) {
+			return index == numSegments - 1 ? frameLength - index * segmentSize : segmentSize;
+		}
+	}
+}
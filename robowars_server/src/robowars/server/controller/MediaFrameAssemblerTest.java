@@ -0,0 +1,223 @@
+package robowars.server.controller;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the MediaFrameAssembler class (and the parity segments
+ * generated by MediaFrame).
+ *
+ * @author Alexander Craig
+ */
+public class MediaFrameAssemblerTest {
+	public static final int TEST_PACKET_SIZE = 100;
+
+	MediaFrameAssembler assembler;
+	byte image[];
+
+	@Before
+	public void setUp() {
+		assembler = new MediaFrameAssembler();
+		image = new byte[950];
+		for(int i = 0; i < image.length; i++) {
+			image[i] = (byte)(i * 7);
+		}
+	}
+
+	/**
+	 * Packetizes the test image.
+	 * @param frameId	The frame ID of the packets
+	 * @param parityGroup	The number of data segments per parity segment
+	 * @return	The packets (data segments followed by parity segments)
+	 */
+	private ArrayList<byte[]> packetize(int frameId, int parityGroup) {
+		MediaFrame frame = new MediaFrame();
+		frame.packetize(image, image.length, frameId, TEST_PACKET_SIZE, parityGroup);
+		ArrayList<byte[]> packets = new ArrayList<byte[]>();
+		for(int i = 0; i < frame.getNumPackets(); i++) {
+			ByteBuffer buffer = frame.getPacket(i);
+			byte packet[] = new byte[buffer.limit()];
+			buffer.position(0);
+			buffer.get(packet);
+			packets.add(packet);
+		}
+		return packets;
+	}
+
+	/** @return	True if the packet completed a frame */
+	private boolean add(byte packet[]) {
+		return assembler.addPacket(packet, packet.length);
+	}
+
+	/** Checks that the last completed frame holds the test image */
+	private void assertImage() {
+		assertEquals(image.length, assembler.getFrameLength());
+		assertArrayEquals(image, Arrays.copyOf(assembler.getFrameData(), assembler.getFrameLength()));
+	}
+
+	@Test
+	public void testOutOfOrder() {
+		ArrayList<byte[]> packets = packetize(5, 0);
+		assertEquals(10, packets.size());
+		for(int i = packets.size() - 1; i > 0; i--) {
+			assertFalse(add(packets.get(i)));
+		}
+		assertTrue(add(packets.get(0)));
+		assertEquals(5, assembler.getFrameId());
+		assertImage();
+
+		// Duplicate packets do not complete the frame again
+		assertFalse(add(packets.get(3)));
+		assertEquals(1, assembler.getFramesCompleted());
+	}
+
+	@Test
+	public void testParityRecovery() {
+		ArrayList<byte[]> packets = packetize(0, 4);
+		assertEquals(13, packets.size());
+
+		// Drop one data segment from each group (including the short last
+		// segment), the parity segments arrive first
+		for(int i = 10; i < 13; i++) {
+			assertFalse(add(packets.get(i)));
+		}
+		boolean complete = false;
+		for(int i = 0; i < 10; i++) {
+			if(i == 1 || i == 6 || i == 9) continue;
+			complete = add(packets.get(i));
+		}
+		assertTrue(complete);
+		assertImage();
+		assertEquals(1, assembler.getFramesRecovered());
+	}
+
+	@Test
+	public void testDoubleLoss() {
+		// Two lost segments in a group can not be rebuilt
+		ArrayList<byte[]> packets = packetize(0, 4);
+		for(int i = 0; i < packets.size(); i++) {
+			if(i == 0 || i == 1) continue;
+			assertFalse(add(packets.get(i)));
+		}
+
+		// The frame is counted as lost once a later frame completes
+		for(byte packet[] : packetize(1, 4)) {
+			add(packet);
+		}
+		assertEquals(1, assembler.getFrameId());
+		assertEquals(1, assembler.getFramesLost());
+		assertEquals(1, assembler.getFramesCompleted());
+
+		// Late packets for the abandoned frame are ignored
+		assertFalse(add(packets.get(0)));
+		assertFalse(add(packets.get(1)));
+		assertEquals(1, assembler.getFramesCompleted());
+	}
+
+	@Test
+	public void testAbandonWithoutCompletion() {
+		// Frames missing two segments of a group are abandoned as packets of
+		// newer frames arrive, even though no frame completes
+		for(int id = 20; id < 20 + MediaFrameAssembler.MAX_PENDING_FRAMES + 3; id++) {
+			ArrayList<byte[]> packets = packetize(id, 4);
+			for(int i = 2; i < packets.size(); i++) {
+				assertFalse(add(packets.get(i)));
+			}
+		}
+		assertEquals(3, assembler.getFramesLost());
+		assertEquals(0, assembler.getFramesCompleted());
+
+		// Frames skipped entirely are counted once a later frame completes,
+		// and the abandoned frames are not counted again
+		for(byte packet[] : packetize(30, 4)) {
+			add(packet);
+		}
+		assertEquals(30, assembler.getFrameId());
+		assertEquals(10, assembler.getFramesLost());
+
+		// Late packets for an abandoned frame are ignored
+		assertFalse(add(packetize(21, 4).get(0)));
+	}
+
+	@Test
+	public void testInterleavedFrames() {
+		ArrayList<byte[]> first = packetize(10, 0);
+		ArrayList<byte[]> second = packetize(11, 0);
+		int completed = 0;
+		for(int i = 0; i < first.size(); i++) {
+			if(add(second.get(i))) completed++;
+			if(add(first.get(i))) completed++;
+		}
+		// The first frame is abandoned when the second completes first
+		assertEquals(1, completed);
+		assertEquals(11, assembler.getFrameId());
+		assertEquals(1, assembler.getFramesLost());
+
+		// Frames skipped entirely are counted as lost
+		for(byte packet[] : packetize(14, 0)) {
+			add(packet);
+		}
+		assertEquals(14, assembler.getFrameId());
+		assertEquals(3, assembler.getFramesLost());
+	}
+
+	@Test
+	public void testMalformedPackets() {
+		ArrayList<byte[]> packets = packetize(3, 4);
+
+		// Packets whose frame length does not fit in their segments, or with
+		// no segments, are dropped without starting a frame
+		byte tooLong[] = packets.get(0).clone();
+		ByteBuffer.wrap(tooLong).putInt(MediaFrame.FRAME_LENGTH_OFFSET, 100000);
+		assertFalse(add(tooLong));
+		byte empty[] = packets.get(0).clone();
+		ByteBuffer.wrap(empty).putShort(MediaFrame.SEGMENT_SIZE_OFFSET, (short)0);
+		assertFalse(add(empty));
+		byte huge[] = packets.get(0).clone();
+		ByteBuffer.wrap(huge).putShort(MediaFrame.SEGMENT_COUNT_OFFSET, (short)-1);
+		ByteBuffer.wrap(huge).putShort(MediaFrame.SEGMENT_SIZE_OFFSET, (short)-1);
+		assertFalse(add(huge));
+
+		// A packet with a different layout is not added to a started frame
+		assertFalse(add(packets.get(1)));
+		assertEquals(0, assembler.getFramesLost());
+		byte shifted[] = packets.get(0).clone();
+		ByteBuffer.wrap(shifted).putInt(MediaFrame.FRAME_LENGTH_OFFSET, image.length - 1);
+		assertFalse(add(shifted));
+
+		boolean complete = false;
+		for(int i = 0; i < packets.size() && !complete; i++) {
+			complete = add(packets.get(i));
+		}
+		assertTrue(complete);
+		assertImage();
+		assertEquals(0, assembler.getFramesLost());
+	}
+
+	@Test
+	public void testStreamChange() throws Exception {
+		for(byte packet[] : packetize(50, 0)) {
+			add(packet);
+		}
+
+		// A new stream restarts frame IDs without counting lost frames
+		MediaFrame frame = new MediaFrame();
+		frame.begin(1, 0, 99L, TEST_PACKET_SIZE).write(image, 0, 10);
+		frame.finish(0);
+		ByteBuffer buffer = frame.getPacket(0);
+		byte packet[] = new byte[buffer.limit()];
+		buffer.get(packet);
+		assertTrue(add(packet));
+		assertEquals(0, assembler.getFrameId());
+		assertEquals(99L, assembler.getTimestamp());
+		assertEquals(0, assembler.getFramesLost());
+	}
+}
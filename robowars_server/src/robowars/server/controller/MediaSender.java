@@ -0,0 +1,223 @@
+package robowars.server.controller;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sends packetized video frames to every media client from a dedicated
+ * thread, so that the capture thread never waits on the network. Each frame
+ * is split into packets once (see MediaFrame), and the same packets are then
+ * sent to every client.
+ *
+ * Frames are handed over through a single pending slot: if the sender is
+ * still busy when a newer frame is submitted, the older pending frame is
+ * discarded rather than delayed. Three MediaFrames are pooled (one being
+ * filled, one pending and one being sent), and packets are sent straight
+ * from their direct buffers through a DatagramChannel, so streaming does
+ * not allocate per frame, packet or client.
+ *
+ * @author Alexander Craig
+ */
+public class MediaSender implements Runnable {
+	/** The logger used by this class */
+	private static Logger log = Logger.getLogger(MediaSender.class);
+
+	/** The number of pooled frames */
+	private static final int POOL_SIZE = 3;
+
+	/** Channel used to send packets */
+	private final DatagramChannel channel;
+
+	/** The port that clients receive packets on */
+	private final int destinationPort;
+
+	/** The socket addresses of all clients (replaced, never modified) */
+	private volatile InetSocketAddress destinations[];
+
+	/** Frames that are not pending or being sent (guarded by this) */
+	private final ArrayList<MediaFrame> freeFrames;
+
+	/** The next frame to send, or null if none is waiting (guarded by this) */
+	private MediaFrame pendingFrame;
+
+	/** False once the sender has been closed */
+	private volatile boolean running;
+
+	/** The number of frames sent to all clients */
+	private volatile long framesSent;
+
+	/** The number of frames discarded before being sent */
+	private volatile long framesDropped;
+
+	/** The number of datagrams sent */
+	private volatile long packetsSent;
+
+	/**
+	 * Generates a new MediaSender. run() must be called from a new thread
+	 * to start sending.
+	 * @param channel	The (blocking) channel to send packets from
+	 * @param destinationPort	The port that clients receive packets on
+	 */
+	public MediaSender(DatagramChannel channel, int destinationPort) {
+		this.channel = channel;
+		this.destinationPort = destinationPort;
+		destinations = new InetSocketAddress[0];
+		freeFrames = new ArrayList<MediaFrame>(POOL_SIZE);
+		for(int i = 0; i < POOL_SIZE; i++) {
+			freeFrames.add(new MediaFrame());
+		}
+		pendingFrame = null;
+		running = true;
+		framesSent = 0;
+		framesDropped = 0;
+		packetsSent = 0;
+	}
+
+	/**
+	 * Sets the client addresses that frames should be sent to. Duplicate
+	 * addresses are only sent each packet once.
+	 * @param addresses	The addresses of all media clients
+	 */
+	public void setDestinations(Collection<InetAddress> addresses) {
+		LinkedHashSet<InetAddress> unique = new LinkedHashSet<InetAddress>(addresses);
+		InetSocketAddress socketAddresses[] = new InetSocketAddress[unique.size()];
+		int i = 0;
+		for(InetAddress address : unique) {
+			socketAddresses[i++] = new InetSocketAddress(address, destinationPort);
+		}
+		destinations = socketAddresses;
+	}
+
+	/**
+	 * @return	The number of distinct client addresses frames are sent to
+	 */
+	public int getNumDestinations() {
+		return destinations.length;
+	}
+
+	/**
+	 * Returns a frame to be filled with the next packetized image. If no
+	 * pooled frame is free, the pending (unsent) frame is reused and counted
+	 * as dropped. Must only be called by one thread at a time.
+	 * @return	A frame to pass to submit() once filled
+	 */
+	public synchronized MediaFrame acquireFrame() {
+		if(!freeFrames.isEmpty()) {
+			return freeFrames.remove(freeFrames.size() - 1);
+		}
+		MediaFrame frame = pendingFrame;
+		pendingFrame = null;
+		framesDropped++;
+		return frame;
+	}
+
+	/**
+	 * Returns an acquired frame to the pool without sending it (used when
+	 * a frame could not be filled).
+	 * @param frame	A frame obtained from acquireFrame()
+	 */
+	public synchronized void release(MediaFrame frame) {
+		freeFrames.add(frame);
+	}
+
+	/**
+	 * Queues a filled frame to be sent to all clients, replacing (and
+	 * dropping) any frame still waiting to be sent.
+	 * @param frame	A frame obtained from acquireFrame()
+	 */
+	public synchronized void submit(MediaFrame frame) {
+		if(pendingFrame != null) {
+			freeFrames.add(pendingFrame);
+			framesDropped++;
+		}
+		pendingFrame = frame;
+		notifyAll();
+	}
+
+	/**
+	 * Sends each submitted frame to every client until closed.
+	 */
+	public void run() {
+		while(running) {
+			MediaFrame frame;
+			synchronized(this) {
+				while(pendingFrame == null && running) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				frame = pendingFrame;
+				pendingFrame = null;
+			}
+			if(frame == null) break;
+
+			send(frame);
+
+			synchronized(this) {
+				freeFrames.add(frame);
+			}
+		}
+	}
+
+	/**
+	 * Sends every packet of a frame to every client.
+	 * @param frame	The frame to send
+	 */
+	private void send(MediaFrame frame) {
+		InetSocketAddress clients[] = destinations;
+		long sent = 0;
+		for(int i = 0; i < frame.getNumPackets(); i++) {
+			ByteBuffer packet = frame.getPacket(i);
+			for(InetSocketAddress address : clients) {
+				packet.position(0);
+				try {
+					channel.send(packet, address);
+					sent++;
+				} catch (IOException e) {
+					log.error("Error sending image frame to client: " + address);
+				}
+			}
+		}
+		packetsSent += sent;
+		framesSent++;
+	}
+
+	/**
+	 * Stops the sender thread. Pending frames are discarded.
+	 */
+	public synchronized void close() {
+		running = false;
+		notifyAll();
+	}
+
+	/**
+	 * @return	The number of frames sent to all clients
+	 */
+	public long getFramesSent() {
+		return framesSent;
+	}
+
+	/**
+	 * @return	The number of frames discarded because the sender was busy
+	 */
+	public long getFramesDropped() {
+		return framesDropped;
+	}
+
+	/**
+	 * @return	The number of datagrams sent
+	 */
+	public long getPacketsSent() {
+		return packetsSent;
+	}
+}
@@ -0,0 +1,164 @@
+package robowars.server.controller;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the MediaSender and MediaFrame classes.
+ *
+ * @author Alexander Craig
+ */
+public class MediaSenderTest {
+	public static final int TEST_PACKET_SIZE = 1000;
+
+	DatagramChannel sendChannel;
+	DatagramSocket receiveSocket;
+	MediaSender sender;
+	byte image[];
+
+	@Before
+	public void setUp() throws Exception {
+		sendChannel = DatagramChannel.open();
+		sendChannel.socket().bind(new InetSocketAddress(0));
+		receiveSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		receiveSocket.setSoTimeout(5000);
+		sender = new MediaSender(sendChannel, receiveSocket.getLocalPort());
+
+		image = new byte[2500];
+		for(int i = 0; i < image.length; i++) {
+			image[i] = (byte)i;
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sender.close();
+		sendChannel.close();
+		receiveSocket.close();
+	}
+
+	/** @return	The contents of a packet buffer */
+	private byte[] getBytes(ByteBuffer packet) {
+		byte bytes[] = new byte[packet.limit()];
+		packet.position(0);
+		packet.get(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void testPacketize() throws Exception {
+		MediaFrame frame = new MediaFrame();
+		frame.packetize(image, image.length, 1, TEST_PACKET_SIZE, 0);
+		assertEquals(3, frame.getNumPackets());
+		assertEquals(MediaFrame.HEADER_LENGTH + 500, frame.getPacketLength(2));
+
+		ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+		for(int i = 0; i < frame.getNumPackets(); i++) {
+			byte packet[] = getBytes(frame.getPacket(i));
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(packet));
+			assertEquals(MediaFrame.VERSION, in.readByte());
+			assertEquals(0, in.readByte());
+			in.readShort();
+			assertEquals(1, in.readInt());
+			assertEquals(i, in.readShort());
+			assertEquals(3, in.readShort());
+			assertEquals(TEST_PACKET_SIZE, in.readShort());
+			assertEquals(image.length, in.readInt());
+			reassembled.write(packet, MediaFrame.HEADER_LENGTH,
+					packet.length - MediaFrame.HEADER_LENGTH);
+		}
+		assertArrayEquals(image, reassembled.toByteArray());
+
+		// Smaller frames reuse the existing packet buffers
+		ByteBuffer first = frame.getPacket(0);
+		frame.packetize(image, 10, 0, TEST_PACKET_SIZE, 0);
+		assertEquals(1, frame.getNumPackets());
+		assertEquals(MediaFrame.HEADER_LENGTH + 10, frame.getPacketLength(0));
+		assertSame(first, frame.getPacket(0));
+	}
+
+	@Test
+	public void testStreamedPacketize() throws Exception {
+		// Data written a byte at a time (as an encoder might) is split at
+		// the same boundaries
+		MediaFrame frame = new MediaFrame();
+		OutputStream out = frame.begin(2, 7, 1234L, TEST_PACKET_SIZE);
+		for(int i = 0; i < 2000; i++) {
+			out.write(image[i]);
+		}
+		frame.finish(0);
+		assertEquals(2, frame.getNumPackets());
+		assertEquals(MediaFrame.HEADER_LENGTH + TEST_PACKET_SIZE, frame.getPacketLength(1));
+		ByteBuffer last = frame.getPacket(1);
+		assertEquals(2, last.get(MediaFrame.STREAM_OFFSET));
+		assertEquals(7, last.getInt(MediaFrame.FRAME_ID_OFFSET));
+		assertEquals(1, last.getShort(MediaFrame.SEGMENT_INDEX_OFFSET));
+		assertEquals(1234L, last.getLong(MediaFrame.TIMESTAMP_OFFSET));
+
+		// An empty frame still produces a single packet
+		frame.begin(0, 8, 0, TEST_PACKET_SIZE);
+		frame.finish(0);
+		assertEquals(1, frame.getNumPackets());
+		assertEquals(MediaFrame.HEADER_LENGTH, frame.getPacketLength(0));
+	}
+
+	@Test
+	public void testSend() throws Exception {
+		// Duplicate client addresses only receive each packet once
+		ArrayList<InetAddress> clients = new ArrayList<InetAddress>();
+		clients.add(InetAddress.getByName("127.0.0.1"));
+		clients.add(InetAddress.getByName("127.0.0.1"));
+		sender.setDestinations(clients);
+		assertEquals(1, sender.getNumDestinations());
+		new Thread(sender).start();
+
+		MediaFrame frame = sender.acquireFrame();
+		frame.packetize(image, image.length, 0, TEST_PACKET_SIZE, 0);
+		sender.submit(frame);
+
+		byte buffer[] = new byte[2048];
+		for(int i = 0; i < 3; i++) {
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			receiveSocket.receive(packet);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer));
+			in.readInt();
+			assertEquals(0, in.readInt());
+			assertEquals(i, in.readShort());
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while(sender.getFramesSent() < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(1, sender.getFramesSent());
+		assertEquals(3, sender.getPacketsSent());
+	}
+
+	@Test
+	public void testLatestFrameWins() {
+		// The sender thread is not started, so submitted frames stay pending
+		for(int i = 0; i < 10; i++) {
+			MediaFrame frame = sender.acquireFrame();
+			frame.packetize(image, image.length, i, TEST_PACKET_SIZE, 0);
+			sender.submit(frame);
+		}
+		assertEquals(9, sender.getFramesDropped());
+		assertEquals(0, sender.getFramesSent());
+	}
+}
@@ -1,17 +1,16 @@
 package robowars.server.controller;
 
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import javax.imageio.ImageIO;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -23,13 +22,36 @@ import com.lti.civil.CaptureStream;
 import com.lti.civil.CaptureSystem;
 import com.lti.civil.Image;
 import com.lti.civil.VideoFormat;
-import com.lti.civil.awt.AWTImageConverter;
 import com.lti.civil.impl.jni.NativeCaptureSystemFactory;
 
 /**
  * Handles the streaming of live video to connected users. This class also 
  * stores a list of all available cameras, and manages the selection of a 
- * currently active camera.
+ * currently active camera. Each running game (arena) is assigned its own
+ * camera, whose position is reported to the players of that arena.
+ * 
+ * While games are running, every detected camera is captured concurrently
+ * by its own CameraPipeline. Users subscribed to an arena receive the video
+ * of that arena's camera, and all other users receive the selected camera.
+ * Captured frames are handed to the pipeline's FrameEncoder, which JPEG
+ * encodes them on its own thread directly into pooled packet buffers. The
+ * packets are then sent to clients by MediaSenders running on other
+ * threads, so the capture thread only copies each frame.
+ * 
+ * Each client is served at a VideoQuality tier chosen from the frame loss it
+ * reports. Every tier has its own MediaSender, and each captured frame is
+ * encoded once for every tier that has clients and is due a new frame.
+ * 
+ * Cameras are detected through the LTI-Civil native capture system. Other
+ * video sources (such as a generated test pattern, for running the server
+ * without a camera) can be added with addVideoSource(), and are streamed in
+ * the same way as cameras.
+ * 
+ * For clients unable to render the game themselves, the entities of each
+ * running game can be drawn over the video of its arena's camera on the
+ * server (see setOverlayEnabled() and ArenaOverlay). The overlay is drawn
+ * once per frame, before encoding, so it is included in every stream of
+ * the camera.
  * 
  * @author Alexander Craig
  */
@@ -58,46 +80,74 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 	/** Size of the buffer for reading incoming packets */
 	public static int INC_BUFFER_SIZE = 16384;
 	
-	/** The number of bytes of data that should be sent in each packet */
-	public static int PACKET_SIZE = 1450;
+	/** 
+	 * The largest datagram that can be sent without IP fragmentation (a 1500
+	 * byte Ethernet / Wi-Fi MTU, less 28 bytes of IP and UDP headers)
+	 */
+	public static final int MAX_DATAGRAM_SIZE = 1472;
 	
-	/** Socket used to send image frames to the network */
-	private DatagramSocket serverSocket;
+	/** 
+	 * The number of bytes of data that should be sent in each packet (a full
+	 * packet, including its header, fits in a single unfragmented datagram)
+	 */
+	public static int PACKET_SIZE = MAX_DATAGRAM_SIZE - MediaFrame.HEADER_LENGTH;
 	
-	/** Port to use for transmission of image frames */
-	private int mediaPort;
+	/** 
+	 * The number of packets protected by each parity packet (a client can 
+	 * rebuild one lost packet per group), or 0 to send no parity packets
+	 */
+	public static int PARITY_GROUP_SIZE = 4;
 	
-	/** The time at which an image was last written to the network stream */
-	private long lastImageWrite;
+	/** Port that clients receive image frames on */
+	private int mediaPort;
 	
 	/** A list of all connected clients */
 	private ArrayList<User> clients;
 	
+	/** The quality controller of each connected client (guarded by clients) */
+	private HashMap<User, StreamQualityController> clientQuality;
+	
+	/** The arena each subscribed client receives video of (guarded by clients) */
+	private HashMap<User, Integer> clientArenas;
+	
+	/** The pipeline streaming each captured camera (guarded by this) */
+	private Map<CameraController, CameraPipeline> pipelines;
+	
+	/** The pipeline of each capture stream (read by the capture threads) */
+	private Map<CaptureStream, CameraPipeline> streamPipelines;
+	
 	/** 
 	 * A list of all connected CameraControllers (each controller represents
 	 * a separately connected USB webcam).
 	 */
 	private List<CameraController> cameras;
 	
+	/** Video sources added in addition to the detected cameras */
+	private List<VideoSource> videoSources;
+	
 	/**
 	 * The camera currently selected to stream video from.
 	 */
 	private CameraController selectedCamera;
 	
+	/** The camera assigned to each running arena (keyed by arena number) */
+	private Map<Integer, CameraController> arenaCameras;
+	
+	/** The game running in each arena (keyed by arena number) */
+	private Map<Integer, GameController> arenaGames;
+	
+	/** True if game entities should be drawn over the video of each arena */
+	private boolean overlayEnabled;
+	
 	/** 
-	 * Stream which is currently being captured. This should always be null
-	 * when no active capture is in progress. 
+	 * Stream which is currently being captured for an external observer (i.e.
+	 * a local preview). This should always be null when no such capture is in
+	 * progress. 
 	 */
 	private CaptureStream currentStream;
 	
 	/** The Capture Observer to attach to the next stream that is opened. */
 	private CaptureObserver observer;
-	
-	/** 
-	 * The next sequence number to use for image packets (should just alternate between
-	 * 1 and 0)
-	 */
-	private int nextSeqNum;
 
 	/**
 	 * Generates a new MediaStreamer
@@ -107,12 +157,17 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 	{
 		mediaPort = port;
 		cameras = new ArrayList<CameraController>();
+		videoSources = new ArrayList<VideoSource>();
 		clients = new ArrayList<User>();
-		serverSocket = null;
+		clientQuality = new HashMap<User, StreamQualityController>();
+		clientArenas = new HashMap<User, Integer>();
+		arenaCameras = new HashMap<Integer, CameraController>();
+		arenaGames = new HashMap<Integer, GameController>();
+		overlayEnabled = false;
+		pipelines = new LinkedHashMap<CameraController, CameraPipeline>();
+		streamPipelines = new ConcurrentHashMap<CaptureStream, CameraPipeline>();
 		currentStream = null;
 		observer = this;
-		lastImageWrite = System.currentTimeMillis();
-		nextSeqNum = 0;
 		
 		if(ENABLE_TEST_CLIENT) {
 			try {
@@ -125,30 +180,54 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 			}
 		}
 		
-		try {
-			// Establish the datagram socket.
-			serverSocket = new DatagramSocket(mediaPort);
-			log.info("MediaServer initialized and waiting at port: " + mediaPort);
-		} catch (IOException e) {
-			log.error("Socket error in media listen thread, video streaming will not be supported.");
-			e.printStackTrace();
-			serverSocket = null;
-		}
+		log.info("MediaServer initialized, streaming media to clients at port: " + mediaPort);
 	}
 	
 	/**
-	 * @return	The port the media streamer is serving frames on
+	 * @param camera	A detected camera
+	 * @return	The pipeline streaming the camera (or null if the camera is not
+	 * 			being streamed)
+	 */
+	public synchronized CameraPipeline getPipeline(CameraController camera) {
+		return pipelines.get(camera);
+	}
+	
+	/**
+	 * @return	The pipelines of all cameras being streamed
+	 */
+	public synchronized List<CameraPipeline> getPipelines() {
+		return new ArrayList<CameraPipeline>(pipelines.values());
+	}
+	
+	/**
+	 * @return	The port clients receive frames on
 	 */
 	public int getPort() {
 		return mediaPort;
 	}
 	
+	/**
+	 * Adds a video source to the list of available cameras (selecting it if
+	 * no camera is selected). The source is kept when the device list is
+	 * updated.
+	 * @param source	The source to add
+	 */
+	public synchronized void addVideoSource(VideoSource source) {
+		videoSources.add(source);
+		CameraController camera = new CameraController(source);
+		cameras.add(camera);
+		if(selectedCamera == null) {
+			setActiveCamera(camera);
+		}
+		log.info("Added video source: " + source.getDescription() + " - " + source.getDeviceID());
+	}
+	
 	/**
 	 * Re-detects all camera devices connected to the system. Returns without
 	 * performing any action if a media stream is currently being served.
 	 */
 	public synchronized void updateDeviceList() {
-		if(currentStream != null) {
+		if(isStreaming()) {
 			log.error("Attempted to update capture list while serving a stream.");
 			return;
 		}
@@ -159,48 +238,51 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 		CameraController oldActiveCam = getActiveCamera();
 		cameras = new ArrayList<CameraController>();
 		
-		// Detect all connected cameras, and generate a new CameraController
-		// for those which were not present during the last update of the device
-		// list
+		// Detect all connected cameras (followed by any added video sources),
+		// and generate a new CameraController for those which were not present
+		// during the last update of the device list
+		List<com.lti.civil.CaptureDeviceInfo> devices = new ArrayList<com.lti.civil.CaptureDeviceInfo>();
 		NativeCaptureSystemFactory captureFactory = new NativeCaptureSystemFactory();
 		try {
 			CaptureSystem captureSystem = captureFactory.createCaptureSystem();
 			captureSystem.init();
-			List<com.lti.civil.CaptureDeviceInfo> devices = captureSystem.getCaptureDeviceInfoList();
-			
-			for(com.lti.civil.CaptureDeviceInfo device : devices) {
+			List<com.lti.civil.CaptureDeviceInfo> detected = captureSystem.getCaptureDeviceInfoList();
+			for(com.lti.civil.CaptureDeviceInfo device : detected) {
 				log.info("LTI-Civil found device: " + device.getDescription() + " - " + device.getDeviceID());
-				
-				// Add the previously existing camera controller for the detected
-				// device, or create a new one of no controller is available
-				boolean foundExisting = false;
-				for(CameraController c : oldCameras) {
-					if(c.getDeviceId().equals(device.getDeviceID())) {
-						cameras.add(c);
-						foundExisting = true;
-						break;
-					}
-				}
-				if(!foundExisting) {
-					CameraController newCam = new CameraController(device);
-					cameras.add(newCam);
+				devices.add(device);
+			}
+		} catch (CaptureException e) {
+			e.printStackTrace();
+		}
+		devices.addAll(videoSources);
+		
+		for(com.lti.civil.CaptureDeviceInfo device : devices) {
+			// Add the previously existing camera controller for the detected
+			// device, or create a new one of no controller is available
+			boolean foundExisting = false;
+			for(CameraController c : oldCameras) {
+				if(c.getDeviceId().equals(device.getDeviceID())) {
+					cameras.add(c);
+					foundExisting = true;
+					break;
 				}
 			}
-			
-			if(cameras.isEmpty()) {
-				selectedCamera = null;
+			if(!foundExisting) {
+				CameraController newCam = new CameraController(device);
+				cameras.add(newCam);
+			}
+		}
+		
+		if(cameras.isEmpty()) {
+			selectedCamera = null;
+		} else {
+			if(cameras.contains(oldActiveCam)) {
+				setActiveCamera(oldActiveCam);
 			} else {
-				if(cameras.contains(oldActiveCam)) {
-					setActiveCamera(oldActiveCam);
-				} else {
-					// Note: Defaults to first detected camera if no active
-					// camera was previously selected
-					setActiveCamera(cameras.get(0));
-				}
+				// Note: Defaults to first detected camera if no active
+				// camera was previously selected
+				setActiveCamera(cameras.get(0));
 			}
-
-		} catch (CaptureException e) {
-			e.printStackTrace();
 		}
 	}
 	
@@ -213,32 +295,97 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 	}
 	
 	/**
-	 * Starts streaming of the selected camera if the required resolution
-	 * is supported.
+	 * Returns the camera assigned to a running arena.
+	 * @param arenaId	The arena number of a running game
+	 * @return	The camera assigned to the arena, or the currently selected camera
+	 * 			if the arena has no camera assigned
+	 */
+	public synchronized CameraController getArenaCamera(int arenaId) {
+		CameraController camera = arenaCameras.get(arenaId);
+		if(camera == null) {
+			return getActiveCamera();
+		}
+		return camera;
+	}
+	
+	/**
+	 * Assigns a camera to a newly launched arena. The selected camera is used
+	 * if it is not already assigned to another arena, followed by any other
+	 * unassigned camera. Arenas share the selected camera when no unassigned
+	 * camera is available.
+	 * @param arenaId	The arena number of the launched game
+	 */
+	private synchronized void assignArenaCamera(int arenaId) {
+		CameraController assigned = null;
+		if(selectedCamera != null && !arenaCameras.containsValue(selectedCamera)) {
+			assigned = selectedCamera;
+		} else {
+			for(CameraController c : cameras) {
+				if(!arenaCameras.containsValue(c)) {
+					assigned = c;
+					break;
+				}
+			}
+		}
+		
+		if(assigned == null) {
+			assigned = selectedCamera;
+			log.info("No free camera for arena " + arenaId + ", sharing selected camera.");
+		}
+		
+		if(assigned != null) {
+			arenaCameras.put(arenaId, assigned);
+			log.info("Assigned camera \"" + assigned + "\" to arena " + arenaId);
+		}
+	}
+	
+	/**
+	 * Selects the capture format of the required resolution, if supported.
+	 * @param stream	The capture stream to configure
+	 */
+	static void selectVideoFormat(CaptureStream stream) throws CaptureException {
+		for(VideoFormat v : stream.enumVideoFormats()) {
+			if(v.getWidth() == VIDEO_WIDTH && v.getHeight() == VIDEO_HEIGHT) {
+				stream.setVideoFormat(v);
+				log.info("Selected capture format: " + v.getWidth() 
+						+ "x" + v.getHeight() + " - " + v.getFPS() 
+						+ " fps - " + v.getFormatType() + "(" + VideoFormat.RGB24 
+						+ " RGB24, " + VideoFormat.RGB32 + " RGB32)");
+				return;
+			}
+		}
+		
+		log.error("Capture device does not support the required resolution: "
+				+ VIDEO_WIDTH + " x " + VIDEO_HEIGHT + " px");
+	}
+	
+	/**
+	 * Starts streaming. If an external observer has been set, the selected
+	 * camera is captured for that observer. Otherwise, every detected camera
+	 * is captured and streamed to the network by its own pipeline.
 	 */
 	public synchronized void playStream() {
+		if(observer != this) {
+			playObservedStream();
+			return;
+		}
+		
+		for(int i = 0; i < cameras.size(); i++) {
+			startPipeline(cameras.get(i), i * VideoQuality.values().length);
+		}
+		updateDestinations();
+		updateOverlays();
+	}
+	
+	/**
+	 * Starts capturing the selected camera for the external observer.
+	 */
+	private void playObservedStream() {
 		if(getActiveCamera() != null) {
 			CaptureStream stream = getActiveCamera().getCaptureStream();
 			if(stream != null) {
 				try {
-					boolean gotValidFormat = false;
-					for(VideoFormat v : stream.enumVideoFormats()) {
-						if(v.getWidth() == VIDEO_WIDTH && v.getHeight() == VIDEO_HEIGHT) {
-							stream.setVideoFormat(v);
-							log.info("Selected capture format: " + v.getWidth() 
-									+ "x" + v.getHeight() + " - " + v.getFPS() 
-									+ " fps - " + v.getFormatType() + "(" + VideoFormat.RGB24 
-									+ " RGB24, " + VideoFormat.RGB32 + " RGB32)");
-							gotValidFormat = true;
-							break;
-						}
-					}
-					
-					if(!gotValidFormat) {
-						log.error("Selected capture device does not support the required resolution: "
-								+ VIDEO_WIDTH + " x " + VIDEO_HEIGHT + " px");
-					}
-					
+					selectVideoFormat(stream);
 					stream.setObserver(observer);
 					stream.start();
 					currentStream = stream;
@@ -250,6 +397,83 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 		}
 	}
 	
+	/**
+	 * Starts the pipeline streaming a camera (if not already started).
+	 * @param camera	The camera to stream
+	 * @param streamBase	The stream identifier of the pipeline's first quality
+	 */
+	private void startPipeline(CameraController camera, int streamBase) {
+		if(pipelines.containsKey(camera)) return;
+		CaptureStream stream = camera.getCaptureStream();
+		if(stream == null) return;
+		
+		CameraPipeline pipeline;
+		try {
+			pipeline = new CameraPipeline(camera, streamBase, mediaPort);
+		} catch (IOException e) {
+			log.error("Socket error opening media pipeline, video from camera \""
+					+ camera + "\" will not be streamed.");
+			e.printStackTrace();
+			return;
+		}
+		
+		// Frames may arrive as soon as the capture starts
+		streamPipelines.put(stream, pipeline);
+		if(pipeline.start(stream, this)) {
+			pipelines.put(camera, pipeline);
+		} else {
+			streamPipelines.remove(stream);
+			pipeline.close();
+		}
+	}
+	
+	/**
+	 * Sets whether the entities of each running game are drawn over the video
+	 * of its arena's camera before the video is encoded.
+	 * @param enabled	True to draw game entities over the video
+	 */
+	public synchronized void setOverlayEnabled(boolean enabled) {
+		overlayEnabled = enabled;
+		updateOverlays();
+	}
+	
+	/**
+	 * @return	True if game entities are drawn over the video
+	 */
+	public synchronized boolean isOverlayEnabled() {
+		return overlayEnabled;
+	}
+	
+	/**
+	 * Sets the overlay of each pipeline to draw the game of the arena the
+	 * pipeline's camera is assigned to (or removes the overlay if overlays
+	 * are disabled or the camera is not assigned to a running arena).
+	 */
+	private void updateOverlays() {
+		for(CameraPipeline pipeline : pipelines.values()) {
+			GameController game = null;
+			if(overlayEnabled) {
+				for(Map.Entry<Integer, CameraController> entry : arenaCameras.entrySet()) {
+					if(entry.getValue() == pipeline.getCamera()) {
+						game = arenaGames.get(entry.getKey());
+						break;
+					}
+				}
+			}
+			
+			if(game == null) {
+				pipeline.setOverlay(null);
+			} else {
+				ArenaOverlay overlay = pipeline.getOverlay();
+				if(overlay == null) {
+					overlay = new ArenaOverlay(pipeline.getCamera());
+				}
+				overlay.setGame(game);
+				pipeline.setOverlay(overlay);
+			}
+		}
+	}
+	
 	/**
 	 * Sets the observer that will be used to capture frames from the next
 	 * opened stream. Changes will not take place until the next call
@@ -267,10 +491,16 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 	}
 	
 	/**
-	 * Stops the currently active media stream (does nothing if no stream
+	 * Stops the currently active media streams (does nothing if no stream
 	 * is active)
 	 */
 	public synchronized void stopStream() {
+		for(CameraPipeline pipeline : pipelines.values()) {
+			pipeline.close();
+		}
+		pipelines.clear();
+		streamPipelines.clear();
+		
 		if(currentStream != null) {
 			try {
 				currentStream.stop();
@@ -312,11 +542,11 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 	}
 	
 	/**
-	 * @return	True if a capture stream is currently active (i.e. currentStream
-	 * 			is not null)
+	 * @return	True if a capture stream is currently active (for an external
+	 * 			observer or a pipeline)
 	 */
-	public boolean isStreaming() {
-		return currentStream != null;
+	public synchronized boolean isStreaming() {
+		return currentStream != null || !pipelines.isEmpty();
 	}
 	
 	/**
@@ -336,9 +566,11 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 				}
 			}
 			clients.add(user);
+			clientQuality.put(user, new StreamQualityController());
 			log.info("Added user \"" + user.getUsername() + "\" to streaming media clients.");
-			return true;
 		}
+		updateDestinations();
+		return true;
 	}
 	
 	/**
@@ -349,9 +581,129 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 	 * 			could not be found in existing client list)
 	 */
 	public boolean removeUser(User user) {
+		boolean removed;
 		synchronized(clients) {
 			log.info("Removing user \"" + user.getUsername() + "\" from streaming media clients.");
-			return clients.remove(user);
+			removed = clients.remove(user);
+			clientQuality.remove(user);
+			clientArenas.remove(user);
+		}
+		updateDestinations();
+		return removed;
+	}
+	
+	/**
+	 * Subscribes a user to the video of an arena's camera (replacing any
+	 * previous subscription). The user receives the selected camera if the
+	 * arena has no camera streaming.
+	 * @param user	A user being served by the MediaStreamer
+	 * @param arenaId	The arena number of a running game
+	 */
+	public void subscribe(User user, int arenaId) {
+		synchronized(clients) {
+			if(!clients.contains(user)) return;
+			clientArenas.put(user, arenaId);
+		}
+		updateDestinations();
+	}
+	
+	/**
+	 * @param user	A user being served by the MediaStreamer
+	 * @return	The arena number the user is subscribed to (or null if the user
+	 * 			has no subscription)
+	 */
+	public Integer getSubscribedArena(User user) {
+		synchronized(clients) {
+			return clientArenas.get(user);
+		}
+	}
+	
+	/**
+	 * Returns the camera streamed to a user.
+	 * @param user	A user being served by the MediaStreamer
+	 * @return	The camera of the arena the user is subscribed to, or the 
+	 * 			selected camera (or any other streaming camera if the selected
+	 * 			camera is not streaming). Null if no camera is streaming.
+	 */
+	public synchronized CameraController getUserCamera(User user) {
+		Integer arenaId;
+		synchronized(clients) {
+			arenaId = clientArenas.get(user);
+		}
+		
+		CameraController camera = arenaId == null ? null : arenaCameras.get(arenaId);
+		if(camera != null && pipelines.containsKey(camera)) {
+			return camera;
+		}
+		if(selectedCamera != null && pipelines.containsKey(selectedCamera)) {
+			return selectedCamera;
+		}
+		Iterator<CameraController> streaming = pipelines.keySet().iterator();
+		return streaming.hasNext() ? streaming.next() : null;
+	}
+	
+	/**
+	 * Passes the address of each client to the pipeline of the camera the
+	 * client receives, at the quality the client is served at. Must not be
+	 * called while holding the clients lock.
+	 */
+	private synchronized void updateDestinations() {
+		if(pipelines.isEmpty()) return;
+		
+		// Group the clients of each pipeline by quality
+		Map<CameraPipeline, Map<VideoQuality, List<InetAddress>>> destinations = 
+				new HashMap<CameraPipeline, Map<VideoQuality, List<InetAddress>>>();
+		for(CameraPipeline pipeline : pipelines.values()) {
+			Map<VideoQuality, List<InetAddress>> qualities = 
+					new HashMap<VideoQuality, List<InetAddress>>();
+			for(VideoQuality quality : VideoQuality.values()) {
+				qualities.put(quality, new ArrayList<InetAddress>());
+			}
+			destinations.put(pipeline, qualities);
+		}
+		
+		synchronized(clients) {
+			for(User u : clients) {
+				CameraController camera = getUserCamera(u);
+				if(camera == null) continue;
+				destinations.get(pipelines.get(camera))
+						.get(clientQuality.get(u).getQuality()).add(u.getAddress());
+			}
+		}
+		
+		for(CameraPipeline pipeline : pipelines.values()) {
+			for(VideoQuality quality : VideoQuality.values()) {
+				pipeline.setDestinations(quality, destinations.get(pipeline).get(quality));
+			}
+		}
+	}
+	
+	/**
+	 * Processes a reception report from a media client, moving the client to
+	 * a different quality tier if required.
+	 * @param user	The user sending the report
+	 * @param lossPercent	The percentage of frames the user failed to receive
+	 * 						since its last report
+	 */
+	public void reportReceptionQuality(User user, int lossPercent) {
+		synchronized(clients) {
+			StreamQualityController controller = clientQuality.get(user);
+			if(controller == null || !controller.report(lossPercent)) return;
+			log.info("Streaming media to user \"" + user.getUsername() + "\" at "
+					+ controller.getQuality() + " quality (" + lossPercent + "% frame loss reported).");
+		}
+		updateDestinations();
+	}
+	
+	/**
+	 * @param user	A media client
+	 * @return	The quality the user is served at (or null if the user is not 
+	 * 			being served)
+	 */
+	public VideoQuality getUserQuality(User user) {
+		synchronized(clients) {
+			StreamQualityController controller = clientQuality.get(user);
+			return controller == null ? null : controller.getQuality();
 		}
 	}
 	
@@ -377,20 +729,42 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 	
 	@Override
 	/**
-	 * Starts and stops the network video stream when a game is launched
-	 * or terminated.
+	 * Assigns cameras to arenas as games are launched or terminated. The 
+	 * network video streams are started when the first game is launched, and
+	 * stopped once no games remain in progress. Subscriptions to a terminated
+	 * arena are cancelled.
 	 */
-	public void lobbyGameStateChanged(LobbyGameEvent event) {
+	public synchronized void lobbyGameStateChanged(LobbyGameEvent event) {
 		if(event.getEventType() == ServerLobbyEvent.EVENT_GAME_LAUNCH) {
+			assignArenaCamera(event.getArenaId());
+			GameController game = ((ServerLobby)event.getSource()).getGame(event.getArenaId());
+			if(game != null) {
+				arenaGames.put(event.getArenaId(), game);
+			}
+			
 			// Game is launching, stream video to the network
-			log.info("Game launched, streaming media to network.");
-			stopStream();
-			setObserver(null);
-			playStream();
+			if(!isStreaming()) {
+				log.info("Game launched, streaming media to network.");
+				setObserver(null);
+				playStream();
+			}
+			updateDestinations();
+			updateOverlays();
 		} else if (event.getEventType() == ServerLobbyEvent.EVENT_GAME_OVER) {
-			// Game is ending, stop video streaming
-			log.info("Game terminated, closing media stream to network.");
-			stopStream();
+			arenaCameras.remove(event.getArenaId());
+			arenaGames.remove(event.getArenaId());
+			synchronized(clients) {
+				clientArenas.values().removeAll(Collections.singleton(event.getArenaId()));
+			}
+			
+			// Last game is ending, stop video streaming
+			if(arenaCameras.isEmpty()) {
+				log.info("All games terminated, closing media stream to network.");
+				stopStream();
+			} else {
+				updateDestinations();
+				updateOverlays();
+			}
 		}
 		
 	}
@@ -422,89 +796,15 @@ public class MediaStreamer implements ServerLobbyListener, CaptureObserver {
 	}
 
 	@Override
-	/** Called whenever a new frame is read from the active capture stream */
-	public void onNewImage(CaptureStream stream, Image image) {
-		if(System.currentTimeMillis() > lastImageWrite + IMAGE_WRITE_INTERVAL) {
-			try {
-				lastImageWrite = System.currentTimeMillis();
-				
-				ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
-				DataOutputStream dataOut = new DataOutputStream(byteOutput);
-				
-				ImageIO.write(AWTImageConverter.toBufferedImage(image), "jpg", dataOut);
-				dataOut.flush();
-				
-				byte[] frameBuffer = byteOutput.toByteArray();
-				// log.info("Generated packet is " + frameBuffer.length + " bytes long.");
-				
-				int numPackets = (int)Math.ceil((double)frameBuffer.length / PACKET_SIZE);
-				// log.info("Sending data as " + numPackets + " packets.");
-				
-				byteOutput.reset();
-				
-				for(int segIndex = 0; segIndex < numPackets; segIndex++) {
-					// Write out the frame sequence number (either 1 or 0)
-					dataOut.writeInt(nextSeqNum);
-					
-					// Write out the segment number
-					dataOut.writeInt(segIndex);
-					
-					// Write out the "last segment" field
-					if(segIndex == numPackets - 1) {
-						dataOut.writeBoolean(true);
-					} else {
-						dataOut.writeBoolean(false);
-					}
-					
-					// Determine how much image data should be written to this
-					// packet
-					int writeLength = 0;
-					if((segIndex * PACKET_SIZE) + PACKET_SIZE < frameBuffer.length) {
-						writeLength = PACKET_SIZE;
-					} else if ((segIndex * PACKET_SIZE) + PACKET_SIZE >= frameBuffer.length) {
-						writeLength = frameBuffer.length - (segIndex * PACKET_SIZE);
-					}
-					// log.info("Writing " + writeLength + " bytes to packet " + segIndex);
-					
-					dataOut.write(frameBuffer, (segIndex * PACKET_SIZE), writeLength);
-					dataOut.flush();
-					
-					byte[] packet = byteOutput.toByteArray();
-					byteOutput.reset();
-					
-					synchronized(clients) {
-						for(User u : clients) {
-							sendDataPacket(u, packet);
-						}
-					}
-				}
-				
-				dataOut.close();
-			} catch (IOException e1) {
-				log.error("Error multicasting image frame.");
-				e1.printStackTrace();
-			}
-		}
-	}
-	
-	/**
-	 * Sends the data contained in the passed buffer to the client
-	 * @param dataBuffer	The data to send to the client
+	/** 
+	 * Called whenever a new frame is read from a capture stream. The frame is
+	 * copied and handed to the encoder of the stream's pipeline (this thread
+	 * does not wait for the frame to be encoded or sent).
 	 */
-	private void sendDataPacket(User user, byte[] dataBuffer) {
-		DatagramPacket outputPacket = new DatagramPacket(dataBuffer, dataBuffer.length, 
-				user.getAddress(), mediaPort);
-		
-		try {
-			if(serverSocket != null) {
-				serverSocket.send(outputPacket);
-				log.info("Sent data packet to: " + user.getAddress().getHostAddress() 
-						+ ":" + mediaPort);
-			}
-		} catch (IOException e) {
-			log.error("Error sending image frame to client: " + user.getAddress().getHostAddress()
-					+ ":" + mediaPort);
-			e.printStackTrace();
+	public void onNewImage(CaptureStream stream, Image image) {
+		CameraPipeline pipeline = streamPipelines.get(stream);
+		if(pipeline != null) {
+			pipeline.offer(image);
 		}
 	}
 }
@@ -175,6 +175,28 @@ public class MediaStreamerTest {
 		assertEquals(false, testMedia.isServingUser(testUser));
 	}
 
+	@Test
+	public void testSubscribe() {
+		User testUser1 = user1.getUser();
+		User testUser2 = new TestUserProxy(testLobby, "TestUser2").getUser();
+		User testUser3 = new TestUserProxy(testLobby, "TestUser3").getUser();
+		testMedia.addUser(testUser1);
+		testMedia.addUser(testUser2);
+		testMedia.addUser(testUser3);
+		
+		testMedia.subscribe(testUser1, 1);
+		testMedia.subscribe(testUser2, 1);
+		testMedia.subscribe(testUser3, 2);
+		assertEquals(Integer.valueOf(1), testMedia.getSubscribedArena(testUser2));
+		
+		// Ending a game cancels every subscription to its arena
+		testMedia.lobbyGameStateChanged(new LobbyGameEvent(testLobby, 
+				ServerLobbyEvent.EVENT_GAME_OVER, GameType.FREETEST, 1));
+		assertEquals(null, testMedia.getSubscribedArena(testUser1));
+		assertEquals(null, testMedia.getSubscribedArena(testUser2));
+		assertEquals(Integer.valueOf(2), testMedia.getSubscribedArena(testUser3));
+	}
+
 
 	@Test
 	public void testLobbyGameStateChanged() {
@@ -0,0 +1,108 @@
+package robowars.server.controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes and decodes the messages exchanged between the server and user
+ * clients. Each message is sent as a frame consisting of a 4 byte (big endian)
+ * payload length, followed by a standalone Java serialization stream holding
+ * a single object (the protocol and username strings of the connection
+ * handshake, ClientCommands, ServerLobbyEvents and GameEvents).
+ *
+ * Framing allows a receiver to determine message boundaries without parsing
+ * the serialization stream, so messages can be read without blocking.
+ *
+ * @author Alexander Craig
+ */
+public class MessageFrame {
+	/** The length of the frame header (in bytes) */
+	public static final int HEADER_LENGTH = 4;
+
+	/** The largest payload accepted by a receiver (in bytes) */
+	public static final int MAX_PAYLOAD_LENGTH = 1 << 20;
+
+	/**
+	 * Serializes a message into a complete frame.
+	 * @param message	The message to encode
+	 * @return	The frame (header and payload)
+	 * @throws IOException	If the message could not be serialized
+	 */
+	public static byte[] encode(Object message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		bytes.write(new byte[HEADER_LENGTH]);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(message);
+		out.close();
+
+		byte frame[] = bytes.toByteArray();
+		int length = frame.length - HEADER_LENGTH;
+		frame[0] = (byte)(length >>> 24);
+		frame[1] = (byte)(length >>> 16);
+		frame[2] = (byte)(length >>> 8);
+		frame[3] = (byte)length;
+		return frame;
+	}
+
+	/**
+	 * Deserializes the payload of a frame.
+	 * @param buffer	The buffer holding the payload
+	 * @param offset	The offset of the payload in the buffer
+	 * @param length	The length of the payload
+	 * @return	The decoded message
+	 * @throws IOException	If the payload is not a valid serialization stream
+	 * @throws ClassNotFoundException	If the class of the message is unknown
+	 */
+	public static Object decode(byte buffer[], int offset, int length)
+			throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(buffer, offset, length));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks that a payload length read from a frame header is acceptable.
+	 * @param length	The payload length
+	 * @throws IOException	If the length is negative or too large
+	 */
+	public static void checkLength(int length) throws IOException {
+		if(length < 0 || length > MAX_PAYLOAD_LENGTH) {
+			throw new IOException("Invalid message frame length: " + length);
+		}
+	}
+
+	/**
+	 * Writes a message to a blocking stream as a single frame.
+	 * @param out	The stream to write to
+	 * @param message	The message to write
+	 * @throws IOException	If the message could not be written
+	 */
+	public static void write(OutputStream out, Object message) throws IOException {
+		out.write(encode(message));
+		out.flush();
+	}
+
+	/**
+	 * Reads a single frame from a blocking stream.
+	 * @param in	The stream to read from
+	 * @return	The decoded message
+	 * @throws IOException	If the stream is closed or the frame is invalid
+	 * @throws ClassNotFoundException	If the class of the message is unknown
+	 */
+	public static Object read(DataInputStream in) throws IOException, ClassNotFoundException {
+		int length = in.readInt();
+		checkLength(length);
+		byte payload[] = new byte[length];
+		in.readFully(payload);
+		return decode(payload, 0, length);
+	}
+}
@@ -0,0 +1,282 @@
+package robowars.server.controller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A single non-blocking user connection managed by a NioTcpServer. Incoming
+ * frames are decoded on the server's selector thread and passed to the
+ * connection's UserProxy. Outgoing messages may be sent from any thread;
+ * they are encoded immediately and queued, and the selector thread writes
+ * the queue out as the socket accepts data.
+ *
+ * The write queue is bounded: once more than MAX_QUEUED_BYTES are waiting,
+ * droppable messages (game state snapshots) are discarded, and a client
+ * that falls more than MAX_BACKLOG_BYTES behind is disconnected.
+ *
+ * @author Alexander Craig
+ */
+public class NioConnection {
+	/** The logger used by this class */
+	private static Logger log = Logger.getLogger(NioConnection.class);
+
+	/** Queued bytes above which droppable messages are discarded */
+	public static final int MAX_QUEUED_BYTES = 256 * 1024;
+
+	/** Queued bytes above which the connection is closed */
+	public static final int MAX_BACKLOG_BYTES = 4 * 1024 * 1024;
+
+	/** The initial size of the read buffer (grown to fit larger frames) */
+	private static final int INITIAL_READ_BUFFER = 8 * 1024;
+
+	/** The server managing this connection */
+	private final NioTcpServer server;
+
+	/** The channel to the client */
+	private final SocketChannel channel;
+
+	/** The selection key of the channel */
+	private final SelectionKey key;
+
+	/** The proxy handling messages received on this connection */
+	private UserProxy proxy;
+
+	/** Holds received data that has not yet formed a complete frame */
+	private ByteBuffer readBuffer;
+
+	/** Encoded frames waiting to be written (guarded by itself) */
+	private final ArrayDeque<ByteBuffer> writeQueue;
+
+	/** The total number of bytes waiting in the write queue */
+	private int queuedBytes;
+
+	/** The number of droppable messages discarded due to backpressure */
+	private int droppedMessages;
+
+	/** True once the connection should be closed after the write queue is flushed */
+	private volatile boolean closing;
+
+	/** True once the connection has been closed */
+	private volatile boolean closed;
+
+	/**
+	 * Generates a new NioConnection
+	 * @param server	The server managing the connection
+	 * @param channel	The (non-blocking) channel to the client
+	 * @param key	The selection key of the channel
+	 */
+	NioConnection(NioTcpServer server, SocketChannel channel, SelectionKey key) {
+		this.server = server;
+		this.channel = channel;
+		this.key = key;
+		readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+		writeQueue = new ArrayDeque<ByteBuffer>();
+		queuedBytes = 0;
+		droppedMessages = 0;
+		closing = false;
+		closed = false;
+	}
+
+	/**
+	 * Sets the proxy that should handle messages received on this connection.
+	 * @param proxy	The proxy for the connected user
+	 */
+	void setUserProxy(UserProxy proxy) {
+		this.proxy = proxy;
+	}
+
+	/**
+	 * @return	The proxy handling messages received on this connection
+	 */
+	UserProxy getUserProxy() {
+		return proxy;
+	}
+
+	/**
+	 * Encodes a message and queues it for sending. This never blocks.
+	 * @param message	The message to send
+	 * @param droppable	True if the message may be discarded when the client
+	 * 					is not keeping up with the queued data
+	 * @return	True if the message was queued
+	 */
+	public boolean send(Object message, boolean droppable) {
+		if(closing || closed) return false;
+
+		byte frame[];
+		try {
+			frame = MessageFrame.encode(message);
+		} catch (IOException e) {
+			log.error("Could not encode message: " + message, e);
+			return false;
+		}
+
+		boolean wasEmpty;
+		synchronized(writeQueue) {
+			if(droppable && queuedBytes + frame.length > MAX_QUEUED_BYTES) {
+				droppedMessages++;
+				return false;
+			}
+			if(queuedBytes + frame.length > MAX_BACKLOG_BYTES) {
+				log.info("Client at " + getInetAddress() + " is not reading, closing connection.");
+				wasEmpty = false;
+				frame = null;
+			} else {
+				wasEmpty = writeQueue.isEmpty();
+				writeQueue.add(ByteBuffer.wrap(frame));
+				queuedBytes += frame.length;
+			}
+		}
+
+		if(frame == null) {
+			server.closeLater(this);
+			return false;
+		}
+		if(wasEmpty) {
+			server.requestWrite(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads all available data from the channel, and passes any complete
+	 * frames to the user proxy. Must only be called by the selector thread.
+	 * @throws IOException	If the channel was closed or an invalid frame was received
+	 */
+	void readReady() throws IOException {
+		int read = channel.read(readBuffer);
+		if(read < 0) {
+			throw new EOFException("Connection closed by client.");
+		}
+
+		readBuffer.flip();
+		while(readBuffer.remaining() >= MessageFrame.HEADER_LENGTH && !closing && !closed) {
+			int length = readBuffer.getInt(readBuffer.position());
+			MessageFrame.checkLength(length);
+
+			int frameLength = MessageFrame.HEADER_LENGTH + length;
+			if(readBuffer.remaining() < frameLength) {
+				if(readBuffer.capacity() < frameLength) {
+					// Grow the buffer to fit the frame
+					ByteBuffer larger = ByteBuffer.allocate(frameLength);
+					larger.put(readBuffer);
+					readBuffer = larger;
+					return;
+				}
+				break;
+			}
+
+			Object message;
+			try {
+				message = MessageFrame.decode(readBuffer.array(),
+						readBuffer.position() + MessageFrame.HEADER_LENGTH, length);
+			} catch (ClassNotFoundException e) {
+				log.info("Class for incoming message could not be determined.");
+				message = null;
+			}
+			readBuffer.position(readBuffer.position() + frameLength);
+
+			if(message != null && proxy != null) {
+				proxy.messageReceived(message);
+			}
+		}
+		readBuffer.compact();
+	}
+
+	/**
+	 * Writes as much queued data as the channel accepts, and updates the
+	 * interest set of the channel. Must only be called by the selector thread.
+	 * @throws IOException	If the channel was closed
+	 */
+	void writeReady() throws IOException {
+		synchronized(writeQueue) {
+			while(!writeQueue.isEmpty()) {
+				ByteBuffer frame = writeQueue.peek();
+				channel.write(frame);
+				if(frame.hasRemaining()) {
+					break;
+				}
+				queuedBytes -= frame.capacity();
+				writeQueue.poll();
+			}
+
+			if(closing && writeQueue.isEmpty()) {
+				close();
+			} else if(key.isValid()) {
+				key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ
+						: SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/**
+	 * Closes the connection once all queued messages have been written (so
+	 * that a final error message reaches the client). No further messages
+	 * are sent or received.
+	 */
+	public void closeWhenFlushed() {
+		if(closing || closed) return;
+		closing = true;
+		server.requestWrite(this);
+	}
+
+	/**
+	 * Closes the connection. Any queued messages are discarded.
+	 */
+	public void close() {
+		synchronized(this) {
+			if(closed) return;
+			closed = true;
+		}
+		key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.error("Could not close client channel.");
+		}
+		synchronized(writeQueue) {
+			writeQueue.clear();
+			queuedBytes = 0;
+		}
+		server.connectionClosed(this);
+	}
+
+	/**
+	 * @return	True if the connection has been closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return	The number of bytes waiting to be written to the client
+	 */
+	public int getQueuedBytes() {
+		synchronized(writeQueue) {
+			return queuedBytes;
+		}
+	}
+
+	/**
+	 * @return	The number of droppable messages discarded because the client
+	 * 			was not keeping up
+	 */
+	public int getDroppedMessages() {
+		synchronized(writeQueue) {
+			return droppedMessages;
+		}
+	}
+
+	/**
+	 * @return	The address of the connected client
+	 */
+	public InetAddress getInetAddress() {
+		return channel.socket().getInetAddress();
+	}
+}
@@ -0,0 +1,294 @@
+package robowars.server.controller;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JOptionPane;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Listens for incoming TCP connections to a specified port, and services
+ * every connected user from a single selector thread. Each connection is
+ * non-blocking and is associated with a UserProxy, which receives the
+ * decoded messages as they arrive. Outgoing messages are queued per
+ * connection (see NioConnection), so a slow client never blocks the
+ * lobby or game threads sending to it.
+ *
+ * This is an alternative to TcpServer, which dedicates a thread to every
+ * connection. Both servers use the same framed message protocol.
+ *
+ * @author Alexander Craig
+ */
+public class NioTcpServer implements Runnable {
+	/** The logger used by this class */
+	private static Logger log = Logger.getLogger(NioTcpServer.class);
+
+	/** The server lobby that users connecting to the server should join */
+	private ServerLobby lobby;
+
+	/** The media streamer that should serve video to users connecting to the server */
+	private MediaStreamer mediaStreamer;
+
+	/** The selector multiplexing all connections */
+	private Selector selector;
+
+	/** The channel used to listen for incoming TCP/IP connections */
+	private ServerSocketChannel serverChannel;
+
+	/** Connections with newly queued data, waiting to be registered for writing */
+	private ConcurrentLinkedQueue<NioConnection> pendingWrites;
+
+	/** Connections to be closed by the selector thread */
+	private ConcurrentLinkedQueue<NioConnection> pendingCloses;
+
+	/** The number of open client connections */
+	private AtomicInteger connectionCount;
+
+	/** The port the server is listening on */
+	private int port;
+
+	/** False once the server has been shut down */
+	private volatile boolean running;
+
+	/**
+	 * Generates a new instance of NioTcpServer, terminating the application
+	 * if the port cannot be opened.
+	 * @param port	The port number to listen for incoming connections on
+	 * @param lobby The server lobby that users connecting to the server should join
+	 */
+	public NioTcpServer(int port, ServerLobby lobby) {
+		MediaStreamer media = new MediaStreamer(port + 1);
+		lobby.addLobbyStateListener(media);
+		media.updateDeviceList();
+
+		try {
+			open(port, lobby, media);
+		} catch (BindException e) {
+			log.error("ServerSocket already open on port: " + port + ", terminating.");
+			JOptionPane.showMessageDialog(null,
+					"Specified listening port already in use.\nPlease ensure that an instance " +
+					"of RoboWars is not already running.",
+					"Initialization Error - Terminating Application", JOptionPane.ERROR_MESSAGE);
+			System.exit(1);
+		} catch (IOException e) {
+			log.error("Unrecognized exception opening server socket, terminating.");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Generates a new instance of NioTcpServer
+	 * @param port	The port number to listen for incoming connections on (0 to
+	 * 				use any free port)
+	 * @param lobby The server lobby that users connecting to the server should join
+	 * @param mediaStreamer	The media streamer serving video to connected users
+	 * @throws IOException	If the listen socket could not be opened
+	 */
+	public NioTcpServer(int port, ServerLobby lobby, MediaStreamer mediaStreamer) throws IOException {
+		open(port, lobby, mediaStreamer);
+	}
+
+	private void open(int port, ServerLobby lobby, MediaStreamer mediaStreamer) throws IOException {
+		this.lobby = lobby;
+		this.mediaStreamer = mediaStreamer;
+		pendingWrites = new ConcurrentLinkedQueue<NioConnection>();
+		pendingCloses = new ConcurrentLinkedQueue<NioConnection>();
+		connectionCount = new AtomicInteger(0);
+
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.port = serverChannel.socket().getLocalPort();
+		running = true;
+
+		log.info("Succesfully opened non-blocking listen socket on port: " + this.port);
+	}
+
+	/**
+	 * Runs the selector loop, accepting new connections and servicing reads
+	 * and writes on existing connections until the server is shut down.
+	 */
+	public void run() {
+		while(running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				log.error("Selector failure, terminating server.", e);
+				break;
+			}
+
+			NioConnection pending;
+			while((pending = pendingCloses.poll()) != null) {
+				closeConnection(pending);
+			}
+			while((pending = pendingWrites.poll()) != null) {
+				service(pending, SelectionKey.OP_WRITE);
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if(!key.isValid()) continue;
+
+				if(key.isAcceptable()) {
+					accept();
+				} else {
+					NioConnection connection = (NioConnection)key.attachment();
+					if(key.isReadable()) {
+						service(connection, SelectionKey.OP_READ);
+					}
+					if(key.isValid() && key.isWritable()) {
+						service(connection, SelectionKey.OP_WRITE);
+					}
+				}
+			}
+		}
+
+		shutdown();
+	}
+
+	/**
+	 * Accepts all pending connections, and generates a UserProxy for each.
+	 */
+	private void accept() {
+		SocketChannel channel;
+		try {
+			while((channel = serverChannel.accept()) != null) {
+				log.info("New client connection: " + channel.socket().getInetAddress().getHostAddress()
+						+ " Port: " + channel.socket().getPort());
+
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				NioConnection connection = new NioConnection(this, channel, key);
+				connection.setUserProxy(new UserProxy(connection, lobby, mediaStreamer));
+				key.attach(connection);
+				connectionCount.incrementAndGet();
+			}
+		} catch (IOException e) {
+			log.error("Failed to accept client connection.", e);
+		}
+	}
+
+	/**
+	 * Performs a read or write on a connection, closing it on failure.
+	 * @param connection	The connection to service
+	 * @param operation	SelectionKey.OP_READ or SelectionKey.OP_WRITE
+	 */
+	private void service(NioConnection connection, int operation) {
+		if(connection.isClosed()) return;
+		try {
+			if(operation == SelectionKey.OP_READ) {
+				connection.readReady();
+			} else {
+				connection.writeReady();
+			}
+		} catch (IOException e) {
+			log.info("Client terminated connection with server.");
+			closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Removes a connection's user from the lobby and closes the connection
+	 * immediately.
+	 * @param connection	The connection to close
+	 */
+	private void closeConnection(NioConnection connection) {
+		UserProxy proxy = connection.getUserProxy();
+		if(proxy != null) {
+			proxy.terminateConnection();
+		}
+		connection.close();
+	}
+
+	/**
+	 * Requests that queued data be written to a connection. May be called
+	 * from any thread.
+	 * @param connection	The connection with newly queued data
+	 */
+	void requestWrite(NioConnection connection) {
+		pendingWrites.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Requests that a connection be closed by the selector thread. May be
+	 * called from any thread.
+	 * @param connection	The connection to close
+	 */
+	void closeLater(NioConnection connection) {
+		pendingCloses.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Called by a connection once it has been closed.
+	 * @param connection	The closed connection
+	 */
+	void connectionClosed(NioConnection connection) {
+		connectionCount.decrementAndGet();
+	}
+
+	/**
+	 * Stops the selector loop and closes all connections.
+	 */
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Closes the listen channel and all client connections.
+	 */
+	private void shutdown() {
+		for(SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+			if(key.attachment() instanceof NioConnection) {
+				closeConnection((NioConnection)key.attachment());
+			}
+		}
+		try {
+			serverChannel.close();
+			selector.close();
+		} catch (IOException e) {
+			log.error("Could not close listen socket.");
+		}
+		log.info("Non-blocking server on port " + port + " terminated.");
+	}
+
+	/**
+	 * @return	The port the server is listening on
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return	The number of open client connections
+	 */
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	/**
+	 * @return	The media streamer managing camera selection and video streaming.
+	 */
+	public MediaStreamer getMediaStreamer() {
+		return mediaStreamer;
+	}
+}
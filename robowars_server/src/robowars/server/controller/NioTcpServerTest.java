@@ -0,0 +1,175 @@
+package robowars.server.controller;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import robowars.test.TestMediaStreamer;
+
+/**
+ * Unit tests for the NioTcpServer class.
+ *
+ * @author Alexander Craig
+ */
+public class NioTcpServerTest {
+	public static final int TEST_NUM_CLIENTS = 100;
+	public static final long TEST_TIMEOUT = 10000;
+
+	ServerLobby testLobby;
+	NioTcpServer testServer;
+	ArrayList<Socket> clients;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		// Use log4j config file "log_config.properties"
+		PropertyConfigurator.configure("config/log_config.properties");
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		testLobby = new ServerLobby("Test Server", 4, TEST_NUM_CLIENTS);
+		testServer = new NioTcpServer(0, testLobby, new TestMediaStreamer(0));
+		new Thread(testServer, "NioTcpServer").start();
+		clients = new ArrayList<Socket>();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for(Socket s : clients) {
+			s.close();
+		}
+		testServer.close();
+	}
+
+	/**
+	 * Connects a new client and performs the connection handshake.
+	 * @param name	The username of the client
+	 * @return	The connected socket
+	 */
+	private Socket connect(String name) throws IOException {
+		Socket socket = new Socket("localhost", testServer.getPort());
+		clients.add(socket);
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		MessageFrame.write(out, SystemControl.USER_PROTOCOL_VERSION);
+		MessageFrame.write(out, name);
+		return socket;
+	}
+
+	/**
+	 * Waits until the passed username is (or is no longer) registered with the
+	 * test lobby.
+	 */
+	private boolean waitForUser(String name, boolean registered) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TEST_TIMEOUT;
+		while(testLobby.isUsernameRegistered(name) != registered) {
+			if(System.currentTimeMillis() > deadline) return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads messages from a client socket until a chat event with the
+	 * passed message is received.
+	 */
+	private boolean readChat(Socket socket, String message) throws Exception {
+		socket.setSoTimeout((int)TEST_TIMEOUT);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		while(true) {
+			Object received = MessageFrame.read(in);
+			if(received instanceof LobbyChatEvent
+					&& ((LobbyChatEvent)received).getMessage().equals(message)) {
+				return true;
+			}
+		}
+	}
+
+	@Test
+	public void testManyClients() throws Exception {
+		for(int i = 0; i < TEST_NUM_CLIENTS; i++) {
+			connect("user" + i);
+		}
+		for(int i = 0; i < TEST_NUM_CLIENTS; i++) {
+			assertTrue(waitForUser("user" + i, true));
+		}
+		assertEquals(TEST_NUM_CLIENTS, testServer.getConnectionCount());
+
+		// Every client should receive a lobby broadcast
+		testLobby.broadcastMessage("Test Broadcast");
+		for(Socket s : clients) {
+			assertTrue(readChat(s, "Test Broadcast"));
+		}
+	}
+
+	@Test
+	public void testDisconnect() throws Exception {
+		Socket socket = connect("leaving");
+		assertTrue(waitForUser("leaving", true));
+
+		socket.close();
+		assertTrue(waitForUser("leaving", false));
+
+		// Name should be available again
+		connect("leaving");
+		assertTrue(waitForUser("leaving", true));
+	}
+
+	@Test
+	public void testProtocolMismatch() throws Exception {
+		Socket socket = new Socket("localhost", testServer.getPort());
+		clients.add(socket);
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		MessageFrame.write(out, "RoboWars V0.1");
+		MessageFrame.write(out, "mismatch");
+
+		// Server should reply with an error message, then close the connection
+		socket.setSoTimeout((int)TEST_TIMEOUT);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		LobbyChatEvent reply = (LobbyChatEvent)MessageFrame.read(in);
+		assertTrue(reply.getMessage().startsWith("Error - Protocol Mismatch"));
+		assertEquals(-1, in.read());
+		assertFalse(testLobby.isUsernameRegistered("mismatch"));
+	}
+
+	@Test
+	public void testUnframedClient() throws Exception {
+		// Clients using the old protocol begin with a serialization stream header,
+		// which is not a valid frame length
+		Socket socket = new Socket("localhost", testServer.getPort());
+		clients.add(socket);
+		ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+		out.writeUTF("RoboWars V0.2");
+		out.flush();
+
+		socket.setSoTimeout((int)TEST_TIMEOUT);
+		assertEquals(-1, socket.getInputStream().read());
+	}
+
+	@Test
+	public void testMessageFrame() throws Exception {
+		ClientCommand cmd = new ClientCommand(ClientCommand.CHAT_MESSAGE);
+		cmd.setStringData("Test Message");
+		byte frame[] = MessageFrame.encode(cmd);
+		assertEquals(frame.length - MessageFrame.HEADER_LENGTH,
+				((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16)
+				| ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF));
+
+		ClientCommand decoded = (ClientCommand)MessageFrame.decode(frame,
+				MessageFrame.HEADER_LENGTH, frame.length - MessageFrame.HEADER_LENGTH);
+		assertEquals(ClientCommand.CHAT_MESSAGE, decoded.getCommandType());
+		assertEquals("Test Message", decoded.getStringData());
+	}
+}
@@ -0,0 +1,284 @@
+package robowars.server.controller;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.apache.log4j.Logger;
+
+import robowars.robot.LejosOutputStream;
+import robowars.shared.model.CommandType;
+import robowars.shared.model.GameRobot;
+import robowars.shared.model.Posture;
+import robowars.shared.model.RobotCommand;
+import robowars.shared.model.RobotMap;
+
+/**
+ * Writes the commands sent to a single robot from a dedicated thread, at no
+ * more than one command per write interval, so that the game loop never
+ * waits on the Bluetooth link.
+ *
+ * Continuous movement commands (MOVE_CONTINUOUS, ROLLING_TURN and STOP) only
+ * set the state of the robot's motors, so a newer one supersedes any that is
+ * still waiting to be written, unless the waiting command has a higher
+ * priority. A continuous command identical to the last command written to
+ * the robot (see GameRobot.getLastCommand()) is not sent again. All other
+ * commands (turns, position overrides, exit) are written in order, and are
+ * never dropped.
+ *
+ * Maps (see offerMap()) are also written by the queue, ahead of any waiting
+ * commands, as a map transfer takes many frames.
+ *
+ * @author Alexander Craig
+ */
+public class RobotCommandQueue implements Runnable {
+	/** The logger used by this class */
+	private static Logger log = Logger.getLogger(RobotCommandQueue.class);
+
+	/**
+	 * The default minimum time between writes (in ms). Each command is a
+	 * single frame of under 30 bytes, but the NXT Bluetooth link adds tens
+	 * of milliseconds of latency to every write.
+	 */
+	public static final long DEFAULT_WRITE_INTERVAL = 50;
+
+	/** The robot the commands are sent to */
+	private final GameRobot robot;
+
+	/** Stream to write commands to */
+	private final LejosOutputStream out;
+
+	/** The minimum time between writes (in ms) */
+	private final long writeInterval;
+
+	/** Commands waiting to be written, oldest first (guarded by this) */
+	private final LinkedList<RobotCommand> pending;
+
+	/** A map waiting to be written, or null (guarded by this) */
+	private RobotMap pendingMap;
+
+	/** False once the queue has been closed */
+	private volatile boolean running;
+
+	/** The number of commands written */
+	private volatile long commandsSent;
+
+	/** The number of commands replaced by a newer command before being written */
+	private volatile long commandsCoalesced;
+
+	/** The number of commands discarded as duplicates or lower priority */
+	private volatile long commandsSuppressed;
+
+	/**
+	 * Generates a new RobotCommandQueue. run() must be called from a new
+	 * thread to start writing.
+	 * @param robot	The robot the commands are sent to
+	 * @param out	The stream to write commands to
+	 * @param writeInterval	The minimum time between writes (in ms)
+	 */
+	public RobotCommandQueue(GameRobot robot, LejosOutputStream out, long writeInterval) {
+		this.robot = robot;
+		this.out = out;
+		this.writeInterval = writeInterval;
+		pending = new LinkedList<RobotCommand>();
+		pendingMap = null;
+		running = true;
+		commandsSent = 0;
+		commandsCoalesced = 0;
+		commandsSuppressed = 0;
+	}
+
+	/**
+	 * Queues a command to be written to the robot.
+	 * @param command	The command to send
+	 * @return	True if the command was queued, false if it was discarded
+	 */
+	public synchronized boolean offer(RobotCommand command) {
+		if(!running) return false;
+
+		if(isContinuous(command.getType())) {
+			Iterator<RobotCommand> i = pending.iterator();
+			while(i.hasNext()) {
+				RobotCommand waiting = i.next();
+				if(!isContinuous(waiting.getType())) continue;
+				if(waiting.getPriority() > command.getPriority()) {
+					commandsSuppressed++;
+					return false;
+				}
+				i.remove();
+				commandsCoalesced++;
+			}
+
+			if(pending.isEmpty() && isDuplicate(command, robot.getLastCommand())) {
+				commandsSuppressed++;
+				return false;
+			}
+		}
+
+		// The robot's posture is set here rather than by the writer thread,
+		// so that it is never modified while a game is running on it
+		if(command.getType() == CommandType.SET_POSITION) {
+			robot.setPosture(new Posture(command.getPos()));
+		}
+
+		pending.add(command);
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Queues a map to be written to the robot, replacing any map that is
+	 * still waiting.
+	 * @param map	The map to send
+	 * @return	True if the map was queued, false if the queue is closed
+	 */
+	public synchronized boolean offerMap(RobotMap map) {
+		if(!running) return false;
+
+		pendingMap = map;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Writes queued commands until closed.
+	 */
+	public void run() {
+		long nextWrite = 0;
+		while(running) {
+			synchronized(this) {
+				while(pending.isEmpty() && pendingMap == null && running) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+
+			// Commands offered while waiting for the interval to pass are
+			// coalesced with those already queued
+			long delay = nextWrite - System.currentTimeMillis();
+			if(delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+
+			RobotMap map = null;
+			RobotCommand command = null;
+			synchronized(this) {
+				if(pendingMap != null) {
+					map = pendingMap;
+					pendingMap = null;
+				} else if(!pending.isEmpty()) {
+					command = pending.removeFirst();
+					// Updated before writing, so that duplicates offered 
+					// during the write are suppressed
+					robot.setLastCommand(command);
+				} else {
+					continue;
+				}
+			}
+
+			if(map != null) {
+				write(map);
+			} else {
+				write(command);
+			}
+			nextWrite = System.currentTimeMillis() + writeInterval;
+		}
+	}
+
+	/**
+	 * Writes a single command to the robot.
+	 * @param command	The command to write
+	 */
+	private void write(RobotCommand command) {
+		try {
+			out.writeObject(command);
+			commandsSent++;
+			if(log.isDebugEnabled()) {
+				log.debug("Wrote to robot: " + robot.getRobotId() + " - " + command);
+			}
+		} catch (IOException e) {
+			log.error("Error writing command to robot: " + robot.getRobotId());
+			return;
+		}
+	}
+
+	/**
+	 * Writes a map to the robot.
+	 * @param map	The map to write
+	 */
+	private void write(RobotMap map) {
+		try {
+			out.writeMap(map);
+			log.info("Wrote map version: " + Integer.toHexString(map.getVersion())
+					+ " to robot: " + robot.getRobotId());
+		} catch (IOException e) {
+			log.error("Error writing map to robot: " + robot.getRobotId());
+		}
+	}
+
+	/**
+	 * Stops the writer thread. Pending commands are discarded.
+	 */
+	public synchronized void close() {
+		running = false;
+		pending.clear();
+		pendingMap = null;
+		notifyAll();
+	}
+
+	/**
+	 * @return	The number of commands (and maps) waiting to be written
+	 */
+	public synchronized int getNumPending() {
+		return pending.size() + (pendingMap == null ? 0 : 1);
+	}
+
+	/**
+	 * @return	The number of commands written to the robot
+	 */
+	public long getCommandsSent() {
+		return commandsSent;
+	}
+
+	/**
+	 * @return	The number of commands replaced by a newer command before
+	 * 			being written
+	 */
+	public long getCommandsCoalesced() {
+		return commandsCoalesced;
+	}
+
+	/**
+	 * @return	The number of commands discarded because they repeated the
+	 * 			last command, or a higher priority command was waiting
+	 */
+	public long getCommandsSuppressed() {
+		return commandsSuppressed;
+	}
+
+	/**
+	 * @return	True for command types which only set the state of the robot's
+	 * 			motors (and so can be superseded by a later command)
+	 */
+	private static boolean isContinuous(CommandType type) {
+		return type == CommandType.MOVE_CONTINUOUS || type == CommandType.ROLLING_TURN
+				|| type == CommandType.STOP;
+	}
+
+	/**
+	 * @return	True if both commands are continuous commands with the same
+	 * 			type and parameters
+	 */
+	private static boolean isDuplicate(RobotCommand command, RobotCommand last) {
+		return last != null && last.getType() == command.getType()
+				&& last.getThrottle() == command.getThrottle()
+				&& last.getTurnBearing() == command.getTurnBearing();
+	}
+}
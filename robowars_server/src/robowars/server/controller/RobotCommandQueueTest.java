@@ -0,0 +1,147 @@
+package robowars.server.controller;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+import lejos.robotics.Pose;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import robowars.robot.ColorSensor;
+import robowars.robot.LejosInputStream;
+import robowars.robot.LejosOutputStream;
+import robowars.shared.model.CommandType;
+import robowars.shared.model.GameRobot;
+import robowars.shared.model.RobotCommand;
+import robowars.shared.model.RobotMap;
+
+/**
+ * Unit tests for RobotCommandQueue.
+ *
+ * @author Alexander Craig
+ */
+public class RobotCommandQueueTest {
+	private GameRobot robot;
+	private ByteArrayOutputStream bytes;
+	private RobotCommandQueue queue;
+
+	@Before
+	public void setUp() throws Exception {
+		robot = new GameRobot("robot");
+		bytes = new ByteArrayOutputStream();
+		queue = new RobotCommandQueue(robot, new LejosOutputStream(bytes), 20);
+	}
+
+	/** Writes every queued command, then closes the queue */
+	private void drain() throws Exception {
+		Thread writer = new Thread(queue);
+		writer.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(queue.getNumPending() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		queue.close();
+		writer.join(5000);
+	}
+
+	/** @return	The commands written to the stream */
+	private ArrayList<RobotCommand> written() throws Exception {
+		LejosInputStream in = new LejosInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()));
+		ArrayList<RobotCommand> commands = new ArrayList<RobotCommand>();
+		Object o;
+		while((o = in.readObject()) != null) {
+			commands.add((RobotCommand)o);
+		}
+		return commands;
+	}
+
+	@Test
+	public void testCoalesce() throws Exception {
+		// The writer thread is not started, so newer movement commands
+		// replace those still waiting, while other commands are kept in order
+		queue.offer(RobotCommand.setPosition(new Pose(10, 20, 0)));
+		for(int i = 1; i <= 10; i++) {
+			queue.offer(RobotCommand.moveContinuous(i));
+		}
+		queue.offer(RobotCommand.turnAngleLeft(90));
+		queue.offer(RobotCommand.turnAngleLeft(90));
+		queue.offer(RobotCommand.rollingTurn(5, 100));
+		assertEquals(4, queue.getNumPending());
+		assertEquals(10, queue.getCommandsCoalesced());
+
+		drain();
+		ArrayList<RobotCommand> commands = written();
+		assertEquals(4, commands.size());
+		assertEquals(CommandType.SET_POSITION, commands.get(0).getType());
+		assertEquals(CommandType.TURN_ANGLE_LEFT, commands.get(1).getType());
+		assertEquals(CommandType.TURN_ANGLE_LEFT, commands.get(2).getType());
+		assertEquals(CommandType.ROLLING_TURN, commands.get(3).getType());
+		assertEquals(4, queue.getCommandsSent());
+
+		assertEquals(CommandType.ROLLING_TURN, robot.getLastCommand().getType());
+		assertEquals(10, robot.getPosture().getLocation().getX(), 0.001);
+	}
+
+	@Test
+	public void testDuplicatesAndPriority() throws Exception {
+		robot.setLastCommand(RobotCommand.moveContinuous(30));
+		assertFalse(queue.offer(RobotCommand.moveContinuous(30)));
+		assertTrue(queue.offer(RobotCommand.moveContinuous(40)));
+
+		// A waiting higher priority command is not replaced
+		RobotCommand urgent = RobotCommand.stop();
+		urgent.setPriority(RobotCommand.DEFAULT_PRIORITY + 1);
+		assertTrue(queue.offer(urgent));
+		assertFalse(queue.offer(RobotCommand.moveContinuous(50)));
+		assertEquals(1, queue.getNumPending());
+		assertEquals(2, queue.getCommandsSuppressed());
+
+		drain();
+		ArrayList<RobotCommand> commands = written();
+		assertEquals(1, commands.size());
+		assertEquals(CommandType.STOP, commands.get(0).getType());
+	}
+
+	@Test
+	public void testMap() throws Exception {
+		// A waiting map is written ahead of waiting commands, and a newer
+		// map replaces one still waiting
+		RobotMap map = ColorSensor.generate(5, 5, 6.35f);
+		queue.offer(RobotCommand.turnAngleLeft(90));
+		assertTrue(queue.offerMap(ColorSensor.generate(3, 3, 6.35f)));
+		assertTrue(queue.offerMap(map));
+		assertEquals(2, queue.getNumPending());
+
+		drain();
+		LejosInputStream in = new LejosInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(map.getVersion(), ((RobotMap)in.readObject()).getVersion());
+		assertEquals(CommandType.TURN_ANGLE_LEFT, ((RobotCommand)in.readObject()).getType());
+		assertNull(in.readObject());
+		assertFalse(queue.offerMap(map));
+	}
+
+	@Test
+	public void testWriteInterval() throws Exception {
+		// Commands are written no faster than the write interval
+		Thread writer = new Thread(queue);
+		writer.start();
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < 5; i++) {
+			queue.offer(RobotCommand.turnAngleRight(10));
+		}
+		long deadline = start + 5000;
+		while(queue.getCommandsSent() < 5 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(5, queue.getCommandsSent());
+		assertTrue(System.currentTimeMillis() - start >= 4 * 20);
+		queue.close();
+		writer.join(5000);
+	}
+}
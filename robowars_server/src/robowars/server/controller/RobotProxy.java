@@ -13,7 +13,6 @@ import org.apache.log4j.Logger;
 
 import robowars.robot.LejosInputStream;
 import robowars.robot.LejosOutputStream;
-import robowars.shared.model.CommandType;
 import robowars.shared.model.GameRobot;
 import robowars.shared.model.Posture;
 import robowars.shared.model.RobotCommand;
@@ -37,6 +36,15 @@ public class RobotProxy {
 	/** Stream for robot input (needs a separate thread to continually read) */
 	private LejosInputStream inputStream;
 	
+	/** Queue of commands waiting to be written to the output stream */
+	private RobotCommandQueue commandQueue;
+	
+	/** 
+	 * The version of the map cached by the robot (see RobotMap.getVersion()),
+	 * or null if unknown
+	 */
+	private volatile Integer robotMapVersion;
+	
 	/** The server lobby that the robot should register with. */
 	private ServerLobby lobby;
 	
@@ -52,8 +60,6 @@ public class RobotProxy {
 	 */
 	private GameRobot robot;
 	
-	int commandSent=0;
-	
 	/**
 	 * Generates a new robot proxy
 	 * @param identifier	A string identifier for this robot
@@ -66,6 +72,8 @@ public class RobotProxy {
 		controller = null;
 		nxtComm = null;
 		outputStream = null;
+		commandQueue = null;
+		robotMapVersion = null;
 		
 		openConnection(nxtInfo);
 	}
@@ -89,7 +97,10 @@ public class RobotProxy {
 		
 		outputStream = new LejosOutputStream(nxtComm.getOutputStream());
 		inputStream = new LejosInputStream(nxtComm.getInputStream());
-		new Thread(new PositionReader()).start();
+		commandQueue = new RobotCommandQueue(getRobot(), outputStream, 
+				RobotCommandQueue.DEFAULT_WRITE_INTERVAL);
+		ConnectionThreads.start(new PositionReader(), "PositionReader-" + getIdentifier());
+		ConnectionThreads.start(commandQueue, "RobotCommandQueue-" + getIdentifier());
 		
 		// Register the robot with the server lobby
 		lobby.registerRobot(this);
@@ -138,29 +149,28 @@ public class RobotProxy {
 	}
 	
 	/**
-	 * Sends a serialized RobotCommand to the connected robot through Bluetooth
+	 * Queues a RobotCommand to be sent to the connected robot through 
+	 * Bluetooth. Continuous movement commands may be replaced by a newer
+	 * command before being sent, or discarded if they repeat the last
+	 * command (see RobotCommandQueue).
 	 * @param command	The RobotCommand to send
 	 */
 	public void sendCommand(RobotCommand command) {
-		if(outputStream != null) {
-			try {
-				outputStream.writeObject(command);
-				getRobot().setLastCommand(command);
-				log.info("Wrote to robot: " + getIdentifier() + " - " + command.toString()+" "+commandSent++);
-			} catch (IOException e) {
-				log.error("Error writing command to robot: " + getIdentifier());
-				return;
-			}
+		if(commandQueue != null) {
+			commandQueue.offer(command);
 		} else {
 			log.error("Attempted to send command to robot: " + getIdentifier()
 					+ ", but output stream is null.");
-			return;
-		}
-		
-		if(command.getType() == CommandType.SET_POSITION) {
-			getRobot().setPosture(new Posture(command.getPos()));
 		}
 	}
+	
+	/**
+	 * @return	The queue of commands waiting to be sent to the robot (null
+	 * 			if no connection is open)
+	 */
+	public RobotCommandQueue getCommandQueue() {
+		return commandQueue;
+	}
 
 	/**
 	 * @return The GameRobot object representing the robot that the proxy
@@ -202,6 +212,11 @@ public class RobotProxy {
 				    		// not need to pass through the game controller)
 				    		getRobot().setPosture(newPos);
 				    	}
+				    } else if (readObj instanceof Integer) {
+				    	// The robot reports the version of its cached map
+				    	robotMapVersion = (Integer)readObj;
+				    	log.info("Robot: " + getIdentifier() + " has cached map version: " 
+				    			+ Integer.toHexString(robotMapVersion));
 				    }
 				}
 				
@@ -209,6 +224,7 @@ public class RobotProxy {
 				e.printStackTrace();
 			}  finally {
 				log.info("Closing input stream from robot: " + getIdentifier());
+				commandQueue.close();
 				try {
 					inputStream.close();
 				} catch (IOException e) {
@@ -219,14 +235,27 @@ public class RobotProxy {
 	}
 
 	/**
-	 * Sends a map of colors and grid coordinates to the robot.
+	 * Sends a map of colors and grid coordinates to the robot. The map is
+	 * not sent if the robot has reported that it has already cached the same
+	 * version of it. The map is written by the command queue, and the cached
+	 * version is only updated once the robot reports that it stored the map.
 	 * @param map	The map to send to the robot.
 	 */
 	public void sendMap(RobotMap map) {
-		try {
-			outputStream.writeObject(map);
-		} catch (IOException e) {
-			e.printStackTrace();
+		if(commandQueue == null) {
+			log.error("Attempted to send map to robot: " + getIdentifier()
+					+ ", but output stream is null.");
+			return;
 		}
+		
+		int version = map.getVersion();
+		Integer cached = robotMapVersion;
+		if(cached != null && cached.intValue() == version) {
+			log.debug("Robot: " + getIdentifier() + " already has map version: "
+					+ Integer.toHexString(version));
+			return;
+		}
+		
+		commandQueue.offerMap(map);
 	}
 }
@@ -2,6 +2,10 @@ package robowars.server.controller;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -13,6 +17,10 @@ import robowars.shared.model.GameType;
  * connected robots and users, selecting game types, selecting user / robot 
  * pairs, and launching new games (generating instances of GameController).
  * 
+ * Several games (arenas) may run concurrently, each with its own set of
+ * robot / user pairs. The game loops of all arenas share a single bounded
+ * pool of scheduler threads.
+ * 
  * @author Alexander Craig
  */
 public class ServerLobby {
@@ -20,6 +28,9 @@ public class ServerLobby {
 	/** The logger used by this class */
 	private static Logger log = Logger.getLogger(ServerLobby.class);
 	
+	/** The default maximum number of games that may run concurrently */
+	public static final int DEFAULT_MAX_GAMES = 4;
+	
 	/** The name of the server */
 	private String serverName;
 	
@@ -29,6 +40,9 @@ public class ServerLobby {
 	/** The maximum number of connected robots */
 	private int maxRobots;
 	
+	/** The maximum number of games that may run concurrently */
+	private int maxGames;
+	
 	/** 
 	 * A list of all currently connected user proxies. Users are ordered by the
 	 * time since they last controlled a robot. New users are added to the end
@@ -48,10 +62,13 @@ public class ServerLobby {
 	private GameType selectedGameType;
 	
 	/** 
-	 * The controller for the game currently in progress (null if no game
-	 * is in progress).
+	 * The controllers for all games currently in progress, in order of
+	 * launch (empty if no game is in progress).
 	 */
-	private GameController currentGame;
+	private List<GameController> games;
+	
+	/** The scheduler shared by the game loops of all running games */
+	private ScheduledExecutorService gameScheduler;
 	
 	/**
 	 * Generates a new, empty server lobby.
@@ -60,13 +77,33 @@ public class ServerLobby {
 	 * @param maxUsers		The maximum number of users to accept
 	 */
 	public ServerLobby(String serverName, int maxRobots, int maxUsers) {
+		this(serverName, maxRobots, maxUsers, DEFAULT_MAX_GAMES);
+	}
+	
+	/**
+	 * Generates a new, empty server lobby.
+	 * @param serverName	The name of the server
+	 * @param maxRobots		The maximum number of robots to accept
+	 * @param maxUsers		The maximum number of users to accept
+	 * @param maxGames		The maximum number of games that may run concurrently
+	 */
+	public ServerLobby(String serverName, int maxRobots, int maxUsers, int maxGames) {
 		this.serverName = serverName;
 		this.maxRobots = maxRobots;
 		this.maxUsers = maxUsers;
+		this.maxGames = Math.max(1, maxGames);
 		selectedGameType = GameType.getDefault();
 		users = new ArrayList<UserProxy>();
 		robots = new ArrayList<RobotProxy>();
 		listeners = new ArrayList<ServerLobbyListener>();
+		games = new ArrayList<GameController>();
+		
+		// Game loops spend most of their time idle between ticks, so a small
+		// number of threads can serve every arena
+		int schedulerThreads = Math.min(this.maxGames, 
+				Runtime.getRuntime().availableProcessors());
+		gameScheduler = Executors.newScheduledThreadPool(schedulerThreads, 
+				new GameThreadFactory(serverName));
 	}
 	
 	/**
@@ -132,12 +169,15 @@ public class ServerLobby {
 			}
 			removeLobbyStateListener(userProxy);
 			
-			// Check if a game is running, and terminate the game
-			// if one of the active players has left
-			if(currentGame != null) {
-				if(currentGame.isPlayer(userProxy)) {
-					log.info("Active player left a game, triggering termination.");
-					currentGame.triggerTermination();
+			// Terminate the game the user was playing in (if any), or
+			// stop sending game updates to the user if they were spectating
+			for(GameController game : games) {
+				if(game.isPlayer(userProxy)) {
+					log.info("Active player left arena " + game.getArenaId() 
+							+ ", triggering termination.");
+					game.triggerTermination();
+				} else if (game.isSpectator(userProxy)) {
+					game.removeSpectator(userProxy);
 				}
 			}
 		}
@@ -173,13 +213,12 @@ public class ServerLobby {
 				listener.robotStateChanged(new LobbyRobotEvent(this, ServerLobbyEvent.EVENT_ROBOT_UNREGISTERED, robot));
 			}
 			
-			// Check if a game is running, and terminate the game
-			// if one of the active players has left
-			if(currentGame != null) {
-				if(currentGame.isActiveRobot(robot)) {
-					log.info("Active robot left a game, triggering termination.");
-					currentGame.triggerTermination();
-				}
+			// Terminate the game the robot was active in (if any)
+			GameController game = getGame(robot);
+			if(game != null) {
+				log.info("Active robot left arena " + game.getArenaId() 
+						+ ", triggering termination.");
+				game.triggerTermination();
 			}
 		}
 	}
@@ -242,18 +281,78 @@ public class ServerLobby {
 	}
 	
 	/**
-	 * @return	True if a game is currently in progress
+	 * @return	True if at least one game is currently in progress
+	 */
+	public synchronized boolean gameInProgress() {
+		return !games.isEmpty();
+	}
+	
+	/**
+	 * @return	The controller object of the most recently launched game still
+	 * 			in progress (null if no game is in progress)
+	 */
+	public synchronized GameController getCurrentGame() {
+		if(games.isEmpty()) return null;
+		return games.get(games.size() - 1);
+	}
+	
+	/**
+	 * @return	A copy of the list of all games currently in progress
+	 */
+	public synchronized List<GameController> getGames() {
+		return new ArrayList<GameController>(games);
+	}
+	
+	/**
+	 * @param arenaId	The arena number of the game to fetch
+	 * @return	The game running in the specified arena, or null if no
+	 * 			such game is in progress
+	 */
+	public synchronized GameController getGame(int arenaId) {
+		for(GameController game : games) {
+			if(game.getArenaId() == arenaId) {
+				return game;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the game a user is participating in, either as a player
+	 * or as a spectator. Commands and game state updates for the user
+	 * should be routed through this game.
+	 * @param userProxy	The user to find a game for
+	 * @return	The game the user is participating in, or null if the user
+	 * 			is not part of any running game
+	 */
+	public synchronized GameController getGame(UserProxy userProxy) {
+		for(GameController game : games) {
+			if(game.isPlayer(userProxy) || game.isSpectator(userProxy)) {
+				return game;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @param robot	The robot to find a game for
+	 * @return	The game the robot is active in, or null if the robot is
+	 * 			not part of any running game
 	 */
-	public boolean gameInProgress() {
-		return currentGame != null;
+	public synchronized GameController getGame(RobotProxy robot) {
+		for(GameController game : games) {
+			if(game.isActiveRobot(robot)) {
+				return game;
+			}
+		}
+		return null;
 	}
 	
 	/**
-	 * @return	The controller object of the game currently in progress (null
-	 * 			if no game is in progress)
+	 * @return	The maximum number of games that may run concurrently
 	 */
-	public GameController getCurrentGame() {
-		return currentGame;
+	public int getMaxGames() {
+		return maxGames;
 	}
 	
 	/**
@@ -303,14 +402,14 @@ public class ServerLobby {
 	}
 	
 	/**
-	 * Attempts to launch a new game, given that the required minimum amount of players
-	 * and an equal number of connected robots are available.
+	 * Attempts to launch a new game in a free arena, given that the required
+	 * minimum amount of players and an equal number of idle robots are available.
+	 * Robots and players already involved in a running game are not considered.
 	 */
 	public synchronized void launchGame() {
-		// Only one game can be running at a time
-		if (gameInProgress()) {
-			log.debug("Game launch requested, but game is in progress.");
-			broadcastMessage("<Server> Game launch requested, but game is in progress.");
+		if (games.size() >= maxGames) {
+			log.debug("Game launch requested, but all " + maxGames + " arenas are in use.");
+			broadcastMessage("<Server> Game launch requested, but all arenas are in use.");
 			return;
 		}
 		
@@ -319,8 +418,14 @@ public class ServerLobby {
 			return;
 		}
 		
-		// Ensure enough robots are available for the selected game type
-		int availableRobots = robots.size();
+		// Ensure enough idle robots are available for the selected game type
+		List<RobotProxy> idleRobots = new ArrayList<RobotProxy>();
+		for(RobotProxy robot : robots) {
+			if(getGame(robot) == null) {
+				idleRobots.add(robot);
+			}
+		}
+		int availableRobots = Math.min(idleRobots.size(), selectedGameType.getMaximumPlayers());
 		log.debug(availableRobots + " robot(s) available for pairing.");
 		if(availableRobots < selectedGameType.getMinimumPlayers()) {
 			log.debug("Insufficient robots to launch selected game type.");
@@ -331,6 +436,10 @@ public class ServerLobby {
 		// Select the players who will be paired to robots, and ensure they are all ready
 		List<UserProxy> players = new ArrayList<UserProxy>();
 		for(UserProxy userProxy : users) {
+			if(isActivePlayer(userProxy)) {
+				continue; // Already playing in another arena
+			}
+			
 			if(!userProxy.getUser().isPureSpectator()) {
 				if(players.size() < availableRobots && !userProxy.getUser().isReady()) {
 					// If not enough players have been selected to control all available
@@ -362,55 +471,149 @@ public class ServerLobby {
 		log.debug(players.size() + " player(s) available for pairing.");
 		
 		// Generate the game controller and register control pairs
-		log.debug("Launching game of type: " + selectedGameType.toString());
+		int arenaId = getFreeArenaId();
+		log.debug("Launching game of type: " + selectedGameType.toString() + " in arena " + arenaId);
 		
-		currentGame = new GameController(this, selectedGameType);
+		final GameController newGame = new GameController(this, selectedGameType, 
+				GameController.DEFAULT_TICK_RATE, arenaId);
 		
 		for(UserProxy player : players) {
+			// Players who were watching another arena leave it to play
+			GameController watchedGame = getGame(player);
+			if(watchedGame != null) {
+				watchedGame.removeSpectator(player);
+			}
+			
 			users.remove(player);
-			RobotProxy pairedRobot = robots.remove(0);
+			RobotProxy pairedRobot = idleRobots.remove(0);
+			robots.remove(pairedRobot);
 			log.debug("Pairing: " + player.getUser().getUsername() + " <-> " + pairedRobot.getIdentifier());
-			currentGame.addPlayer(player, pairedRobot);
+			newGame.addPlayer(player, pairedRobot);
 			users.add(player);
 			robots.add(pairedRobot);
 		}
 		
-		// Add all remaining players as spectators
+		// Add all remaining users not involved in another game as spectators
 		for(UserProxy spectator : users) {
-			if(!players.contains(spectator)) {
-				currentGame.addSpectator(spectator);
+			if(!players.contains(spectator) && getGame(spectator) == null) {
+				newGame.addSpectator(spectator);
 			}
 		}
 		
+		games.add(newGame);
+		
 		// Notify all listeners that a game is starting
 		for(ServerLobbyListener listener : listeners) {
-			listener.lobbyGameStateChanged(new LobbyGameEvent(this, LobbyGameEvent.EVENT_GAME_LAUNCH, selectedGameType));
+			listener.lobbyGameStateChanged(new LobbyGameEvent(this, LobbyGameEvent.EVENT_GAME_LAUNCH, 
+					selectedGameType, arenaId));
 		}
 		
-		// Start the game
-		new Thread(currentGame).start();
+		// Start the game on the shared scheduler
+		gameScheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				newGame.start(gameScheduler);
+			}
+		});
+	}
+	
+	/**
+	 * @param userProxy	The user to check
+	 * @return	True if the user is paired to a robot in any running game
+	 */
+	private boolean isActivePlayer(UserProxy userProxy) {
+		for(GameController game : games) {
+			if(game.isPlayer(userProxy)) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	/**
-	 * Ends the current game (removing all references to users and robots from
-	 * the game controller), and removes all references to the game controller. This
-	 * should be called when a game's end condition is met or when an active player
-	 * leaves the server.
+	 * @return	The lowest arena number (starting from 1) not used by a running game
+	 */
+	private int getFreeArenaId() {
+		int arenaId = 1;
+		while(getGame(arenaId) != null) {
+			arenaId++;
+		}
+		return arenaId;
+	}
+	
+	/**
+	 * Ends all running games (see endGame()).
 	 */
 	public synchronized void endCurrentGame() {
-		if(currentGame == null) {
+		if(games.isEmpty()) {
 			log.error("No running game to terminate.");
 			return;
 		}
 		
-		if(!currentGame.isTerminating()) {
-			log.info("EndCurrentGame() called while GameController thread is still running.");
-			currentGame.triggerTermination();
+		for(GameController game : games) {
+			endGame(game);
+		}
+	}
+	
+	/**
+	 * Ends a single game. The game is flagged for termination, and is removed
+	 * from the lobby once its game loop has released its users and robots
+	 * (see removeGame()). Until then its arena, players and robots remain in
+	 * use, so they cannot be paired into a new game.
+	 * @param game	The game to end
+	 */
+	public synchronized void endGame(GameController game) {
+		if(!games.contains(game)) {
+			log.debug("Game already removed from lobby.");
+			return;
+		}
+		
+		if(!game.isTerminating()) {
+			log.info("Ending game in arena " + game.getArenaId() + ".");
+			game.triggerTermination();
+		}
+	}
+	
+	/**
+	 * Removes all references to a game which has terminated, freeing its
+	 * arena. This is called by the game controller once it has cleared all
+	 * references to its users and robots.
+	 * @param game	The game which has terminated
+	 */
+	synchronized void removeGame(GameController game) {
+		if(!games.remove(game)) {
+			log.debug("Game already removed from lobby.");
+			return;
 		}
 		
-		currentGame = null;
 		for(ServerLobbyListener listener : listeners) {
-			listener.lobbyGameStateChanged(new LobbyGameEvent(this, LobbyGameEvent.EVENT_GAME_OVER, selectedGameType));
+			listener.lobbyGameStateChanged(new LobbyGameEvent(this, LobbyGameEvent.EVENT_GAME_OVER, 
+					game.getGameType(), game.getArenaId()));
+		}
+	}
+	
+	/**
+	 * Generates daemon threads for the shared game scheduler.
+	 */
+	private static class GameThreadFactory implements ThreadFactory {
+		/** Prefix for the names of generated threads */
+		private final String namePrefix;
+		
+		/** The number of threads generated so far */
+		private final AtomicInteger threadCount = new AtomicInteger(0);
+		
+		/**
+		 * @param serverName	The name of the server owning the threads
+		 */
+		public GameThreadFactory(String serverName) {
+			namePrefix = serverName + " - Game Loop ";
+		}
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, namePrefix + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
 		}
 	}
 }
@@ -408,4 +408,64 @@ public class ServerLobbyTest {
 		assertEquals(ServerLobbyEvent.EVENT_GAME_OVER,
 				testListener.getLastGameEvent().getEventType());	
 	}
+
+	@Test
+	public void testMultipleArenas() {
+		testLobby.setGameType(GameType.TANK_SIMULATION);
+		TestUserProxy[] testUsers = new TestUserProxy[4];
+		RobotProxy[] testRobots = new RobotProxy[4];
+		for(int i = 0; i < 4; i++) {
+			testUsers[i] = new TestUserProxy(testLobby, "Arena User " + i);
+			testUsers[i].getUser().setReady(true);
+			testLobby.addUserProxy(testUsers[i]);
+			testRobots[i] = new TestRobotProxy(testLobby, "arena:mac:addr" + i);
+		}
+		
+		// Each launch should only take the number of players the game type supports
+		testLobby.launchGame();
+		assertEquals(1, testLobby.getGames().size());
+		GameController arena1 = testLobby.getCurrentGame();
+		assertEquals(1, arena1.getArenaId());
+		assertEquals(arena1, testLobby.getGame(testUsers[0]));
+		assertEquals(arena1, testLobby.getGame(testRobots[1]));
+		assertEquals(true, arena1.isSpectator(testUsers[2]));
+		
+		// Idle players and robots should be used for the second arena, with
+		// spectators of the first arena leaving it to play
+		testLobby.launchGame();
+		assertEquals(2, testLobby.getGames().size());
+		GameController arena2 = testLobby.getCurrentGame();
+		assertEquals(2, arena2.getArenaId());
+		assertEquals(arena2, testLobby.getGame(2));
+		assertEquals(true, arena2.isPlayer(testUsers[2]));
+		assertEquals(false, arena1.isSpectator(testUsers[2]));
+		assertEquals(arena2, testLobby.getGame(testRobots[3]));
+		
+		// No idle robots remain for a third arena
+		testLobby.launchGame();
+		assertEquals(2, testLobby.getGames().size());
+		
+		// Ending one arena should leave the other running. Until the game has
+		// released its players and robots, they cannot be paired again.
+		testLobby.endGame(arena1);
+		assertEquals(true, arena1.isTerminating());
+		testLobby.launchGame();
+		assertEquals(2, testLobby.getGames().size());
+		assertEquals(arena1, testLobby.getGame(testRobots[0]));
+		try { Thread.sleep(200); } catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		assertEquals(null, testLobby.getGame(1));
+		assertEquals(arena2, testLobby.getCurrentGame());
+		assertEquals(1, testLobby.getGames().size());
+		assertEquals(ServerLobbyEvent.EVENT_GAME_OVER,
+				testListener.getLastGameEvent().getEventType());
+		assertEquals(1, testListener.getLastGameEvent().getArenaId());
+		
+		testLobby.endCurrentGame();
+		try { Thread.sleep(200); } catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		assertEquals(false, testLobby.gameInProgress());
+	}
 }
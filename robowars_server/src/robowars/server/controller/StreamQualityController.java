@@ -0,0 +1,65 @@
+package robowars.server.controller;
+
+/**
+ * Selects the video quality tier served to a single media client, based on
+ * the frame loss the client reports. The quality is lowered as soon as a
+ * report shows heavy loss, and is only raised again after several
+ * consecutive reports show (almost) no loss, so that a client does not
+ * oscillate between tiers.
+ * 
+ * @author Alexander Craig
+ */
+public class StreamQualityController {
+	/** Reported loss (in percent) above which the quality is lowered */
+	public static final int DEGRADE_LOSS = 10;
+	
+	/** Reported loss (in percent) below which a report counts towards raising the quality */
+	public static final int UPGRADE_LOSS = 2;
+	
+	/** The number of consecutive low loss reports required to raise the quality */
+	public static final int UPGRADE_REPORTS = 3;
+	
+	/** The quality currently served to the client */
+	private VideoQuality quality;
+	
+	/** The number of consecutive low loss reports received */
+	private int goodReports;
+	
+	/**
+	 * Generates a new StreamQualityController (starting at the highest quality)
+	 */
+	public StreamQualityController() {
+		quality = VideoQuality.HIGH;
+		goodReports = 0;
+	}
+	
+	/**
+	 * Processes a reception report from the client.
+	 * @param lossPercent	The percentage of frames the client failed to
+	 * 						receive since its last report
+	 * @return	True if the quality served to the client changed
+	 */
+	public boolean report(int lossPercent) {
+		VideoQuality previous = quality;
+		if(lossPercent > DEGRADE_LOSS) {
+			quality = quality.lower();
+			goodReports = 0;
+		} else if (lossPercent < UPGRADE_LOSS) {
+			goodReports++;
+			if(goodReports >= UPGRADE_REPORTS) {
+				quality = quality.higher();
+				goodReports = 0;
+			}
+		} else {
+			goodReports = 0;
+		}
+		return quality != previous;
+	}
+	
+	/**
+	 * @return	The quality currently served to the client
+	 */
+	public VideoQuality getQuality() {
+		return quality;
+	}
+}
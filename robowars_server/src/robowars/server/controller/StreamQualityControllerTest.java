@@ -0,0 +1,71 @@
+package robowars.server.controller;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the StreamQualityController and VideoQuality classes.
+ *
+ * @author Alexander Craig
+ */
+public class StreamQualityControllerTest {
+	StreamQualityController controller;
+
+	@Before
+	public void setUp() {
+		controller = new StreamQualityController();
+	}
+
+	@Test
+	public void testDegrade() {
+		assertEquals(VideoQuality.HIGH, controller.getQuality());
+		assertFalse(controller.report(StreamQualityController.DEGRADE_LOSS));
+		assertTrue(controller.report(StreamQualityController.DEGRADE_LOSS + 1));
+		assertEquals(VideoQuality.MEDIUM, controller.getQuality());
+		assertTrue(controller.report(50));
+		assertEquals(VideoQuality.LOW, controller.getQuality());
+
+		// The lowest tier can not be lowered further
+		assertFalse(controller.report(100));
+		assertEquals(VideoQuality.LOW, controller.getQuality());
+	}
+
+	@Test
+	public void testUpgrade() {
+		controller.report(50);
+		controller.report(50);
+		assertEquals(VideoQuality.LOW, controller.getQuality());
+
+		for(int i = 1; i < StreamQualityController.UPGRADE_REPORTS; i++) {
+			assertFalse(controller.report(0));
+		}
+		assertTrue(controller.report(0));
+		assertEquals(VideoQuality.MEDIUM, controller.getQuality());
+
+		// Moderate loss resets the count of good reports
+		for(int i = 1; i < StreamQualityController.UPGRADE_REPORTS; i++) {
+			controller.report(0);
+		}
+		controller.report(StreamQualityController.UPGRADE_LOSS);
+		assertFalse(controller.report(0));
+		assertEquals(VideoQuality.MEDIUM, controller.getQuality());
+	}
+
+	@Test
+	public void testTiers() {
+		// Each lower tier must reduce the bitrate
+		for(VideoQuality quality : VideoQuality.values()) {
+			VideoQuality lower = quality.lower();
+			assertTrue(lower.getWidth() * lower.getHeight() <= quality.getWidth() * quality.getHeight());
+			assertTrue(lower.getJpegQuality() <= quality.getJpegQuality());
+			assertTrue(lower.getFrameInterval() >= quality.getFrameInterval());
+		}
+		assertEquals(VideoQuality.MEDIUM, VideoQuality.LOW.higher());
+		assertEquals(VideoQuality.HIGH, VideoQuality.MEDIUM.higher());
+		assertEquals(VideoQuality.HIGH, VideoQuality.HIGH.higher());
+		assertEquals(VideoQuality.LOW, VideoQuality.LOW.lower());
+	}
+}
@@ -1,5 +1,7 @@
 package robowars.server.controller;
 
+import java.io.File;
+
 import javax.swing.UIManager;
 
 import org.apache.log4j.PropertyConfigurator;
@@ -20,9 +22,34 @@ public class SystemControl {
 	 * to ensure version mismatches between client and server do not occur, and
 	 * also used in administrator GUI)
 	 */
-	public static final String USER_PROTOCOL_VERSION = "RoboWars V0.2";
+	public static final String USER_PROTOCOL_VERSION = "RoboWars V0.3";
 	public static final String ROBOT_PROTOCOL_VERSION = "RoboWars V0.1";
 	
+	/** 
+	 * System property selecting how user connections are serviced: "nio" (the
+	 * default) services every connection from a single selector thread, and
+	 * "blocking" dedicates a thread to each connection (see ConnectionThreads
+	 * for running these on virtual threads).
+	 */
+	public static final String SERVER_IO_PROPERTY = "robowars.server.io";
+	
+	/**
+	 * System property adding a video source to the detected cameras: 
+	 * "pattern" streams a generated test pattern, and any other value is the
+	 * directory of an image sequence to replay.
+	 */
+	public static final String VIDEO_SOURCE_PROPERTY = "robowars.video.source";
+	
+	/**
+	 * System property which, when set to "true", draws the entities of each
+	 * game over its arena's video on the server (for clients unable to render
+	 * the game themselves).
+	 */
+	public static final String VIDEO_OVERLAY_PROPERTY = "robowars.video.overlay";
+	
+	/** The frame rate of video sources added through VIDEO_SOURCE_PROPERTY */
+	public static final float VIDEO_SOURCE_FPS = 30;
+	
 	public static void main (String args[]){
 		// Use log4j config file "log_config.properties"
 		PropertyConfigurator.configure("config/log_config.properties");
@@ -45,8 +72,28 @@ public class SystemControl {
 		ServerLobby lobby = new ServerLobby("RoboWars Test Server", 6, 10);
 		
 		// Start a new TCP server listening on port 33330
-		TcpServer tcpServer = new TcpServer(33330, lobby);
-		new Thread(tcpServer).start();
+		MediaStreamer mediaStreamer;
+		if(System.getProperty(SERVER_IO_PROPERTY, "nio").equals("blocking")) {
+			TcpServer tcpServer = new TcpServer(33330, lobby);
+			new Thread(tcpServer).start();
+			mediaStreamer = tcpServer.getMediaStreamer();
+		} else {
+			NioTcpServer tcpServer = new NioTcpServer(33330, lobby);
+			new Thread(tcpServer, "NioTcpServer").start();
+			mediaStreamer = tcpServer.getMediaStreamer();
+		}
+		
+		mediaStreamer.setOverlayEnabled(Boolean.getBoolean(VIDEO_OVERLAY_PROPERTY));
+		String videoSource = System.getProperty(VIDEO_SOURCE_PROPERTY);
+		if(videoSource != null) {
+			if(videoSource.equals("pattern")) {
+				mediaStreamer.addVideoSource(new TestPatternSource(MediaStreamer.VIDEO_WIDTH,
+						MediaStreamer.VIDEO_HEIGHT, VIDEO_SOURCE_FPS));
+			} else {
+				mediaStreamer.addVideoSource(new ImageSequenceSource(new File(videoSource),
+						MediaStreamer.VIDEO_WIDTH, MediaStreamer.VIDEO_HEIGHT, VIDEO_SOURCE_FPS));
+			}
+		}
 		
 		// Start the NXT Bluetooth discovery server
 		final BluetoothServer bluetooth = new BluetoothServer(lobby);
@@ -54,8 +101,7 @@ public class SystemControl {
 
 		
 		// Generate the administrator GUI
-		new AdminView(USER_PROTOCOL_VERSION, lobby, tcpServer.getMediaStreamer(),
-				bluetooth);
+		new AdminView(USER_PROTOCOL_VERSION, lobby, mediaStreamer, bluetooth);
 		
 		if(args.length == 1) {
 			try {
@@ -14,6 +14,11 @@ import org.apache.log4j.Logger;
  * UserProxy for each new connection. This class also ensures that each
  * UserProxy is associated with an instance of ServerLobby and MediaServer.
  * 
+ * Each connection is serviced by its own thread (a virtual thread if
+ * requested, see ConnectionThreads). See NioTcpServer for an
+ * alternative which services all connections from a single thread using the
+ * same framed message protocol.
+ * 
  * @author Alexander Craig
  */
 public class TcpServer implements Runnable {
@@ -31,6 +36,9 @@ public class TcpServer implements Runnable {
 	
 	/** The socket used to listen for incoming TCP/IP connections */
 	private ServerSocket serverSocket;
+	
+	/** False once the server has been shut down */
+	private volatile boolean running;
 
 	/**
 	 * Generates a new instance of TcpServer
@@ -61,6 +69,25 @@ public class TcpServer implements Runnable {
 		mediaStreamer = new MediaStreamer(port + 1);
 		lobby.addLobbyStateListener(mediaStreamer);
 		mediaStreamer.updateDeviceList();
+		running = true;
+	}
+	
+	/**
+	 * Generates a new instance of TcpServer
+	 * @param port	The port number to listen for incoming connections on (0 to
+	 * 				use any free port)
+	 * @param lobby The server lobby that users connecting to the server should join
+	 * @param mediaStreamer	The media streamer serving video to connected users
+	 * @throws IOException	If the listen socket could not be opened
+	 */
+	public TcpServer(int port, ServerLobby lobby, MediaStreamer mediaStreamer) throws IOException {
+		serverSocket = new ServerSocket(port);
+		listenPort = serverSocket.getLocalPort();
+		log.info("Succesfully opened listen socket on port: " + listenPort);
+		
+		this.lobby = lobby;
+		this.mediaStreamer = mediaStreamer;
+		running = true;
 	}
 
 	/**
@@ -68,13 +95,16 @@ public class TcpServer implements Runnable {
 	 * a new UserProxy for each incoming connection.
 	 */
 	public void run() {
-		while (true) { // Run forever, accepting and servicing connections
+		while (running) { // Run until closed, accepting and servicing connections
 			
 			Socket clientSocket = null;
 			try {
 				clientSocket = serverSocket.accept(); // Get client connection
 			} catch (IOException e) {
-				e.printStackTrace();
+				if(running) {
+					e.printStackTrace();
+				}
+				continue;
 			}
 
 			// Print details on connected client
@@ -82,8 +112,29 @@ public class TcpServer implements Runnable {
 					+ " Port: " + clientSocket.getPort());
 
 			UserProxy newProxy = new UserProxy(clientSocket, lobby, mediaStreamer);
-			new Thread(newProxy).start();
+			ConnectionThreads.start(newProxy, "UserProxy-" 
+					+ clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort());
 		}
+		log.info("Server on port " + listenPort + " terminated.");
+	}
+	
+	/**
+	 * Stops accepting new connections. Existing connections are not closed.
+	 */
+	public void close() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			log.error("Could not close listen socket.");
+		}
+	}
+	
+	/**
+	 * @return	The port the server is listening on
+	 */
+	public int getPort() {
+		return listenPort;
 	}
 	
 	/**
@@ -0,0 +1,67 @@
+package robowars.server.controller;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import robowars.test.SpectatorLoadTest;
+import robowars.test.TestMediaStreamer;
+
+/**
+ * Unit tests for the TcpServer class, run with connection loops on virtual
+ * threads (or compact platform threads where these are not supported). Only
+ * a handful of spectators are connected here; SpectatorLoadTest is the load
+ * harness for large numbers of connections.
+ * 
+ * @author Alexander Craig
+ */
+public class TcpServerTest {
+	public static final int TEST_NUM_SPECTATORS = 10;
+	public static final long TEST_TIMEOUT = 10000;
+	
+	ServerLobby testLobby;
+	TcpServer testServer;
+	SpectatorLoadTest spectators;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		// Use log4j config file "log_config.properties"
+		PropertyConfigurator.configure("config/log_config.properties");
+		ConnectionThreads.setMode(ConnectionThreads.MODE_VIRTUAL);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		testLobby = new ServerLobby("Test Server", 4, TEST_NUM_SPECTATORS);
+		testServer = new TcpServer(0, testLobby, new TestMediaStreamer(0));
+		new Thread(testServer, "TcpServer").start();
+		spectators = new SpectatorLoadTest();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		spectators.close();
+		testServer.close();
+		ConnectionThreads.setMode(ConnectionThreads.MODE_PLATFORM);
+	}
+
+	@Test
+	public void testManySpectators() throws Exception {
+		spectators.connect(testServer.getPort(), TEST_NUM_SPECTATORS, "spectator");
+		assertTrue(spectators.waitForFrames(
+				SpectatorLoadTest.expectedFrames(TEST_NUM_SPECTATORS, 0), TEST_TIMEOUT));
+		for(int i = 0; i < TEST_NUM_SPECTATORS; i++) {
+			assertTrue(testLobby.isUsernameRegistered("spectator" + i));
+		}
+		
+		// Every spectator should receive every broadcast
+		for(int i = 0; i < 5; i++) {
+			testLobby.broadcastMessage("Test Broadcast " + i);
+		}
+		assertTrue(spectators.waitForFrames(
+				SpectatorLoadTest.expectedFrames(TEST_NUM_SPECTATORS, 5), TEST_TIMEOUT));
+	}
+}
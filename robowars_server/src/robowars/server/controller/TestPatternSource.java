@@ -0,0 +1,98 @@
+package robowars.server.controller;
+
+import com.lti.civil.CaptureException;
+import com.lti.civil.CaptureStream;
+
+/**
+ * A video source generating a moving test pattern, allowing the streaming
+ * pipeline to be run and benchmarked without a camera. Each frame shows a
+ * set of scrolling colour bars with a white square bouncing across them, so
+ * that consecutive frames differ as they would for a live camera.
+ * 
+ * @author Alexander Craig
+ */
+public class TestPatternSource implements VideoSource {
+	/** The colours of the bars (red, green, blue) */
+	private static final int BAR_COLOURS[][] = {
+		{255, 255, 255}, {255, 255, 0}, {0, 255, 255}, {0, 255, 0},
+		{255, 0, 255}, {255, 0, 0}, {0, 0, 255}, {0, 0, 0}
+	};
+	
+	/** The number of pixels the bars scroll by each frame */
+	private static final int SCROLL_SPEED = 2;
+	
+	/** The width and height of the generated frames */
+	private int width;
+	private int height;
+	
+	/** The number of frames generated per second (0 for unlimited) */
+	private float fps;
+	
+	/**
+	 * Generates a new TestPatternSource.
+	 * @param width	The width of the generated frames (in pixels)
+	 * @param height	The height of the generated frames (in pixels)
+	 * @param fps	The number of frames generated per second, or 0 to generate
+	 * 				frames as fast as they are accepted
+	 */
+	public TestPatternSource(int width, int height, float fps) {
+		this.width = width;
+		this.height = height;
+		this.fps = fps;
+	}
+
+	public String getDeviceID() {
+		return "testpattern:" + width + "x" + height + "@" + fps;
+	}
+
+	public String getDescription() {
+		return "Test Pattern (" + width + "x" + height + ")";
+	}
+
+	public CaptureStream openStream() throws CaptureException {
+		return new GeneratedCaptureStream(width, height, fps) {
+			/** A single row of the bars, copied to every row of the frame */
+			private byte row[] = new byte[width * 3];
+			
+			protected void renderFrame(byte pixels[], int width, int height, long frameNumber) {
+				renderPattern(pixels, row, width, height, frameNumber);
+			}
+		};
+	}
+	
+	/**
+	 * Renders a frame of the test pattern.
+	 * @param pixels	The buffer to render into (BGR)
+	 * @param row	A buffer holding a single row of pixels
+	 * @param width	The width of the frame
+	 * @param height	The height of the frame
+	 * @param frameNumber	The number of the frame in the stream
+	 */
+	static void renderPattern(byte pixels[], byte row[], int width, int height, long frameNumber) {
+		int barWidth = Math.max(1, width / BAR_COLOURS.length);
+		int scroll = (int)((frameNumber * SCROLL_SPEED) % width);
+		for(int x = 0; x < width; x++) {
+			int colour[] = BAR_COLOURS[(((x + scroll) % width) / barWidth) % BAR_COLOURS.length];
+			row[x * 3] = (byte)colour[2];
+			row[x * 3 + 1] = (byte)colour[1];
+			row[x * 3 + 2] = (byte)colour[0];
+		}
+		for(int y = 0; y < height; y++) {
+			System.arraycopy(row, 0, pixels, y * row.length, row.length);
+		}
+		
+		// Square bouncing between the left and right edges
+		int size = Math.max(1, height / 4);
+		int travel = Math.max(1, width - size);
+		int pos = (int)((frameNumber * SCROLL_SPEED * 2) % (2 * travel));
+		int left = pos < travel ? pos : 2 * travel - pos;
+		int top = (height - size) / 2;
+		for(int y = top; y < top + size && y < height; y++) {
+			int start = (y * width + left) * 3;
+			int end = Math.min(width, left + size);
+			for(int i = start; i < (y * width + end) * 3; i++) {
+				pixels[i] = (byte)255;
+			}
+		}
+	}
+}
@@ -1,20 +1,27 @@
 package robowars.server.controller;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.net.InetAddress;
 import java.net.Socket;
 import java.util.EventObject;
 import java.util.Vector;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
+import robowars.shared.model.GameSnapshotEvent;
 import robowars.shared.model.GameType;
 import robowars.shared.model.User;
 
 /**
  * Manages communications with a single user connected through an existing 
- * TCP socket. 
+ * TCP socket. Messages are exchanged as frames (see MessageFrame), either
+ * read by a dedicated thread from a blocking socket (see run()), or passed
+ * in by a NioTcpServer as they arrive on a non-blocking connection (see
+ * messageReceived()).
  * 
  * @author Alexander Craig
  */
@@ -28,15 +35,28 @@ public class UserProxy implements Runnable, ServerLobbyListener {
 	 */
 	private User user;
 
-	/** Reader for client input */
-	private ObjectInputStream inputStream;
+	/** Reader for client input (blocking sockets only) */
+	private DataInputStream inputStream;
 	
-	/** Writer for client output */
-	private ObjectOutputStream outputStream;
+	/** Writer for client output (blocking sockets only) */
+	private DataOutputStream outputStream;
 	
-	/** The socket to generate input/output streams for */
+	/** 
+	 * Guards writes to the output stream. A lock is used instead of a
+	 * synchronized block so that a virtual thread blocked on a socket write
+	 * does not pin its carrier thread.
+	 */
+	private final ReentrantLock outputLock = new ReentrantLock();
+	
+	/** The socket to generate input/output streams for (null for non-blocking connections) */
 	private Socket userSocket;
 	
+	/** The non-blocking connection to the user (null for blocking sockets) */
+	private NioConnection connection;
+	
+	/** True once the client has sent a valid protocol string */
+	private boolean protocolAccepted;
+	
 	/** The server lobby that manages the user */
 	private ServerLobby lobby;
 	
@@ -49,6 +69,12 @@ public class UserProxy implements Runnable, ServerLobbyListener {
 	 */
 	private GameController controller;
 	
+	/** 
+	 * The game the user is playing or spectating (null if none), so that
+	 * snapshot acknowledgements do not need to search the lobby's games
+	 */
+	private volatile GameController currentGame;
+	
 	/**
 	 * Generates a new UserProxy
 	 * @param clientSocket	The connected socket to service
@@ -62,7 +88,23 @@ public class UserProxy implements Runnable, ServerLobbyListener {
 		this.mediaStreamer = media;
 		inputStream = null;
 		outputStream = null;
+		connection = null;
+		protocolAccepted = false;
 		controller = null;
+		currentGame = null;
+	}
+	
+	/**
+	 * Generates a new UserProxy for a non-blocking connection. Incoming
+	 * messages must be passed to messageReceived() by the connection's server.
+	 * @param connection	The connection to the client
+	 * @param lobby		The server lobby the user should join once the connection
+	 * 					handshake is complete
+	 * @param media		The media server that should serve a video feed to this user
+	 */
+	UserProxy(NioConnection connection, ServerLobby lobby, MediaStreamer media) {
+		this((Socket)null, lobby, media);
+		this.connection = connection;
 	}
 	
 	/**
@@ -72,71 +114,38 @@ public class UserProxy implements Runnable, ServerLobbyListener {
 	public void run(){
 		log.debug("Opening input/output streams.");
 		try {
-			this.outputStream = new ObjectOutputStream(userSocket.getOutputStream());
-			this.inputStream = new ObjectInputStream(userSocket.getInputStream());
+			this.outputStream = new DataOutputStream(userSocket.getOutputStream());
+			this.inputStream = new DataInputStream(
+					new BufferedInputStream(userSocket.getInputStream()));
 		} catch (IOException e) {
 			log.error("Failed to open input/output streams.");
 			e.printStackTrace();
+			return;
 		}
 
 		try {
 			// Read protocol string, ensure protocol matches
-			String protocol = inputStream.readUTF();
-			log.info("Read protocol string: " + protocol);
-			
-			if(!protocol.equals(SystemControl.USER_PROTOCOL_VERSION)) {
-				sendMessage("Error - Protocol Mismatch (Got: \"" + protocol + "\", Expected: \""
-						+ SystemControl.USER_PROTOCOL_VERSION + ")");
+			if(!processProtocol(MessageFrame.read(inputStream))) {
 				return;
-			} else {
-				sendMessage("Valid Protocol - Enter Username");
 			}
 			
 			// User name selection
-			String name = inputStream.readUTF();
-			log.info("Read name: " + name);
-			if(lobby.isUsernameRegistered(name)) {
-				// Close the connection to the client if the selected username already exists
-				sendMessage("Selected Username Already In Use - Please Reconnect.");
+			if(!processUsername(MessageFrame.read(inputStream))) {
 				return;
 			}
-			
-			// Generate user object and add to server lobby
-			setUser(new User(name, userSocket.getInetAddress()));
-			log.debug("Client username: " + user.getUsername());
-			sendMessage(user.getUsername() + " connected to: " + lobby.getServerName());
-			
-			if (lobby.addUserProxy(this)) {
-				// If a game is in progress, send a game launch event to the client
-				// (so that camera information can be determined)
-				if(lobby.gameInProgress()) {
-					sendEvent(new LobbyGameEvent(lobby, 
-							ServerLobbyEvent.EVENT_GAME_LAUNCH, lobby.getCurrentGameType()));
-				}
 				
-				// Read strings from socket until connection is terminated
-				Object incomingMessage;
-				try {
-					
-					// Note: Input stream should only ever be read by this thread,
-					// and therefore does not need to be synchronized.
-					while ((incomingMessage = inputStream.readObject()) != null) {
-						if(incomingMessage instanceof ClientCommand) {
-							ClientCommand clientCmd = (ClientCommand)incomingMessage;
-							handleInput(clientCmd);
-						}
-					}
-					
-				} catch (ClassNotFoundException e) {
-					log.info("Class for incoming message could not be determined.");
-					e.printStackTrace();
+			// Read messages from socket until connection is terminated
+			// Note: Input stream should only ever be read by this thread,
+			// and therefore does not need to be synchronized.
+			while (user != null) {
+				Object incomingMessage = MessageFrame.read(inputStream);
+				if(incomingMessage instanceof ClientCommand) {
+					handleInput((ClientCommand)incomingMessage);
 				}
-				
-				log.info(user.getUsername() + " terminated connection with server.");
-			} else {
-				sendMessage("Error - Server Full");
 			}
-			
+		} catch (ClassNotFoundException e) {
+			log.info("Class for incoming message could not be determined.");
+			e.printStackTrace();
 		} catch (IOException e) {
 			log.info("Client terminated connection with server.");
 		} finally {
@@ -145,6 +154,92 @@ public class UserProxy implements Runnable, ServerLobbyListener {
 		
 	}
 	
+	/**
+	 * Processes a message received on a non-blocking connection. The first
+	 * two messages must be the protocol string and the username, and all
+	 * further messages are expected to be ClientCommands.
+	 * @param message	The decoded message
+	 */
+	void messageReceived(Object message) {
+		if(!protocolAccepted) {
+			if(!processProtocol(message)) {
+				terminateConnection();
+			}
+		} else if (user == null) {
+			if(!processUsername(message)) {
+				terminateConnection();
+			}
+		} else if (message instanceof ClientCommand) {
+			handleInput((ClientCommand)message);
+		}
+	}
+	
+	/**
+	 * Checks the protocol string sent by the client at the start of the
+	 * connection handshake, and requests the username if it matches.
+	 * @param message	The first message sent by the client
+	 * @return	True if the protocol matches
+	 */
+	private boolean processProtocol(Object message) {
+		String protocol = String.valueOf(message);
+		log.info("Read protocol string: " + protocol);
+		
+		if(!protocol.equals(SystemControl.USER_PROTOCOL_VERSION)) {
+			sendMessage("Error - Protocol Mismatch (Got: \"" + protocol + "\", Expected: \""
+					+ SystemControl.USER_PROTOCOL_VERSION + ")");
+			return false;
+		}
+		
+		protocolAccepted = true;
+		sendMessage("Valid Protocol - Enter Username");
+		return true;
+	}
+	
+	/**
+	 * Processes the username sent by the client, and adds the user to the
+	 * server lobby if the name is available.
+	 * @param message	The second message sent by the client
+	 * @return	True if the user joined the lobby
+	 */
+	private boolean processUsername(Object message) {
+		String name = String.valueOf(message);
+		log.info("Read name: " + name);
+		if(lobby.isUsernameRegistered(name)) {
+			// Close the connection to the client if the selected username already exists
+			sendMessage("Selected Username Already In Use - Please Reconnect.");
+			return false;
+		}
+		
+		// Generate user object and add to server lobby
+		setUser(new User(name, getRemoteAddress()));
+		log.debug("Client username: " + user.getUsername());
+		sendMessage(user.getUsername() + " connected to: " + lobby.getServerName());
+		
+		if (!lobby.addUserProxy(this)) {
+			sendMessage("Error - Server Full");
+			return false;
+		}
+		
+		// If a game is in progress, send a game launch event to the client
+		// (so that camera information can be determined)
+		GameController currentGame = lobby.getCurrentGame();
+		if(currentGame != null) {
+			sendEvent(new LobbyGameEvent(lobby, ServerLobbyEvent.EVENT_GAME_LAUNCH, 
+					currentGame.getGameType(), currentGame.getArenaId()));
+		}
+		return true;
+	}
+	
+	/**
+	 * @return	The address of the connected client
+	 */
+	private InetAddress getRemoteAddress() {
+		if(connection != null) {
+			return connection.getInetAddress();
+		}
+		return userSocket.getInetAddress();
+	}
+	
 	/**
 	 * Sets the user object that this proxy is managing communication with.
 	 * @param user	The user object that this proxy is managing communication with
@@ -180,24 +275,45 @@ public class UserProxy implements Runnable, ServerLobbyListener {
 		// TODO: May want to find a better place to handle this processing
 		
 		// If the outgoing event is a LobbyGameEvent, attach the information
-		// for the currently selected media device
+		// for the media device assigned to the event's arena
 		if(event instanceof LobbyGameEvent) {
-			if(mediaStreamer.getActiveCamera() != null) {
-				((LobbyGameEvent)event).setCameraPosition(mediaStreamer.getActiveCamera().getPosition());
+			LobbyGameEvent gameEvent = (LobbyGameEvent)event;
+			CameraController camera = mediaStreamer.getArenaCamera(gameEvent.getArenaId());
+			if(camera != null) {
+				gameEvent.setCameraPosition(camera.getPosition());
 			}
+			
+			// Users taking part in a launched game receive its arena's video
+			if(gameEvent.getEventType() == ServerLobbyEvent.EVENT_GAME_LAUNCH && user != null) {
+				GameController game = currentGame;
+				if(game != null && game.getArenaId() == gameEvent.getArenaId()) {
+					mediaStreamer.subscribe(user, gameEvent.getArenaId());
+				}
+			}
+		}
+		
+		if(connection != null) {
+			// Snapshots may be dropped for slow clients, as the next snapshot
+			// is encoded against the last one the client acknowledged
+			connection.send(event, event instanceof GameSnapshotEvent);
+			return;
 		}
 		
-		synchronized(outputStream) {
+		if(outputStream == null) return;
+		try {
+			// Each frame is a standalone serialization stream, so modified
+			// objects are always written in full. Encoding happens outside
+			// the lock, so only the socket write is serialized.
+			byte frame[] = MessageFrame.encode(event);
+			outputLock.lock();
 			try {
-				outputStream.writeObject(event);
-				
-				// Must be called to ensure writing a modified object
-				// does not just send a reference to the previously written object
-				// (which would not have any modified values)
-				outputStream.reset(); 
-			} catch (IOException e) {
-				e.printStackTrace();
+				outputStream.write(frame);
+				outputStream.flush();
+			} finally {
+				outputLock.unlock();
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 	
@@ -228,17 +344,56 @@ public class UserProxy implements Runnable, ServerLobbyListener {
 		controller = null;
 	}
 	
+	/**
+	 * Records the game the user is playing or spectating.
+	 * @param game	The game the user has joined
+	 */
+	synchronized void setCurrentGame(GameController game) {
+		currentGame = game;
+	}
+	
+	/**
+	 * Clears the game the user is playing or spectating, unless the user
+	 * has since joined another game.
+	 * @param game	The game the user has left
+	 */
+	synchronized void clearCurrentGame(GameController game) {
+		if(currentGame == game) {
+			currentGame = null;
+		}
+	}
+	
+	/**
+	 * @return	The game the user is playing or spectating (null if none)
+	 */
+	public GameController getCurrentGame() {
+		return currentGame;
+	}
+	
 	/**
 	 * Terminates the connection with the User.
 	 */
-	private void terminateConnection() {
+	void terminateConnection() {
+		if(connection != null) {
+			if(connection.isClosed() && user == null) return;
+			log.info("Terminating connection.");
+			if(user != null) {
+				lobby.removeUserProxy(this);
+			}
+			user = null;
+			connection.closeWhenFlushed();
+			return;
+		}
+		
 		log.info("Terminating connection.");
 
-		lobby.removeUserProxy(this);
+		if(user != null) {
+			lobby.removeUserProxy(this);
+		}
 		user = null;
 		try {
-			outputStream.close();
-			inputStream.close();
+			if(outputStream != null) outputStream.close();
+			if(inputStream != null) inputStream.close();
 			userSocket.close();
 		} catch (IOException e) {
 			log.error("Could not close client socket.");
@@ -292,6 +447,20 @@ public class UserProxy implements Runnable, ServerLobbyListener {
 					cmd.getStringData());
 			break;
 			
+		case ClientCommand.SNAPSHOT_ACK:
+			// Game state snapshot received
+			if(cmd.getIntData() != null) {
+				processSnapshotAck(cmd.getIntData());
+			}
+			break;
+			
+		case ClientCommand.MEDIA_REPORT:
+			// Video reception report, adjust the quality of the media stream
+			if(cmd.getIntData() != null && mediaStreamer != null) {
+				mediaStreamer.reportReceptionQuality(user, cmd.getIntData());
+			}
+			break;
+			
 		default:
 			break;
 		}
@@ -380,6 +549,18 @@ public class UserProxy implements Runnable, ServerLobbyListener {
 		
 	}
 
+	/**
+	 * Passes a game state snapshot acknowledgement to the game the user is
+	 * playing or spectating.
+	 * @param sequence	The sequence number of the received snapshot
+	 */
+	public void processSnapshotAck(int sequence) {
+		GameController game = currentGame;
+		if(game != null) {
+			game.acknowledgeSnapshot(this, sequence);
+		}
+	}
+
 	@Override
 	/** @see ServerLobbyListener#userStateChanged(LobbyUserEvent) */
 	public void userStateChanged(LobbyUserEvent event) {
@@ -0,0 +1,90 @@
+package robowars.server.controller;
+
+/**
+ * The quality tiers a video stream can be served at. Lower tiers trade
+ * resolution, JPEG quality and frame rate for a smaller bitrate, so that
+ * clients on poor links still receive complete frames.
+ * 
+ * @author Alexander Craig
+ */
+public enum VideoQuality {
+	HIGH, MEDIUM, LOW;
+	
+	/**
+	 * @return	The width of frames sent at this quality (in pixels)
+	 */
+	public int getWidth() {
+		switch(this) {
+		case LOW:
+			return MediaStreamer.VIDEO_WIDTH / 2;
+		default:
+			return MediaStreamer.VIDEO_WIDTH;
+		}
+	}
+	
+	/**
+	 * @return	The height of frames sent at this quality (in pixels)
+	 */
+	public int getHeight() {
+		switch(this) {
+		case LOW:
+			return MediaStreamer.VIDEO_HEIGHT / 2;
+		default:
+			return MediaStreamer.VIDEO_HEIGHT;
+		}
+	}
+	
+	/**
+	 * @return	The JPEG compression quality (0 to 1) used at this quality
+	 */
+	public float getJpegQuality() {
+		switch(this) {
+		case HIGH:
+			return 0.75f;
+		case MEDIUM:
+			return 0.5f;
+		case LOW:
+		default:
+			return 0.3f;
+		}
+	}
+	
+	/**
+	 * @return	The minimum interval between frames sent at this quality (in ms)
+	 */
+	public long getFrameInterval() {
+		switch(this) {
+		case HIGH:
+			return MediaStreamer.IMAGE_WRITE_INTERVAL;
+		case MEDIUM:
+			return MediaStreamer.IMAGE_WRITE_INTERVAL * 2;
+		case LOW:
+		default:
+			return MediaStreamer.IMAGE_WRITE_INTERVAL * 3;
+		}
+	}
+	
+	/**
+	 * @return	The next lower quality tier (or this tier if it is the lowest)
+	 */
+	public VideoQuality lower() {
+		switch(this) {
+		case HIGH:
+			return MEDIUM;
+		default:
+			return LOW;
+		}
+	}
+	
+	/**
+	 * @return	The next higher quality tier (or this tier if it is the highest)
+	 */
+	public VideoQuality higher() {
+		switch(this) {
+		case LOW:
+			return MEDIUM;
+		default:
+			return HIGH;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package robowars.server.controller;
+
+import com.lti.civil.CaptureDeviceInfo;
+import com.lti.civil.CaptureException;
+import com.lti.civil.CaptureStream;
+
+/**
+ * A source of video frames that can be streamed in place of a camera (such as
+ * a USB webcam, a replayed image sequence, or a generated test pattern).
+ * Sources open LTI-Civil capture streams, so that their frames are passed
+ * through the same encoding and sending pipeline as those of a camera.
+ * 
+ * The device ID of a source must be unique, and identifies the source across
+ * device list updates.
+ * 
+ * @author Alexander Craig
+ */
+public interface VideoSource extends CaptureDeviceInfo {
+	/**
+	 * Opens a new capture stream reading frames from this source.
+	 * @return	A stopped capture stream, which must be disposed once finished
+	 * @throws CaptureException	If the source could not be opened
+	 */
+	public CaptureStream openStream() throws CaptureException;
+}
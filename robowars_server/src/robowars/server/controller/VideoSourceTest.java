@@ -0,0 +1,167 @@
+package robowars.server.controller;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lti.civil.CaptureException;
+import com.lti.civil.CaptureObserver;
+import com.lti.civil.CaptureStream;
+import com.lti.civil.Image;
+import com.lti.civil.VideoFormat;
+
+/**
+ * Unit tests for the VideoSource implementations.
+ *
+ * @author Alexander Craig
+ */
+public class VideoSourceTest {
+	File imageDir;
+
+	@Before
+	public void setUp() throws Exception {
+		imageDir = File.createTempFile("videosource", "");
+		imageDir.delete();
+		imageDir.mkdir();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for(File f : imageDir.listFiles()) {
+			f.delete();
+		}
+		imageDir.delete();
+	}
+
+	/**
+	 * Captures frames from a stream until the passed number have been received.
+	 */
+	private List<byte[]> capture(CaptureStream stream, int count) throws Exception {
+		FrameRecorder recorder = new FrameRecorder(count);
+		stream.setObserver(recorder);
+		stream.start();
+		synchronized(recorder) {
+			long deadline = System.currentTimeMillis() + 5000;
+			while(recorder.frames.size() < count && System.currentTimeMillis() < deadline) {
+				recorder.wait(100);
+			}
+		}
+		stream.stop();
+		stream.dispose();
+		assertEquals(count, recorder.frames.size());
+		return recorder.frames;
+	}
+
+	@Test
+	public void testTestPattern() throws Exception {
+		CaptureStream stream = new TestPatternSource(64, 48, 100).openStream();
+		assertEquals(1, stream.enumVideoFormats().size());
+		VideoFormat format = stream.getVideoFormat();
+		assertEquals(64, format.getWidth());
+		assertEquals(48, format.getHeight());
+		assertEquals(VideoFormat.RGB24, format.getFormatType());
+
+		// Consecutive frames of the pattern differ
+		List<byte[]> frames = capture(stream, 3);
+		assertEquals(64 * 48 * 3, frames.get(0).length);
+		assertFalse(Arrays.equals(frames.get(0), frames.get(1)));
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		CaptureStream stream = new TestPatternSource(16, 16, 0).openStream();
+		FrameRecorder recorder = new FrameRecorder(0);
+		stream.setObserver(recorder);
+		stream.start();
+		Thread.sleep(50);
+		stream.stop();
+		int count = recorder.count;
+		assertTrue(count > 0);
+		Thread.sleep(50);
+		assertEquals(count, recorder.count);
+	}
+
+	/** Writes a solid colour image to the test directory */
+	private void writeImage(String name, Color colour, int width, int height) throws Exception {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(colour);
+		g.fillRect(0, 0, width, height);
+		g.dispose();
+		ImageIO.write(image, "png", new File(imageDir, name));
+	}
+
+	@Test
+	public void testImageSequence() throws Exception {
+		// Images are replayed in name order, scaled to the frame size
+		writeImage("frame2.png", Color.BLUE, 20, 10);
+		writeImage("frame1.png", Color.RED, 4, 4);
+		new File(imageDir, "notes.txt").createNewFile();
+
+		ImageSequenceSource source = new ImageSequenceSource(imageDir, 8, 8, 0);
+		List<byte[]> frames = capture(source.openStream(), 3);
+		assertEquals(8 * 8 * 3, frames.get(0).length);
+		byte red[] = {0, 0, (byte)255};
+		byte blue[] = {(byte)255, 0, 0};
+		assertArrayEquals(red, Arrays.copyOfRange(frames.get(0), 0, 3));
+		assertArrayEquals(blue, Arrays.copyOfRange(frames.get(1), 0, 3));
+		assertArrayEquals(frames.get(0), frames.get(2));
+	}
+
+	@Test(expected = CaptureException.class)
+	public void testEmptyImageSequence() throws Exception {
+		new ImageSequenceSource(imageDir, 8, 8, 0).openStream();
+	}
+
+	@Test
+	public void testMediaStreamerSource() {
+		MediaStreamer media = new MediaStreamer(MediaStreamerTest.TEST_PORT);
+		TestPatternSource source = new TestPatternSource(32, 24, 10);
+		media.addVideoSource(source);
+		CameraController camera = media.getActiveCamera();
+		assertEquals(source.getDeviceID(), camera.getDeviceId());
+
+		// Added sources are kept across device detection
+		media.updateDeviceList();
+		assertTrue(media.getAvailableCameras().contains(camera));
+		assertSame(camera, media.getActiveCamera());
+	}
+
+	/**
+	 * Records copies of the first frames received.
+	 */
+	private static class FrameRecorder implements CaptureObserver {
+		final List<byte[]> frames = new ArrayList<byte[]>();
+		final int maxFrames;
+		volatile int count = 0;
+
+		FrameRecorder(int maxFrames) {
+			this.maxFrames = maxFrames;
+		}
+
+		public synchronized void onNewImage(CaptureStream stream, Image image) {
+			count++;
+			if(frames.size() < maxFrames) {
+				frames.add(image.getBytes().clone());
+				notifyAll();
+			}
+		}
+
+		public void onError(CaptureStream stream, CaptureException err) { }
+	}
+}
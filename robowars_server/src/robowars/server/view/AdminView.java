@@ -30,6 +30,7 @@ import lejos.robotics.Pose;
 import org.apache.log4j.Logger;
 
 import robowars.server.controller.BluetoothServer;
+import robowars.server.controller.GameController;
 import robowars.server.controller.LobbyChatEvent;
 import robowars.server.controller.LobbyGameEvent;
 import robowars.server.controller.LobbyRobotEvent;
@@ -243,8 +244,11 @@ public class AdminView extends JFrame implements GameListener, ServerLobbyListen
 		} else if (event.getEventType() == ServerLobbyEvent.EVENT_GAME_LAUNCH) {
 			// addLineToMainChat(event.toString());
 			ServerLobby source = (ServerLobby) event.getSource();
-			Admin2DGameView view = new Admin2DGameView(500, source.getCurrentGame().getGameModel());
-			source.getCurrentGame().getGameModel().addListener(view);
+			GameController game = source.getGame(event.getArenaId());
+			if(game != null) {
+				Admin2DGameView view = new Admin2DGameView(500, game.getGameModel());
+				game.getGameModel().addListener(view);
+			}
 		} else if (event.getEventType() == ServerLobbyEvent.EVENT_GAME_OVER) {
 			// addLineToMainChat(event.toString());
 		}
@@ -301,20 +305,21 @@ public class AdminView extends JFrame implements GameListener, ServerLobbyListen
 		}
 		
 		/**
-		 * If a robot in the list of connected robots is double clicked and no
-		 * game is currently in progress that admin is prompted to enter a new
+		 * If a robot in the list of connected robots is double clicked and the
+		 * robot is not part of a game in progress the admin is prompted to enter a new
 		 * position and heading for the robot.
 		 */
 		public void mouseClicked(MouseEvent e) {
 			if (e.getClickCount() == 2) {
-				if(lobby.gameInProgress()) {
+				int index = robotList.locationToIndex(e.getPoint());
+				String robotId = (String)robotList.getModel().getElementAt(index);
+				
+				if(lobby.getGame(lobby.getRobotProxy(robotId)) != null) {
 					// Ignore attempts to reset position when game is in progress
 					log.info("Attempted position reset during active game.");
 					return;
 				}
 				
-				int index = robotList.locationToIndex(e.getPoint());
-				String robotId = (String)robotList.getModel().getElementAt(index);
 				try {
 					float xPos = Float.parseFloat(JOptionPane.showInputDialog(AdminView.this, 
 							"Please enter new X position coordinate.",
@@ -0,0 +1,85 @@
+package robowars.shared.geom;
+
+/**
+ * The sine and cosine of a heading, recalculated only when the heading
+ * changes. Entities rarely turn on every tick, so keeping a Rotation per
+ * entity avoids repeating the trigonometry for every vertex and every
+ * movement update.
+ *
+ * Headings are in degrees, counter-clockwise from the positive x axis (the
+ * Posture convention).
+ */
+public class Rotation {
+	/** The heading the sine and cosine were calculated for (NaN if none) */
+	private float heading;
+
+	private float sin;
+	private float cos;
+
+	public Rotation() {
+		heading = Float.NaN;
+		sin = 0;
+		cos = 1;
+	}
+
+	public Rotation(float heading) {
+		this();
+		set(heading);
+	}
+
+	/**
+	 * Sets the heading, recalculating the sine and cosine if it changed.
+	 * @param heading	The heading (in degrees)
+	 * @return	True if the heading changed
+	 */
+	public boolean set(float heading) {
+		if(heading == this.heading) {
+			return false;
+		}
+		double radians = Math.toRadians(heading);
+		sin = (float)Math.sin(radians);
+		cos = (float)Math.cos(radians);
+		this.heading = heading;
+		return true;
+	}
+
+	/**
+	 * Forgets the current heading, so that the next call to set() always
+	 * reports a change.
+	 */
+	public void invalidate() {
+		heading = Float.NaN;
+	}
+
+	public float getHeading() {
+		return heading;
+	}
+
+	public float sin() {
+		return sin;
+	}
+
+	public float cos() {
+		return cos;
+	}
+
+	/** @return	The x coordinate of (x, y) rotated by the heading */
+	public float rotateX(float x, float y) {
+		return x * cos - y * sin;
+	}
+
+	/** @return	The y coordinate of (x, y) rotated by the heading */
+	public float rotateY(float x, float y) {
+		return x * sin + y * cos;
+	}
+
+	/** @return	The x coordinate of (x, y) rotated by the negative heading */
+	public float inverseX(float x, float y) {
+		return x * cos + y * sin;
+	}
+
+	/** @return	The y coordinate of (x, y) rotated by the negative heading */
+	public float inverseY(float x, float y) {
+		return y * cos - x * sin;
+	}
+}
@@ -0,0 +1,136 @@
+package robowars.shared.geom;
+
+import java.io.Serializable;
+
+/**
+ * A two dimensional vector (or point) with float coordinates.
+ *
+ * Vec2 is mutable by contract: the operations below modify the vector in
+ * place and return it, so that per-tick geometry can reuse the same objects
+ * rather than allocating new ones. A Vec2 that is shared (e.g. returned by a
+ * getter) must not be modified by anyone other than its owner; callers that
+ * need to keep or change the value should copy it into their own vector.
+ *
+ * This class is used by the Android client and so only depends on the core
+ * Java libraries.
+ */
+public class Vec2 implements Serializable {
+	private static final long serialVersionUID = -2894370561262618402L;
+
+	public float x;
+	public float y;
+
+	public Vec2() {
+		this(0, 0);
+	}
+
+	public Vec2(float x, float y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public Vec2 set(float x, float y) {
+		this.x = x;
+		this.y = y;
+		return this;
+	}
+
+	public Vec2 set(Vec2 v) {
+		x = v.x;
+		y = v.y;
+		return this;
+	}
+
+	public Vec2 add(float dx, float dy) {
+		x += dx;
+		y += dy;
+		return this;
+	}
+
+	/** Adds another vector multiplied by a scale factor */
+	public Vec2 addScaled(Vec2 v, float scale) {
+		x += v.x * scale;
+		y += v.y * scale;
+		return this;
+	}
+
+	public Vec2 scale(float factor) {
+		x *= factor;
+		y *= factor;
+		return this;
+	}
+
+	public float dot(Vec2 v) {
+		return x * v.x + y * v.y;
+	}
+
+	public float length() {
+		return (float)Math.sqrt(x * x + y * y);
+	}
+
+	public float lengthSquared() {
+		return x * x + y * y;
+	}
+
+	/** @return	The distance from this point to (px, py) */
+	public float distance(float px, float py) {
+		return (float)Math.sqrt(distanceSquared(px, py));
+	}
+
+	/** @return	The squared distance from this point to (px, py) */
+	public float distanceSquared(float px, float py) {
+		float dx = px - x;
+		float dy = py - y;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * @return	The angle (in degrees, counter-clockwise from the positive x
+	 * 			axis) of the direction from this point to (px, py)
+	 */
+	public float angleTo(float px, float py) {
+		return (float)Math.toDegrees(Math.atan2(py - y, px - x));
+	}
+
+	/**
+	 * Scales the vector to a length of 1. Vectors of length 0 are unchanged.
+	 */
+	public Vec2 normalize() {
+		float length = length();
+		if(length > 0) {
+			x /= length;
+			y /= length;
+		}
+		return this;
+	}
+
+	/**
+	 * Rotates the vector about the origin.
+	 * @param rotation	The rotation to apply (counter-clockwise)
+	 */
+	public Vec2 rotate(Rotation rotation) {
+		float rx = rotation.rotateX(x, y);
+		y = rotation.rotateY(x, y);
+		x = rx;
+		return this;
+	}
+
+	/**
+	 * Rotates the vector about the origin. Rotation.rotate() should be
+	 * preferred when the same angle is applied repeatedly.
+	 * @param degrees	The angle to rotate through (counter-clockwise)
+	 */
+	public Vec2 rotate(float degrees) {
+		double radians = Math.toRadians(degrees);
+		float sin = (float)Math.sin(radians);
+		float cos = (float)Math.cos(radians);
+		float rx = x * cos - y * sin;
+		y = x * sin + y * cos;
+		x = rx;
+		return this;
+	}
+
+	public String toString() {
+		return "(" + x + "," + y + ")";
+	}
+}
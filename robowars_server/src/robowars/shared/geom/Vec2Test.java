@@ -0,0 +1,75 @@
+package robowars.shared.geom;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import robowars.shared.model.Posture;
+import robowars.shared.model.Vector;
+
+/**
+ * Unit tests for Vec2 and Rotation
+ */
+public class Vec2Test {
+
+	@Test
+	public void testArithmetic() {
+		Vec2 v = new Vec2(3, 4);
+		assertEquals(5f, v.length(), 0);
+		assertEquals(25f, v.lengthSquared(), 0);
+		assertEquals(11f, v.dot(new Vec2(1, 2)), 0);
+		assertEquals(5f, new Vec2().distance(3, -4), 0);
+
+		assertSame(v, v.add(1, -1).addScaled(new Vec2(2, 1), 0.5f));
+		assertEquals(5f, v.x, 0);
+		assertEquals(3.5f, v.y, 0);
+
+		v.set(0, 2).normalize();
+		assertEquals(1f, v.y, 0);
+		v.set(0, 0).normalize();
+		assertEquals(0f, v.x, 0);
+		assertEquals(0f, v.y, 0);
+
+		assertEquals(90f, new Vec2(1, 1).angleTo(1, 5), 0.0001);
+	}
+
+	@Test
+	public void testRotation() {
+		Rotation r = new Rotation();
+		assertTrue(r.set(90));
+		assertFalse(r.set(90));
+		assertEquals(90f, r.getHeading(), 0);
+
+		Vec2 v = new Vec2(2, 0).rotate(r);
+		assertEquals(0f, v.x, 0.0001);
+		assertEquals(2f, v.y, 0.0001);
+		assertEquals(2f, r.inverseX(v.x, v.y), 0.0001);
+		assertEquals(0f, r.inverseY(v.x, v.y), 0.0001);
+
+		v.rotate(-45);
+		assertEquals(Math.sqrt(2), v.x, 0.0001);
+		assertEquals(Math.sqrt(2), v.y, 0.0001);
+
+		r.invalidate();
+		assertTrue(r.set(90));
+	}
+
+	@Test
+	public void testPosture() {
+		Posture p = new Posture(1, 1, 0);
+		p.moveUpdate(2);
+		assertEquals(3f, p.getX(), 0.0001);
+		p.setHeading(90);
+		p.moveUpdate(2);
+		assertEquals(3f, p.getX(), 0.0001);
+		assertEquals(3f, p.getY(), 0.0001);
+
+		Vector target = new Vector(6, 7);
+		assertEquals(5f, p.distanceTo(target), 0.0001);
+		assertEquals(Math.toDegrees(Math.atan2(4, 3)), p.angleTo(target), 0.0001);
+
+		Vector direction = Vector.createUnitVector(p);
+		assertEquals(0f, direction.getX(), 0.0001);
+		assertEquals(1f, direction.getY(), 0.0001);
+	}
+}
@@ -0,0 +1,230 @@
+package robowars.shared.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uniform grid used as a broad phase for collision detection between
+ * GameEntities. The area covered by the grid is divided into square cells,
+ * and each entity is registered in every cell overlapped by its axis aligned
+ * bounding box. Only entities sharing a cell and with overlapping bounding
+ * boxes are returned as collision candidates, so the (more expensive)
+ * polygon test in GameEntity.checkCollision() is only run on nearby pairs.
+ *
+ * Entities registered with a grid notify it whenever their bounding box
+ * changes (see GameEntity.setPosture()), so the grid is kept up to date
+ * incrementally. Entities outside the covered area are clamped into the
+ * border cells.
+ */
+public class EntityGrid {
+	/** The default width and height of a grid cell */
+	public static final float DEFAULT_CELL_SIZE = 20;
+
+	/** The x and y coordinates of the corner of the first grid cell */
+	private final float originX, originY;
+
+	/** The width and height of a grid cell */
+	private final float cellSize;
+
+	/** The number of columns and rows of cells */
+	private final int cols, rows;
+
+	/** The entities registered in each cell (indexed by row * cols + col) */
+	private final ArrayList<ArrayList<GameEntity>> cells;
+
+	/** The number of entities registered with the grid */
+	private int size;
+
+	/**
+	 * Incremented for each query, used to avoid returning an entity
+	 * registered in several cells more than once.
+	 */
+	private int queryStamp;
+
+	/**
+	 * Generates a new, empty grid covering the specified area.
+	 * @param minX	The smallest x coordinate covered by the grid
+	 * @param minY	The smallest y coordinate covered by the grid
+	 * @param maxX	The largest x coordinate covered by the grid
+	 * @param maxY	The largest y coordinate covered by the grid
+	 * @param cellSize	The width and height of a grid cell
+	 */
+	public EntityGrid(float minX, float minY, float maxX, float maxY, float cellSize) {
+		this.originX = minX;
+		this.originY = minY;
+		this.cellSize = cellSize;
+		this.cols = Math.max(1, (int)Math.ceil((maxX - minX) / cellSize));
+		this.rows = Math.max(1, (int)Math.ceil((maxY - minY) / cellSize));
+		cells = new ArrayList<ArrayList<GameEntity>>(cols * rows);
+		for(int i = 0; i < cols * rows; i++) {
+			cells.add(new ArrayList<GameEntity>());
+		}
+		size = 0;
+		queryStamp = 0;
+	}
+
+	/**
+	 * Registers an entity with the grid. Has no effect if the entity is
+	 * already registered with this grid.
+	 * @param e	The entity to add
+	 */
+	public void add(GameEntity e) {
+		if(e == null || e.grid == this) return;
+		if(e.grid != null) {
+			e.grid.remove(e);
+		}
+
+		e.grid = this;
+		e.cellMinX = column(e.getMinX());
+		e.cellMaxX = column(e.getMaxX());
+		e.cellMinY = row(e.getMinY());
+		e.cellMaxY = row(e.getMaxY());
+		insert(e);
+		size++;
+	}
+
+	/**
+	 * Removes an entity from the grid. Has no effect if the entity is not
+	 * registered with this grid.
+	 * @param e	The entity to remove
+	 */
+	public void remove(GameEntity e) {
+		if(e == null || e.grid != this) return;
+
+		erase(e);
+		e.grid = null;
+		size--;
+	}
+
+	/**
+	 * Moves an entity to the cells overlapped by its current bounding box.
+	 * This is called by GameEntity whenever its bounding box changes.
+	 * @param e	The entity that moved
+	 */
+	public void update(GameEntity e) {
+		if(e.grid != this) return;
+
+		int minCol = column(e.getMinX());
+		int maxCol = column(e.getMaxX());
+		int minRow = row(e.getMinY());
+		int maxRow = row(e.getMaxY());
+		if(minCol == e.cellMinX && maxCol == e.cellMaxX
+				&& minRow == e.cellMinY && maxRow == e.cellMaxY) {
+			return; // Still within the same cells
+		}
+
+		erase(e);
+		e.cellMinX = minCol;
+		e.cellMaxX = maxCol;
+		e.cellMinY = minRow;
+		e.cellMaxY = maxRow;
+		insert(e);
+	}
+
+	/**
+	 * Finds all registered entities whose bounding box overlaps the bounding
+	 * box of the passed entity. The passed entity is never included in the results.
+	 * @param e	The entity to find collision candidates for
+	 * @param candidates	The list to add candidates to (cleared before use)
+	 */
+	public void query(GameEntity e, List<GameEntity> candidates) {
+		query(e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY(), e, candidates);
+	}
+
+	/**
+	 * Finds all registered entities whose bounding box overlaps an area (such
+	 * as the area swept by a moving entity).
+	 * @param minX	The smallest x coordinate of the area
+	 * @param minY	The smallest y coordinate of the area
+	 * @param maxX	The largest x coordinate of the area
+	 * @param maxY	The largest y coordinate of the area
+	 * @param exclude	An entity never included in the results (may be null)
+	 * @param candidates	The list to add candidates to (cleared before use)
+	 */
+	public void query(float minX, float minY, float maxX, float maxY,
+			GameEntity exclude, List<GameEntity> candidates) {
+		candidates.clear();
+		queryStamp++;
+
+		int minCol = column(minX);
+		int maxCol = column(maxX);
+		int minRow = row(minY);
+		int maxRow = row(maxY);
+		for(int r = minRow; r <= maxRow; r++) {
+			for(int c = minCol; c <= maxCol; c++) {
+				ArrayList<GameEntity> cell = cells.get(r * cols + c);
+				for(int i = 0; i < cell.size(); i++) {
+					GameEntity other = cell.get(i);
+					if(other != exclude && other.queryStamp != queryStamp) {
+						other.queryStamp = queryStamp;
+						if(minX <= other.getMaxX() && other.getMinX() <= maxX
+								&& minY <= other.getMaxY() && other.getMinY() <= maxY) {
+							candidates.add(other);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all entities from the grid.
+	 */
+	public void clear() {
+		for(ArrayList<GameEntity> cell : cells) {
+			for(GameEntity e : cell) {
+				e.grid = null;
+			}
+			cell.clear();
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return	The number of entities registered with the grid
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return	The width and height of a grid cell
+	 */
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/** Adds an entity to all cells in its stored cell range */
+	private void insert(GameEntity e) {
+		for(int r = e.cellMinY; r <= e.cellMaxY; r++) {
+			for(int c = e.cellMinX; c <= e.cellMaxX; c++) {
+				cells.get(r * cols + c).add(e);
+			}
+		}
+	}
+
+	/** Removes an entity from all cells in its stored cell range */
+	private void erase(GameEntity e) {
+		for(int r = e.cellMinY; r <= e.cellMaxY; r++) {
+			for(int c = e.cellMinX; c <= e.cellMaxX; c++) {
+				cells.get(r * cols + c).remove(e);
+			}
+		}
+	}
+
+	/** @return	The column containing an x coordinate (clamped to the grid) */
+	private int column(float x) {
+		int c = (int)Math.floor((x - originX) / cellSize);
+		if(c < 0) return 0;
+		if(c >= cols) return cols - 1;
+		return c;
+	}
+
+	/** @return	The row containing a y coordinate (clamped to the grid) */
+	private int row(float y) {
+		int r = (int)Math.floor((y - originY) / cellSize);
+		if(r < 0) return 0;
+		if(r >= rows) return rows - 1;
+		return r;
+	}
+}
@@ -0,0 +1,94 @@
+package robowars.shared.model;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for EntityGrid
+ */
+public class EntityGridTest {
+
+	private EntityGrid testGrid;
+	private ArrayList<GameEntity> candidates;
+
+	@Before
+	public void setUp() throws Exception {
+		testGrid = new EntityGrid(0, 0, 100, 100, 10);
+		candidates = new ArrayList<GameEntity>();
+	}
+
+	/** @return	A 4x4 square obstacle centred on the given position */
+	private Obstacle square(float x, float y, int id) {
+		return new Obstacle(new Posture(x, y, 0), new Vector[] {new Vector(-2,-2),
+				new Vector(-2,2), new Vector(2,2), new Vector(2,-2)}, id);
+	}
+
+	@Test
+	public void testQuery() {
+		Obstacle a = square(10, 10, 1);
+		Obstacle b = square(13, 13, 2);
+		Obstacle c = square(80, 80, 3);
+		testGrid.add(a);
+		testGrid.add(b);
+		testGrid.add(c);
+		assertEquals(3, testGrid.size());
+
+		// Each candidate is only reported once, even when spanning several cells
+		testGrid.query(a, candidates);
+		assertEquals(1, candidates.size());
+		assertSame(b, candidates.get(0));
+
+		testGrid.query(c, candidates);
+		assertTrue(candidates.isEmpty());
+	}
+
+	@Test
+	public void testIncrementalUpdate() {
+		Obstacle a = square(10, 10, 1);
+		Obstacle b = square(80, 80, 2);
+		testGrid.add(a);
+		testGrid.add(b);
+
+		// Moving an entity re-registers it in its new cells
+		b.setPosture(new Posture(12, 12, 0));
+		testGrid.query(a, candidates);
+		assertEquals(1, candidates.size());
+
+		a.setPosture(new Posture(50, 50, 0));
+		testGrid.query(b, candidates);
+		assertTrue(candidates.isEmpty());
+	}
+
+	@Test
+	public void testRemove() {
+		Obstacle a = square(10, 10, 1);
+		Obstacle b = square(12, 12, 2);
+		testGrid.add(a);
+		testGrid.add(b);
+		testGrid.remove(b);
+		assertEquals(1, testGrid.size());
+
+		testGrid.query(a, candidates);
+		assertTrue(candidates.isEmpty());
+
+		// Moving a removed entity must not re-register it
+		b.setPosture(new Posture(10, 10, 0));
+		testGrid.query(a, candidates);
+		assertTrue(candidates.isEmpty());
+	}
+
+	@Test
+	public void testOutsideGrid() {
+		Obstacle a = square(-30, 50, 1);
+		Obstacle b = square(-31, 51, 2);
+		testGrid.add(a);
+		testGrid.add(b);
+
+		testGrid.query(a, candidates);
+		assertEquals(1, candidates.size());
+	}
+}
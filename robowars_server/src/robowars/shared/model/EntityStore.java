@@ -0,0 +1,216 @@
+package robowars.shared.model;
+
+import java.util.HashMap;
+
+/**
+ * Holds the entities of a game, each under a stable integer handle. The
+ * posture of every entity is mirrored into parallel float arrays indexed by
+ * handle, so per-tick passes over all entities (such as snapshot capture)
+ * read contiguous arrays rather than following references into each entity.
+ * Bounding boxes are not mirrored, as the broad phase (EntityGrid) and
+ * collision tests already read them from the entities they visit.
+ * Robots added with addRobot() are also indexed by their identifier, so
+ * they can be found without scanning every robot.
+ *
+ * Handles stay the same for as long as an entity is in the store. The
+ * handles of removed entities are reused by entities added later, so handles
+ * are only dense up to getHandleLimit(), and getEntity() returns null for
+ * free handles.
+ *
+ * Entities registered with a store notify it whenever their posture changes
+ * (see GameEntity.setPosture()).
+ */
+public class EntityStore {
+	/** The initial number of handles allocated */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/** The entity under each handle (null for free handles) */
+	private GameEntity entities[];
+
+	/** Posture of the entity under each handle */
+	private float x[], y[], heading[];
+
+	/** Handles freed by removed entities, used before new handles */
+	private int freeHandles[];
+	private int freeCount;
+
+	/** One more than the highest handle ever assigned */
+	private int handleLimit;
+
+	/** The number of entities in the store */
+	private int size;
+
+	/** Robots in the store, by robot identifier */
+	private final HashMap<String, GameRobot> robots;
+
+	/**
+	 * Generates a new, empty store.
+	 */
+	public EntityStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Generates a new, empty store.
+	 * @param capacity	The number of handles to allocate initially
+	 */
+	public EntityStore(int capacity) {
+		allocate(Math.max(1, capacity));
+		freeCount = 0;
+		handleLimit = 0;
+		size = 0;
+		robots = new HashMap<String, GameRobot>();
+	}
+
+	/**
+	 * Adds an entity to the store. Has no effect if the entity is already in
+	 * this store.
+	 * @param e	The entity to add
+	 * @return	The handle of the entity
+	 */
+	public int add(GameEntity e) {
+		if(e.store == this) return e.handle;
+		if(e.store != null) {
+			e.store.remove(e);
+		}
+
+		int handle;
+		if(freeCount > 0) {
+			handle = freeHandles[--freeCount];
+		} else {
+			if(handleLimit == entities.length) {
+				allocate(entities.length * 2);
+			}
+			handle = handleLimit++;
+		}
+		entities[handle] = e;
+		e.store = this;
+		e.handle = handle;
+		size++;
+		update(e);
+		return handle;
+	}
+
+	/**
+	 * Adds a robot to the store (if it is not already in the store), and
+	 * allows it to be found by its identifier.
+	 * @param robot	The robot to add
+	 * @return	The handle of the robot
+	 */
+	public int addRobot(GameRobot robot) {
+		int handle = add(robot);
+		if(robot.getRobotId() != null) {
+			robots.put(robot.getRobotId(), robot);
+		}
+		return handle;
+	}
+
+	/**
+	 * Removes an entity from the store, freeing its handle. Has no effect if
+	 * the entity is not in this store.
+	 * @param e	The entity to remove
+	 */
+	public void remove(GameEntity e) {
+		if(e == null || e.store != this) return;
+		entities[e.handle] = null;
+		freeHandles[freeCount++] = e.handle;
+		size--;
+		if(e instanceof GameRobot && robots.get(((GameRobot)e).getRobotId()) == e) {
+			robots.remove(((GameRobot)e).getRobotId());
+		}
+		e.store = null;
+		e.handle = -1;
+	}
+
+	/**
+	 * Stops a robot from being found by its identifier. The robot remains in
+	 * the store as an entity.
+	 * @param identifier	The identifier of the robot
+	 */
+	public void removeRobot(String identifier) {
+		robots.remove(identifier);
+	}
+
+	/**
+	 * Copies the current posture of an entity into the store's arrays.
+	 * Called by entities whenever their posture changes.
+	 * @param e	The entity that changed
+	 */
+	void update(GameEntity e) {
+		int h = e.handle;
+		Posture p = e.getPosture();
+		if(p != null) {
+			x[h] = p.getX();
+			y[h] = p.getY();
+			heading[h] = p.getHeading();
+		}
+	}
+
+	/**
+	 * @param identifier	The identifier of a robot
+	 * @return	The robot with the identifier, or null if there is none
+	 */
+	public GameRobot getRobot(String identifier) {
+		if(identifier == null) return null;
+		return robots.get(identifier);
+	}
+
+	/**
+	 * @param handle	A handle less than getHandleLimit()
+	 * @return	The entity under the handle, or null if the handle is free
+	 */
+	public GameEntity getEntity(int handle) {
+		return entities[handle];
+	}
+
+	/**
+	 * @return	One more than the highest handle in use, the bound for loops
+	 * 			over all handles
+	 */
+	public int getHandleLimit() {
+		return handleLimit;
+	}
+
+	/**
+	 * @return	The number of entities in the store
+	 */
+	public int size() {
+		return size;
+	}
+
+	public float getX(int handle) {return x[handle];}
+	public float getY(int handle) {return y[handle];}
+	public float getHeading(int handle) {return heading[handle];}
+
+	/**
+	 * Grows (or initially allocates) the arrays indexed by handle.
+	 * @param capacity	The number of handles to allocate
+	 */
+	private void allocate(int capacity) {
+		entities = grow(entities, capacity);
+		x = grow(x, capacity);
+		y = grow(y, capacity);
+		heading = grow(heading, capacity);
+		int free[] = new int[capacity];
+		if(freeHandles != null) {
+			System.arraycopy(freeHandles, 0, free, 0, freeCount);
+		}
+		freeHandles = free;
+	}
+
+	private static float[] grow(float array[], int capacity) {
+		float grown[] = new float[capacity];
+		if(array != null) {
+			System.arraycopy(array, 0, grown, 0, array.length);
+		}
+		return grown;
+	}
+
+	private static GameEntity[] grow(GameEntity array[], int capacity) {
+		GameEntity grown[] = new GameEntity[capacity];
+		if(array != null) {
+			System.arraycopy(array, 0, grown, 0, array.length);
+		}
+		return grown;
+	}
+}
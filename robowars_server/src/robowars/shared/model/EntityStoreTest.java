@@ -0,0 +1,87 @@
+package robowars.shared.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for EntityStore, and its use by GameModel
+ */
+public class EntityStoreTest {
+	private static final float DELTA = 0.0001f;
+
+	@Test
+	public void testHandles() {
+		EntityStore store = new EntityStore(2);
+		Projectile a = new Projectile(new Posture(10, 10, 0), 1, 1);
+		Projectile b = new Projectile(new Posture(20, 20, 0), 1, 2);
+		Projectile c = new Projectile(new Posture(30, 30, 0), 1, 3);
+
+		assertEquals(0, store.add(a));
+		assertEquals(1, store.add(b));
+		assertEquals(1, store.add(b));
+		assertEquals(2, store.add(c));
+		assertEquals(3, store.size());
+		assertSame(c, store.getEntity(2));
+
+		// Removing an entity leaves the other handles unchanged, and frees
+		// its handle for the next entity added
+		store.remove(b);
+		assertEquals(2, store.size());
+		assertNull(store.getEntity(1));
+		assertSame(c, store.getEntity(2));
+		assertEquals(3, store.getHandleLimit());
+
+		Projectile d = new Projectile(new Posture(40, 40, 0), 1, 4);
+		assertEquals(1, store.add(d));
+		assertEquals(3, store.getHandleLimit());
+		assertEquals(40, store.getX(1), DELTA);
+	}
+
+	@Test
+	public void testUpdates() {
+		EntityStore store = new EntityStore();
+		Projectile p = new Projectile(new Posture(10, 20, 90), 5, 1);
+		int h = store.add(p);
+		assertEquals(10, store.getX(h), DELTA);
+		assertEquals(20, store.getY(h), DELTA);
+		assertEquals(90, store.getHeading(h), DELTA);
+
+		// Moving the entity updates the store's arrays
+		p.updatePosition(50);
+		assertEquals(25, store.getY(h), DELTA);
+		p.setPosture(new Posture(50, 60, 180));
+		assertEquals(50, store.getX(h), DELTA);
+		assertEquals(180, store.getHeading(h), DELTA);
+	}
+
+	@Test
+	public void testRobots() {
+		GameModel model = GameModel.generateGameModel(GameType.FREETEST);
+		GameRobot robot1 = new GameRobot("robot1", new Posture(20, 20, 0), 1);
+		GameRobot robot2 = new GameRobot("robot2", new Posture(100, 100, 180), 2);
+		model.addRobot(robot1);
+		model.addRobot(robot2);
+
+		// Identifiers are compared by value
+		assertSame(robot1, model.getGameRobot(new String("robot1")));
+		assertSame(robot2, model.getGameRobot("robot2"));
+		assertNull(model.getGameRobot("robot3"));
+		assertNull(model.getGameRobot(null));
+		assertEquals(model.getEntities().size(), model.getStore().size());
+
+		assertTrue(model.updateRobotPosition(new String("robot2"), new Posture(10, 30, 0)));
+		assertEquals(robot2.getPosture().getX(), model.getStore().getX(robot2.handle), DELTA);
+		assertEquals(10, model.getStore().getX(robot2.handle), DELTA);
+
+		model.removeRobot("robot1");
+		assertNull(model.getGameRobot("robot1"));
+		assertFalse(model.updateRobotPosition("robot1", new Posture(0, 0, 0)));
+
+		// The store is rebuilt from the entity and robot lists
+		model.store = null;
+		assertSame(robot2, model.getGameRobot("robot2"));
+		assertNull(model.getGameRobot("robot1"));
+		assertEquals(model.getEntities().size(), model.getStore().size());
+	}
+}
@@ -1,8 +1,12 @@
 package robowars.shared.model;
 
+import java.util.ArrayList;
 
 public class FreeTest extends GameModel{
 	
+	/** Scratch list used to hold collision candidates from the entity grid */
+	private transient ArrayList<GameEntity> candidates;
+	
 	public FreeTest() {
 		super.gameType = GameType.FREETEST;
 		super.initVariables();
@@ -11,8 +15,13 @@ public class FreeTest extends GameModel{
 	}
 	
 	public void updateGameState(long timeElapsed){	
+		if(candidates == null){
+			candidates = new ArrayList<GameEntity>();
+		}
+		
 		for(GameRobot r : robots){
-			for(GameEntity e : entities){
+			findCollisionCandidates(r, candidates);
+			for(GameEntity e : candidates){
 				if(!r.equals(e)){
 					if(r.checkCollision(e)){
 						notifyListeners(GameEvent.COLLISION_DETECTED);
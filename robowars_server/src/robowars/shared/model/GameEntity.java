@@ -1,7 +1,11 @@
 package robowars.shared.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
+import robowars.shared.geom.Rotation;
+
 /**
 *
 * @author Alex Dinardo
@@ -16,6 +20,46 @@ public abstract class GameEntity implements Serializable{
 	protected Vector edges[];
 	protected int id;
 	
+	/** Axis aligned bounding box of the entity's vertices */
+	protected float minX, minY, maxX, maxY;
+	
+	/** The broad phase grid this entity is registered with (if any) */
+	transient EntityGrid grid;
+	
+	/** The range of grid cells this entity is registered in */
+	transient int cellMinX, cellMinY, cellMaxX, cellMaxY;
+	
+	/** The last grid query this entity was returned by */
+	transient int queryStamp;
+	
+	/** The entity store this entity is held in (if any), and its handle there */
+	transient EntityStore store;
+	transient int handle = -1;
+	
+	/** The index of this entity in its game model's entity list (if any) */
+	transient int listIndex = -1;
+	
+	/**
+	 * Vertex coordinates relative to the posture of the entity, before
+	 * rotation by its heading
+	 */
+	private transient float localX[], localY[];
+	
+	/** World coordinates of the vertices (the same values as vertices[]) */
+	private transient float worldX[], worldY[];
+	
+	/** Unit normals of each edge, used as the separating axes */
+	private transient float normalX[], normalY[];
+	
+	/** The heading that the cached edges were calculated for, with its sine and cosine */
+	private transient Rotation rotation;
+	
+	/** Identifies the entity in state snapshots (0 until first captured) */
+	transient int netId;
+	
+	/** The local shape in snapshot format (x/y pairs), null until requested */
+	private transient float shapeData[];
+	
 
 	public GameEntity(Posture posture, Vector vertices[], int id){
 		this.id=id;
@@ -29,56 +73,127 @@ public abstract class GameEntity implements Serializable{
 	//Perhaps a shape with one vertex to represent radius?
 	public boolean checkCollision(GameEntity target){
 		//System.out.print("Checking collide... ");
-		Vector currentEdge;
-		for (int i = 0; i < edges.length + target.getEdges().length; i++){
-			if (i < edges.length) {
-	            currentEdge = edges[i];
-	        } else {
-	            currentEdge = target.getEdges()[i - edges.length];
-	        }
-			Vector perpAxis = new Vector(-currentEdge.getY(), currentEdge.getX());
-	        perpAxis.unitVector();
-	        
-	        Vector intervalA = new Vector(0,0);
-	        Vector intervalB = new Vector(0,0);
-	        projectToAxis(perpAxis, this.vertices,  intervalA);
-	        projectToAxis(perpAxis, target.getVertices(),  intervalB);
-	        if (intervalDistance(intervalA, intervalB) > 0){
-	        	//System.out.println("None.");
-	            return false;
-	        }
-
+		
+		// Polygons with separated bounding boxes can never intersect
+		if(!boundsOverlap(target)){
+			return false;
 		}
-		System.out.println("Collision between " + this.getId() + " and " + target.getId());
+		
+		if(hasSeparatingAxis(this, target) || hasSeparatingAxis(target, this)){
+			//System.out.println("None.");
+			return false;
+		}
+		//System.out.println("Collision between " + this.getId() + " and " + target.getId());
 		return true;
 	}
 	
+	/**
+	 * Continuous collision test for an entity that has just moved in a
+	 * straight line, so that fast entities cannot pass through thin ones
+	 * between updates. Every vertex of each entity is swept (relative to the
+	 * other) along the move and tested against the other's edges.
+	 * @param target	The entity to test against
+	 * @param dx	The x distance this entity moved to reach its current posture
+	 * @param dy	The y distance this entity moved to reach its current posture
+	 * @return	The fraction of the move (0 to 1) at which the entities first
+	 * 			touch, 0 if they overlap throughout, or -1 if they never touch
+	 */
+	public float sweepCollision(GameEntity target, float dx, float dy){
+		if(target.maxX < minX - Math.max(dx, 0) || maxX - Math.min(dx, 0) < target.minX
+				|| target.maxY < minY - Math.max(dy, 0) || maxY - Math.min(dy, 0) < target.minY){
+			return -1;
+		}
+		
+		float first = 2;
+		float ax[] = worldX, ay[] = worldY;
+		float bx[] = target.worldX, by[] = target.worldY;
+		
+		// This entity's vertices, moving from their start positions
+		for (int i = 0; i < ax.length; i++){
+			float t = sweepEdges(ax[i] - dx, ay[i] - dy, dx, dy, bx, by, 0, 0);
+			if(t >= 0 && t < first) first = t;
+		}
+		
+		// The target's vertices, moving relative to this entity's start edges
+		for (int i = 0; i < bx.length; i++){
+			float t = sweepEdges(bx[i], by[i], -dx, -dy, ax, ay, -dx, -dy);
+			if(t >= 0 && t < first) first = t;
+		}
+		
+		if(first <= 1){
+			return first;
+		}
+		
+		// No edges were crossed, so the entities either never touch or one
+		// contains the other for the whole move
+		return checkCollision(target) ? 0 : -1;
+	}
+	
+	/**
+	 * Finds where a moving point first crosses the edges of a polygon.
+	 * @param px	The x coordinate of the point's start position
+	 * @param py	The y coordinate of the point's start position
+	 * @param rx	The x distance the point moves
+	 * @param ry	The y distance the point moves
+	 * @param x	The x coordinates of the polygon's vertices
+	 * @param y	The y coordinates of the polygon's vertices
+	 * @param ox	Offset added to the x coordinates of the polygon
+	 * @param oy	Offset added to the y coordinates of the polygon
+	 * @return	The fraction of the move at the first crossing, or -1 if none
+	 */
+	private static float sweepEdges(float px, float py, float rx, float ry,
+			float x[], float y[], float ox, float oy){
+		float first = -1;
+		int n = x.length;
+		for (int i = 0; i < n; i++){
+			int next = (i + 1 >= n) ? 0 : i + 1;
+			float qx = x[i] + ox;
+			float qy = y[i] + oy;
+			float sx = x[next] - x[i];
+			float sy = y[next] - y[i];
+			
+			// Parallel (and degenerate) edges are covered by the other vertices
+			float denom = rx * sy - ry * sx;
+			if(denom == 0) continue;
+			float t = ((qx - px) * sy - (qy - py) * sx) / denom;
+			float u = ((qx - px) * ry - (qy - py) * rx) / denom;
+			if(t >= 0 && t <= 1 && u >= 0 && u <= 1 && (first < 0 || t < first)){
+				first = t;
+			}
+		}
+		return first;
+	}
+	
 	public void setPosture(Posture Posture){
-		float headingDiff = Posture.getHeading() - this.posture.getHeading();
-		float xDiff = Posture.getX() - this.posture.getX();
-		float yDiff = Posture.getY() - this.posture.getY();
-		System.out.println("Entity movement diffs: (" + xDiff + "," + yDiff + "," + headingDiff + ")");
 		this.posture = Posture;
-		for (Vector v : vertices){
-			v.setX(v.getX() + xDiff);
-			v.setY(v.getY() + yDiff);
-		}
-		compensateForRotation(vertices, headingDiff);
-		generateEdges();
+		transformVertices();
 	}
 	
+	/**
+	 * Sets the shape of the entity. The passed vertices are relative to the
+	 * posture of the entity (at a heading of 0), and are converted in place
+	 * to world coordinates.
+	 * @param vertices	The vertices of the entity's shape
+	 */
 	public void setVertices(Vector vertices[]){
 		this.vertices = vertices;
-		for (Vector v : this.vertices){
-			v.setX(v.getX() + posture.getX());
-			v.setY(v.getY() + posture.getY());
+		allocateShape();
+		for (int i = 0; i < vertices.length; i++){
+			localX[i] = vertices[i].getX();
+			localY[i] = vertices[i].getY();
 		}
-		compensateForRotation(this.vertices, posture.getHeading());
-		generateEdges();
+		shapeData = null;
+		transformVertices();
 	}
 	
+	/**
+	 * Replaces a single vertex of the entity.
+	 * @param index	The index of the vertex to replace
+	 * @param vector	The new vertex (in world coordinates)
+	 */
 	public void setVertex(int index, Vector vector){
 		vertices[index] = vector;
+		updateShape();
 	}
 	
 	public void getCoordArrays(int x[], int y[]){
@@ -106,58 +221,201 @@ public abstract class GameEntity implements Serializable{
 	
 	public int getId(){return id;}
 	
+	public float getMinX(){return minX;}
+	public float getMinY(){return minY;}
+	public float getMaxX(){return maxX;}
+	public float getMaxY(){return maxY;}
+	
+	/**
+	 * @param target	The entity to test against
+	 * @return	True if the bounding boxes of the two entities overlap or touch
+	 */
+	public boolean boundsOverlap(GameEntity target){
+		return minX <= target.maxX && target.minX <= maxX
+			&& minY <= target.maxY && target.minY <= maxY;
+	}
+	
+	/**
+	 * Rebuilds the cached shape of the entity from the world coordinates of
+	 * its vertices. Must be called whenever the vertices are modified
+	 * directly, rather than through setPosture() or setVertices().
+	 */
+	protected void updateShape(){
+		if(localX == null || localX.length != vertices.length){
+			allocateShape();
+		}
+		updateRotation();
+		float px = posture.getX();
+		float py = posture.getY();
+		for (int i = 0; i < vertices.length; i++){
+			float dx = vertices[i].getX() - px;
+			float dy = vertices[i].getY() - py;
+			localX[i] = rotation.inverseX(dx, dy);
+			localY[i] = rotation.inverseY(dx, dy);
+		}
+		rotation.invalidate();
+		shapeData = null;
+		transformVertices();
+	}
+	
+	/**
+	 * Recalculates the bounding box of the entity from its vertices, and
+	 * notifies the broad phase grid (if any) of the change.
+	 */
+	private void updateBounds(){
+		minX = maxX = worldX[0];
+		minY = maxY = worldY[0];
+		for (int i = 1; i < worldX.length; i++){
+			float x = worldX[i];
+			float y = worldY[i];
+			if(x < minX) minX = x;
+			if(x > maxX) maxX = x;
+			if(y < minY) minY = y;
+			if(y > maxY) maxY = y;
+		}
+		if(grid != null){
+			grid.update(this);
+		}
+		if(store != null){
+			store.update(this);
+		}
+	}
+	
 	public Vector[] getEdges(){return edges;}
 	
-	private Vector[] generateEdges(){
-		Vector p1;
-		Vector p2;
-		edges = new Vector[vertices.length];
-		for (int i = 0; i < vertices.length; i++) {
-			p1 = vertices[i];
-			if (i + 1 >= vertices.length) {
-				p2 = vertices[0];
-			} else {
-				p2 = vertices[i + 1];
+	/**
+	 * @return	The vertices of the entity relative to its posture (at a heading
+	 * 			of 0), as consecutive x/y pairs. The same array is returned
+	 * 			until the shape of the entity changes, and must not be modified.
+	 */
+	float[] getShapeData(){
+		if(shapeData == null){
+			shapeData = new float[localX.length * 2];
+			for (int i = 0; i < localX.length; i++){
+				shapeData[2 * i] = localX[i];
+				shapeData[2 * i + 1] = localY[i];
 			}
-			edges[i] = new Vector(p2.getX() - p1.getX(), p2.getY() - p1.getY());
 		}
-		return edges;
+		return shapeData;
 	}
 	
-	private void projectToAxis(Vector perpAxis, Vector[] vertices, Vector interval) {
-
-		float dotProduct = perpAxis.dotProduct(vertices[0]);
-		interval.setX(dotProduct);
-		interval.setY(dotProduct);
-		for (int i = 0; i < vertices.length; i++) {
-			dotProduct = vertices[i].dotProduct(perpAxis);
-			if (dotProduct < interval.getX()) {
-				interval.setX(dotProduct);
+	/**
+	 * Allocates the arrays holding the cached shape of the entity, sized to
+	 * match the current vertices.
+	 */
+	private void allocateShape(){
+		int n = vertices.length;
+		localX = new float[n];
+		localY = new float[n];
+		worldX = new float[n];
+		worldY = new float[n];
+		normalX = new float[n];
+		normalY = new float[n];
+		edges = new Vector[n];
+		for (int i = 0; i < n; i++){
+			edges[i] = new Vector(0,0);
+		}
+		if(rotation == null){
+			rotation = new Rotation();
+		}
+		rotation.invalidate();
+	}
+	
+	/**
+	 * Recalculates the sine and cosine of the heading, if it has changed.
+	 * @return	True if the heading changed since the last call
+	 */
+	private boolean updateRotation(){
+		return rotation.set(posture.getHeading());
+	}
+	
+	/**
+	 * Recalculates the world coordinates of the vertices from the local shape
+	 * and the current posture. The edges and their normals only change when
+	 * the entity rotates, so they are only recalculated if the heading changed.
+	 */
+	private void transformVertices(){
+		boolean rotated = updateRotation();
+		float px = posture.getX();
+		float py = posture.getY();
+		for (int i = 0; i < localX.length; i++){
+			float x = rotation.rotateX(localX[i], localY[i]) + px;
+			float y = rotation.rotateY(localX[i], localY[i]) + py;
+			worldX[i] = x;
+			worldY[i] = y;
+			vertices[i].set(x, y);
+		}
+		if(rotated){
+			generateEdges();
+		}
+		updateBounds();
+	}
+	
+	private void generateEdges(){
+		int n = worldX.length;
+		for (int i = 0; i < n; i++) {
+			int next = (i + 1 >= n) ? 0 : i + 1;
+			float ex = worldX[next] - worldX[i];
+			float ey = worldY[next] - worldY[i];
+			edges[i].set(ex, ey);
+			
+			// Degenerate edges get a zero normal, which never separates
+			float length = (float) Math.sqrt(ex * ex + ey * ey);
+			if(length > 0){
+				normalX[i] = -ey / length;
+				normalY[i] = ex / length;
 			} else {
-				if (dotProduct > interval.getY()) {
-					interval.setY(dotProduct);
-				}
+				normalX[i] = 0;
+				normalY[i] = 0;
 			}
 		}
 	}
 	
-	private float intervalDistance(Vector intervalA, Vector intervalB) {
-	    if (intervalA.getX() < intervalB.getX()) {
-	        return intervalB.getX() - intervalA.getY();
-	    } else {
-	        return intervalA.getX() - intervalB.getY();
-	    }
+	/**
+	 * Checks whether any of the edge normals of one entity separate the
+	 * projections of two entities (separating axis theorem).
+	 * @param a	The entity whose edge normals are tested
+	 * @param b	The other entity
+	 * @return	True if a separating axis was found
+	 */
+	private static boolean hasSeparatingAxis(GameEntity a, GameEntity b){
+		float ax[] = a.worldX, ay[] = a.worldY;
+		float bx[] = b.worldX, by[] = b.worldY;
+		for (int i = 0; i < a.normalX.length; i++){
+			float nx = a.normalX[i];
+			float ny = a.normalY[i];
+			
+			float minA = ax[0] * nx + ay[0] * ny;
+			float maxA = minA;
+			for (int j = 1; j < ax.length; j++){
+				float d = ax[j] * nx + ay[j] * ny;
+				if(d < minA) minA = d;
+				else if(d > maxA) maxA = d;
+			}
+			
+			float minB = bx[0] * nx + by[0] * ny;
+			float maxB = minB;
+			for (int j = 1; j < bx.length; j++){
+				float d = bx[j] * nx + by[j] * ny;
+				if(d < minB) minB = d;
+				else if(d > maxB) maxB = d;
+			}
+			
+			if(minB - maxA > 0 || minA - maxB > 0){
+				return true;
+			}
+		}
+		return false;
 	}
 	
-	protected void compensateForRotation(Vector points[], float angleDifference){
-		for (Vector p : points){
-			p.setX(p.getX() - posture.getX());
-			p.setY(p.getY() - posture.getY());
-			Vector.setPolarCoord(p);
-			p.setTheta(p.getTheta() + angleDifference);
-			Vector.setCartesianCoord(p);
-			p.setX(p.getX() + posture.getX());
-			p.setY(p.getY() + posture.getY());
+	/**
+	 * Rebuilds the cached shape after deserialization (only the vertices
+	 * themselves are serialized).
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if(vertices != null){
+			updateShape();
 		}
 	}
 }
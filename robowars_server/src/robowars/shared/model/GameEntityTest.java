@@ -0,0 +1,105 @@
+package robowars.shared.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the shape and collision handling of GameEntity
+ */
+public class GameEntityTest {
+
+	private static final float DELTA = 0.001f;
+
+	/** @return	A 10x4 rectangular obstacle centred on the given posture */
+	private Obstacle rectangle(Posture posture) {
+		return new Obstacle(posture, new Vector[] {new Vector(-5,-2),
+				new Vector(-5,2), new Vector(5,2), new Vector(5,-2)}, 1);
+	}
+
+	@Test
+	public void testSetPosture() {
+		Obstacle o = rectangle(new Posture(20, 30, 0));
+		assertEquals(15, o.getVertex(0).getX(), DELTA);
+		assertEquals(28, o.getVertex(0).getY(), DELTA);
+
+		// Rotating by 90 degrees swaps the extents of the shape
+		o.setPosture(new Posture(20, 30, 90));
+		assertEquals(22, o.getVertex(0).getX(), DELTA);
+		assertEquals(25, o.getVertex(0).getY(), DELTA);
+		assertEquals(18, o.getMinX(), DELTA);
+		assertEquals(35, o.getMaxY(), DELTA);
+
+		// Repeated moves do not accumulate error
+		for(int i = 0; i < 1000; i++) {
+			o.setPosture(new Posture(20 + i, 30, i * 7));
+		}
+		o.setPosture(new Posture(20, 30, 0));
+		assertEquals(15, o.getVertex(0).getX(), DELTA);
+		assertEquals(28, o.getVertex(0).getY(), DELTA);
+	}
+
+	@Test
+	public void testSetVertex() {
+		Obstacle o = rectangle(new Posture(20, 30, 90));
+		o.setVertex(2, new Vector(22, 45));
+		assertEquals(45, o.getMaxY(), DELTA);
+
+		// The modified vertex moves with the entity
+		o.setPosture(new Posture(30, 30, 90));
+		assertEquals(32, o.getVertex(2).getX(), DELTA);
+		assertEquals(45, o.getVertex(2).getY(), DELTA);
+	}
+
+	@Test
+	public void testCheckCollision() {
+		Obstacle a = rectangle(new Posture(0, 0, 0));
+		Obstacle b = rectangle(new Posture(9, 0, 0));
+		assertTrue(a.checkCollision(b));
+		assertTrue(b.checkCollision(a));
+
+		b.setPosture(new Posture(11, 0, 0));
+		assertFalse(a.checkCollision(b));
+
+		// Overlapping bounding boxes, separated by a diagonal axis
+		a.setPosture(new Posture(0, 0, 45));
+		b.setPosture(new Posture(3, -3, 45));
+		assertTrue(a.boundsOverlap(b));
+		assertFalse(a.checkCollision(b));
+
+		b.setPosture(new Posture(1, -1, 45));
+		assertTrue(a.checkCollision(b));
+	}
+
+	@Test
+	public void testSweepCollision() {
+		// A thin wall across x = 50
+		Obstacle wall = new Obstacle(new Posture(50, 0, 90), new Vector[] {new Vector(-20,-0.5f),
+				new Vector(-20,0.5f), new Vector(20,0.5f), new Vector(20,-0.5f)}, 1);
+
+		// A projectile that jumped from x = 40 to x = 60 passed through the wall
+		Projectile p = new Projectile(new Posture(60, 0, 0), 20, 1);
+		assertFalse(p.checkCollision(wall));
+		assertEquals(8.5f / 20, p.sweepCollision(wall, 20, 0), DELTA);
+
+		// The same move beside the wall misses it
+		p.setPosture(new Posture(60, 30, 0));
+		assertEquals(-1, p.sweepCollision(wall, 20, 0), DELTA);
+
+		// Diagonal moves clip the end of the wall
+		assertEquals(8.5f / 20, p.sweepCollision(wall, 20, 20), DELTA);
+		assertEquals(-1, p.sweepCollision(wall, 20, -20), DELTA);
+
+		// Entities overlapping at both ends of the move touch from the start
+		p.setPosture(new Posture(50, 0, 0));
+		assertEquals(0, p.sweepCollision(wall, 0, 0), DELTA);
+		assertEquals(0, p.sweepCollision(wall, 0, 5), DELTA);
+		Obstacle big = rectangle(new Posture(0, 0, 0));
+		p.setPosture(new Posture(1, 0, 0));
+		assertEquals(0, p.sweepCollision(big, 1, 0), DELTA);
+
+		// Stopping short of the wall is not a collision
+		p.setPosture(new Posture(45, 0, 0));
+		assertEquals(-1, p.sweepCollision(wall, 5, 0), DELTA);
+	}
+}
@@ -12,6 +12,7 @@ public class GameEvent extends EventObject {
 	public static final int PLAYER_1_WINS = 5;
 	public static final int PLAYER_2_WINS = 6;
 	public static final int ROBOT_MOVED = 7;
+	public static final int STATE_SNAPSHOT = 8;
 
 	private int type;
 	
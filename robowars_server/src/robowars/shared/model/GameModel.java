@@ -2,6 +2,7 @@ package robowars.shared.model;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 public abstract class GameModel implements Serializable{
 
@@ -13,8 +14,20 @@ public abstract class GameModel implements Serializable{
 	protected ArrayList<GameRobot> robots;
 	protected int numRobots;
 	protected transient ArrayList<GameListener> listeners;
+	
+	/** Broad phase index of all entities, rebuilt on demand after deserialization */
+	protected transient EntityGrid grid;
+	
+	/** Entities and robots by handle and identifier, rebuilt on demand after deserialization */
+	protected transient EntityStore store;
+	
+	/** The last snapshot identifier assigned to an entity */
+	private transient int lastNetId;
 
 	public static final float DEFAULT_ARENA_SIZE = 140;
+	
+	/** Distance outside the arena boundary still covered by the entity grid */
+	public static final float GRID_MARGIN = 20;
 
 	public static GameModel generateGameModel(GameType gameType){
 		if(gameType == GameType.LIGHTCYCLES)
@@ -34,7 +47,11 @@ public abstract class GameModel implements Serializable{
 		robots = new ArrayList<GameRobot>();
 		minimumPlayers = gameType.getMinimumPlayers();
 		numRobots = 0;
-		entities.addAll(Obstacle.createArenaBoundary());
+		grid = null;
+		store = null;
+		for(Obstacle o : Obstacle.createArenaBoundary()){
+			addEntity(o);
+		}
 	}
 
 	public void addListener(GameListener listener){
@@ -65,37 +82,36 @@ public abstract class GameModel implements Serializable{
 	public abstract void updateGameState(long timeElapsed);
 
 	public boolean updateRobotPosition(String identifier, Posture posture) {
-		GameRobot robot = null;
-
-		for(GameRobot r : robots){
-			if(r.getRobotId() == identifier)
-				robot = r;
-		}
+		GameRobot robot = getGameRobot(identifier);
 
 		if(robot == null)
 			return false;//error, robot with specified identifier doesn't exist.
 
-		robot.setPosture(posture);
+		robot.reportPosture(posture);
 		notifyListeners(GameEvent.ROBOT_MOVED);
 		return true;
 	}
-
-	public RobotCommand getCurrentRobotCommand(String identifier) {
+	
+	/**
+	 * Moves every robot to its predicted posture (see GameRobot.predictPosture()),
+	 * so that robots move smoothly between reported positions.
+	 * @param timeElapsed	The time passed since the last prediction (in ms)
+	 */
+	public void predictRobotPositions(long timeElapsed) {
 		for(GameRobot r : robots){
-			if(r.getRobotId() == identifier){
-				return r.getCommand();
-			}
+			r.predictPosture(timeElapsed);
 		}
+	}
+
+	public RobotCommand getCurrentRobotCommand(String identifier) {
+		GameRobot robot = getGameRobot(identifier);
+		if(robot == null)
 			return null;
+		return robot.getCommand();
 	}
 
 	public GameRobot getGameRobot(String identifier) {
-
-		for (GameRobot robot : robots){
-			if (robot.getRobotId() == identifier)
-				return robot;
-			}
-		return null;
+		return getStore().getRobot(identifier);
 	}
 	
 	public ArrayList<GameRobot> getGameRobotList(){
@@ -117,8 +133,9 @@ public abstract class GameModel implements Serializable{
 	public abstract boolean checkGameOver();
 
 	public void addRobot(GameRobot newRobot) {
-		entities.add(newRobot);
+		addEntity(newRobot);
 		robots.add(newRobot);
+		getStore().addRobot(newRobot);
 	}
 	
 	/**
@@ -129,6 +146,7 @@ public abstract class GameModel implements Serializable{
 		for(int i = 0; i < robots.size(); i++) {
 			if(robots.get(i).getRobotId().equals(identifier)) {
 				robots.remove(i);
+				getStore().removeRobot(identifier);
 				return;
 			}
 		}
@@ -137,6 +155,108 @@ public abstract class GameModel implements Serializable{
 	public abstract void generateProjectile(GameRobot robot);
 	
 	public void addEntity(GameEntity e){
+		e.listIndex = entities.size();
 		entities.add(e);
+		getGrid().add(e);
+		getStore().add(e);
+	}
+	
+	/**
+	 * Removes an entity from the game (and from the collision grid). The last
+	 * entity in the entity list is moved into the removed entity's place, so
+	 * the order of the list is not preserved.
+	 * @param e	The entity to remove
+	 */
+	public void removeEntity(GameEntity e){
+		int i = e.listIndex;
+		if(i < 0 || i >= entities.size() || entities.get(i) != e){
+			// Index not known (e.g. after deserialization)
+			i = entities.indexOf(e);
+		}
+		if(i >= 0){
+			GameEntity last = entities.remove(entities.size() - 1);
+			if(last != e){
+				entities.set(i, last);
+				last.listIndex = i;
+			}
+		}
+		e.listIndex = -1;
+		getGrid().remove(e);
+		getStore().remove(e);
+	}
+	
+	/**
+	 * Finds all entities whose bounding box overlaps that of the passed
+	 * entity. Only these entities need to be checked for collisions.
+	 * @param e	The entity to find collision candidates for
+	 * @param candidates	The list to store the candidates in (cleared before use)
+	 */
+	public void findCollisionCandidates(GameEntity e, List<GameEntity> candidates){
+		getGrid().query(e, candidates);
+	}
+	
+	/**
+	 * Finds all entities whose bounding box overlaps the area swept by an
+	 * entity that has just moved by (dx, dy). Only these entities need to be
+	 * checked with GameEntity.sweepCollision().
+	 * @param e	The entity that moved (never included in the candidates)
+	 * @param dx	The x distance the entity moved
+	 * @param dy	The y distance the entity moved
+	 * @param candidates	The list to store the candidates in (cleared before use)
+	 */
+	public void findSweepCandidates(GameEntity e, float dx, float dy, List<GameEntity> candidates){
+		getGrid().query(e.getMinX() - Math.max(dx, 0), e.getMinY() - Math.max(dy, 0),
+				e.getMaxX() - Math.min(dx, 0), e.getMaxY() - Math.min(dy, 0), e, candidates);
+	}
+	
+	/**
+	 * Captures the current state of all entities, for transmission to clients.
+	 * @param sequence	The sequence number of the snapshot
+	 * @return	The captured snapshot
+	 */
+	public GameSnapshot createSnapshot(int sequence){
+		return GameSnapshot.capture(this, sequence);
+	}
+	
+	/**
+	 * @return	A new identifier for an entity in state snapshots
+	 */
+	int nextNetId(){
+		return ++lastNetId;
+	}
+	
+	/**
+	 * @return	The broad phase grid containing all entities in the game. The
+	 * 			grid is not serialized, and is rebuilt from the entity list
+	 * 			if it does not exist.
+	 */
+	public EntityGrid getGrid(){
+		if(grid == null){
+			grid = new EntityGrid(-GRID_MARGIN, -GRID_MARGIN,
+					arenaSize + GRID_MARGIN, arenaSize + GRID_MARGIN,
+					EntityGrid.DEFAULT_CELL_SIZE);
+			for(GameEntity e : entities){
+				grid.add(e);
+			}
+		}
+		return grid;
+	}
+	
+	/**
+	 * @return	The store holding all entities in the game, with the robots
+	 * 			indexed by identifier. The store is not serialized, and is
+	 * 			rebuilt from the entity and robot lists if it does not exist.
+	 */
+	public EntityStore getStore(){
+		if(store == null){
+			store = new EntityStore(Math.max(EntityStore.DEFAULT_CAPACITY, entities.size()));
+			for(GameEntity e : entities){
+				store.add(e);
+			}
+			for(GameRobot r : robots){
+				store.addRobot(r);
+			}
+		}
+		return store;
 	}
 }
\ No newline at end of file
@@ -21,6 +21,9 @@ public class GameRobot extends GameEntity implements Serializable{
 	
 	/** Lock object to ensure mutual exclusion when accessing the last valid command */
 	private final Object lastCommandLock = new Object();
+	
+	/** Predicts the robot's posture between reported positions (created on first use) */
+	private transient PosturePredictor predictor;
 
 	public GameRobot(Posture Posture, Vector shape[], int id, int health, String robotId) {
 		super(Posture, shape, id);
@@ -93,11 +96,51 @@ public class GameRobot extends GameEntity implements Serializable{
 		return lastPosture;
 	}
 
+	/**
+	 * Overrides the posture of the robot, discarding any predicted movement.
+	 * @param newPosture	The new posture
+	 */
 	public void setPosture(Posture newPosture){
+		getPredictor().reset();
+		applyPosture(newPosture);
+	}
+	
+	/**
+	 * Updates the robot with a position reported by the physical robot. Any
+	 * difference from the predicted posture is corrected gradually (see 
+	 * PosturePredictor). Must be called by the thread running the game loop,
+	 * as it shares the prediction state with predictPosture().
+	 * @param reported	The posture reported by the robot
+	 */
+	public void reportPosture(Posture reported){
+		applyPosture(getPredictor().report(reported, getPosture()));
+	}
+	
+	/**
+	 * Moves the robot to its predicted posture, based on the last command
+	 * sent to it. Has no effect until a position has been reported. Must be
+	 * called by the thread running the game loop.
+	 * @param timeElapsed	The time passed since the last prediction (in ms)
+	 */
+	public void predictPosture(long timeElapsed){
+		Posture predicted = getPredictor().predict(timeElapsed, getLastCommand());
+		if(predicted != null){
+			applyPosture(predicted);
+		}
+	}
+	
+	private void applyPosture(Posture newPosture){
 		lastPosture = super.getPosture();
 		super.setPosture(newPosture);
 	}
 	
+	private PosturePredictor getPredictor(){
+		if(predictor == null){
+			predictor = new PosturePredictor();
+		}
+		return predictor;
+	}
+	
 	public void setCommand(RobotCommand command){
 		this.command = command;
 	}
@@ -109,6 +152,8 @@ public class GameRobot extends GameEntity implements Serializable{
 
 	public void decreaseHealth(int change){health-=change;}
 	
+	public void setHealth(int health){this.health = health;}
+	
 	public int getHealth(){return health;}
 	
 	public String getRobotId(){return robotIdentifier;}
@@ -0,0 +1,455 @@
+package robowars.shared.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The state of every entity in a game at a single point in time, used to
+ * transmit the game state to clients in a compact binary format.
+ *
+ * Snapshots are encoded relative to a baseline snapshot that the receiver
+ * is known to hold, so only entities that were added, removed or changed
+ * since the baseline are transmitted. A snapshot encoded without a baseline
+ * contains the complete game state.
+ *
+ * Encoded format (all values big endian):
+ * byte	format version
+ * int	sequence number
+ * int	baseline sequence number (NO_BASELINE for a complete snapshot)
+ * var	number of entity records, followed by the records:
+ * 		var		entity identifier
+ * 		byte	flags (FLAG_* constants), followed by the flagged fields:
+ * 		NEW:	byte kind, UTF robot identifier (robots only)
+ * 		SHAPE:	byte vertex count, float x/y pairs (relative to the posture)
+ * 		POSTURE:	float x, float y, float heading
+ * 		HEALTH:	short health (robots only)
+ * var	number of removed entities, followed by their identifiers (var)
+ *
+ * Values marked "var" are unsigned integers encoded with 7 bits per byte.
+ */
+public class GameSnapshot {
+	/** The version of the encoded format */
+	public static final byte FORMAT_VERSION = 1;
+
+	/** Baseline sequence number used for complete snapshots */
+	public static final int NO_BASELINE = -1;
+
+	/** Constants used to indicate the kind of an entity */
+	public static final byte KIND_ROBOT = 0;
+	public static final byte KIND_OBSTACLE = 1;
+	public static final byte KIND_PROJECTILE = 2;
+
+	/** Flags used to indicate which fields of an entity record are present */
+	private static final int FLAG_NEW = 1;
+	private static final int FLAG_SHAPE = 2;
+	private static final int FLAG_POSTURE = 4;
+	private static final int FLAG_HEALTH = 8;
+
+	/**
+	 * The state of a single entity. States are never modified once they
+	 * have been added to a snapshot, so unchanged states are shared between
+	 * consecutive snapshots.
+	 */
+	static class EntityState {
+		int netId;
+		byte kind;
+		String robotId;
+		float x, y, heading;
+		int health;
+		float shape[];
+
+		EntityState(int netId, byte kind) {
+			this.netId = netId;
+			this.kind = kind;
+		}
+
+		EntityState(EntityState other) {
+			this.netId = other.netId;
+			this.kind = other.kind;
+			this.robotId = other.robotId;
+			this.x = other.x;
+			this.y = other.y;
+			this.heading = other.heading;
+			this.health = other.health;
+			this.shape = other.shape;
+		}
+	}
+
+	/** The sequence number of the snapshot */
+	private final int sequence;
+
+	/** The state of each entity in the snapshot */
+	private final ArrayList<EntityState> states;
+
+	/** Maps entity identifiers to their index in states (built on demand) */
+	private HashMap<Integer, Integer> index;
+
+	private GameSnapshot(int sequence, int capacity) {
+		this.sequence = sequence;
+		this.states = new ArrayList<EntityState>(capacity);
+		this.index = null;
+	}
+
+	/**
+	 * Captures the current state of all entities in a game model. Entities
+	 * are assigned a snapshot identifier the first time they are captured.
+	 * @param model	The game model to capture
+	 * @param sequence	The sequence number of the snapshot
+	 * @return	The captured snapshot
+	 */
+	public static GameSnapshot capture(GameModel model, int sequence) {
+		EntityStore store = model.getStore();
+		GameSnapshot snapshot = new GameSnapshot(sequence, store.size());
+
+		// Loop by handle, so that entities are visited in a stable order
+		for(int h = 0; h < store.getHandleLimit(); h++) {
+			GameEntity e = store.getEntity(h);
+			if(e == null || e.getVertices() == null) continue;
+			if(e.netId == 0) {
+				e.netId = model.nextNetId();
+			}
+
+			EntityState state;
+			if(e instanceof GameRobot) {
+				state = new EntityState(e.netId, KIND_ROBOT);
+				state.robotId = ((GameRobot)e).getRobotId();
+				state.health = ((GameRobot)e).getHealth();
+			} else if (e instanceof Projectile) {
+				state = new EntityState(e.netId, KIND_PROJECTILE);
+			} else {
+				state = new EntityState(e.netId, KIND_OBSTACLE);
+			}
+			state.x = store.getX(h);
+			state.y = store.getY(h);
+			state.heading = store.getHeading(h);
+			state.shape = e.getShapeData();
+			snapshot.states.add(state);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return	The sequence number of the snapshot
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return	The number of entities in the snapshot
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	/**
+	 * Encodes the snapshot relative to a baseline snapshot.
+	 * @param baseline	The snapshot held by the receiver, or null to encode
+	 * 					the complete game state
+	 * @return	The encoded snapshot
+	 */
+	public byte[] encode(GameSnapshot baseline) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + states.size() * 16);
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeByte(FORMAT_VERSION);
+			out.writeInt(sequence);
+			out.writeInt(baseline == null ? NO_BASELINE : baseline.sequence);
+
+			// Determine which entities changed since the baseline
+			int flags[] = new int[states.size()];
+			int changed = 0;
+			for(int i = 0; i < states.size(); i++) {
+				EntityState base = (baseline == null) ? null : baseline.get(states.get(i).netId);
+				flags[i] = compare(base, states.get(i));
+				if(flags[i] != 0) changed++;
+			}
+
+			writeVarInt(out, changed);
+			for(int i = 0; i < states.size(); i++) {
+				if(flags[i] != 0) {
+					writeState(out, states.get(i), flags[i]);
+				}
+			}
+
+			// Entities present in the baseline but no longer in the game
+			if(baseline == null) {
+				writeVarInt(out, 0);
+			} else {
+				int removed = 0;
+				for(EntityState s : baseline.states) {
+					if(get(s.netId) == null) removed++;
+				}
+				writeVarInt(out, removed);
+				for(EntityState s : baseline.states) {
+					if(get(s.netId) == null) writeVarInt(out, s.netId);
+				}
+			}
+			out.flush();
+		} catch (IOException e) {
+			// Writing to a byte array cannot fail
+			throw new IllegalStateException(e);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads the baseline sequence number from an encoded snapshot.
+	 * @param data	The encoded snapshot
+	 * @return	The sequence number of the baseline the snapshot was encoded
+	 * 			against (or NO_BASELINE)
+	 * @throws IOException	If the data is not a valid snapshot
+	 */
+	public static int readBaselineSequence(byte data[]) throws IOException {
+		if(data.length < 9 || data[0] != FORMAT_VERSION) {
+			throw new IOException("Unsupported snapshot format.");
+		}
+		return ((data[5] & 0xFF) << 24) | ((data[6] & 0xFF) << 16)
+			| ((data[7] & 0xFF) << 8) | (data[8] & 0xFF);
+	}
+
+	/**
+	 * Decodes a snapshot.
+	 * @param data	The encoded snapshot
+	 * @param baseline	The snapshot the data was encoded against (must match
+	 * 					readBaselineSequence(), or be null for a complete snapshot)
+	 * @return	The decoded snapshot
+	 * @throws IOException	If the data is not a valid snapshot, or the wrong
+	 * 						baseline was provided
+	 */
+	public static GameSnapshot decode(byte data[], GameSnapshot baseline) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if(in.readByte() != FORMAT_VERSION) {
+			throw new IOException("Unsupported snapshot format.");
+		}
+		int sequence = in.readInt();
+		int baselineSequence = in.readInt();
+		if(baselineSequence != NO_BASELINE
+				&& (baseline == null || baseline.sequence != baselineSequence)) {
+			throw new IOException("Snapshot " + sequence + " requires baseline " + baselineSequence);
+		}
+		if(baselineSequence == NO_BASELINE) {
+			baseline = null;
+		}
+
+		// Start from the baseline state, and apply the changed records
+		GameSnapshot snapshot = new GameSnapshot(sequence,
+				baseline == null ? 16 : baseline.states.size());
+		if(baseline != null) {
+			snapshot.states.addAll(baseline.states);
+		}
+
+		int changed = readVarInt(in);
+		for(int i = 0; i < changed; i++) {
+			int netId = readVarInt(in);
+			int flags = in.readUnsignedByte();
+
+			EntityState state;
+			int existing = snapshot.indexOf(netId);
+			if((flags & FLAG_NEW) != 0) {
+				state = new EntityState(netId, in.readByte());
+				if(state.kind == KIND_ROBOT) {
+					state.robotId = in.readUTF();
+				}
+			} else if (existing >= 0) {
+				state = new EntityState(snapshot.states.get(existing));
+			} else {
+				throw new IOException("Snapshot " + sequence + " updates unknown entity " + netId);
+			}
+			readState(in, state, flags);
+
+			if(existing >= 0) {
+				snapshot.states.set(existing, state);
+			} else {
+				snapshot.states.add(state);
+				snapshot.index.put(netId, snapshot.states.size() - 1);
+			}
+		}
+
+		int removed = readVarInt(in);
+		if(removed > 0) {
+			HashMap<Integer, Boolean> removedIds = new HashMap<Integer, Boolean>();
+			for(int i = 0; i < removed; i++) {
+				removedIds.put(readVarInt(in), Boolean.TRUE);
+			}
+			Iterator<EntityState> it = snapshot.states.iterator();
+			while(it.hasNext()) {
+				if(removedIds.containsKey(it.next().netId)) it.remove();
+			}
+			snapshot.index = null;
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Updates a set of entities to match the snapshot. Entities are created
+	 * and removed as required, and are keyed by their snapshot identifier
+	 * (which is also used as the id of created entities).
+	 * @param entities	The entities to update
+	 */
+	public void applyTo(Map<Integer, GameEntity> entities) {
+		HashMap<Integer, Boolean> present = new HashMap<Integer, Boolean>();
+		for(EntityState s : states) {
+			present.put(s.netId, Boolean.TRUE);
+			GameEntity e = entities.get(s.netId);
+			if(e == null || kindOf(e) != s.kind) {
+				entities.put(s.netId, createEntity(s));
+				continue;
+			}
+
+			if(!Arrays.equals(e.getShapeData(), s.shape)) {
+				e.setVertices(toVectors(s.shape));
+			}
+			Posture p = e.getPosture();
+			if(p.getX() != s.x || p.getY() != s.y || p.getHeading() != s.heading) {
+				e.setPosture(new Posture(s.x, s.y, s.heading));
+			}
+			if(e instanceof GameRobot) {
+				((GameRobot)e).setHealth(s.health);
+			}
+		}
+
+		Iterator<Integer> it = entities.keySet().iterator();
+		while(it.hasNext()) {
+			if(!present.containsKey(it.next())) it.remove();
+		}
+	}
+
+	/** @return	The state of an entity, or null if it is not in the snapshot */
+	EntityState get(int netId) {
+		int i = indexOf(netId);
+		return (i < 0) ? null : states.get(i);
+	}
+
+	/** @return	The index of an entity's state, or -1 if it is not in the snapshot */
+	private int indexOf(int netId) {
+		if(index == null) {
+			index = new HashMap<Integer, Integer>(states.size() * 2);
+			for(int i = 0; i < states.size(); i++) {
+				index.put(states.get(i).netId, i);
+			}
+		}
+		Integer i = index.get(netId);
+		return (i == null) ? -1 : i;
+	}
+
+	/** @return	The flags of the fields that differ between two states */
+	private static int compare(EntityState base, EntityState current) {
+		if(base == null || base.kind != current.kind) {
+			int flags = FLAG_NEW | FLAG_SHAPE | FLAG_POSTURE;
+			if(current.kind == KIND_ROBOT) flags |= FLAG_HEALTH;
+			return flags;
+		}
+
+		int flags = 0;
+		if(base.shape != current.shape && !Arrays.equals(base.shape, current.shape)) {
+			flags |= FLAG_SHAPE;
+		}
+		if(base.x != current.x || base.y != current.y || base.heading != current.heading) {
+			flags |= FLAG_POSTURE;
+		}
+		if(current.kind == KIND_ROBOT && base.health != current.health) {
+			flags |= FLAG_HEALTH;
+		}
+		return flags;
+	}
+
+	private static void writeState(DataOutputStream out, EntityState s, int flags) throws IOException {
+		writeVarInt(out, s.netId);
+		out.writeByte(flags);
+		if((flags & FLAG_NEW) != 0) {
+			out.writeByte(s.kind);
+			if(s.kind == KIND_ROBOT) {
+				out.writeUTF(s.robotId == null ? "" : s.robotId);
+			}
+		}
+		if((flags & FLAG_SHAPE) != 0) {
+			out.writeByte(s.shape.length / 2);
+			for(float f : s.shape) {
+				out.writeFloat(f);
+			}
+		}
+		if((flags & FLAG_POSTURE) != 0) {
+			out.writeFloat(s.x);
+			out.writeFloat(s.y);
+			out.writeFloat(s.heading);
+		}
+		if((flags & FLAG_HEALTH) != 0) {
+			out.writeShort(s.health);
+		}
+	}
+
+	private static void readState(DataInputStream in, EntityState s, int flags) throws IOException {
+		if((flags & FLAG_SHAPE) != 0) {
+			s.shape = new float[in.readUnsignedByte() * 2];
+			for(int i = 0; i < s.shape.length; i++) {
+				s.shape[i] = in.readFloat();
+			}
+		}
+		if((flags & FLAG_POSTURE) != 0) {
+			s.x = in.readFloat();
+			s.y = in.readFloat();
+			s.heading = in.readFloat();
+		}
+		if((flags & FLAG_HEALTH) != 0) {
+			s.health = in.readShort();
+		}
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed snapshot.");
+	}
+
+	private static byte kindOf(GameEntity e) {
+		if(e instanceof GameRobot) return KIND_ROBOT;
+		if(e instanceof Projectile) return KIND_PROJECTILE;
+		return KIND_OBSTACLE;
+	}
+
+	private static Vector[] toVectors(float shape[]) {
+		Vector vertices[] = new Vector[shape.length / 2];
+		for(int i = 0; i < vertices.length; i++) {
+			vertices[i] = new Vector(shape[2 * i], shape[2 * i + 1]);
+		}
+		return vertices;
+	}
+
+	private static GameEntity createEntity(EntityState s) {
+		Posture posture = new Posture(s.x, s.y, s.heading);
+		switch(s.kind) {
+		case KIND_ROBOT:
+			return new GameRobot(posture, toVectors(s.shape), s.netId, s.health, s.robotId);
+		case KIND_PROJECTILE:
+			Projectile p = new Projectile(posture, 0, s.netId);
+			p.setVertices(toVectors(s.shape));
+			return p;
+		default:
+			return new Obstacle(posture, toVectors(s.shape), s.netId);
+		}
+	}
+}
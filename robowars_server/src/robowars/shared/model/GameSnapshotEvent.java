@@ -0,0 +1,29 @@
+package robowars.shared.model;
+
+/**
+ * GameEvent carrying an encoded GameSnapshot. These are sent to clients at
+ * a limited rate in place of individual robot movement events.
+ */
+public class GameSnapshotEvent extends GameEvent {
+	private static final long serialVersionUID = -4021582306431337914L;
+
+	/** The encoded snapshot */
+	private byte data[];
+
+	/**
+	 * Generates a new GameSnapshotEvent
+	 * @param model	The game model the snapshot was captured from
+	 * @param data	The encoded snapshot
+	 */
+	public GameSnapshotEvent(GameModel model, byte data[]) {
+		super(model, STATE_SNAPSHOT);
+		this.data = data;
+	}
+
+	/**
+	 * @return	The encoded snapshot (see GameSnapshot.decode())
+	 */
+	public byte[] getData() {
+		return data;
+	}
+}
@@ -0,0 +1,141 @@
+package robowars.shared.model;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for GameSnapshot and SnapshotReceiver
+ */
+public class GameSnapshotTest {
+
+	private static final float DELTA = 0.001f;
+
+	private TankSimulation model;
+	private GameRobot robot1;
+	private SnapshotReceiver receiver;
+
+	@Before
+	public void setUp() throws Exception {
+		model = new TankSimulation();
+		robot1 = new GameRobot("robot1", new Posture(20, 20, 0), 1);
+		model.addRobot(robot1);
+		model.addRobot(new GameRobot("robot2", new Posture(100, 100, 180), 2));
+		receiver = new SnapshotReceiver();
+	}
+
+	/** @return	The robot with the passed identifier held by the receiver */
+	private GameRobot receivedRobot(String identifier) {
+		for(GameEntity e : receiver.getEntities()) {
+			if(e instanceof GameRobot && identifier.equals(((GameRobot)e).getRobotId())) {
+				return (GameRobot)e;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testCompleteSnapshot() throws IOException {
+		GameSnapshot snapshot = model.createSnapshot(1);
+		assertEquals(model.getEntities().size(), snapshot.size());
+
+		GameSnapshot received = receiver.receive(snapshot.encode(null));
+		assertEquals(1, received.getSequence());
+		assertEquals(model.getEntities().size(), receiver.getEntities().size());
+
+		GameRobot r = receivedRobot("robot2");
+		assertNotNull(r);
+		assertEquals(100, r.getPosture().getX(), DELTA);
+		assertEquals(180, r.getPosture().getHeading(), DELTA);
+		assertEquals(r.getVertex(0).getX(), model.getGameRobot("robot2").getVertex(0).getX(), DELTA);
+	}
+
+	@Test
+	public void testDeltaSnapshot() throws IOException {
+		GameSnapshot first = model.createSnapshot(1);
+		receiver.receive(first.encode(null));
+
+		robot1.setPosture(new Posture(30, 25, 45));
+		robot1.decreaseHealth(1);
+		GameSnapshot second = model.createSnapshot(2);
+
+		// Only the moved robot is sent
+		byte delta[] = second.encode(first);
+		byte complete[] = second.encode(null);
+		assertTrue(delta.length < complete.length / 4);
+		assertEquals(1, GameSnapshot.readBaselineSequence(delta));
+
+		receiver.receive(delta);
+		GameRobot r = receivedRobot("robot1");
+		assertEquals(30, r.getPosture().getX(), DELTA);
+		assertEquals(45, r.getPosture().getHeading(), DELTA);
+		assertEquals(robot1.getHealth(), r.getHealth());
+		assertEquals(robot1.getMaxX(), r.getMaxX(), DELTA);
+
+		// An unchanged game encodes to an empty delta
+		GameSnapshot third = model.createSnapshot(3);
+		assertTrue(third.encode(second).length < delta.length);
+	}
+
+	@Test
+	public void testOlderBaseline() throws IOException {
+		GameSnapshot first = model.createSnapshot(1);
+		receiver.receive(first.encode(null));
+
+		robot1.setPosture(new Posture(30, 20, 0));
+		GameSnapshot second = model.createSnapshot(2);
+		receiver.receive(second.encode(first));
+
+		// The robot returns to its original position, and the third snapshot
+		// is encoded against the first (the second was not acknowledged yet)
+		robot1.setPosture(new Posture(20, 20, 0));
+		GameSnapshot third = model.createSnapshot(3);
+		receiver.receive(third.encode(first));
+		assertEquals(20, receivedRobot("robot1").getPosture().getX(), DELTA);
+	}
+
+	@Test
+	public void testAddRemoveEntities() throws IOException {
+		GameSnapshot first = model.createSnapshot(1);
+		receiver.receive(first.encode(null));
+		int initial = receiver.getEntities().size();
+
+		model.generateProjectile(robot1);
+		GameSnapshot second = model.createSnapshot(2);
+		receiver.receive(second.encode(first));
+		assertEquals(initial + 1, receiver.getEntities().size());
+
+		model.removeEntity(model.getEntities().get(model.getEntities().size() - 1));
+		GameSnapshot third = model.createSnapshot(3);
+		receiver.receive(third.encode(second));
+		assertEquals(initial, receiver.getEntities().size());
+		for(GameEntity e : receiver.getEntities()) {
+			assertFalse(e instanceof Projectile);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingBaseline() throws IOException {
+		GameSnapshot first = model.createSnapshot(1);
+		GameSnapshot second = model.createSnapshot(2);
+		receiver.receive(second.encode(first));
+	}
+
+	@Test
+	public void testApplyTo() {
+		HashMap<Integer, GameEntity> entities = new HashMap<Integer, GameEntity>();
+		model.createSnapshot(1).applyTo(entities);
+		assertEquals(model.getEntities().size(), entities.size());
+
+		// Existing entities are updated in place
+		GameEntity received = entities.get(robot1.netId);
+		robot1.setPosture(new Posture(50, 60, 90));
+		model.createSnapshot(2).applyTo(entities);
+		assertSame(received, entities.get(robot1.netId));
+		assertEquals(60, received.getPosture().getY(), DELTA);
+	}
+}
@@ -23,6 +23,22 @@ public enum GameType {
 		}
 	}
 	
+	/**
+	 * @return	The maximum number of players that can take part in a single
+	 * 			game (additional robots are left free for other arenas)
+	 */
+	public int getMaximumPlayers() {
+		switch(this) {
+		case TANK_SIMULATION:
+			return 2;
+		case LIGHTCYCLES:
+			return 2;
+		case FREETEST:
+		default:
+			return Integer.MAX_VALUE;
+		}
+	}
+	
 	/**
 	 * @param gameType	The string representation of a game type
 	 * @return	A corresponding GameType object
@@ -65,7 +65,7 @@ public class LightCycles extends GameModel {
 				tail.passTime(wallFadeTime - tail.getTime());
 				if(tail.getLength() <= 0) {
 					wallsOne.remove(tail);
-					entities.remove(tail);
+					removeEntity(tail);
 				}
 			}
 		}
@@ -80,7 +80,7 @@ public class LightCycles extends GameModel {
 				tail.passTime(wallFadeTime - tail.getTime());
 				if(tail.getLength() <= 0) {
 					wallsTwo.remove(tail);
-					entities.remove(tail);
+					removeEntity(tail);
 				}
 			}
 		}
@@ -114,7 +114,7 @@ public class LightCycles extends GameModel {
 
 	public void spawnNewWall(GameRobot robot,Posture Posture) {
 		Obstacle newWall = new Obstacle(Posture);
-		entities.add(newWall);
+		addEntity(newWall);
 		if(robot == robots.get(0)){
 			wallsOne.add(0, newWall);
 		}else{
@@ -0,0 +1,129 @@
+package robowars.shared.model;
+
+import java.util.Vector;
+
+/**
+ * MapPointIndex.java
+ * Uniform grid over the points of a single color of a RobotMap, used to find
+ * the point closest to a position without checking every point. The cell
+ * size is picked so that a regular lattice of dots holds about one dot per
+ * cell, so a lookup only checks the few cells around the position.
+ *
+ * Point coordinates are copied into float arrays, and the points of each
+ * cell are stored contiguously (cellStart[c] to cellStart[c+1] in cellPoints),
+ * so lookups do not allocate or cast.
+ *
+ * This class is used on the NXT, and so only depends on classes available
+ * in leJOS.
+ */
+public class MapPointIndex {
+	private MapPoint[] points;
+	private float[] xs, ys;
+
+	/** Grid origin, cell size and dimensions (in cells) */
+	private float minX, minY, cellSize;
+	private int cols, rows;
+
+	/** Indices of the points in each cell, cell by cell */
+	private int[] cellPoints;
+	/** Offset of each cell's first point in cellPoints (one extra entry at the end) */
+	private int[] cellStart;
+
+	/**
+	 * Builds the index.
+	 * @param list	Vector of MapPoints (all of one color)
+	 */
+	public MapPointIndex(Vector<?> list){
+		int n=list.size();
+		points=new MapPoint[n];
+		xs=new float[n];
+		ys=new float[n];
+		float maxX=0, maxY=0;
+		for(int i=0; i<n; i++){
+			points[i]=(MapPoint)list.elementAt(i);
+			xs[i]=points[i].getX();
+			ys[i]=points[i].getY();
+			if(i==0||xs[i]<minX)minX=xs[i];
+			if(i==0||ys[i]<minY)minY=ys[i];
+			if(i==0||xs[i]>maxX)maxX=xs[i];
+			if(i==0||ys[i]>maxY)maxY=ys[i];
+		}
+
+		// About one point per cell for evenly spread points
+		float width=Math.max(maxX-minX, 1);
+		float height=Math.max(maxY-minY, 1);
+		cellSize=(float)Math.sqrt(width*height/Math.max(n, 1));
+		if(cellSize<1)cellSize=1;
+		cols=(int)(width/cellSize)+1;
+		rows=(int)(height/cellSize)+1;
+
+		cellStart=new int[cols*rows+1];
+		cellPoints=new int[n];
+		int[] cellOf=new int[n];
+		for(int i=0; i<n; i++){
+			cellOf[i]=cellX(xs[i])+cellY(ys[i])*cols;
+			cellStart[cellOf[i]+1]++;
+		}
+		for(int c=0; c<cols*rows; c++){
+			cellStart[c+1]+=cellStart[c];
+		}
+		int[] fill=new int[cols*rows];
+		for(int i=0; i<n; i++){
+			int c=cellOf[i];
+			cellPoints[cellStart[c]+fill[c]++]=i;
+		}
+	}
+	/**
+	 * Finds the point closest to a position.
+	 * @param x
+	 * @param y
+	 * @return the closest point, or null if the index is empty
+	 */
+	public MapPoint findClosest(float x, float y){
+		if(points.length==0)return null;
+		int cx=(int)Math.floor((x-minX)/cellSize);
+		int cy=(int)Math.floor((y-minY)/cellSize);
+		int best=-1;
+		float bestDist=0;
+
+		// Cells are searched in rings around the position's cell. Every cell
+		// of ring r+1 is at least r cells away, so once the closest point
+		// found is nearer than that, no further ring can hold a closer point.
+		// Rings entirely outside the grid are skipped.
+		int minRing=Math.max(Math.max(-cx, cx-cols+1), Math.max(-cy, cy-rows+1));
+		int maxRing=Math.max(Math.max(cx, cols-1-cx), Math.max(cy, rows-1-cy));
+		for(int r=Math.max(minRing, 0); r<=maxRing; r++){
+			for(int gy=cy-r; gy<=cy+r; gy++){
+				if(gy<0||gy>=rows)continue;
+				boolean edge=gy==cy-r||gy==cy+r;
+				for(int gx=cx-r; gx<=cx+r; gx+=(edge||r==0)?1:2*r){
+					if(gx<0||gx>=cols)continue;
+					int c=gx+gy*cols;
+					for(int p=cellStart[c]; p<cellStart[c+1]; p++){
+						int i=cellPoints[p];
+						float dx=x-xs[i];
+						float dy=y-ys[i];
+						float dist=dx*dx+dy*dy;
+						if(best<0||dist<bestDist){
+							best=i;
+							bestDist=dist;
+						}
+					}
+				}
+			}
+			float reach=r*cellSize;
+			if(best>=0&&bestDist<=reach*reach)break;
+		}
+		return points[best];
+	}
+	/** @return the number of points in the index */
+	public int size(){
+		return points.length;
+	}
+	private int cellX(float x){
+		return Math.min(cols-1, (int)((x-minX)/cellSize));
+	}
+	private int cellY(float y){
+		return Math.min(rows-1, (int)((y-minY)/cellSize));
+	}
+}
@@ -0,0 +1,81 @@
+package robowars.shared.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.Vector;
+
+import lejos.robotics.Colors;
+
+import org.junit.Test;
+
+import robowars.robot.ColorSensor;
+
+/**
+ * Unit tests for MapPointIndex and RobotMap.getPoint()
+ */
+public class MapPointIndexTest {
+
+	/** @return	The closest point, found by checking every point */
+	private MapPoint bruteForce(Vector<?> points, float x, float y) {
+		MapPoint best = null;
+		float bestDist = 0;
+		for(int i = 0; i < points.size(); i++) {
+			MapPoint p = (MapPoint)points.elementAt(i);
+			float dist = (p.getX() - x) * (p.getX() - x) + (p.getY() - y) * (p.getY() - y);
+			if(best == null || dist < bestDist) {
+				best = p;
+				bestDist = dist;
+			}
+		}
+		return best;
+	}
+
+	private float distance(MapPoint p, float x, float y) {
+		return (float)Math.sqrt((p.getX() - x) * (p.getX() - x) + (p.getY() - y) * (p.getY() - y));
+	}
+
+	@Test
+	public void testRandomPoints() {
+		Random random = new Random(7);
+		Vector<MapPoint> points = new Vector<MapPoint>();
+		for(int i = 0; i < 200; i++) {
+			points.addElement(new MapPoint(random.nextFloat() * 100, random.nextFloat() * 50, Colors.RED));
+		}
+		MapPointIndex index = new MapPointIndex(points);
+		assertEquals(200, index.size());
+
+		// Includes positions well outside the points' bounds
+		for(int i = 0; i < 1000; i++) {
+			float x = random.nextFloat() * 300 - 100;
+			float y = random.nextFloat() * 300 - 100;
+			assertEquals(distance(bruteForce(points, x, y), x, y),
+					distance(index.findClosest(x, y), x, y), 0.0001);
+		}
+
+		assertNull(new MapPointIndex(new Vector<MapPoint>()).findClosest(0, 0));
+	}
+
+	@Test
+	public void testLattice() {
+		RobotMap map = ColorSensor.generate(21, 21, 6.35f);
+		int colors[] = {Colors.GREEN, Colors.BLUE, Colors.YELLOW, Colors.RED};
+		Random random = new Random(3);
+		for(int i = 0; i < 500; i++) {
+			float x = random.nextFloat() * 140;
+			float y = random.nextFloat() * 140;
+			for(int c = 0; c < colors.length; c++) {
+				MapPoint p = map.getPoint(x, y, 0, colors[c]);
+				assertEquals(colors[c], p.getColor());
+				assertEquals(distance(bruteForce((Vector<?>)map.getPoints().elementAt(c), x, y), x, y),
+						distance(p, x, y), 0.0001);
+			}
+		}
+
+		// Added points are found once the index is rebuilt
+		map.addPoint(new MapPoint(500, 500, Colors.RED));
+		assertEquals(500, map.getPoint(490, 490, 0, Colors.RED).getX(), 0);
+
+		assertNull(map.getPoint(0, 0, 0, Colors.WHITE));
+	}
+}
@@ -3,6 +3,8 @@ package robowars.shared.model;
 import java.io.Serializable;
 import java.util.ArrayList;
 
+import robowars.shared.geom.Vec2;
+
 public class Obstacle extends GameEntity implements Serializable{
 
 	private static final long serialVersionUID = 2354988184568266965L;
@@ -10,6 +12,9 @@ public class Obstacle extends GameEntity implements Serializable{
 	private long lifeTime;
 	private boolean destroyOnContact;
 	private boolean destroyByProjectile;
+	
+	/** Scratch vector holding the direction of the obstacle in modifyLength() */
+	private transient Vec2 direction;
 
 	public Obstacle(Posture Posture, Vector shape[], int strength, boolean destroyOnContact, boolean destroyByProjectile, int id) {
 		super(Posture, shape, id);
@@ -45,7 +50,8 @@ public class Obstacle extends GameEntity implements Serializable{
 
 	public void modifyLength(float amount){
 		//TODO: This functionality is only useful for the Lightcycles game mode. Should probably move this code to Lightcycles.java.
-		Vector unitV = Vector.createUnitVector(getPosture());
+		if(direction == null) direction = new Vec2();
+		Vec2 unitV = getPosture().getDirection(direction);
 		Vector v1, v2;
 		if(amount >= 1){
 			v1 = getVertex(0);
@@ -58,13 +64,8 @@ public class Obstacle extends GameEntity implements Serializable{
 			return;
 		}
 		
-		System.out.println(amount);
-		System.out.println(unitV.getX() + "," + unitV.getY());
-		
-		v1.setX(v1.getX() + unitV.getX() * amount);
-		v1.setY(v1.getY() + unitV.getY() * amount);
-		v2.setX(v2.getX() + unitV.getX() * amount);
-		v2.setY(v2.getY() + unitV.getY() * amount);
+		v1.addScaled(unitV, amount);
+		v2.addScaled(unitV, amount);
 		
 		
 		if(amount >= 1){
@@ -123,8 +124,7 @@ public class Obstacle extends GameEntity implements Serializable{
 	public int getStrength(){return strength;}
 
 	public float getLength() {
-		Vector v = new Vector(getVertex(1).getX() - getVertex(2).getX(), getVertex(1).getY() - getVertex(2).getY());
-		return v.magnitude();
+		return getVertex(1).distance(getVertex(2).getX(), getVertex(2).getY());
 	}
 }
 
@@ -3,10 +3,16 @@ package robowars.shared.model;
 import lejos.robotics.Pose;
 import java.io.Serializable;
 
+import robowars.shared.geom.Rotation;
+import robowars.shared.geom.Vec2;
+
 public class Posture implements Serializable{
 	
 	protected  Vector _location;
 	protected  float _heading;
+	
+	/** Sine and cosine of the heading, created when first needed */
+	private transient Rotation _rotation;
 
 	/**
 	 * Represents the location and heading(direction angle) of a robot.<br>
@@ -70,9 +76,25 @@ public class Posture implements Serializable{
 	 */
 	public void moveUpdate(float distance)
 	{
-	  float x = distance * (float)Math.cos(Math.toRadians(_heading));
-	  float y = distance * (float)Math.sin(Math.toRadians(_heading));
-	  translate(x,y);
+	  Rotation r = rotation();
+	  translate(distance * r.cos(), distance * r.sin());
+	}
+	/**
+	 * Sets a vector to the unit vector in the direction of the heading.
+	 * 
+	 * @param direction the vector to set
+	 * @return the passed vector
+	 */
+	public Vec2 getDirection(Vec2 direction)
+	{
+	  Rotation r = rotation();
+	  return direction.set(r.cos(), r.sin());
+	}
+	private Rotation rotation()
+	{
+	  if(_rotation == null) _rotation = new Rotation();
+	  _rotation.set(_heading);
+	  return _rotation;
 	}
 	/**
 	 * Change the x and y coordinates of the posture by adding dx and dy.
@@ -82,8 +104,7 @@ public class Posture implements Serializable{
 	 */
 	public void translate( float dx, float dy)
 	{
-	    _location.setX(_location.getX()+dx);
-	    _location.setY(_location.getY()+dy);
+	    _location.add(dx, dy);
 	}
 	/**
 	 * Sets the posture locatin and heading to the currect values resulting from travel
@@ -120,8 +141,7 @@ public class Posture implements Serializable{
 	 */
 	public float angleTo(Vector destination)
 	{
-	  Vector d = delta(destination);
-	  return (float)Math.toDegrees(Math.atan2(d.getY(),d.getX()));
+	  return _location.angleTo(destination.x, destination.y);
 	}
 	/**
 	 * Get the distance to the destination
@@ -131,13 +151,7 @@ public class Posture implements Serializable{
 	 */
 	public float distanceTo(Vector destination)
 	{
-	   Vector d = delta(destination);
-	  return (float) Math.sqrt( d.getX()*d.getX() + d.getY()*d.getY());
-	}
-	private Vector delta(Vector d)
-	{
-	  return new Vector((float)(d.getX() - _location.getX()),
-	          (float) (d.getY() - _location.getY()));
+	  return _location.distance(destination.x, destination.y);
 	}
 	/**
 	 * returns the heading (direction angle) of the Posture
@@ -0,0 +1,188 @@
+package robowars.shared.model;
+
+/**
+ * Estimates the posture of a robot between the position updates it reports.
+ * Starting from the last reported posture, the robot's movement is dead
+ * reckoned from the last command sent to it, so that the model can move the
+ * robot at the game's tick rate rather than at the rate positions arrive
+ * over Bluetooth.
+ *
+ * When a new position is reported, the difference between the predicted and
+ * reported postures is not applied at once. It is kept as an error offset,
+ * which shrinks to nothing over the blend time, so the robot does not jump
+ * back whenever a prediction was slightly off. Errors larger than the snap
+ * distance are applied immediately.
+ *
+ * Commands are assumed to carry speeds in arena units per second. Turn rates
+ * follow the leJOS steer() convention (the inner wheel runs at
+ * (100 - |turnRate|) percent of the outer wheel's speed).
+ *
+ * A predictor is not thread safe. It is only used by the thread running the
+ * game loop (see GameRobot).
+ */
+public class PosturePredictor {
+	/** Default distance between the robot's wheels */
+	public static final float DEFAULT_TRACK_WIDTH = 15.62f;
+
+	/** Default time (in ms) over which a prediction error is corrected */
+	public static final long DEFAULT_BLEND_TIME = 250;
+
+	/** Default prediction error above which reported positions are applied at once */
+	public static final float DEFAULT_SNAP_DISTANCE = 25;
+
+	/**
+	 * Default time (in ms) after a reported position for which movement is
+	 * predicted (if no further positions arrive, the robot is assumed to be
+	 * stopped or disconnected)
+	 */
+	public static final long DEFAULT_MAX_PREDICTION = 1000;
+
+	private float trackWidth;
+	private long blendTime;
+	private float snapDistance;
+	private long maxPrediction;
+
+	/** The dead reckoned posture, without the error offset (null until a position is reported) */
+	private Posture estimate;
+
+	/** The remaining prediction error */
+	private float errorX, errorY, errorHeading;
+
+	/** The time left to correct the prediction error (ms) */
+	private long blendRemaining;
+
+	/** The time since the last reported position (ms) */
+	private long sinceReport;
+
+	public PosturePredictor() {
+		this(DEFAULT_TRACK_WIDTH, DEFAULT_BLEND_TIME, DEFAULT_SNAP_DISTANCE,
+				DEFAULT_MAX_PREDICTION);
+	}
+
+	/**
+	 * Generates a new PosturePredictor
+	 * @param trackWidth	The distance between the robot's wheels
+	 * @param blendTime	The time (in ms) over which a prediction error is corrected
+	 * @param snapDistance	The prediction error above which reported positions are
+	 * 						applied at once
+	 * @param maxPrediction	The time (in ms) after a reported position for which
+	 * 						movement is predicted
+	 */
+	public PosturePredictor(float trackWidth, long blendTime, float snapDistance,
+			long maxPrediction) {
+		this.trackWidth = trackWidth;
+		this.blendTime = blendTime;
+		this.snapDistance = snapDistance;
+		this.maxPrediction = maxPrediction;
+		reset();
+	}
+
+	/**
+	 * Restarts prediction from a reported position.
+	 * @param reported	The posture reported by the robot
+	 * @param current	The posture the robot currently has in the model (or null)
+	 * @return	The posture the robot should now be given
+	 */
+	public Posture report(Posture reported, Posture current) {
+		estimate = new Posture(reported.getX(), reported.getY(), reported.getHeading());
+		sinceReport = 0;
+
+		errorX = 0;
+		errorY = 0;
+		errorHeading = 0;
+		blendRemaining = 0;
+		if(current != null) {
+			float dx = current.getX() - reported.getX();
+			float dy = current.getY() - reported.getY();
+			if(dx * dx + dy * dy <= snapDistance * snapDistance) {
+				errorX = dx;
+				errorY = dy;
+				errorHeading = wrapAngle(current.getHeading() - reported.getHeading());
+				blendRemaining = blendTime;
+			}
+		}
+		return getPosture();
+	}
+
+	/**
+	 * Advances the prediction.
+	 * @param timeElapsed	The time passed (in ms)
+	 * @param command	The last command sent to the robot (or null if none)
+	 * @return	The predicted posture, or null if no position has been reported
+	 */
+	public Posture predict(long timeElapsed, RobotCommand command) {
+		if(estimate == null) return null;
+
+		if(command != null && sinceReport < maxPrediction) {
+			float seconds = Math.min(timeElapsed, maxPrediction - sinceReport) / 1000f;
+			estimate.arcUpdate(getSpeed(command) * seconds, getTurnRate(command) * seconds);
+		}
+		sinceReport += timeElapsed;
+
+		if(blendRemaining > 0) {
+			long step = Math.min(timeElapsed, blendRemaining);
+			float remaining = (blendRemaining - step) / (float)blendRemaining;
+			errorX *= remaining;
+			errorY *= remaining;
+			errorHeading *= remaining;
+			blendRemaining -= step;
+		}
+		return getPosture();
+	}
+
+	/**
+	 * Discards any prediction (used when the robot's posture is overridden).
+	 */
+	public void reset() {
+		estimate = null;
+		errorX = 0;
+		errorY = 0;
+		errorHeading = 0;
+		blendRemaining = 0;
+		sinceReport = 0;
+	}
+
+	/**
+	 * @return	The forward speed of the robot under a command (units per second)
+	 */
+	public float getSpeed(RobotCommand command) {
+		switch(command.getType()) {
+		case MOVE_CONTINUOUS:
+			return command.getThrottle();
+		case ROLLING_TURN:
+			return command.getThrottle() * (200 - Math.abs(clampTurn(command))) / 200;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return	The rate the robot turns under a command (degrees per second,
+	 * 			positive values for left turns)
+	 */
+	public float getTurnRate(RobotCommand command) {
+		if(command.getType() != CommandType.ROLLING_TURN) return 0;
+		float turn = clampTurn(command);
+		return (float)Math.toDegrees(command.getThrottle() * (turn / 100) / trackWidth);
+	}
+
+	/** @return	The posture including the remaining error offset */
+	private Posture getPosture() {
+		Posture p = new Posture(estimate.getX() + errorX, estimate.getY() + errorY,
+				estimate.getHeading());
+		p.rotateUpdate(errorHeading);
+		return p;
+	}
+
+	/** @return	The turn rate of a command, limited to the steer() range */
+	private static float clampTurn(RobotCommand command) {
+		return Math.max(-200, Math.min(200, command.getTurnBearing()));
+	}
+
+	/** @return	An angle (in degrees) in the range -180 to 180 */
+	private static float wrapAngle(float angle) {
+		while(angle > 180) angle -= 360;
+		while(angle < -180) angle += 360;
+		return angle;
+	}
+}
@@ -0,0 +1,84 @@
+package robowars.shared.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for PosturePredictor
+ */
+public class PosturePredictorTest {
+
+	private PosturePredictor predictor;
+
+	@Before
+	public void setUp() throws Exception {
+		predictor = new PosturePredictor(10, 100, 25, 1000);
+	}
+
+	@Test
+	public void testDeadReckoning() {
+		assertNull(predictor.predict(16, RobotCommand.moveContinuous(20)));
+
+		predictor.report(new Posture(10, 10, 90), null);
+		Posture p = predictor.predict(500, RobotCommand.moveContinuous(20));
+		assertEquals(10, p.getX(), 0.01);
+		assertEquals(20, p.getY(), 0.01);
+		assertEquals(90, p.getHeading(), 0.01);
+
+		// Rolling turns move along an arc, turning left for positive rates
+		predictor.report(new Posture(0, 0, 0), null);
+		RobotCommand turn = RobotCommand.rollingTurn(10, 100);
+		assertEquals(5, predictor.getSpeed(turn), 0.001);
+		assertEquals(Math.toDegrees(1), predictor.getTurnRate(turn), 0.01);
+		p = predictor.predict(1000, turn);
+		assertEquals(Math.toDegrees(1), p.getHeading(), 0.01);
+		assertTrue(p.getX() > 0 && p.getY() > 0);
+
+		// Movement stops being predicted when no positions are reported
+		predictor.report(new Posture(0, 0, 0), null);
+		predictor.predict(1500, RobotCommand.moveContinuous(10));
+		p = predictor.predict(500, RobotCommand.moveContinuous(10));
+		assertEquals(10, p.getX(), 0.01);
+	}
+
+	@Test
+	public void testBlend() {
+		// Small errors are corrected over the blend time
+		Posture p = predictor.report(new Posture(10, 0, 0), new Posture(14, 0, 10));
+		assertEquals(14, p.getX(), 0.01);
+		assertEquals(10, p.getHeading(), 0.01);
+
+		p = predictor.predict(50, RobotCommand.stop());
+		assertEquals(12, p.getX(), 0.01);
+		assertEquals(5, p.getHeading(), 0.01);
+
+		p = predictor.predict(50, RobotCommand.stop());
+		assertEquals(10, p.getX(), 0.01);
+		assertEquals(0, p.getHeading(), 0.01);
+
+		// Large errors are applied at once
+		p = predictor.report(new Posture(100, 0, 0), new Posture(10, 0, 0));
+		assertEquals(100, p.getX(), 0.01);
+	}
+
+	@Test
+	public void testRobot() {
+		GameRobot robot = new GameRobot("robot");
+		robot.setLastCommand(RobotCommand.moveContinuous(10));
+
+		// Nothing is predicted before a position is reported
+		robot.predictPosture(100);
+		assertEquals(20, robot.getPosture().getX(), 0.01);
+
+		robot.reportPosture(new Posture(20, 20, 0));
+		robot.predictPosture(100);
+		assertEquals(21, robot.getPosture().getX(), 0.01);
+
+		// Overriding the posture discards the prediction
+		robot.setPosture(new Posture(50, 50, 0));
+		robot.predictPosture(100);
+		assertEquals(50, robot.getPosture().getX(), 0.01);
+	}
+}
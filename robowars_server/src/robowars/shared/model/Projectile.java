@@ -11,6 +11,12 @@ public class Projectile extends GameEntity implements Serializable{
 	private float speed;
 	private float distanceTraveled;
 	private int updateDelay;
+	
+	/** The distance moved by the last call to updatePosition() */
+	private transient float moveX, moveY;
+	
+	/** The time (in ms) between moves of the projectile */
+	public static final int UPDATE_INTERVAL = 50;
 
 	public Projectile(Posture Posture, int speed, int id) {
 		super(Posture, null, id);
@@ -26,19 +32,62 @@ public class Projectile extends GameEntity implements Serializable{
 		if(timeElapsed == 0)
 			timeElapsed = 1;
 		updateDelay += timeElapsed;
-		if(updateDelay >= 50){
-			updateDelay -= 50;
-			float change=speed;
-			//Vector v = Vector.createUnitVector(getPosture());
-			//v.setX(v.getX() * change);
-			//v.setY(v.getY() * change);
-			Posture newPosture = clonePosture();
-			newPosture.moveUpdate(change);
-			setPosture(newPosture);
+		moveX = 0;
+		moveY = 0;
+		if(updateDelay >= UPDATE_INTERVAL){
+			// All the moves due are made at once, and checked for collisions
+			// with a single sweep (see GameEntity.sweepCollision())
+			int moves = updateDelay / UPDATE_INTERVAL;
+			updateDelay -= moves * UPDATE_INTERVAL;
+			float change=speed * moves;
+			float startX = posture.getX();
+			float startY = posture.getY();
+			advance(change);
+			moveX = posture.getX() - startX;
+			moveY = posture.getY() - startY;
 			distanceTraveled += change;
 		}
 	}
 	
+	/** @return	The x distance moved by the last call to updatePosition() */
+	public float getMoveX(){
+		return moveX;
+	}
+	
+	/** @return	The y distance moved by the last call to updatePosition() */
+	public float getMoveY(){
+		return moveY;
+	}
+	
+	/**
+	 * Moves the projectile forward along its heading.
+	 * @param distance	The distance to move
+	 */
+	public void advance(float distance){
+		// The projectile owns its posture, so it is moved in place
+		posture.moveUpdate(distance);
+		setPosture(posture);
+	}
+	
+	/**
+	 * Prepares an expired projectile to be fired again (see ProjectilePool).
+	 * The projectile is given a new snapshot identifier, so clients see a
+	 * new projectile rather than the old one jumping to the new position.
+	 * @param origin	The posture to start the projectile at (copied)
+	 * @param speed	The distance the projectile moves per update
+	 */
+	void reset(Posture origin, int speed){
+		posture.getLocation().set(origin.getX(), origin.getY());
+		posture.setHeading(origin.getHeading());
+		this.speed=speed;
+		this.distanceTraveled = 0;
+		this.updateDelay = 0;
+		this.moveX = 0;
+		this.moveY = 0;
+		netId = 0;
+		setPosture(posture);
+	}
+	
 	public float getDistanceTraveled(){
 		return distanceTraveled;
 	}
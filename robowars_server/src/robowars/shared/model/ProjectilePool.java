@@ -0,0 +1,82 @@
+package robowars.shared.model;
+
+/**
+ * Recycles the projectiles of a game, so that firing does not allocate a new
+ * Projectile (and its shape) for every shot. Expired projectiles are returned
+ * to the pool with release(), and handed out again by acquire().
+ *
+ * The pool holds at most a fixed number of free projectiles. If more are
+ * needed at once, new projectiles are created, and those released while the
+ * pool is full are left to the garbage collector.
+ */
+public class ProjectilePool {
+	/** The default number of free projectiles held */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	/** The free projectiles (the first freeCount entries) */
+	private final Projectile free[];
+	private int freeCount;
+
+	/** The number of projectiles created by the pool */
+	private int created;
+
+	/**
+	 * Generates a new, empty pool.
+	 */
+	public ProjectilePool() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Generates a new, empty pool.
+	 * @param capacity	The maximum number of free projectiles held
+	 */
+	public ProjectilePool(int capacity) {
+		free = new Projectile[capacity];
+		freeCount = 0;
+		created = 0;
+	}
+
+	/**
+	 * Provides a projectile at the passed posture, reusing a free projectile
+	 * if there is one.
+	 * @param origin	The posture to start the projectile at (copied)
+	 * @param speed	The distance the projectile moves per update
+	 * @return	The projectile
+	 */
+	public Projectile acquire(Posture origin, int speed) {
+		if(freeCount > 0) {
+			Projectile p = free[--freeCount];
+			free[freeCount] = null;
+			p.reset(origin, speed);
+			return p;
+		}
+		created++;
+		return new Projectile(new Posture(origin.getX(), origin.getY(), origin.getHeading()), speed, 0);
+	}
+
+	/**
+	 * Returns a projectile to the pool. The projectile must no longer be part
+	 * of a game.
+	 * @param p	The projectile to return
+	 */
+	public void release(Projectile p) {
+		if(freeCount < free.length) {
+			free[freeCount++] = p;
+		}
+	}
+
+	/**
+	 * @return	The number of free projectiles held by the pool
+	 */
+	public int getFreeCount() {
+		return freeCount;
+	}
+
+	/**
+	 * @return	The number of projectiles created by the pool
+	 */
+	public int getCreatedCount() {
+		return created;
+	}
+}
@@ -0,0 +1,126 @@
+package robowars.shared.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for ProjectilePool, and its use by TankSimulation
+ */
+public class ProjectilePoolTest {
+	private static final float DELTA = 0.0001f;
+
+	private TankSimulation model;
+	private GameRobot robot1, robot2;
+
+	@Before
+	public void setUp() {
+		model = new TankSimulation();
+		robot1 = new GameRobot("robot1", new Posture(20, 20, 0), 1);
+		robot2 = new GameRobot("robot2", new Posture(100, 100, 180), 2);
+		model.addRobot(robot1);
+		model.addRobot(robot2);
+	}
+
+	@Test
+	public void testReuse() {
+		ProjectilePool pool = new ProjectilePool(1);
+		Projectile p = pool.acquire(new Posture(10, 20, 90), 2);
+		p.updatePosition(50);
+		p.netId = 5;
+		assertEquals(1, pool.getCreatedCount());
+
+		pool.release(p);
+		pool.release(new Projectile(new Posture(0, 0, 0), 1, 0));
+		assertEquals(1, pool.getFreeCount());
+
+		// The released projectile is reset and handed out again
+		assertSame(p, pool.acquire(new Posture(30, 40, 180), 3));
+		assertEquals(0, pool.getFreeCount());
+		assertEquals(30, p.getPosture().getX(), DELTA);
+		assertEquals(40, p.getPosture().getY(), DELTA);
+		assertEquals(180, p.getPosture().getHeading(), DELTA);
+		assertEquals(0, p.getDistanceTraveled(), DELTA);
+		assertEquals(0, p.netId);
+		assertEquals(31, p.getMaxX(), DELTA);
+
+		assertNotSame(p, pool.acquire(new Posture(0, 0, 0), 1));
+		assertEquals(2, pool.getCreatedCount());
+	}
+
+	@Test
+	public void testTankSimulation() {
+		int entities = model.getEntities().size();
+
+		// Projectiles fired on different ticks expire on different ticks
+		model.generateProjectile(robot1);
+		model.updateGameState(50);
+		model.generateProjectile(robot1);
+		model.generateProjectile(robot1);
+		assertEquals(3, model.getProjectiles().size());
+		assertEquals(entities + 3, model.getEntities().size());
+		Projectile first = model.getProjectiles().get(0);
+		assertEquals(20 + TankSimulation.MUZZLE_DISTANCE + 1, first.getPosture().getX(), DELTA);
+
+		int ticks = 0;
+		while(model.getProjectiles().contains(first)) {
+			model.updateGameState(50);
+			ticks++;
+		}
+		assertEquals(40, ticks);
+		assertEquals(2, model.getProjectiles().size());
+		assertEquals(1, model.getProjectilePool().getFreeCount());
+		assertFalse(model.getEntities().contains(first));
+
+		model.updateGameState(50);
+		assertEquals(0, model.getProjectiles().size());
+		assertEquals(entities, model.getEntities().size());
+		assertEquals(entities, model.getStore().size());
+		assertEquals(3, model.getProjectilePool().getFreeCount());
+
+		// Later shots reuse the expired projectiles
+		model.generateProjectile(robot2);
+		assertEquals(3, model.getProjectilePool().getCreatedCount());
+		assertEquals(100 - TankSimulation.MUZZLE_DISTANCE,
+				model.getProjectiles().get(0).getPosture().getX(), DELTA);
+	}
+
+	@Test
+	public void testRemoveEntity() {
+		int entities = model.getEntities().size();
+		model.generateProjectile(robot1);
+		model.generateProjectile(robot1);
+		model.generateProjectile(robot1);
+		Projectile first = model.getProjectiles().get(0);
+		Projectile last = model.getProjectiles().get(2);
+
+		// The last entity takes the place of a removed entity
+		model.removeEntity(first);
+		assertEquals(entities + 2, model.getEntities().size());
+		assertSame(last, model.getEntities().get(entities));
+		assertFalse(model.getEntities().contains(first));
+
+		// Entities whose index is not known are still removed
+		last.listIndex = -1;
+		model.removeEntity(last);
+		assertEquals(entities + 1, model.getEntities().size());
+		assertFalse(model.getEntities().contains(last));
+		model.removeEntity(last);
+		assertEquals(entities + 1, model.getEntities().size());
+	}
+
+	@Test
+	public void testHit() {
+		robot2.setPosture(new Posture(45, 20, 180));
+		model.generateProjectile(robot1);
+		model.generateProjectile(robot2);
+		for(int i = 0; i < 10 && model.getProjectiles().size() > 0; i++) {
+			model.updateGameState(50);
+		}
+		assertEquals(0, model.getProjectiles().size());
+		assertTrue(robot1.getHealth() < GameRobot.DEFAULT_START_HEALTH
+				|| robot2.getHealth() < GameRobot.DEFAULT_START_HEALTH);
+		assertEquals(2, model.getProjectilePool().getFreeCount());
+	}
+}
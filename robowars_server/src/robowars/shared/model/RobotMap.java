@@ -17,6 +17,11 @@ public class RobotMap {
 	private Vector rPoints;
 	private Vector yPoints;
 	private Vector points;
+	/** Nearest point lookup for each vector in points (built on first use) */
+	private MapPointIndex[] index;
+	/** Hash of the points (see getVersion()) */
+	private int version;
+	private boolean versionValid;
 	public RobotMap(){
 		gPoints=new Vector();
 		bPoints=new Vector();
@@ -45,19 +50,22 @@ public class RobotMap {
 		points.addElement(rPoints);
 		try {
 			stream = new  LejosInputStream(new FileInputStream(config));
-			temp=(RobotMap)stream.readObject();
+			Object o=stream.readObject();
+			if(o instanceof RobotMap)temp=(RobotMap)o;
 		} catch (FileNotFoundException e) {
 			System.out.println("File Not Found");
 		} catch (IOException e) {
 			System.out.println("IOEXCEPTION");
 		}
-		for(int i=0; i<temp.getPoints().size(); i++){
-			for(int x=0; x<((Vector) temp.getPoints().elementAt(i)).size(); x++){
-				addPoint((MapPoint)((Vector) temp.getPoints().elementAt(i)).elementAt(x));
+		if(temp!=null){
+			for(int i=0; i<temp.getPoints().size(); i++){
+				for(int x=0; x<((Vector) temp.getPoints().elementAt(i)).size(); x++){
+					addPoint((MapPoint)((Vector) temp.getPoints().elementAt(i)).elementAt(x));
+				}
 			}
 		}
 		try {
-			stream.close();
+			if(stream!=null)stream.close();
 		} catch (IOException e) {
 		}
 		
@@ -65,31 +73,37 @@ public class RobotMap {
 	public Vector getPoints(){
 		return points;
 	}
-	public MapPoint getPoint(float x, float y, float h, int color){
-		Vector l=null;
-		if(color==lejos.robotics.Colors.RED)l=rPoints;
-		else if(color==lejos.robotics.Colors.BLUE)l=bPoints;
-		else if(color==lejos.robotics.Colors.YELLOW)l=yPoints;
-		else if(color==lejos.robotics.Colors.GREEN)l=gPoints;
-		return findClosest(x, y, l);
-	}
-	private MapPoint findClosest(float x, float y, Vector list) {
-		float difference=(float) 10000.0;
-		int index=-1;
-		for(int i=0; i<list.size(); i++){
-			float dx=x-((MapPoint) list.elementAt(i)).getX();
-			float dy=y-((MapPoint) list.elementAt(i)).getY();
-			float newDiff=(float) Math.sqrt(((dx*dx) + (dy*dy)));
-			if(newDiff<difference){
-				index=i;
-				difference=newDiff;
-				if(difference<2)return (MapPoint) list.elementAt(i);
-			}
+	/** @return the number of points in the map */
+	public int size(){
+		int count=0;
+		for(int i=0; i<points.size(); i++){
+			count+=((Vector)points.elementAt(i)).size();
 		}
-		return (MapPoint) list.elementAt(index);
+		return count;
+	}
+	/**
+	 * Finds the point of a color closest to a position. A grid index over
+	 * each color is built on the first lookup after points are added, so
+	 * lookups only check the points near the position.
+	 * @return the closest point, or null if the map has no points of that color
+	 */
+	public MapPoint getPoint(float x, float y, float h, int color){
+		//same order as points
+		int i=-1;
+		if(color==lejos.robotics.Colors.GREEN)i=0;
+		else if(color==lejos.robotics.Colors.BLUE)i=1;
+		else if(color==lejos.robotics.Colors.YELLOW)i=2;
+		else if(color==lejos.robotics.Colors.RED)i=3;
+		if(i<0||i>=points.size())return null;
+		
+		if(index==null)index=new MapPointIndex[points.size()];
+		if(index[i]==null)index[i]=new MapPointIndex((Vector)points.elementAt(i));
+		return index[i].findClosest(x, y);
 	}
 	public void addPoint(MapPoint p){
 		if(p!=null){
+			index=null;
+			versionValid=false;
 			//LCD.drawInt(p.getColor(), 0, 1);
 			if(p.getColor()==lejos.robotics.Colors.RED)rPoints.addElement(p);
 			else if(p.getColor()==lejos.robotics.Colors.BLUE)bPoints.addElement(p);
@@ -97,15 +111,40 @@ public class RobotMap {
 			else if(p.getColor()==lejos.robotics.Colors.GREEN)gPoints.addElement(p);
 		}
 	}
+	/**
+	 * Returns a hash of every point of the map (in order), used to check
+	 * whether two copies of a map are the same without comparing their points.
+	 * @return the version of the map
+	 */
+	public int getVersion(){
+		if(!versionValid){
+			//FNV-1a over the coordinates and color of each point
+			int hash=0x811C9DC5;
+			for(int i=0; i<points.size(); i++){
+				Vector v=(Vector)points.elementAt(i);
+				for(int x=0; x<v.size(); x++){
+					MapPoint p=(MapPoint)v.elementAt(x);
+					hash=(hash^Float.floatToIntBits(p.getX()))*0x01000193;
+					hash=(hash^Float.floatToIntBits(p.getY()))*0x01000193;
+					hash=(hash^p.getColor())*0x01000193;
+				}
+				//separates the colors
+				hash=(hash^-1)*0x01000193;
+			}
+			version=hash;
+			versionValid=true;
+		}
+		return version;
+	}
 	public String toString(){
-		String s="[";
+		StringBuffer s=new StringBuffer("[");
 		for(int i=0; i<points.size(); i++){
 			for(int x=0; x<((Vector)points.elementAt(i)).size(); x++){
-				s+=((MapPoint)(((Vector)points.elementAt(i)).elementAt(x))).toOutputString();
+				s.append(((MapPoint)(((Vector)points.elementAt(i)).elementAt(x))).toOutputString());
 			}
 		}
-		s+="]";
-		return s;
+		s.append("]");
+		return s.toString();
 	}
 	public Pose getStartPoint(int index){
 		if(index==0){
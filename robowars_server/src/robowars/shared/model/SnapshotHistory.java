@@ -0,0 +1,55 @@
+package robowars.shared.model;
+
+/**
+ * Stores the most recent game snapshots, so that later snapshots can be
+ * encoded or decoded relative to any of them.
+ */
+public class SnapshotHistory {
+	/** The default number of snapshots retained */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	/** The stored snapshots (indexed by sequence number modulo capacity) */
+	private final GameSnapshot snapshots[];
+
+	/**
+	 * Generates a new, empty SnapshotHistory
+	 * @param capacity	The number of snapshots to retain
+	 */
+	public SnapshotHistory(int capacity) {
+		snapshots = new GameSnapshot[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Stores a snapshot, replacing the snapshot stored capacity sequence
+	 * numbers earlier.
+	 * @param snapshot	The snapshot to store
+	 */
+	public synchronized void add(GameSnapshot snapshot) {
+		snapshots[slot(snapshot.getSequence())] = snapshot;
+	}
+
+	/**
+	 * @param sequence	The sequence number of the snapshot to retrieve
+	 * @return	The snapshot with the passed sequence number, or null if it is
+	 * 			not stored
+	 */
+	public synchronized GameSnapshot get(int sequence) {
+		if(sequence == GameSnapshot.NO_BASELINE) return null;
+		GameSnapshot snapshot = snapshots[slot(sequence)];
+		if(snapshot == null || snapshot.getSequence() != sequence) return null;
+		return snapshot;
+	}
+
+	/**
+	 * Removes all stored snapshots.
+	 */
+	public synchronized void clear() {
+		for(int i = 0; i < snapshots.length; i++) {
+			snapshots[i] = null;
+		}
+	}
+
+	private int slot(int sequence) {
+		return (sequence & 0x7FFFFFFF) % snapshots.length;
+	}
+}
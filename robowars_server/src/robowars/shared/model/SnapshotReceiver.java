@@ -0,0 +1,71 @@
+package robowars.shared.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Rebuilds the entities of a game from the encoded snapshots sent by the
+ * server. Received snapshots are retained, as the server may encode later
+ * snapshots against any snapshot that has been acknowledged.
+ */
+public class SnapshotReceiver {
+	/** Previously received snapshots */
+	private SnapshotHistory history;
+
+	/** The entities of the most recently received snapshot, by snapshot identifier */
+	private HashMap<Integer, GameEntity> entities;
+
+	/** The most recently received snapshot (null if none has been received) */
+	private GameSnapshot latest;
+
+	/**
+	 * Generates a new SnapshotReceiver
+	 */
+	public SnapshotReceiver() {
+		history = new SnapshotHistory(SnapshotHistory.DEFAULT_CAPACITY);
+		entities = new HashMap<Integer, GameEntity>();
+		latest = null;
+	}
+
+	/**
+	 * Decodes a snapshot and updates the entities to match it.
+	 * @param data	The encoded snapshot
+	 * @return	The decoded snapshot (its sequence number should be acknowledged
+	 * 			to the server)
+	 * @throws IOException	If the snapshot could not be decoded
+	 */
+	public synchronized GameSnapshot receive(byte data[]) throws IOException {
+		GameSnapshot baseline = history.get(GameSnapshot.readBaselineSequence(data));
+		GameSnapshot snapshot = GameSnapshot.decode(data, baseline);
+		history.add(snapshot);
+		if(latest == null || snapshot.getSequence() > latest.getSequence()) {
+			latest = snapshot;
+			snapshot.applyTo(entities);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return	The most recently received snapshot (or null)
+	 */
+	public synchronized GameSnapshot getLatest() {
+		return latest;
+	}
+
+	/**
+	 * @return	A copy of the list of entities in the most recent snapshot
+	 */
+	public synchronized ArrayList<GameEntity> getEntities() {
+		return new ArrayList<GameEntity>(entities.values());
+	}
+
+	/**
+	 * Discards all received snapshots and entities (e.g. when a game ends).
+	 */
+	public synchronized void reset() {
+		history.clear();
+		entities.clear();
+		latest = null;
+	}
+}
@@ -9,6 +9,15 @@ public class TankSimulation extends GameModel {
 	private int initialObstacles;
 	private ArrayList<Projectile> projectiles;
 	
+	/** Scratch list used to hold collision candidates from the entity grid */
+	private transient ArrayList<GameEntity> candidates;
+	
+	/** Expired projectiles kept for reuse (created on first use) */
+	private transient ProjectilePool projectilePool;
+	
+	/** Distance in front of the robot that projectiles are fired from */
+	public static final float MUZZLE_DISTANCE = 15;
+	
 	public static final int projectileSpeed = 1;
 
 	/**
@@ -32,45 +41,63 @@ public class TankSimulation extends GameModel {
 	}
 
 	public void updateGameState(long timeElapsed) {
-		ArrayList<Projectile> removedProjectiles = new ArrayList<Projectile>();
-		for(Projectile p : projectiles){
+		if(candidates == null){
+			candidates = new ArrayList<GameEntity>();
+		}
+		
+		int i = 0;
+		while(i < projectiles.size()){
+			Projectile p = projectiles.get(i);
 			p.updatePosition((int) timeElapsed);
 			
-			for(GameEntity e : entities){
+			boolean expired = p.getDistanceTraveled() > projectileRange;
+			
+			// The whole path of the projectile is checked, so fast projectiles
+			// cannot pass through thin walls or robots. Only the first entity
+			// along the path is hit.
+			findSweepCandidates(p, p.getMoveX(), p.getMoveY(), candidates);
+			GameEntity hit = null;
+			float hitTime = 2;
+			for(GameEntity e : candidates){
 				if(!(e instanceof Projectile)){
-					if(p.checkCollision(e)){
-						if(e instanceof GameRobot){
-							GameRobot r = (GameRobot) e;
-							r.decreaseHealth(1);
-						}
-						notifyListeners(GameEvent.PROJECTILE_HIT);
-						removedProjectiles.add(p);
+					float t = p.sweepCollision(e, p.getMoveX(), p.getMoveY());
+					if(t >= 0 && t < hitTime){
+						hit = e;
+						hitTime = t;
+					}
 				}
+			}
+			if(hit != null){
+				if(hit instanceof GameRobot){
+					GameRobot r = (GameRobot) hit;
+					r.decreaseHealth(1);
 				}
-			}	
-			
-			if(p.getDistanceTraveled() > projectileRange){
-				removedProjectiles.add(p);
+				notifyListeners(GameEvent.PROJECTILE_HIT);
+				expired = true;
 			}
-		}
-		projectiles.removeAll(removedProjectiles);
-		entities.removeAll(removedProjectiles);
-		
-		for(GameRobot r1 : robots){
-			for(GameRobot r2 : robots){
-				if(!r1.equals(r2))
-					if(r1.checkCollision(r2)){
-						r1.setCommand(RobotCommand.stop());
-						r2.setCommand(RobotCommand.stop());
-					}
+			
+			if(expired){
+				// Swap the last projectile into this slot, and check it next
+				Projectile last = projectiles.remove(projectiles.size() - 1);
+				if(last != p){
+					projectiles.set(i, last);
+				}
+				removeEntity(p);
+				getProjectilePool().release(p);
+			} else {
+				i++;
 			}
 		}
 		
 		for(GameRobot r : robots){
-			for(GameEntity e : entities){
-				if(!r.equals(e) && !projectiles.contains(e))
+			findCollisionCandidates(r, candidates);
+			for(GameEntity e : candidates){
+				if(!(e instanceof Projectile))
 					if(r.checkCollision(e)){
 						r.setCommand(RobotCommand.stop());
+						if(e instanceof GameRobot){
+							((GameRobot) e).setCommand(RobotCommand.stop());
+						}
 					}
 			}
 		}
@@ -101,10 +128,9 @@ public class TankSimulation extends GameModel {
 	}
 	
 	public void generateProjectile(GameRobot robot) {
-		Posture projectilePosture = robot.clonePosture();
-		projectilePosture.moveUpdate(15);
-		Projectile newProjectile = new Projectile(projectilePosture,projectileSpeed, 0);
-		entities.add(newProjectile);
+		Projectile newProjectile = getProjectilePool().acquire(robot.getPosture(), projectileSpeed);
+		newProjectile.advance(MUZZLE_DISTANCE);
+		addEntity(newProjectile);
 		projectiles.add(newProjectile);
 		notifyListeners(GameEvent.PROJECTILE_FIRED);
 	}
@@ -112,6 +138,24 @@ public class TankSimulation extends GameModel {
 	public ControlType getControlType() {
 		return ControlType.TANK;
 	}
+	
+	/**
+	 * @return	The projectiles currently in flight
+	 */
+	public ArrayList<Projectile> getProjectiles() {
+		return projectiles;
+	}
+	
+	/**
+	 * @return	The pool that expired projectiles are returned to. The pool is
+	 * 			not serialized, and is created empty if it does not exist.
+	 */
+	public ProjectilePool getProjectilePool() {
+		if(projectilePool == null){
+			projectilePool = new ProjectilePool();
+		}
+		return projectilePool;
+	}
 
 }
 
@@ -1,12 +1,13 @@
 package robowars.test;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
@@ -18,6 +19,7 @@ import robowars.server.controller.LobbyChatEvent;
 import robowars.server.controller.LobbyGameEvent;
 import robowars.server.controller.LobbyRobotEvent;
 import robowars.server.controller.LobbyUserEvent;
+import robowars.server.controller.MessageFrame;
 import robowars.shared.model.GameEvent;
 
 /**
@@ -35,10 +37,10 @@ public class ClientSimulator {
 	private BufferedReader consoleIn;
 	
 	/** The stream to write out to the socket */
-	private ObjectOutputStream socketOut;
+	private DataOutputStream socketOut;
 	
 	/** The stream to read in from the socket */
-	private ObjectInputStream socketIn;
+	private DataInputStream socketIn;
 
 	/**
 	 * ClientSimulator Constructor
@@ -64,8 +66,8 @@ public class ClientSimulator {
 		
 		try {
 			// Setup the socket input/output and console input
-			socketOut = new ObjectOutputStream(streamSocket.getOutputStream());
-			socketIn = new ObjectInputStream(streamSocket.getInputStream());
+			socketOut = new DataOutputStream(streamSocket.getOutputStream());
+			socketIn = new DataInputStream(new BufferedInputStream(streamSocket.getInputStream()));
 			consoleIn = new BufferedReader(new InputStreamReader(System.in));
 			
 			// Setup the log file
@@ -86,7 +88,7 @@ public class ClientSimulator {
 					Object incomingMessage;
 					try {
 						while (true) {
-							incomingMessage = socketIn.readObject();
+							incomingMessage = MessageFrame.read(socketIn);
 							if(incomingMessage == null) break;
 							if(incomingMessage instanceof GameEvent) break;
 							
@@ -115,7 +117,7 @@ public class ClientSimulator {
 			}).start();
 			
 			// Automatically send protocol string and username
-			logAndSendUTF("RoboWars V0.2");
+			logAndSendUTF("RoboWars V0.3");
 			logAndSendUTF(username);
 			
 		} catch (IOException e2) {
@@ -155,7 +157,7 @@ public class ClientSimulator {
 	}
 
 	/**
-	 * Sends the passed message to the network as a plain UTF string, and logs 
+	 * Sends the passed message to the network as a plain string, and logs 
 	 * the message to screen and to log file. This should only be used to send the
 	 * protocol string and username (all subsequent communications should use
 	 * serialized ClientCommands).
@@ -171,8 +173,7 @@ public class ClientSimulator {
 		System.out.println(sb.toString());
 		
 		try {
-			socketOut.writeUTF(message);
-			socketOut.reset();
+			MessageFrame.write(socketOut, message);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -201,8 +202,7 @@ public class ClientSimulator {
 		}
 		
 		try {
-			socketOut.writeObject(cmd);
-			socketOut.reset();
+			MessageFrame.write(socketOut, cmd);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,135 @@
+package robowars.test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import robowars.shared.model.GameEntity;
+import robowars.shared.model.GameModel;
+import robowars.shared.model.GameRobot;
+import robowars.shared.model.Obstacle;
+import robowars.shared.model.Posture;
+import robowars.shared.model.TankSimulation;
+import robowars.shared.model.Vector;
+
+/**
+ * Measures the cost of a TankSimulation tick as the number of entities in
+ * the arena grows, comparing the entity grid broad phase used by the game
+ * models against checking every pair of entities.
+ *
+ * Usage: CollisionBenchmark [entity counts...]
+ */
+public class CollisionBenchmark {
+
+	/** The number of ticks timed for each entity count */
+	private static final int TICKS = 500;
+
+	/** The number of untimed ticks run before measuring */
+	private static final int WARMUP_TICKS = 200;
+
+	/** The simulated time between ticks (in ms) */
+	private static final long STEP_MILLIS = 17;
+
+	public static void main(String[] args) {
+		int[] counts = new int[] {10, 100, 500, 1000, 2000, 5000};
+		if(args.length > 0) {
+			counts = new int[args.length];
+			for(int i = 0; i < args.length; i++) {
+				counts[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		// The model prints on every movement and collision, which would
+		// dominate the measurements
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {}
+		}));
+
+		console.println("entities\tgrid (us/tick)\tall pairs (us/tick)");
+		for(int count : counts) {
+			long grid = timeGrid(createModel(count));
+			long allPairs = timeAllPairs(createModel(count));
+			console.println(count + "\t\t" + (grid / 1000) + "\t\t" + (allPairs / 1000));
+		}
+
+		System.setOut(console);
+	}
+
+	/**
+	 * Generates a tank simulation with two robots and the specified number
+	 * of small obstacles scattered randomly over the arena.
+	 */
+	private static GameModel createModel(int obstacles) {
+		Random random = new Random(obstacles);
+		float size = GameModel.DEFAULT_ARENA_SIZE;
+
+		GameModel model = new TankSimulation();
+		model.addRobot(new GameRobot("robot1", new Posture(0.2f * size, 0.2f * size, 0), 1));
+		model.addRobot(new GameRobot("robot2", new Posture(0.8f * size, 0.8f * size, 180), 2));
+		for(int i = 0; i < obstacles; i++) {
+			Vector shape[] = new Vector[] {new Vector(-1,-1), new Vector(-1,1),
+					new Vector(1,1), new Vector(1,-1)};
+			model.addEntity(new Obstacle(new Posture(random.nextFloat() * size,
+					random.nextFloat() * size, random.nextInt(360)), shape, 200 + i));
+		}
+		model.startGame();
+		return model;
+	}
+
+	/** @return	The average time (in ns) of a TankSimulation tick */
+	private static long timeGrid(GameModel model) {
+		for(int i = 0; i < WARMUP_TICKS; i++) {
+			tick(model, i);
+			model.updateGameState(STEP_MILLIS);
+		}
+
+		long start = System.nanoTime();
+		for(int i = 0; i < TICKS; i++) {
+			tick(model, i);
+			model.updateGameState(STEP_MILLIS);
+		}
+		return (System.nanoTime() - start) / TICKS;
+	}
+
+	/**
+	 * @return	The average time (in ns) to check each robot against every
+	 * 			other entity, as the game models did before the entity grid
+	 */
+	private static long timeAllPairs(GameModel model) {
+		for(int i = 0; i < WARMUP_TICKS; i++) {
+			tick(model, i);
+			checkAllPairs(model);
+		}
+
+		long start = System.nanoTime();
+		for(int i = 0; i < TICKS; i++) {
+			tick(model, i);
+			checkAllPairs(model);
+		}
+		return (System.nanoTime() - start) / TICKS;
+	}
+
+	/** Moves both robots slightly, so that the grid must be kept up to date */
+	private static void tick(GameModel model, int i) {
+		for(GameRobot r : model.getGameRobotList()) {
+			Posture p = r.clonePosture();
+			p.moveUpdate((i % 40) < 20 ? 1 : -1);
+			model.updateRobotPosition(r.getRobotId(), p);
+		}
+	}
+
+	private static int checkAllPairs(GameModel model) {
+		int collisions = 0;
+		ArrayList<GameEntity> entities = model.getEntities();
+		for(GameRobot r : model.getGameRobotList()) {
+			for(GameEntity e : entities) {
+				if(r != e && r.checkCollision(e)) {
+					collisions++;
+				}
+			}
+		}
+		return collisions;
+	}
+}
@@ -0,0 +1,144 @@
+package robowars.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import robowars.shared.model.GameEntity;
+import robowars.shared.model.GameRobot;
+import robowars.shared.model.Posture;
+import robowars.shared.model.Vector;
+
+/**
+ * Compares the cost of GameEntity.checkCollision() against the previous
+ * Vector based implementation (reproduced below), reporting the time and
+ * heap allocation per collision test.
+ *
+ * Usage: CollisionCheckBenchmark [iterations]
+ */
+public class CollisionCheckBenchmark {
+
+	/** The number of robot postures cycled through during the benchmark */
+	private static final int POSTURES = 64;
+
+	private static volatile int sink;
+
+	public static void main(String[] args) {
+		int iterations = 2000000;
+		if(args.length > 0) {
+			iterations = Integer.parseInt(args[0]);
+		}
+
+		GameRobot a = new GameRobot("robot1", new Posture(50, 50, 0), 1);
+		GameRobot b = new GameRobot("robot2", new Posture(60, 55, 30), 2);
+
+		// Half of the pairs overlap, so that both the early exit and the
+		// full test are measured
+		Posture postures[] = new Posture[POSTURES];
+		for(int i = 0; i < POSTURES; i++) {
+			postures[i] = new Posture(50 + (i % 8) * 3, 50 + (i / 8) * 3, i * 11);
+		}
+
+		for(int round = 0; round < 3; round++) {
+			System.out.println("Round " + (round + 1));
+			report("checkCollision", runCurrent(a, b, postures, iterations), iterations);
+			report("previous", runPrevious(a, b, postures, iterations), iterations);
+		}
+	}
+
+	private static void report(String name, long[] result, int iterations) {
+		System.out.println("  " + name + ": " + (result[0] / iterations) + " ns/test, "
+				+ (result[1] < 0 ? "n/a" : String.valueOf(result[1] / iterations)) + " bytes/test");
+	}
+
+	/** @return	The elapsed time and allocated bytes of the run */
+	private static long[] runCurrent(GameEntity a, GameEntity b, Posture postures[], int iterations) {
+		int hits = 0;
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for(int i = 0; i < iterations; i++) {
+			if((i & 1023) == 0) {
+				b.setPosture(postures[(i >> 10) % POSTURES]);
+			}
+			if(a.checkCollision(b)) hits++;
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes();
+		sink = hits;
+		return new long[] {elapsed, bytes < 0 ? -1 : allocated - bytes};
+	}
+
+	/** @return	The elapsed time and allocated bytes of the run */
+	private static long[] runPrevious(GameEntity a, GameEntity b, Posture postures[], int iterations) {
+		int hits = 0;
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for(int i = 0; i < iterations; i++) {
+			if((i & 1023) == 0) {
+				b.setPosture(postures[(i >> 10) % POSTURES]);
+			}
+			if(previousCheckCollision(a, b)) hits++;
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes();
+		sink = hits;
+		return new long[] {elapsed, bytes < 0 ? -1 : allocated - bytes};
+	}
+
+	/** @return	The bytes allocated by this thread, or -1 if unsupported */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+					Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * The separating axis test as previously implemented by GameEntity,
+	 * allocating new vectors for every axis tested.
+	 */
+	private static boolean previousCheckCollision(GameEntity a, GameEntity b) {
+		Vector edgesA[] = a.getEdges();
+		Vector edgesB[] = b.getEdges();
+		Vector currentEdge;
+		for (int i = 0; i < edgesA.length + edgesB.length; i++){
+			if (i < edgesA.length) {
+				currentEdge = edgesA[i];
+			} else {
+				currentEdge = edgesB[i - edgesA.length];
+			}
+			Vector perpAxis = new Vector(-currentEdge.getY(), currentEdge.getX());
+			perpAxis.unitVector();
+
+			Vector intervalA = new Vector(0,0);
+			Vector intervalB = new Vector(0,0);
+			previousProjectToAxis(perpAxis, a.getVertices(), intervalA);
+			previousProjectToAxis(perpAxis, b.getVertices(), intervalB);
+			float distance;
+			if (intervalA.getX() < intervalB.getX()) {
+				distance = intervalB.getX() - intervalA.getY();
+			} else {
+				distance = intervalA.getX() - intervalB.getY();
+			}
+			if (distance > 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void previousProjectToAxis(Vector perpAxis, Vector vertices[], Vector interval) {
+		float dotProduct = perpAxis.dotProduct(vertices[0]);
+		interval.setX(dotProduct);
+		interval.setY(dotProduct);
+		for (int i = 0; i < vertices.length; i++) {
+			dotProduct = vertices[i].dotProduct(perpAxis);
+			if (dotProduct < interval.getX()) {
+				interval.setX(dotProduct);
+			} else if (dotProduct > interval.getY()) {
+				interval.setY(dotProduct);
+			}
+		}
+	}
+}
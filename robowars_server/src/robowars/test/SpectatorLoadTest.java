@@ -0,0 +1,264 @@
+package robowars.test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+import robowars.server.controller.ConnectionThreads;
+import robowars.server.controller.MessageFrame;
+import robowars.server.controller.NioTcpServer;
+import robowars.server.controller.ServerLobby;
+import robowars.server.controller.SystemControl;
+import robowars.server.controller.TcpServer;
+
+/**
+ * Connects a large number of simulated spectators to a server, and measures
+ * how long it takes for every spectator to join the lobby and to receive a
+ * series of lobby broadcasts. The spectators only count the frames they
+ * receive, and are all serviced by a single selector thread so that the
+ * client side does not limit the number of connections.
+ *
+ * Usage: SpectatorLoadTest [numSpectators] [blocking|nio] [platform|virtual]
+ *
+ * @author Alexander Craig
+ */
+public class SpectatorLoadTest {
+	/** The number of chat messages broadcast once all spectators have joined */
+	public static final int NUM_BROADCASTS = 10;
+
+	/** The selector servicing all spectator connections */
+	private Selector selector;
+
+	/** The connected spectators */
+	private ArrayList<SocketChannel> spectators;
+
+	/** The total number of frames received by all spectators */
+	private AtomicLong framesReceived;
+
+	/** False once the spectators have been closed */
+	private volatile boolean running;
+
+	public SpectatorLoadTest() throws IOException {
+		selector = Selector.open();
+		spectators = new ArrayList<SocketChannel>();
+		framesReceived = new AtomicLong(0);
+		running = true;
+
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				readFrames();
+			}
+		}, "SpectatorReader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Connects new spectators, performing the connection handshake for each.
+	 * @param port	The port of the server on the local host
+	 * @param count	The number of spectators to connect
+	 * @param namePrefix	The prefix of the spectator usernames
+	 */
+	public void connect(int port, int count, String namePrefix) throws IOException {
+		for(int i = 0; i < count; i++) {
+			SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+			channel.write(ByteBuffer.wrap(MessageFrame.encode(SystemControl.USER_PROTOCOL_VERSION)));
+			channel.write(ByteBuffer.wrap(MessageFrame.encode(namePrefix + i)));
+			channel.configureBlocking(false);
+
+			// Registration blocks while the reader thread is selecting, so the
+			// reader is woken and held back until the channel is registered
+			synchronized(this) {
+				selector.wakeup();
+				channel.register(selector, SelectionKey.OP_READ, new FrameCounter());
+			}
+			spectators.add(channel);
+		}
+	}
+
+	/**
+	 * Counts the frames received by all spectators until closed.
+	 */
+	private void readFrames() {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		while(running) {
+			try {
+				selector.select();
+				synchronized(this) {
+					// Wait for any registration in progress in connect()
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid()) continue;
+
+					buffer.clear();
+					int read;
+					try {
+						read = ((SocketChannel)key.channel()).read(buffer);
+					} catch (IOException e) {
+						read = -1;
+					}
+					if(read < 0) {
+						key.cancel();
+						continue;
+					}
+					buffer.flip();
+					framesReceived.addAndGet(((FrameCounter)key.attachment()).count(buffer));
+				}
+			} catch (IOException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Waits until the spectators have received the passed number of frames.
+	 * @param expected	The total number of frames to wait for
+	 * @param timeout	The maximum time to wait (in ms)
+	 * @return	True if the frames were received in time
+	 */
+	public boolean waitForFrames(long expected, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(framesReceived.get() < expected) {
+			if(System.currentTimeMillis() > deadline) return false;
+			Thread.sleep(5);
+		}
+		return true;
+	}
+
+	/**
+	 * @return	The total number of frames received by all spectators
+	 */
+	public long getFramesReceived() {
+		return framesReceived.get();
+	}
+
+	/**
+	 * Returns the number of frames a lobby sends to a set of joining
+	 * spectators: two handshake replies each, one join announcement to every
+	 * spectator already in the lobby (including the new one) per join, and
+	 * any broadcast chat messages.
+	 * @param count	The number of spectators
+	 * @param broadcasts	The number of chat messages broadcast after joining
+	 * @return	The total number of frames received by the spectators
+	 */
+	public static long expectedFrames(int count, int broadcasts) {
+		long n = count;
+		return 3 * n + n * (n - 1) / 2 + n * broadcasts;
+	}
+
+	/**
+	 * Closes all spectator connections.
+	 */
+	public void close() {
+		running = false;
+		for(SocketChannel channel : spectators) {
+			try {
+				channel.close();
+			} catch (IOException e) { }
+		}
+		try {
+			selector.close();
+		} catch (IOException e) { }
+	}
+
+	/**
+	 * Splits the data received by a single spectator into frames.
+	 */
+	private static class FrameCounter {
+		/** The header of the frame currently being received */
+		private int header = 0;
+
+		/** The number of header bytes received */
+		private int headerBytes = 0;
+
+		/** The number of payload bytes still to be skipped */
+		private int remaining = 0;
+
+		/** @return	The number of frames completed by the passed data */
+		int count(ByteBuffer data) {
+			int frames = 0;
+			while(data.hasRemaining()) {
+				if(remaining > 0) {
+					int skip = Math.min(remaining, data.remaining());
+					data.position(data.position() + skip);
+					remaining -= skip;
+					if(remaining == 0) frames++;
+				} else {
+					header = (header << 8) | (data.get() & 0xFF);
+					if(++headerBytes == MessageFrame.HEADER_LENGTH) {
+						remaining = header;
+						header = 0;
+						headerBytes = 0;
+						if(remaining == 0) frames++;
+					}
+				}
+			}
+			return frames;
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		boolean blocking = !(args.length > 1 && args[1].equals("nio"));
+		String threads = args.length > 2 ? args[2] : ConnectionThreads.MODE_VIRTUAL;
+		PropertyConfigurator.configure("config/log_config.properties");
+		ConnectionThreads.setMode(threads);
+		Logger.getLogger("robowars").setLevel(Level.WARN);
+
+		ServerLobby lobby = new ServerLobby("Load Test Server", 4, count);
+		int port;
+		if(blocking) {
+			TcpServer server = new TcpServer(0, lobby, new TestMediaStreamer(0));
+			new Thread(server, "TcpServer").start();
+			port = server.getPort();
+		} else {
+			NioTcpServer server = new NioTcpServer(0, lobby, new TestMediaStreamer(0));
+			new Thread(server, "NioTcpServer").start();
+			port = server.getPort();
+		}
+
+		System.out.println("Connecting " + count + " spectators ("
+				+ (blocking ? "blocking server, " + threads + " threads, virtual threads active: "
+						+ ConnectionThreads.isVirtual() : "nio server") + ")");
+		int threadsBefore = Thread.activeCount();
+		long start = System.nanoTime();
+
+		SpectatorLoadTest load = new SpectatorLoadTest();
+		load.connect(port, count, "spectator");
+		if(!load.waitForFrames(expectedFrames(count, 0), 600000)) {
+			System.out.println("Timed out after receiving " + load.getFramesReceived() + " frames.");
+			System.exit(1);
+		}
+		long joined = System.nanoTime();
+
+		for(int i = 0; i < NUM_BROADCASTS; i++) {
+			lobby.broadcastMessage("Load test broadcast " + i);
+		}
+		load.waitForFrames(expectedFrames(count, NUM_BROADCASTS), 600000);
+		long broadcast = System.nanoTime();
+
+		System.out.println(String.format("All joined after:      %8.1f ms", (joined - start) / 1e6));
+		System.out.println(String.format("Broadcasts delivered:  %8.1f ms (%d x %d spectators)",
+				(broadcast - joined) / 1e6, NUM_BROADCASTS, count));
+		System.out.println("Frames received:       " + load.getFramesReceived());
+		System.out.println("Live platform threads: " + Thread.activeCount()
+				+ " (" + threadsBefore + " before connecting)");
+
+		// Exit without closing the spectators, so that the server does not
+		// announce thousands of departures
+		System.exit(0);
+	}
+}
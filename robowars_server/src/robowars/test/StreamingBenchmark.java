@@ -0,0 +1,175 @@
+package robowars.test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+import robowars.server.controller.CameraController;
+import robowars.server.controller.CameraPipeline;
+import robowars.server.controller.FrameEncoder;
+import robowars.server.controller.MediaFrameAssembler;
+import robowars.server.controller.MediaSender;
+import robowars.server.controller.MediaStreamer;
+import robowars.server.controller.TestPatternSource;
+import robowars.server.controller.VideoQuality;
+
+import com.lti.civil.CaptureException;
+import com.lti.civil.CaptureObserver;
+import com.lti.civil.CaptureStream;
+import com.lti.civil.Image;
+
+/**
+ * Measures the throughput of the video streaming pipeline without a camera.
+ * A generated test pattern is captured, encoded and sent by a CameraPipeline
+ * to a number of receivers on the loopback interface, which reassemble the
+ * frames as a client would. The frame interval is disabled, so every frame
+ * generated is encoded (unless the encoder is still busy).
+ *
+ * Each receiver is bound to its own loopback address (127.0.0.1, 127.0.0.2,
+ * ...) on the same port, as all clients receive video on the same port. This
+ * requires the whole 127.0.0.0/8 range to be local, as it is on Linux.
+ *
+ * Usage: StreamingBenchmark [numReceivers] [seconds] [width] [height] [fps]
+ * (an fps of 0 generates frames as fast as they are accepted)
+ *
+ * @author Alexander Craig
+ */
+public class StreamingBenchmark {
+	/** The time the pipeline runs before measuring (in ms) */
+	private static final long WARMUP_MILLIS = 2000;
+
+	/**
+	 * Receives and reassembles frames on a single loopback address.
+	 */
+	private static class Receiver implements Runnable {
+		private final DatagramSocket socket;
+		private final MediaFrameAssembler assembler;
+		private volatile long packets;
+		private volatile long bytes;
+
+		Receiver(InetAddress address, int port) throws SocketException {
+			socket = new DatagramSocket(new InetSocketAddress(address, port));
+			socket.setReceiveBufferSize(1 << 20);
+			assembler = new MediaFrameAssembler();
+		}
+
+		public void run() {
+			byte buffer[] = new byte[MediaStreamer.INC_BUFFER_SIZE];
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			while(true) {
+				try {
+					socket.receive(packet);
+				} catch (IOException e) {
+					return;
+				}
+				packets++;
+				bytes += packet.getLength();
+				assembler.addPacket(buffer, packet.getLength());
+			}
+		}
+
+		int getPort() {
+			return socket.getLocalPort();
+		}
+
+		InetAddress getAddress() {
+			return socket.getLocalAddress();
+		}
+
+		void close() {
+			socket.close();
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		int numReceivers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int width = args.length > 2 ? Integer.parseInt(args[2]) : MediaStreamer.VIDEO_WIDTH;
+		int height = args.length > 3 ? Integer.parseInt(args[3]) : MediaStreamer.VIDEO_HEIGHT;
+		float fps = args.length > 4 ? Float.parseFloat(args[4]) : 30;
+		PropertyConfigurator.configure("config/log_config.properties");
+		Logger.getLogger("robowars").setLevel(Level.WARN);
+		MediaStreamer.IMAGE_WRITE_INTERVAL = 0;
+
+		// The first receiver picks the port that the others share
+		ArrayList<Receiver> receivers = new ArrayList<Receiver>();
+		ArrayList<InetAddress> addresses = new ArrayList<InetAddress>();
+		int port = 0;
+		for(int i = 0; i < numReceivers; i++) {
+			Receiver receiver = new Receiver(
+					InetAddress.getByAddress(new byte[] {127, 0, 0, (byte)(i + 1)}), port);
+			port = receiver.getPort();
+			receivers.add(receiver);
+			addresses.add(receiver.getAddress());
+			Thread thread = new Thread(receiver, "Receiver-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		TestPatternSource source = new TestPatternSource(width, height, fps);
+		final CameraPipeline pipeline = new CameraPipeline(new CameraController(source), 0, port);
+		pipeline.setDestinations(VideoQuality.HIGH, addresses);
+		CaptureStream stream = source.openStream();
+		pipeline.start(stream, new CaptureObserver() {
+			public void onNewImage(CaptureStream stream, Image image) {
+				pipeline.offer(image);
+			}
+			public void onError(CaptureStream stream, CaptureException err) { }
+		});
+
+		System.out.println("Streaming " + width + "x" + height + " test pattern at "
+				+ (fps > 0 ? fps + " fps" : "unlimited fps") + " to " + numReceivers
+				+ " receivers for " + seconds + " s");
+		Thread.sleep(WARMUP_MILLIS);
+
+		FrameEncoder encoder = pipeline.getFrameEncoder();
+		MediaSender sender = pipeline.getMediaSender(VideoQuality.HIGH);
+		long encodedBefore = encoder.getFramesEncoded();
+		long sentBefore = sender.getPacketsSent();
+		long packetsBefore = 0, bytesBefore = 0, framesBefore = 0, lostBefore = 0;
+		for(Receiver r : receivers) {
+			packetsBefore += r.packets;
+			bytesBefore += r.bytes;
+			framesBefore += r.assembler.getFramesCompleted();
+			lostBefore += r.assembler.getFramesLost();
+		}
+		long start = System.nanoTime();
+		Thread.sleep(seconds * 1000L);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		long packets = -packetsBefore, bytes = -bytesBefore, frames = -framesBefore, lost = -lostBefore;
+		for(Receiver r : receivers) {
+			packets += r.packets;
+			bytes += r.bytes;
+			frames += r.assembler.getFramesCompleted();
+			lost += r.assembler.getFramesLost();
+		}
+		long encoded = encoder.getFramesEncoded() - encodedBefore;
+		long sent = sender.getPacketsSent() - sentBefore;
+		pipeline.close();
+		for(Receiver r : receivers) {
+			r.close();
+		}
+
+		System.out.println(String.format("Frames encoded:     %10.1f frames/s (%.2f ms average encode)",
+				encoded / elapsed, encoder.getAverageEncodeTime()));
+		System.out.println(String.format("Packets sent:       %10.1f packets/s", sent / elapsed));
+		System.out.println(String.format("Packets received:   %10.1f packets/s", packets / elapsed));
+		System.out.println(String.format("Bytes received:     %10.1f KB/s (%.1f KB/s per receiver)",
+				bytes / elapsed / 1024, bytes / elapsed / 1024 / numReceivers));
+		System.out.println(String.format("Frames received:    %10.1f frames/s (%.1f frames/s per receiver)",
+				frames / elapsed, frames / elapsed / numReceivers));
+		System.out.println("Frames lost:        " + lost);
+		System.out.println(String.format("Average latency:    %10.2f ms (capture to encoded)",
+				encoder.getAverageLatency()));
+		System.exit(0);
+	}
+}